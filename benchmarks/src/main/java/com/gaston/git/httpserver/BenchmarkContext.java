@@ -0,0 +1,79 @@
+package com.gaston.git.httpserver;
+
+import java.util.List;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Contexto con rutas representativas para medir el router y el binding de
+ * parametros: paths estaticos, con parametros y con cuerpo
+ *
+ * @author gaston
+ */
+public class BenchmarkContext extends WebContext {
+
+    public BenchmarkContext(String name) {
+        super(name);
+    }
+
+    /**
+     * Construye un router con las rutas de un contexto
+     *
+     * @param context Contexto
+     * @return Router equivalente al del contexto
+     */
+    static Router router(ContextHandler context) {
+        Router.Builder builder = new Router.Builder();
+        for (HttpRoute route : context.getRoutes()) {
+            builder.add(route);
+        }
+        return builder.build();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public String list(@QueryParam("page") int page, @QueryParam("size") int size,
+            @QueryParam("sort") String sort) {
+        return sort;
+    }
+
+    @GET
+    @Path("/status")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String status() {
+        return "ok";
+    }
+
+    @GET
+    @Path("/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Order get(@PathParam("id") long id) {
+        return new Order(id, "order-" + id, 10.5);
+    }
+
+    @GET
+    @Path("/{id}/items/{item}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String item(@PathParam("id") long id, @PathParam("item") int item,
+            @QueryParam("fields") List<String> fields) {
+        return fields.toString();
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public Order create(Order order) {
+        return order;
+    }
+
+    @POST
+    @Path("/{id}/notes")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String note(@PathParam("id") long id, String text) {
+        return text;
+    }
+}
@@ -0,0 +1,132 @@
+package com.gaston.git.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ServerExchange en memoria para los benchmarks. El cuerpo de la respuesta se
+ * descarta contando los bytes, y el mismo objeto puede reutilizarse entre
+ * invocaciones con reset
+ *
+ * @author gaston
+ */
+public final class BenchmarkExchange implements ServerExchange {
+
+    private static final InetSocketAddress REMOTE = new InetSocketAddress(InetAddress.getLoopbackAddress(), 40000);
+
+    private final String method;
+    private final String rawPath;
+    private final String rawQuery;
+    private final byte[] body;
+    private final Map<String, String> requestHeaders = new HashMap<>();
+    private final CountingOutputStream responseBody = new CountingOutputStream();
+    private int status;
+
+    public BenchmarkExchange(String method, String rawPath, String rawQuery, byte[] body) {
+        this.method = method;
+        this.rawPath = rawPath;
+        this.rawQuery = rawQuery;
+        this.body = body;
+    }
+
+    public BenchmarkExchange header(String name, String value) {
+        requestHeaders.put(name.toLowerCase(), value);
+        return this;
+    }
+
+    /**
+     * Prepara el exchange para una nueva invocacion
+     *
+     * @return El mismo exchange
+     */
+    public BenchmarkExchange reset() {
+        status = 0;
+        responseBody.count = 0;
+        return this;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getResponseBytes() {
+        return responseBody.count;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRawPath() {
+        return rawPath;
+    }
+
+    @Override
+    public String getRawQuery() {
+        return rawQuery;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        return requestHeaders.get(name.toLowerCase());
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return REMOTE;
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+    }
+
+    @Override
+    public void addResponseHeader(String name, String value) {
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) {
+        this.status = status;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.gaston.git.httpserver;
+
+import com.gaston.git.httpserver.context.TestContext;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Atencion completa de una peticion en proceso, sin red: busqueda de la ruta,
+ * binding, invocacion, serializacion y metricas
+ *
+ * @author gaston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    private TestContext testContext;
+    private BenchmarkContext benchmarkContext;
+    private BenchmarkExchange getValue;
+    private BenchmarkExchange getOrder;
+    private BenchmarkExchange createOrder;
+
+    @Setup
+    public void setup() throws Exception {
+        testContext = new TestContext("/context");
+        benchmarkContext = new BenchmarkContext("/bench");
+        getValue = new BenchmarkExchange("GET", "/context", "key=a&value=b", null)
+                .header("Accept", "application/json");
+        getOrder = new BenchmarkExchange("GET", "/bench/42", null, null)
+                .header("Accept", "application/json");
+        createOrder = new BenchmarkExchange("POST", "/bench", null,
+                "{\"id\":42,\"name\":\"order-42\",\"amount\":10.5}".getBytes(StandardCharsets.UTF_8))
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json");
+        for (BenchmarkExchange exchange : new BenchmarkExchange[]{getValue, getOrder, createOrder}) {
+            ContextHandler handler = exchange == getValue ? testContext : benchmarkContext;
+            handler.handle(exchange.reset());
+            if (exchange.getStatus() != 200) {
+                throw new IllegalStateException(exchange.getRequestMethod() + " " + exchange.getRawPath()
+                        + " respondio " + exchange.getStatus());
+            }
+        }
+    }
+
+    @Benchmark
+    public int testContextGetValue() throws Exception {
+        testContext.handle(getValue.reset());
+        return getValue.getStatus();
+    }
+
+    @Benchmark
+    public int getWithPathParameter() throws Exception {
+        benchmarkContext.handle(getOrder.reset());
+        return getOrder.getStatus();
+    }
+
+    @Benchmark
+    public int postJsonBody() throws Exception {
+        benchmarkContext.handle(createOrder.reset());
+        return createOrder.getStatus();
+    }
+}
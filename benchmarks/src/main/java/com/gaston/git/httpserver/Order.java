@@ -0,0 +1,46 @@
+package com.gaston.git.httpserver;
+
+/**
+ * Dto usado en los benchmarks de binding y serializacion
+ *
+ * @author gaston
+ */
+public class Order {
+
+    private long id;
+    private String name;
+    private double amount;
+
+    public Order() {
+    }
+
+    public Order(long id, String name, double amount) {
+        this.id = id;
+        this.name = name;
+        this.amount = amount;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,81 @@
+package com.gaston.git.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lectura del query string con getParameters y conversion de los valores a
+ * los argumentos del metodo con checkHttpParameters, para parametros de query,
+ * de path y de cuerpo json
+ *
+ * @author gaston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParametersBenchmark {
+
+    private BenchmarkContext context;
+    private HttpRoute listRoute;
+    private HttpRoute itemRoute;
+    private HttpRoute createRoute;
+    private String[] itemPathValues;
+    private BenchmarkExchange listExchange;
+    private BenchmarkExchange itemExchange;
+    private BenchmarkExchange createExchange;
+
+    /**
+     * Resultado de la peticion donde se indicaria un parametro invalido, las
+     * peticiones del benchmark siempre son validas
+     */
+    private final ContextHandler.Outcome outcome = new ContextHandler.Outcome();
+
+    @Setup
+    public void setup() {
+        context = new BenchmarkContext("/bench");
+        Router router = BenchmarkContext.router(context);
+        listRoute = router.find("GET", "/bench");
+        createRoute = router.find("POST", "/bench");
+        Router.RouteMatch match = router.lookup("/bench/42/items/7");
+        itemRoute = match.getRoute("GET");
+        itemPathValues = match.getPathValues();
+        listExchange = new BenchmarkExchange("GET", "/bench", "page=3&size=50&sort=name%2Cdesc", null);
+        itemExchange = new BenchmarkExchange("GET", "/bench/42/items/7", "fields=id&fields=name&fields=amount", null);
+        createExchange = new BenchmarkExchange("POST", "/bench", null,
+                "{\"id\":42,\"name\":\"order-42\",\"amount\":10.5}".getBytes(StandardCharsets.UTF_8))
+                .header("Content-Type", "application/json");
+    }
+
+    @Benchmark
+    public RequestParameters getParameters() throws Exception {
+        return context.getParameters(listExchange, listRoute, outcome);
+    }
+
+    @Benchmark
+    public Object[] checkQueryParameters() throws Exception {
+        return context.checkHttpParameters(listRoute, new String[0], null, listExchange, outcome);
+    }
+
+    @Benchmark
+    public Object[] checkPathAndListParameters() throws Exception {
+        return context.checkHttpParameters(itemRoute, itemPathValues, null, itemExchange, outcome);
+    }
+
+    @Benchmark
+    public Object[] checkJsonBody() throws Exception {
+        return context.checkHttpParameters(createRoute, new String[0], null, createExchange, outcome);
+    }
+}
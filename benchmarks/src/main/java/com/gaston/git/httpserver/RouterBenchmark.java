@@ -0,0 +1,125 @@
+package com.gaston.git.httpserver;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Busqueda de rutas en una tabla generada con la cantidad de rutas indicada:
+ * la mitad son paths estaticos y la otra mitad templates con parametros, un
+ * cuarto de ellos con expresion regular. Se miden paths estaticos existentes,
+ * paths que coinciden con un template con y sin expresion y paths inexistentes
+ * que comparten el prefijo de una ruta.
+ *
+ * Cada invocacion busca un path distinto de un arreglo generado al inicio, de
+ * forma que la medicion no depende de un unico path en cache
+ *
+ * @author gaston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+
+    /**
+     * Cantidad de paths de cada tipo que se recorren, potencia de dos
+     */
+    private static final int SAMPLES = 1024;
+
+    /**
+     * Cantidad de prefijos que comparten las rutas, como los recursos de una
+     * api
+     */
+    private static final int GROUPS = 20;
+
+    @Param({"1000", "5000"})
+    public int routes;
+
+    private Router router;
+    private String[] staticPaths;
+    private String[] templatePaths;
+    private String[] regexPaths;
+    private String[] missingPaths;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkContext context = new BenchmarkContext("/bench");
+        Method method = BenchmarkContext.class.getMethod("status");
+        int templates = routes / 2;
+        Router.Builder builder = new Router.Builder();
+        for (int i = 0; i < routes - templates; i++) {
+            builder.add(new HttpRoute(context, "GET", staticPath(i), method,
+                    Collections.<HttpMethodParameter>emptyList()));
+        }
+        for (int i = 0; i < templates; i++) {
+            String id = i % 4 == 0 ? "{id: [0-9]+}" : "{id}";
+            builder.add(new HttpRoute(context, "GET", templatePath(i) + "/" + id + "/items/{item}", method,
+                    Collections.<HttpMethodParameter>emptyList()));
+        }
+        router = builder.build();
+
+        Random random = new Random(42);
+        staticPaths = new String[SAMPLES];
+        templatePaths = new String[SAMPLES];
+        regexPaths = new String[SAMPLES];
+        missingPaths = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            staticPaths[i] = staticPath(random.nextInt(routes - templates));
+            templatePaths[i] = templatePath(random.nextInt(templates / 2) * 2 + 1) + "/abc" + random.nextInt(1000)
+                    + "/items/" + random.nextInt(100);
+            regexPaths[i] = templatePath(random.nextInt(templates / 4) * 4) + "/" + random.nextInt(100000)
+                    + "/items/" + random.nextInt(100);
+            missingPaths[i] = i % 2 == 0
+                    ? staticPath(random.nextInt(routes - templates)) + "/missing"
+                    : templatePath(random.nextInt(templates)) + "/" + random.nextInt(1000) + "/orders";
+        }
+    }
+
+    private static String staticPath(int index) {
+        return "/bench/g" + index % GROUPS + "/static" + index;
+    }
+
+    private static String templatePath(int index) {
+        return "/bench/g" + index % GROUPS + "/resource" + index;
+    }
+
+    private String sample(String[] paths) {
+        return paths[next++ & (SAMPLES - 1)];
+    }
+
+    @Benchmark
+    public Router.RouteMatch staticHit() {
+        return router.lookup(sample(staticPaths));
+    }
+
+    @Benchmark
+    public Router.RouteMatch templateMatch() {
+        return router.lookup(sample(templatePaths));
+    }
+
+    @Benchmark
+    public Router.RouteMatch regexMatch() {
+        return router.lookup(sample(regexPaths));
+    }
+
+    @Benchmark
+    public Router.RouteMatch miss() {
+        return router.lookup(sample(missingPaths));
+    }
+}
@@ -0,0 +1,62 @@
+package com.gaston.git.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializacion del valor retornado tal como la hace handle: el codec escribe
+ * sobre un ResponseOutputStream con buffer del pool. Con 1 elemento la
+ * respuesta entra en el buffer y se envia con Content-Length, con 1000 se
+ * envia chunked
+ *
+ * @author gaston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public String mediaType;
+
+    @Param({"1", "1000"})
+    public int size;
+
+    private Codec codec;
+    private List<Order> orders;
+    private BenchmarkExchange exchange;
+
+    @Setup
+    public void setup() {
+        codec = CodecRegistry.getDefault().get(mediaType);
+        orders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            orders.add(new Order(i, "order-ñ-" + i, i * 1.5));
+        }
+        exchange = new BenchmarkExchange("GET", "/bench", null, null);
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        ResponseOutputStream out = new ResponseOutputStream(exchange.reset(), 200);
+        codec.write(orders, out);
+        out.close();
+        return exchange.getResponseBytes();
+    }
+}
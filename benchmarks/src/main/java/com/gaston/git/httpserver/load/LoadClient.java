@@ -0,0 +1,232 @@
+package com.gaston.git.httpserver.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Cliente http/1.1 minimo sobre una unica conexion keep-alive. Envia
+ * peticiones ya codificadas y lee la respuesta completa descartando el cuerpo,
+ * con Content-Length o chunked, sin crear objetos por peticion. Si el servidor
+ * cierra la conexion se abre otra en la siguiente peticion
+ *
+ * @author gaston
+ */
+final class LoadClient implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final byte[] line = new byte[8 * 1024];
+    private final byte[] discard = new byte[BUFFER_SIZE];
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    /**
+     * Cantidad de conexiones abiertas, mas de una indica que el servidor no
+     * mantuvo la conexion
+     */
+    private int connects;
+
+    LoadClient(InetSocketAddress address, int timeoutMillis) {
+        this.address = address;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Envia una peticion y espera la respuesta completa
+     *
+     * @param request Bytes de la peticion, con sus headers y el cuerpo
+     * @return Codigo de estado de la respuesta
+     * @throws IOException Si la conexion fallo o vencio el timeout, la
+     * conexion queda cerrada
+     */
+    int send(byte[] request) throws IOException {
+        if (socket == null) {
+            connect();
+        }
+        try {
+            out.write(request);
+            out.flush();
+            return readResponse();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    int getConnects() {
+        return connects;
+    }
+
+    private void connect() throws IOException {
+        Socket connection = new Socket();
+        try {
+            connection.setTcpNoDelay(true);
+            connection.setSoTimeout(timeoutMillis);
+            connection.connect(address, timeoutMillis);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        socket = connection;
+        in = new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE);
+        out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+        connects++;
+    }
+
+    private int readResponse() throws IOException {
+        int status;
+        do {
+            int length = readLine();
+            // HTTP/1.1 200 OK
+            if (length < 12 || line[8] != ' ') {
+                throw new IOException("Linea de estado invalida");
+            }
+            status = (line[9] - '0') * 100 + (line[10] - '0') * 10 + (line[11] - '0');
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean closing = false;
+            while ((length = readLine()) > 0) {
+                if (startsWith(length, "content-length:")) {
+                    contentLength = parseLong(15, length, 10);
+                } else if (startsWith(length, "transfer-encoding:")) {
+                    chunked = contains(18, length, "chunked");
+                } else if (startsWith(length, "connection:")) {
+                    closing = contains(11, length, "close");
+                }
+            }
+            if (status >= 200 && status != 204 && status != 304) {
+                if (chunked) {
+                    skipChunked();
+                } else if (contentLength >= 0) {
+                    skip(contentLength);
+                } else {
+                    // Sin longitud el cuerpo termina al cerrar la conexion
+                    while (in.read(discard) >= 0) {
+                    }
+                    closing = true;
+                }
+            }
+            if (closing) {
+                close();
+            }
+        } while (status < 200);
+        return status;
+    }
+
+    private void skipChunked() throws IOException {
+        while (true) {
+            int length = readLine();
+            int end = 0;
+            while (end < length && line[end] != ';' && line[end] != ' ') {
+                end++;
+            }
+            long size = parseLong(0, end, 16);
+            if (size == 0) {
+                // Trailers hasta la linea vacia
+                while (readLine() > 0) {
+                }
+                return;
+            }
+            skip(size);
+            readLine();
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            int read = in.read(discard, 0, (int) Math.min(discard.length, count));
+            if (read < 0) {
+                throw new EOFException("La respuesta termino antes de lo esperado");
+            }
+            count -= read;
+        }
+    }
+
+    /**
+     * Lee una linea terminada en CRLF sin incluirlo
+     *
+     * @return Longitud de la linea
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("El servidor cerro la conexion");
+            }
+            if (length == line.length) {
+                throw new IOException("Linea demasiado larga");
+            }
+            line[length++] = (byte) b;
+        }
+        return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+    }
+
+    private boolean startsWith(int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) line[i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean contains(int from, int length, String token) {
+        outer:
+        for (int i = from; i + token.length() <= length; i++) {
+            for (int j = 0; j < token.length(); j++) {
+                if (Character.toLowerCase((char) line[i + j]) != token.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private long parseLong(int from, int to, int radix) throws IOException {
+        long value = 0;
+        boolean digits = false;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(line[i], radix);
+            if (digit >= 0) {
+                value = value * radix + digit;
+                digits = true;
+            } else if (line[i] != ' ' && line[i] != '\t') {
+                throw new IOException("Numero invalido en la respuesta");
+            }
+        }
+        if (!digits) {
+            throw new IOException("Numero invalido en la respuesta");
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // La conexion ya no se usa
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+    }
+}
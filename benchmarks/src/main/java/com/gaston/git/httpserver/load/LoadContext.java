@@ -0,0 +1,60 @@
+package com.gaston.git.httpserver.load;
+
+import com.gaston.git.httpserver.Order;
+import com.gaston.git.httpserver.WebContext;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Contexto por defecto de las pruebas de carga: una respuesta minima, una
+ * serializacion json y una ruta con tiempo de servicio configurable, para
+ * comprobar como crece la latencia cuando el servidor se satura
+ *
+ * @author gaston
+ */
+@Path("/load")
+public class LoadContext extends WebContext {
+
+    public LoadContext(String name) {
+        super(name);
+    }
+
+    @GET
+    @Path("/ping")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String ping() {
+        return "pong";
+    }
+
+    @GET
+    @Path("/orders/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Order order(@PathParam("id") long id) {
+        return new Order(id, "order-" + id, 10.5);
+    }
+
+    /**
+     * Ocupa el hilo que atiende la peticion durante el tiempo indicado, como
+     * una consulta a una base de datos
+     *
+     * @param micros Tiempo de servicio en microsegundos
+     * @return Tiempo de servicio
+     */
+    @GET
+    @Path("/work")
+    @Produces(MediaType.TEXT_PLAIN)
+    public long work(@QueryParam("micros") long micros) {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+        return micros;
+    }
+}
@@ -0,0 +1,424 @@
+package com.gaston.git.httpserver.load;
+
+import com.gaston.git.httpserver.LatencyHistogram;
+import com.gaston.git.httpserver.NioTransport;
+import com.gaston.git.httpserver.WebServer;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prueba de carga en proceso. Inicia un WebServer en un puerto efimero con el
+ * paquete base indicado y envia peticiones GET a sus rutas desde conexiones
+ * keep-alive, una por hilo, durante un tiempo fijo despues de un
+ * calentamiento. Se ejecuta desde la raiz del proyecto con
+ * mvn -Ploadtest verify -Dloadtest.args="mode=open rate=5000"
+ *
+ * En modo closed cada conexion envia la siguiente peticion al recibir la
+ * respuesta, y la latencia es el tiempo de respuesta de cada peticion. Ese
+ * modo mide la capacidad pero no la espera: mientras el servidor se demora
+ * las conexiones dejan de enviar, y las peticiones que hubieran llegado en
+ * ese tiempo no se miden.
+ *
+ * En modo open las peticiones tienen un horario fijo de rate por segundo, y
+ * la latencia de cada una se mide desde el momento en que debia enviarse y no
+ * desde que se envio. Si el servidor o las conexiones no alcanzan, la espera
+ * queda incluida en la latencia, sin coordinated omission. Las peticiones
+ * del horario que no llegan a enviarse antes del limite de drain se cuentan
+ * aparte y se registran con la latencia que llevaban esperando
+ *
+ * Opciones, como clave=valor: package, transport (jdk o nio), pool, mode
+ * (closed u open), connections, rate, warmup, duration y drain en segundos,
+ * timeout en milisegundos, paths separados por coma y result con el archivo
+ * json del resultado
+ *
+ * @author gaston
+ */
+public final class LoadTest {
+
+    /**
+     * Demora a partir de la cual una peticion del modo open se considera
+     * enviada tarde, indica que faltan conexiones o hilos en el generador
+     */
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private String packageBase = "com.gaston.git.httpserver.load";
+    private String transport = "jdk";
+    private int pool = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private boolean open;
+    private int connections = 16;
+    private double rate = 1000;
+    private int warmup = 5;
+    private int duration = 20;
+    private int drain = 10;
+    private int timeout = 10000;
+    private List<String> paths = Arrays.asList("/load/ping", "/load/orders/42");
+    private String result;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong sequence = new AtomicLong();
+    private byte[][] requests;
+    private long startTime;
+    private long measureStart;
+    private long endTime;
+    private long stopTime;
+    private long intervalNanos;
+
+    /**
+     * Mayor espera de las peticiones del horario que no se enviaron
+     */
+    private long unsentMax;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        try {
+            for (String arg : args) {
+                test.option(arg);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        System.exit(test.run() ? 0 : 1);
+    }
+
+    private void option(String arg) {
+        int equals = arg.indexOf('=');
+        if (equals <= 0) {
+            throw new IllegalArgumentException("Opcion invalida " + arg + ", se espera clave=valor");
+        }
+        String key = arg.substring(0, equals);
+        String value = arg.substring(equals + 1);
+        switch (key) {
+            case "package":
+                packageBase = value;
+                break;
+            case "transport":
+                if (!value.equals("jdk") && !value.equals("nio")) {
+                    throw new IllegalArgumentException("Transporte invalido " + value + ", puede ser jdk o nio");
+                }
+                transport = value;
+                break;
+            case "pool":
+                pool = Integer.parseInt(value);
+                break;
+            case "mode":
+                if (!value.equals("closed") && !value.equals("open")) {
+                    throw new IllegalArgumentException("Modo invalido " + value + ", puede ser closed u open");
+                }
+                open = value.equals("open");
+                break;
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            case "drain":
+                drain = Integer.parseInt(value);
+                break;
+            case "timeout":
+                timeout = Integer.parseInt(value);
+                break;
+            case "paths":
+                paths = Arrays.asList(value.split(","));
+                break;
+            case "result":
+                result = value.isEmpty() ? null : value;
+                break;
+            default:
+                throw new IllegalArgumentException("Opcion desconocida " + key);
+        }
+    }
+
+    /**
+     * Ejecuta la prueba completa e informa el resultado
+     *
+     * @return true si las rutas respondieron y se pudo medir
+     */
+    private boolean run() throws Exception {
+        WebServer server = new WebServer(0, pool, packageBase);
+        if (transport.equals("nio")) {
+            server.setTransport(new NioTransport());
+        }
+        server.init();
+        try {
+            if (server.getTransport().getAddress() == null) {
+                System.err.println("No se pudo iniciar el servidor");
+                return false;
+            }
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    server.getTransport().getAddress().getPort());
+            requests = new byte[paths.size()][];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = ("GET " + paths.get(i) + " HTTP/1.1\r\nHost: " + address.getHostString() + ':'
+                        + address.getPort() + "\r\nAccept: */*\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            }
+            if (!probe(address)) {
+                return false;
+            }
+            Worker[] workers = measure(address);
+            report(workers);
+            return true;
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Verifica que cada path responda antes de medir, un 404 por un paquete
+     * mal indicado arruinaria la medicion sin que se note
+     */
+    private boolean probe(InetSocketAddress address) {
+        try (LoadClient client = new LoadClient(address, timeout)) {
+            for (int i = 0; i < requests.length; i++) {
+                int status = client.send(requests[i]);
+                if (status >= 400) {
+                    System.err.println("GET " + paths.get(i) + " respondio " + status
+                            + ", verifique el paquete " + packageBase);
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("No se pudo conectar con el servidor: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    private Worker[] measure(InetSocketAddress address) throws InterruptedException {
+        intervalNanos = open ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate)) : 0;
+        Worker[] workers = new Worker[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            workers[i] = new Worker(new LoadClient(address, timeout));
+            threads[i] = new Thread(workers[i], "loadTest-" + (i + 1));
+        }
+        // Margen para que todos los hilos esten corriendo al comenzar el horario
+        startTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        measureStart = startTime + TimeUnit.SECONDS.toNanos(warmup);
+        endTime = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        stopTime = endTime + TimeUnit.SECONDS.toNanos(drain);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return workers;
+    }
+
+    /**
+     * Registra las peticiones del horario que ninguna conexion llego a enviar
+     *
+     * @return Cantidad de peticiones sin enviar dentro de la medicion
+     */
+    private long recordUnsent() {
+        if (!open) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long unsent = 0;
+        for (long i = sequence.get(); ; i++) {
+            long intended = startTime + i * intervalNanos;
+            if (intended >= endTime) {
+                break;
+            }
+            if (intended >= measureStart) {
+                histogram.record(now - intended);
+                unsentMax = Math.max(unsentMax, now - intended);
+                unsent++;
+            }
+        }
+        return unsent;
+    }
+
+    private void report(Worker[] workers) throws IOException {
+        long unsent = recordUnsent();
+        long completed = 0;
+        long httpErrors = 0;
+        long failures = 0;
+        long late = 0;
+        long reconnects = 0;
+        long max = unsentMax;
+        long lastDone = endTime;
+        for (Worker worker : workers) {
+            completed += worker.completed;
+            httpErrors += worker.httpErrors;
+            failures += worker.failures;
+            late += worker.late;
+            reconnects += Math.max(0, worker.client.getConnects() - 1);
+            max = Math.max(max, worker.max);
+            lastDone = Math.max(lastDone, worker.lastDone);
+        }
+        double seconds = (lastDone - measureStart) / 1e9;
+        double throughput = completed / seconds;
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-14s %s%n", "Modo", open
+                ? String.format(Locale.ROOT, "open, %.0f req/s objetivo", rate) : "closed"));
+        out.append(String.format(Locale.ROOT, "%-14s %s, pool %d, transporte %s%n", "Servidor", packageBase, pool,
+                transport));
+        out.append(String.format(Locale.ROOT, "%-14s %d%n", "Conexiones", connections));
+        out.append(String.format(Locale.ROOT, "%-14s %s%n", "Paths", paths));
+        out.append(String.format(Locale.ROOT, "%-14s %d s, %d s de calentamiento%n", "Duracion", duration, warmup));
+        out.append(String.format(Locale.ROOT, "%-14s %d completas, %d con error http, %d fallidas, %d sin enviar%n",
+                "Peticiones", completed, httpErrors, failures, unsent));
+        if (open) {
+            out.append(String.format(Locale.ROOT, "%-14s %d enviadas con mas de 1 ms de demora%n", "Demoras", late));
+        }
+        out.append(String.format(Locale.ROOT, "%-14s %d%n", "Reconexiones", reconnects));
+        out.append(String.format(Locale.ROOT, "%-14s %.1f req/s%n", "Throughput", throughput));
+        out.append(String.format(Locale.ROOT, "%-14s media %.3f  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                "Latencia (ms)", mean(), percentile(50, max), percentile(90, max),
+                percentile(99, max), percentile(99.9, max), millis(max)));
+        out.append(open ? "Latencias desde el horario de cada peticion, los percentiles son el limite superior"
+                + " de su rango del histograma (error maximo 12,5%)"
+                : "Tiempos de respuesta, sin contar las peticiones que el modo closed no envia mientras espera;"
+                + " use mode=open para medir la latencia sin coordinated omission");
+        System.out.println(out);
+        if (result != null) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(result), StandardCharsets.UTF_8)) {
+                writer.write(String.format(Locale.ROOT, "{\"mode\":\"%s\",\"rate\":%.1f,\"connections\":%d,"
+                        + "\"pool\":%d,\"transport\":\"%s\",\"duration\":%d,\"warmup\":%d,\"completed\":%d,"
+                        + "\"httpErrors\":%d,\"failures\":%d,\"unsent\":%d,\"late\":%d,\"reconnects\":%d,"
+                        + "\"throughput\":%.1f,\"latencyMillis\":{\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,"
+                        + "\"p99\":%.3f,\"p999\":%.3f,\"max\":%.3f}}%n",
+                        open ? "open" : "closed", open ? rate : 0, connections, pool, transport, duration, warmup,
+                        completed, httpErrors, failures, unsent, late, reconnects, throughput, mean(),
+                        percentile(50, max), percentile(90, max),
+                        percentile(99, max), percentile(99.9, max), millis(max)));
+            }
+        }
+    }
+
+    /**
+     * Percentil acotado al maximo observado, el limite superior del rango
+     * puede superarlo
+     */
+    private double percentile(double percentile, long max) {
+        return millis(Math.min(histogram.getPercentile(percentile), max));
+    }
+
+    private double mean() {
+        long count = histogram.getCount();
+        return count == 0 ? 0 : millis(histogram.getSumNanos() / count);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Hilo de carga con su propia conexion. Los contadores solo los modifica
+     * su hilo y se leen despues del join
+     */
+    private final class Worker implements Runnable {
+
+        private final LoadClient client;
+        private long completed;
+        private long httpErrors;
+        private long failures;
+        private long late;
+        private long max;
+        private long lastDone;
+
+        private Worker(LoadClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (open) {
+                    runOpen();
+                } else {
+                    runClosed();
+                }
+            } finally {
+                client.close();
+            }
+        }
+
+        private void runClosed() {
+            waitUntil(startTime);
+            long begin;
+            while ((begin = System.nanoTime()) - endTime < 0) {
+                issue(sequence.getAndIncrement(), begin);
+            }
+        }
+
+        private void runOpen() {
+            while (true) {
+                if (System.nanoTime() - stopTime >= 0) {
+                    // El resto del horario se informa como no enviado
+                    return;
+                }
+                long i = sequence.getAndIncrement();
+                long intended = startTime + i * intervalNanos;
+                if (intended - endTime >= 0) {
+                    return;
+                }
+                waitUntil(intended);
+                if (System.nanoTime() - intended > LATE_NANOS && intended - measureStart >= 0) {
+                    late++;
+                }
+                issue(i, intended);
+            }
+        }
+
+        /**
+         * Envia una peticion y registra su latencia desde from, si corresponde
+         * al periodo medido
+         */
+        private void issue(long i, long from) {
+            int status;
+            try {
+                status = client.send(requests[(int) (i % requests.length)]);
+            } catch (IOException e) {
+                status = -1;
+            }
+            long done = System.nanoTime();
+            if (from - measureStart < 0) {
+                return;
+            }
+            long latency = done - from;
+            histogram.record(latency);
+            max = Math.max(max, latency);
+            lastDone = done;
+            if (status < 0) {
+                failures++;
+            } else {
+                completed++;
+                if (status >= 400) {
+                    httpErrors++;
+                }
+            }
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
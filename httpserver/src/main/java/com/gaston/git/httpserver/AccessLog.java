@@ -0,0 +1,475 @@
+package com.gaston.git.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.log4j.Logger;
+
+/**
+ * Access log estructurado que no escribe en el hilo de la peticion. Cada
+ * peticion ocupa un registro de tamaño fijo de un ring buffer reservado al
+ * crear el log: los valores numericos se copian en arreglos primitivos y los
+ * textos (metodo, path, ruta) son referencias a Strings que ya existen, por lo
+ * que registrar una peticion no reserva memoria ni toma ningun bloqueo, solo
+ * un compareAndSet para reservar el lugar.
+ *
+ * Un unico hilo escritor toma los registros en lotes, les da formato y los
+ * copia en segmentos de archivo mapeados en memoria (AccessLogSegments). Cada
+ * linea tiene los campos separados por tabulador:
+ * <pre>
+ * time  client  method  path  route  status  bytes_in  bytes_out  duration_us
+ * </pre>
+ * Si el buffer se llena porque el disco no da abasto, la politica DROP
+ * descarta el registro y lo cuenta, y BLOCK hace esperar a la peticion hasta
+ * que haya lugar
+ *
+ * @author gaston
+ */
+public final class AccessLog {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Que hacer con un registro cuando el buffer esta lleno
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Descarta el registro, la peticion nunca espera por el log
+         */
+        DROP,
+        /**
+         * La peticion espera a que el escritor libere lugar, no se pierde
+         * ningun registro
+         */
+        BLOCK
+    }
+
+    public static final int DEFAULT_CAPACITY = 16384;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 10;
+
+    /**
+     * Tamaño maximo de una linea, los paths mas largos se recortan
+     */
+    private static final int MAX_LINE = 4096;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * Registros que el escritor toma antes de liberar su lugar en el buffer
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Espera del escritor cuando no hay registros, y de las peticiones con
+     * la politica BLOCK
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final File directory;
+    private String prefix = "access";
+    private int capacity = DEFAULT_CAPACITY;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    // Ring buffer, un registro por posicion
+    private int mask;
+    private long[] times;
+    private long[] durations;
+    private long[] bytesIn;
+    private long[] bytesOut;
+    private int[] statuses;
+    private String[] methods;
+    private String[] paths;
+    private String[] routes;
+    private InetSocketAddress[] clients;
+
+    /**
+     * Secuencia + 1 del registro publicado en cada posicion
+     */
+    private AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    /**
+     * Crea un access log que escribe en un directorio
+     *
+     * @param directory Directorio de los segmentos, se crea si no existe
+     */
+    public AccessLog(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Reserva el buffer e inicia el hilo escritor
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        times = new long[size];
+        durations = new long[size];
+        bytesIn = new long[size];
+        bytesOut = new long[size];
+        statuses = new int[size];
+        methods = new String[size];
+        paths = new String[size];
+        routes = new String[size];
+        clients = new InetSocketAddress[size];
+        published = new AtomicLongArray(size);
+        final AccessLogSegments segments = new AccessLogSegments(directory, prefix,
+                Math.max(MIN_SEGMENT_SIZE, segmentSize), maxSegments);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop(segments);
+            }
+        }, "http-access-log");
+        thread.setDaemon(true);
+        writer = thread;
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Escribe los registros pendientes, cierra el segmento actual y detiene
+     * el hilo escritor
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = writer;
+            writer = null;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Registra una peticion. Es seguro llamarlo desde cualquier hilo
+     *
+     * @param time Instante de la peticion en milisegundos
+     * @param client Direccion del cliente
+     * @param method Metodo http
+     * @param path Path de la peticion sin decodificar
+     * @param route Path de la ruta que la atendio, null si no correspondia a
+     * ninguna
+     * @param status Codigo de estado de la respuesta
+     * @param requestBytes Bytes leidos del cuerpo de la peticion
+     * @param responseBytes Bytes escritos en el cuerpo de la respuesta
+     * @param nanos Duracion de la peticion
+     * @return false si se descarto porque el buffer estaba lleno o el log esta
+     * cerrado
+     */
+    public boolean record(long time, InetSocketAddress client, String method, String path, String route,
+            int status, long requestBytes, long responseBytes, long nanos) {
+        long sequence;
+        while (true) {
+            if (!running) {
+                dropped.increment();
+                return false;
+            }
+            sequence = claimed.get();
+            if (sequence - consumed.get() > mask) {
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                // Despierta al escritor si estaba esperando registros
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        int index = (int) sequence & mask;
+        times[index] = time;
+        clients[index] = client;
+        methods[index] = method;
+        paths[index] = path;
+        routes[index] = route;
+        statuses[index] = status;
+        bytesIn[index] = requestBytes;
+        bytesOut[index] = responseBytes;
+        durations[index] = nanos;
+        // Publica el registro, el escritor lo lee despues de ver la secuencia
+        published.lazySet(index, sequence + 1);
+        return true;
+    }
+
+    private void writeLoop(AccessLogSegments segments) {
+        LineFormatter formatter = new LineFormatter();
+        long lastForce = System.nanoTime();
+        boolean pending = false;
+        try {
+            while (true) {
+                int count = drain(segments, formatter);
+                if (count > 0) {
+                    pending = true;
+                    continue;
+                }
+                if (!running && consumed.get() == claimed.get()) {
+                    break;
+                }
+                if (pending && System.nanoTime() - lastForce > FORCE_INTERVAL_NANOS) {
+                    segments.force();
+                    lastForce = System.nanoTime();
+                    pending = false;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error escribiendo el access log, se deja de registrar", e);
+            running = false;
+        } finally {
+            try {
+                segments.close();
+            } catch (IOException e) {
+                logger.error("Error cerrando el access log", e);
+            }
+        }
+    }
+
+    /**
+     * Escribe los registros publicados consecutivos, hasta un lote
+     *
+     * @return Cantidad de registros escritos
+     */
+    private int drain(AccessLogSegments segments, LineFormatter formatter) throws IOException {
+        long next = consumed.get();
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            int index = (int) next & mask;
+            if (published.get(index) != next + 1) {
+                break;
+            }
+            int length = formatter.format(times[index], clients[index], methods[index], paths[index],
+                    routes[index], statuses[index], bytesIn[index], bytesOut[index], durations[index]);
+            clients[index] = null;
+            paths[index] = null;
+            routes[index] = null;
+            segments.write(formatter.line, length);
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            written.add(count);
+            // Libera los lugares para las peticiones
+            consumed.lazySet(next);
+        }
+        return count;
+    }
+
+    /**
+     * Da formato a las lineas sobre un arreglo reutilizable, el texto de la
+     * fecha se recalcula solo cuando cambia el segundo
+     */
+    private static final class LineFormatter {
+
+        private final byte[] line = new byte[MAX_LINE];
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        private final byte[] second = new byte[19];
+        private long currentSecond = Long.MIN_VALUE;
+        private int position;
+
+        private LineFormatter() {
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        private int format(long time, InetSocketAddress client, String method, String path, String route,
+                int status, long requestBytes, long responseBytes, long nanos) {
+            position = 0;
+            long seconds = Math.floorDiv(time, 1000);
+            if (seconds != currentSecond) {
+                currentSecond = seconds;
+                String text = dateFormat.format(new Date(seconds * 1000));
+                for (int i = 0; i < second.length; i++) {
+                    second[i] = (byte) text.charAt(i);
+                }
+            }
+            System.arraycopy(second, 0, line, 0, second.length);
+            position = second.length;
+            line[position++] = '.';
+            int millis = (int) Math.floorMod(time, 1000);
+            line[position++] = (byte) ('0' + millis / 100);
+            line[position++] = (byte) ('0' + millis / 10 % 10);
+            line[position++] = (byte) ('0' + millis % 10);
+            line[position++] = 'Z';
+            tab();
+            InetAddress address = client != null ? client.getAddress() : null;
+            ascii(address != null ? address.getHostAddress() : "-");
+            tab();
+            ascii(method);
+            tab();
+            ascii(path);
+            tab();
+            ascii(route != null ? route : "-");
+            tab();
+            number(status);
+            tab();
+            number(requestBytes);
+            tab();
+            number(responseBytes);
+            tab();
+            number(TimeUnit.NANOSECONDS.toMicros(nanos));
+            line[position++] = '\n';
+            return position;
+        }
+
+        private void tab() {
+            line[position++] = '\t';
+        }
+
+        /**
+         * Copia un texto ascii, los paths llegan sin decodificar. Los
+         * caracteres de control se reemplazan para no romper la linea y se
+         * deja lugar para el resto de los campos
+         */
+        private void ascii(String text) {
+            if (text == null) {
+                text = "-";
+            }
+            int end = Math.min(text.length(), MAX_LINE - 128 - position);
+            for (int i = 0; i < end; i++) {
+                char c = text.charAt(i);
+                line[position++] = c > ' ' && c < 127 ? (byte) c : (byte) '?';
+            }
+        }
+
+        private void number(long value) {
+            if (value < 0) {
+                line[position++] = '-';
+                value = -value;
+            }
+            int start = position;
+            do {
+                line[position++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = position - 1; i < j; i++, j--) {
+                byte swap = line[i];
+                line[i] = line[j];
+                line[j] = swap;
+            }
+        }
+    }
+
+    /**
+     * Cantidad de registros descartados por la politica DROP o con el log
+     * cerrado
+     *
+     * @return Cantidad de registros
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Cantidad de registros escritos en los segmentos
+     *
+     * @return Cantidad de registros
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Establece el prefijo del nombre de los segmentos, debe indicarse antes
+     * de start
+     *
+     * @param prefix Prefijo, por defecto access
+     */
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Establece la cantidad de registros del buffer, se redondea a una
+     * potencia de dos. Debe indicarse antes de start
+     *
+     * @param capacity Cantidad de registros
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Establece el tamaño de cada segmento, debe indicarse antes de start
+     *
+     * @param segmentSize Cantidad de bytes, minimo 64 KB
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * Establece la cantidad de segmentos que se conservan, los mas viejos se
+     * borran. Debe indicarse antes de start
+     *
+     * @param maxSegments Cantidad de segmentos, 0 sin limite
+     */
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Establece que hacer cuando el buffer esta lleno, puede cambiarse en
+     * cualquier momento
+     *
+     * @param overflowPolicy Politica, por defecto DROP
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+}
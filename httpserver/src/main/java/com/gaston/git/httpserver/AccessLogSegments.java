@@ -0,0 +1,129 @@
+package com.gaston.git.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+
+/**
+ * Archivos del access log. Cada segmento es un archivo de tamaño fijo mapeado
+ * en memoria: escribir una linea es copiar sus bytes en el MappedByteBuffer,
+ * sin llamadas al sistema, y el sistema operativo los baja a disco. Cuando la
+ * linea no entra se recorta el segmento a lo escrito y se abre otro,
+ * descartando los mas viejos si se supera la cantidad a conservar.
+ *
+ * Solo lo usa el hilo escritor del AccessLog
+ *
+ * @author gaston
+ */
+final class AccessLogSegments {
+
+    private static final byte[] HEADER = ("#time\tclient\tmethod\tpath\troute\tstatus\tbytes_in\tbytes_out"
+            + "\tduration_us\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<File> segments = new ArrayDeque<>();
+    private final SimpleDateFormat fileDate = new SimpleDateFormat("yyyyMMdd-HHmmss");
+    private RandomAccessFile file;
+    private MappedByteBuffer mapped;
+    private int sequence;
+
+    /**
+     * @param directory Directorio de los segmentos
+     * @param prefix Prefijo del nombre de los archivos
+     * @param segmentSize Tamaño de cada segmento en bytes
+     * @param maxSegments Cantidad de segmentos a conservar, 0 sin limite
+     */
+    AccessLogSegments(File directory, String prefix, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        File[] existing = directory.listFiles();
+        if (existing != null) {
+            // Los segmentos de ejecuciones anteriores cuentan para el limite
+            Arrays.sort(existing);
+            for (File segment : existing) {
+                if (segment.getName().startsWith(prefix + '-') && segment.getName().endsWith(".log")) {
+                    segments.add(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Escribe una linea completa, abriendo un segmento nuevo si no entra en
+     * el actual
+     *
+     * @param line Bytes de la linea
+     * @param length Cantidad de bytes
+     * @throws IOException Si no se pudo crear el segmento
+     */
+    void write(byte[] line, int length) throws IOException {
+        if (mapped == null || mapped.remaining() < length) {
+            roll();
+        }
+        mapped.put(line, 0, length);
+    }
+
+    /**
+     * Pide al sistema operativo que baje a disco lo escrito
+     */
+    void force() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /**
+     * Cierra el segmento actual recortandolo a lo escrito
+     *
+     * @throws IOException Si falla el cierre
+     */
+    void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+        mapped.force();
+        int written = mapped.position();
+        mapped = null;
+        try {
+            file.getChannel().truncate(written);
+        } finally {
+            file.close();
+            file = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        close();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio " + directory);
+        }
+        String date = fileDate.format(new Date());
+        File segment;
+        do {
+            segment = new File(directory, prefix + '-' + date + '-' + sequence++ + ".log");
+        } while (segment.exists());
+        file = new RandomAccessFile(segment, "rw");
+        mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, HEADER.length * 2));
+        mapped.put(HEADER);
+        segments.add(segment);
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            File oldest = segments.removeFirst();
+            if (!oldest.delete()) {
+                oldest.deleteOnExit();
+            }
+        }
+    }
+}
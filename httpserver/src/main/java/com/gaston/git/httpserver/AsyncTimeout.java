@@ -0,0 +1,34 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indica el tiempo maximo de espera de los metodos asincronicos, los que
+ * retornan un CompletableFuture o CompletionStage, o de todos los metodos de
+ * un contexto si se anota la clase. Si el resultado no esta listo a tiempo se
+ * responde 504
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface AsyncTimeout {
+
+    /**
+     * Tiempo maximo de espera, 0 para esperar sin limite
+     *
+     * @return Cantidad de unidades
+     */
+    long value();
+
+    /**
+     * Unidad del tiempo de espera
+     *
+     * @return Unidad de tiempo
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,305 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Contexto que atiende en un solo viaje un arreglo json de peticiones a los
+ * demas contextos del servidor. Cada peticion se despacha internamente por el
+ * ContextHandler del contexto que corresponde a su path, con sus rutas,
+ * cache, metricas y codigos de estado, sin volver a pasar por la red; la
+ * respuesta es un arreglo con el status, los headers y el cuerpo de cada una
+ * en el mismo orden.
+ *
+ * Las peticiones GET consecutivas se ejecutan en paralelo en el executor del
+ * servidor, con el mismo limite de hilos y de cola que las peticiones http:
+ * en el modo BOUNDED una peticion del lote que no entra en la cola responde
+ * 503 con Retry-After sin afectar a las demas. Las que modifican datos se
+ * ejecutan solas y en orden: esperan a que terminen todas las anteriores y
+ * las siguientes esperan a que terminen ellas, asi una lectura posterior a
+ * una escritura del mismo lote ve su resultado.
+ *
+ * Cada peticion hereda los headers Authorization, Cookie y Accept-Language
+ * del lote y acepta application/json salvo que indique sus propios headers.
+ *
+ * Como BatchContext no se anota con @Path, el WebServer lo registra en init
+ * en el path configurado
+ *
+ * @author gaston
+ */
+public class BatchContext extends WebContext {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Cantidad maxima por defecto de peticiones de un lote
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 50;
+
+    private final WebServer server;
+    private final ObjectMapper mapper = new ObjectMapper(new JsonFactory());
+    private volatile int maxRequests = DEFAULT_MAX_REQUESTS;
+
+    public BatchContext(String name, WebServer server) {
+        super(name);
+        this.server = server;
+    }
+
+    /**
+     * Ejecuta las peticiones de un lote
+     *
+     * @param requests Peticiones
+     * @param authorization Header Authorization del lote
+     * @param cookie Header Cookie del lote
+     * @param language Header Accept-Language del lote
+     * @return Respuestas en el orden de las peticiones, se completa cuando
+     * terminan todas
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletableFuture<List<BatchResponse>> execute(List<BatchRequest> requests,
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+            @HeaderParam(HttpHeaders.COOKIE) String cookie,
+            @HeaderParam(HttpHeaders.ACCEPT_LANGUAGE) String language) {
+        if (requests == null || requests.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.<BatchResponse>emptyList());
+        }
+        if (requests.size() > maxRequests) {
+            CompletableFuture<List<BatchResponse>> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new HttpStatusException(413,
+                    "El lote supera las " + maxRequests + " peticiones"));
+            return rejected;
+        }
+        TreeMap<String, String> inherited = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        inherited.put(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+        putIfPresent(inherited, HttpHeaders.AUTHORIZATION, authorization);
+        putIfPresent(inherited, HttpHeaders.COOKIE, cookie);
+        putIfPresent(inherited, HttpHeaders.ACCEPT_LANGUAGE, language);
+
+        final List<CompletableFuture<BatchResponse>> responses = new ArrayList<>(requests.size());
+        // La ultima escritura y las GET posteriores, que la siguiente
+        // escritura espera
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        CompletableFuture<?> barrier = CompletableFuture.completedFuture(null);
+        for (BatchRequest request : requests) {
+            CompletableFuture<BatchResponse> response;
+            if ("GET".equals(request.getMethod())) {
+                response = barrier.thenCompose(dispatcher(request, inherited));
+                pending.add(response);
+            } else {
+                pending.add(barrier);
+                response = CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]))
+                        .thenCompose(dispatcher(request, inherited));
+                barrier = response;
+                pending.clear();
+            }
+            responses.add(response);
+        }
+        return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[responses.size()]))
+                .thenApply(new Function<Void, List<BatchResponse>>() {
+                    @Override
+                    public List<BatchResponse> apply(Void ignored) {
+                        List<BatchResponse> result = new ArrayList<>(responses.size());
+                        for (CompletableFuture<BatchResponse> response : responses) {
+                            result.add(response.join());
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    private static void putIfPresent(Map<String, String> headers, String name, String value) {
+        if (value != null) {
+            headers.put(name, value);
+        }
+    }
+
+    private Function<Object, CompletionStage<BatchResponse>> dispatcher(final BatchRequest request,
+            final TreeMap<String, String> inherited) {
+        return new Function<Object, CompletionStage<BatchResponse>>() {
+            @Override
+            public CompletionStage<BatchResponse> apply(Object ignored) {
+                return submit(request, inherited);
+            }
+        };
+    }
+
+    /**
+     * Entrega la peticion al executor del servidor. Si el servidor no se
+     * inicio se atiende en el hilo actual
+     */
+    private CompletableFuture<BatchResponse> submit(final BatchRequest request,
+            final TreeMap<String, String> inherited) {
+        ExecutorService executor = server.getExecutor();
+        if (executor == null) {
+            return dispatch(request, inherited);
+        }
+        final CompletableFuture<BatchResponse> response = new CompletableFuture<>();
+        try {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException();
+            }
+            // Si la cola del modo BOUNDED esta llena, la tarea se ejecuta en
+            // este hilo y el ContextHandler responde 503
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(request, inherited).whenComplete(new BiConsumer<BatchResponse, Throwable>() {
+                        @Override
+                        public void accept(BatchResponse result, Throwable error) {
+                            if (error != null) {
+                                response.completeExceptionally(error);
+                            } else {
+                                response.complete(result);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return error(503, "Servidor detenido");
+        }
+        return response;
+    }
+
+    /**
+     * Atiende una peticion del lote en el hilo actual. Las rutas asincronicas
+     * completan la respuesta mas tarde desde su propio hilo
+     */
+    private CompletableFuture<BatchResponse> dispatch(BatchRequest request, TreeMap<String, String> inherited) {
+        String path = request.getPath();
+        if (path == null || !path.startsWith("/")) {
+            return error(400, "Path invalido");
+        }
+        String rawQuery = null;
+        int question = path.indexOf('?');
+        if (question >= 0) {
+            rawQuery = path.substring(question + 1);
+            path = path.substring(0, question);
+        }
+        WebContext context = contextFor(path);
+        if (context == null) {
+            return error(404, "Contexto inexistente");
+        }
+        if (context instanceof BatchContext) {
+            return error(400, "Un lote no puede contener otro lote");
+        }
+        try {
+            TreeMap<String, String> headers = new TreeMap<>(inherited);
+            if (request.getHeaders() != null) {
+                headers.putAll(request.getHeaders());
+            }
+            byte[] body = null;
+            if (request.getBody() != null) {
+                if (request.getBody() instanceof String && headers.containsKey(HttpHeaders.CONTENT_TYPE)) {
+                    body = ((String) request.getBody()).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    body = mapper.writeValueAsBytes(request.getBody());
+                    headers.put(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+                }
+                headers.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+            }
+            String query = query(request.getQuery());
+            if (query != null) {
+                rawQuery = rawQuery != null ? rawQuery + '&' + query : query;
+            }
+            BatchExchange exchange = new BatchExchange(request.getMethod(), path, rawQuery,
+                    headers, body);
+            context.handle(exchange);
+            return exchange.getResponse();
+        } catch (IllegalArgumentException e) {
+            return error(400, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error atendiendo la peticion " + path + " del lote", e);
+            return error(500, "Error interno");
+        }
+    }
+
+    /**
+     * Contexto del servidor cuyo nombre es el prefijo mas largo del path, con
+     * el mismo criterio que el servidor http
+     */
+    private WebContext contextFor(String path) {
+        WebContext found = null;
+        synchronized (server.getContexts()) {
+            for (WebContext context : server.getContexts()) {
+                String name = context.getName();
+                if (path.startsWith(name) && (found == null || name.length() > found.getName().length())) {
+                    found = context;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Arma el query string de los parametros de una peticion
+     *
+     * @param query String sin decodificar o mapa de valores
+     * @return Query string o null si no hay parametros
+     */
+    private static String query(Object query) throws UnsupportedEncodingException {
+        if (query == null || query instanceof String) {
+            return (String) query;
+        }
+        if (!(query instanceof Map)) {
+            throw new IllegalArgumentException("Query invalido");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) query).entrySet()) {
+            Iterable<?> values = entry.getValue() instanceof Iterable ? (Iterable<?>) entry.getValue()
+                    : Collections.singletonList(entry.getValue());
+            for (Object value : values) {
+                if (builder.length() > 0) {
+                    builder.append('&');
+                }
+                builder.append(URLEncoder.encode(String.valueOf(entry.getKey()), "UTF-8")).append('=')
+                        .append(URLEncoder.encode(String.valueOf(value), "UTF-8"));
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+    private static CompletableFuture<BatchResponse> error(int status, String message) {
+        TreeMap<String, String> headers = new TreeMap<>();
+        headers.put(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN);
+        return CompletableFuture.completedFuture(new BatchResponse(status, headers, message, false));
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Establece la cantidad maxima de peticiones de un lote, los lotes mas
+     * grandes se rechazan con 413
+     *
+     * @param maxRequests Cantidad de peticiones
+     */
+    public void setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+}
@@ -0,0 +1,138 @@
+package com.gaston.git.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ServerExchange de una peticion de un lote, que se atiende dentro del propio
+ * servidor sin pasar por la red. La respuesta se guarda en memoria y se
+ * publica al cerrar el exchange, desde el hilo que la termine de enviar
+ *
+ * @author gaston
+ */
+final class BatchExchange implements ServerExchange {
+
+    private static final InetSocketAddress LOCAL = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private final String method;
+    private final String rawPath;
+    private final String rawQuery;
+    private final Map<String, String> requestHeaders;
+    private final byte[] requestBody;
+    private final Map<String, String> responseHeaders = new LinkedHashMap<>();
+    private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+    private final CompletableFuture<BatchResponse> response = new CompletableFuture<>();
+    private int status;
+
+    /**
+     * Crea el exchange de una peticion
+     *
+     * @param method Metodo http
+     * @param rawPath Path sin decodificar
+     * @param rawQuery Query string sin decodificar o null
+     * @param requestHeaders Headers, el nombre no distingue mayusculas
+     * @param requestBody Cuerpo o null
+     */
+    BatchExchange(String method, String rawPath, String rawQuery, TreeMap<String, String> requestHeaders,
+            byte[] requestBody) {
+        this.method = method;
+        this.rawPath = rawPath;
+        this.rawQuery = rawQuery;
+        this.requestHeaders = requestHeaders;
+        this.requestBody = requestBody != null ? requestBody : new byte[0];
+    }
+
+    /**
+     * Respuesta de la peticion, se completa al cerrar el exchange
+     *
+     * @return Respuesta pendiente
+     */
+    CompletableFuture<BatchResponse> getResponse() {
+        return response;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRawPath() {
+        return rawPath;
+    }
+
+    @Override
+    public String getRawQuery() {
+        return rawQuery;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        return requestHeaders.get(name);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return new ByteArrayInputStream(requestBody);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return LOCAL;
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+        responseHeaders.put(name, value);
+    }
+
+    @Override
+    public void addResponseHeader(String name, String value) {
+        String previous = responseHeaders.get(name);
+        responseHeaders.put(name, previous != null ? previous + ", " + value : value);
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) {
+        this.status = status;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    /**
+     * Publica la respuesta. Los headers que solo tienen sentido para la
+     * conexion se descartan
+     */
+    @Override
+    public void close() {
+        responseHeaders.remove("Server");
+        responseHeaders.remove("Vary");
+        String contentType = responseHeaders.get("Content-Type");
+        boolean json = contentType != null && isJson(contentType);
+        String body = responseBody.size() > 0 ? new String(responseBody.toByteArray(), StandardCharsets.UTF_8)
+                : null;
+        response.complete(new BatchResponse(status, responseHeaders, body, json));
+    }
+
+    private static boolean isJson(String contentType) {
+        String type = CodecRegistry.baseType(contentType);
+        return type.equals("application/json") || type.endsWith("+json");
+    }
+}
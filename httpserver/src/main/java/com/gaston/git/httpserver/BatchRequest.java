@@ -0,0 +1,87 @@
+package com.gaston.git.httpserver;
+
+import java.util.Map;
+
+/**
+ * Peticion de un lote del BatchContext
+ *
+ * @author gaston
+ */
+public class BatchRequest {
+
+    private String method = "GET";
+    private String path;
+    private Object query;
+    private Map<String, String> headers;
+    private Object body;
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Establece el metodo http, por defecto GET. Se guarda en mayusculas y
+     * null equivale a GET
+     *
+     * @param method Metodo http
+     */
+    public void setMethod(String method) {
+        this.method = method == null ? "GET" : method.toUpperCase();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Establece el path de la peticion incluyendo el del contexto, por
+     * ejemplo /orders/15. Puede incluir el query string
+     *
+     * @param path Path sin decodificar
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Object getQuery() {
+        return query;
+    }
+
+    /**
+     * Establece los parametros del query string
+     *
+     * @param query Query string sin decodificar, o un objeto con un valor o
+     * una lista de valores por parametro
+     */
+    public void setQuery(Object query) {
+        this.query = query;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Establece headers propios de la peticion, que reemplazan a los que se
+     * heredan de la peticion del lote
+     *
+     * @param headers Headers por nombre
+     */
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    public Object getBody() {
+        return body;
+    }
+
+    /**
+     * Establece el cuerpo de la peticion, se envia como json salvo que sea un
+     * String y los headers indiquen otro Content-Type
+     *
+     * @param body Cuerpo o null si la peticion no tiene
+     */
+    public void setBody(Object body) {
+        this.body = body;
+    }
+}
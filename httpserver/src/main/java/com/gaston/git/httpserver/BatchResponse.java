@@ -0,0 +1,62 @@
+package com.gaston.git.httpserver;
+
+import java.util.Map;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonRawValue;
+import org.codehaus.jackson.io.JsonStringEncoder;
+
+/**
+ * Respuesta de una peticion de un lote del BatchContext. Los cuerpos json se
+ * incluyen tal cual fueron generados, sin volver a leerlos, y el resto como
+ * texto
+ *
+ * @author gaston
+ */
+public class BatchResponse {
+
+    private final int status;
+    private final Map<String, String> headers;
+    private final String body;
+    private final boolean json;
+
+    public BatchResponse(int status, Map<String, String> headers, String body, boolean json) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.json = json;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Cuerpo de la respuesta como valor json
+     *
+     * @return Json del cuerpo, o null si la respuesta no tiene cuerpo
+     */
+    @JsonRawValue
+    public String getBody() {
+        if (body == null) {
+            return null;
+        }
+        if (json) {
+            return body;
+        }
+        return '"' + new String(JsonStringEncoder.getInstance().quoteAsString(body)) + '"';
+    }
+
+    /**
+     * Indica si el cuerpo es json
+     *
+     * @return true si el Content-Type de la respuesta es json
+     */
+    @JsonIgnore
+    public boolean isJson() {
+        return json;
+    }
+}
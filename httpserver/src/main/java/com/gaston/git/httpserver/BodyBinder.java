@@ -0,0 +1,22 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Convierte el cuerpo de una peticion en el valor del parametro que lo recibe.
+ * Se resuelve una unica vez al registrar la ruta
+ *
+ * @author gaston
+ */
+public interface BodyBinder {
+
+    /**
+     * Lee el cuerpo de la peticion
+     *
+     * @param body Stream del cuerpo, ya limitado al tamaño maximo de la ruta
+     * @return Valor del parametro
+     * @throws IOException Si el cuerpo no se puede leer o no es valido
+     */
+    Object bind(InputStream body) throws IOException;
+}
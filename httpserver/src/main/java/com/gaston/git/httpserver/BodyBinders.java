@@ -0,0 +1,91 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.JavaType;
+
+/**
+ * Fabrica de binders del cuerpo de las peticiones.
+ *
+ * Los parametros de tipo InputStream reciben el stream del cuerpo sin ninguna
+ * conversion, pensado para cargas masivas que el metodo procesa por su cuenta.
+ * Los parametros ByteBuffer o byte[] reciben el cuerpo completo. Para el resto
+ * de los tipos se usa el parser de Jackson sobre los bytes, que detecta la
+ * codificacion por si mismo, con el tipo generico completo ya resuelto
+ *
+ * @author gaston
+ */
+public final class BodyBinders {
+
+    private static final BodyBinder RAW_STREAM = new BodyBinder() {
+        @Override
+        public Object bind(InputStream body) {
+            return body;
+        }
+    };
+
+    private static final BodyBinder BYTE_BUFFER = new BodyBinder() {
+        @Override
+        public Object bind(InputStream body) throws IOException {
+            return ByteBuffer.wrap(readFully(body));
+        }
+    };
+
+    private static final BodyBinder BYTE_ARRAY = new BodyBinder() {
+        @Override
+        public Object bind(InputStream body) throws IOException {
+            return readFully(body);
+        }
+    };
+
+    private BodyBinders() {
+    }
+
+    /**
+     * Obtiene el binder para el tipo del parametro
+     *
+     * @param type Tipo generico del parametro
+     * @param mapper Mapper Json del contexto
+     * @return Binder del cuerpo
+     */
+    public static BodyBinder forType(Type type, final ObjectMapper mapper) {
+        if (type == InputStream.class) {
+            return RAW_STREAM;
+        } else if (type == ByteBuffer.class) {
+            return BYTE_BUFFER;
+        } else if (type == byte[].class) {
+            return BYTE_ARRAY;
+        }
+        final JavaType javaType = mapper.getTypeFactory().constructType(type);
+        return new BodyBinder() {
+            @Override
+            public Object bind(InputStream body) throws IOException {
+                return mapper.readValue(body, javaType);
+            }
+        };
+    }
+
+    /**
+     * Lee el stream completo
+     *
+     * @param in Stream a leer
+     * @return Bytes leidos
+     * @throws IOException Si falla la lectura
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        int count = 0;
+        int read;
+        while ((read = in.read(buffer, count, buffer.length - count)) >= 0) {
+            count += read;
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+    }
+}
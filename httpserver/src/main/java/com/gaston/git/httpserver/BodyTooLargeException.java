@@ -0,0 +1,18 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+
+/**
+ * Se lanza al leer el cuerpo de una peticion que supera el tamaño maximo
+ * permitido por la ruta
+ *
+ * @author gaston
+ */
+public class BodyTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BodyTooLargeException(long maxBodySize) {
+        super("El cuerpo de la peticion supera el maximo de " + maxBodySize + " bytes");
+    }
+}
@@ -0,0 +1,80 @@
+package com.gaston.git.httpserver;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de buffers de tamaño fijo para escribir las respuestas. Evita crear un
+ * arreglo nuevo por cada peticion; si el pool esta vacio se crea un buffer y
+ * si al devolverlo el pool ya esta completo se descarta
+ *
+ * @author gaston
+ */
+public final class BufferPool {
+
+    /**
+     * Tamaño por defecto de los buffers, las respuestas que entran completas
+     * en un buffer se envian con Content-Length exacto
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, 256);
+
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Pool compartido por todos los contextos
+     *
+     * @return Pool de buffers
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Obtiene un buffer del pool o crea uno nuevo
+     *
+     * @return Buffer de tamaño getBufferSize()
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Devuelve un buffer al pool
+     *
+     * @param buffer Buffer obtenido con acquire
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Tamaño de los buffers del pool
+     *
+     * @return Tamaño en bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,44 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Atiende las peticiones de un metodo, o de cada metodo de un contexto si se
+ * anota la clase, en un pool de hilos propio en lugar del pool del servidor.
+ * Asi una ruta lenta solo puede ocupar los hilos de su pool y no demora a las
+ * demas. Las rutas que indican el mismo nombre de pool lo comparten.
+ *
+ * El WebServer crea los pools al registrar los contextos y los cierra en
+ * stop. Cuando los hilos y la cola del pool estan ocupados la peticion se
+ * responde 503 con Retry-After, igual que en el modo BOUNDED
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Bulkhead {
+
+    /**
+     * Nombre del pool
+     *
+     * @return Nombre del pool
+     */
+    String pool();
+
+    /**
+     * Cantidad de hilos del pool
+     *
+     * @return Cantidad de hilos
+     */
+    int size() default 8;
+
+    /**
+     * Cantidad maxima de peticiones en espera de un hilo del pool
+     *
+     * @return Cantidad de peticiones
+     */
+    int queue() default 100;
+}
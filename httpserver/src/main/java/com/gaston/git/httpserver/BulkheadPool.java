@@ -0,0 +1,141 @@
+package com.gaston.git.httpserver;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.log4j.Logger;
+
+/**
+ * Pool de hilos con nombre donde se atienden las peticiones de las rutas
+ * anotadas con @Bulkhead. Tiene una cantidad fija de hilos y una cola
+ * acotada; las peticiones que no entran se responden 503 en el hilo que las
+ * entrega, sin leer su cuerpo
+ *
+ * @author gaston
+ */
+public final class BulkheadPool {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    private final String name;
+    private final int size;
+    private final int queueCapacity;
+    private final LongAdder rejected = new LongAdder();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Crea el pool e inicia sus hilos
+     *
+     * @param name Nombre del pool
+     * @param size Cantidad de hilos
+     * @param queueCapacity Cantidad maxima de peticiones en espera
+     * @param retryAfter Segundos del header Retry-After de las peticiones
+     * rechazadas
+     */
+    public BulkheadPool(String name, int size, int queueCapacity, int retryAfter) {
+        if (size <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Pool invalido " + name + " " + size + "/" + queueCapacity);
+        }
+        this.name = name;
+        this.size = size;
+        this.queueCapacity = queueCapacity;
+        this.executor = RequestExecutors.createBulkhead(name, size, queueCapacity, retryAfter, rejected);
+    }
+
+    /**
+     * Crea el pool configurado por una anotacion
+     *
+     * @param bulkhead Anotacion de la ruta
+     * @param retryAfter Segundos del header Retry-After de las peticiones
+     * rechazadas
+     * @return Pool
+     */
+    static BulkheadPool of(Bulkhead bulkhead, int retryAfter) {
+        return new BulkheadPool(bulkhead.pool(), bulkhead.size(), bulkhead.queue(), retryAfter);
+    }
+
+    /**
+     * Atiende una peticion en un hilo del pool
+     *
+     * @param handler Contexto de la peticion
+     * @param exchange Peticion recibida
+     */
+    void execute(final ContextHandler handler, final ServerExchange exchange) {
+        if (executor.isShutdown()) {
+            exchange.close();
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.serve(exchange);
+                } catch (Throwable t) {
+                    logger.error("Error atendiendo " + exchange.getRequestMethod() + " " + exchange.getRawPath(), t);
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Nombre del pool
+     *
+     * @return Nombre del pool
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Cantidad de hilos del pool
+     *
+     * @return Cantidad de hilos
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Cantidad maxima de peticiones en espera
+     *
+     * @return Cantidad de peticiones
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Cantidad de hilos atendiendo peticiones
+     *
+     * @return Cantidad de hilos
+     */
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Cantidad de peticiones esperando un hilo
+     *
+     * @return Cantidad de peticiones
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Cantidad de peticiones rechazadas por tener el pool y la cola llenos
+     *
+     * @return Cantidad de peticiones
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Deja de aceptar peticiones, las que estan en la cola se terminan de
+     * atender
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
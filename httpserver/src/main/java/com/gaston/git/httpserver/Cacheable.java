@@ -0,0 +1,47 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indica que la respuesta serializada de un metodo @GET se guarda en cache. La
+ * clave es el path de la peticion, los valores de los parametros @QueryParam y
+ * @HeaderParam del metodo y el formato negociado de la respuesta, por lo que
+ * los parametros del query string y los headers que el metodo no declara no
+ * generan entradas distintas.
+ *
+ * Mientras la entrada este vigente el metodo no se invoca. Las respuestas
+ * llevan un ETag fuerte calculado sobre los bytes enviados y las peticiones
+ * con If-None-Match se responden con 304 sin cuerpo
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+
+    /**
+     * Tiempo de vida de cada entrada
+     *
+     * @return Tiempo en la unidad indicada por unit
+     */
+    long ttl() default 60;
+
+    /**
+     * Unidad del tiempo de vida
+     *
+     * @return Unidad de tiempo
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * Cantidad maxima de entradas, al superarla se descartan las usadas menos
+     * recientemente
+     *
+     * @return Cantidad de entradas
+     */
+    int maxEntries() default 1000;
+}
@@ -0,0 +1,41 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indica que las peticiones @GET identicas que llegan mientras el metodo ya se
+ * esta ejecutando no lo vuelven a invocar: esperan el resultado de la
+ * invocacion en curso y todas reciben los mismos bytes serializados. Dos
+ * peticiones son identicas si tienen el mismo path, los mismos valores de los
+ * parametros @QueryParam y @HeaderParam del metodo y el mismo formato de
+ * respuesta.
+ *
+ * A diferencia de @Cacheable no se guarda nada: cuando la invocacion termina
+ * la siguiente peticion vuelve a invocar el metodo. Si la invocacion falla
+ * todas las peticiones que la esperaban reciben el mismo error
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Coalesce {
+
+    /**
+     * Tiempo maximo que una peticion espera el resultado de otra, al superarlo
+     * se responde 504. Con 0 espera sin limite
+     *
+     * @return Tiempo en la unidad indicada por unit
+     */
+    long maxWait() default 30;
+
+    /**
+     * Unidad del tiempo maximo de espera
+     *
+     * @return Unidad de tiempo
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
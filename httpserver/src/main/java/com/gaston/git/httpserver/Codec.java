@@ -0,0 +1,30 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializador de las respuestas de los contextos web para un media type. Las
+ * implementaciones deben ser thread safe ya que una misma instancia se usa en
+ * todas las peticiones
+ *
+ * @author gaston
+ */
+public interface Codec {
+
+    /**
+     * Media type que genera el codec, se envia como Content-Type
+     *
+     * @return Media type, por ejemplo application/json
+     */
+    String getMediaType();
+
+    /**
+     * Escribe el valor en el stream de la respuesta. No debe cerrar el stream
+     *
+     * @param value Valor retornado por el metodo del contexto
+     * @param out Stream de la respuesta
+     * @throws IOException Si falla la escritura
+     */
+    void write(Object value, OutputStream out) throws IOException;
+}
@@ -0,0 +1,86 @@
+package com.gaston.git.httpserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro de los codecs disponibles para serializar las respuestas. El
+ * registro por defecto contiene json, xml, texto plano, Smile, ndjson y
+ * text/event-stream; se pueden agregar o reemplazar codecs antes de iniciar el
+ * servidor, ya que cada ruta resuelve sus codecs al crearse el contexto.
+ *
+ * El orden de registro define la preferencia cuando el cliente acepta varios
+ * media types con la misma calidad
+ *
+ * @author gaston
+ */
+public final class CodecRegistry {
+
+    private static final CodecRegistry DEFAULT = new CodecRegistry();
+
+    static {
+        DEFAULT.register(new JsonCodec());
+        DEFAULT.register(new XmlCodec());
+        DEFAULT.register(new TextCodec());
+        DEFAULT.register(new SmileCodec());
+        DEFAULT.register(new NdjsonCodec());
+        DEFAULT.register(new EventStreamCodec());
+    }
+
+    private volatile Map<String, Codec> codecs = Collections.emptyMap();
+
+    /**
+     * Registro utilizado por los contextos web
+     *
+     * @return Registro por defecto
+     */
+    public static CodecRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registra un codec, si ya existia uno para el mismo media type se
+     * reemplaza
+     *
+     * @param codec Codec a registrar
+     */
+    public synchronized void register(Codec codec) {
+        Map<String, Codec> copy = new LinkedHashMap<>(codecs);
+        copy.put(baseType(codec.getMediaType()), codec);
+        codecs = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Obtiene el codec de un media type, ignorando sus parametros
+     *
+     * @param mediaType Media type
+     * @return Codec o null si no hay ninguno registrado
+     */
+    public Codec get(String mediaType) {
+        return codecs.get(baseType(mediaType));
+    }
+
+    /**
+     * Codecs registrados en orden de preferencia
+     *
+     * @return Lista de codecs
+     */
+    public List<Codec> getCodecs() {
+        return new ArrayList<>(codecs.values());
+    }
+
+    /**
+     * Obtiene el tipo de un media type sin parametros y en minusculas
+     *
+     * @param mediaType Media type, por ejemplo "text/plain; charset=UTF-8"
+     * @return Tipo base, por ejemplo "text/plain"
+     */
+    static String baseType(String mediaType) {
+        int semicolon = mediaType.indexOf(';');
+        String base = semicolon < 0 ? mediaType : mediaType.substring(0, semicolon);
+        return base.trim().toLowerCase();
+    }
+}
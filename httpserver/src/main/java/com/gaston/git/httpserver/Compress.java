@@ -0,0 +1,33 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Configura la compresion de las respuestas de un metodo, o de todos los
+ * metodos de un contexto si se anota la clase. Sin esta anotacion se usa el
+ * tamaño minimo configurado en ResponseCompression para el formato de la
+ * respuesta
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Compress {
+
+    /**
+     * Tamaño minimo en bytes de las respuestas que se comprimen
+     *
+     * @return Cantidad de bytes
+     */
+    int minSize() default ResponseCompression.DEFAULT_THRESHOLD;
+
+    /**
+     * Indica si se comprimen las respuestas
+     *
+     * @return false para no comprimir nunca
+     */
+    boolean enabled() default true;
+}
@@ -0,0 +1,211 @@
+package com.gaston.git.httpserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limitador de peticiones en curso sin bloqueos: un semaforo que nunca
+ * espera, cada permiso se toma con un compareAndSet sobre un contador y si no
+ * hay lugar la peticion se rechaza en el momento.
+ *
+ * El limite puede cambiarse en cualquier momento; si baja, las peticiones en
+ * curso terminan normalmente y las nuevas se rechazan hasta quedar por debajo.
+ * Con limite por cliente los contadores en cero se descartan cuando hay
+ * muchos clientes. La busqueda se hace como mucho una vez por segundo, y si el
+ * mapa sigue lleno los clientes nuevos se rechazan hasta que haya lugar
+ *
+ * @author gaston
+ */
+public final class ConcurrencyLimiter {
+
+    /**
+     * Cantidad maxima de clientes, a partir de ella se descartan los
+     * inactivos y se rechazan los nuevos
+     */
+    private static final int MAX_CLIENTS = 10000;
+
+    /**
+     * Tiempo minimo entre dos busquedas de clientes inactivos
+     */
+    private static final long EVICT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Valor de los contadores descartados, un cliente que encuentra su
+     * contador asi lo reemplaza por uno nuevo
+     */
+    private static final int EVICTED = Integer.MIN_VALUE;
+
+    private final boolean perClient;
+    private final AtomicInteger shared = new AtomicInteger();
+    private final Map<String, AtomicInteger> clients;
+    private final AtomicLong nextEviction = new AtomicLong(System.nanoTime());
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    /**
+     * Crea un limitador
+     *
+     * @param limit Cantidad maxima de peticiones en curso
+     * @param perClient true para limitar cada cliente por separado
+     */
+    public ConcurrencyLimiter(int limit, boolean perClient) {
+        this.perClient = perClient;
+        this.clients = perClient ? new ConcurrentHashMap<String, AtomicInteger>() : null;
+        setLimit(limit);
+    }
+
+    /**
+     * Crea el limitador configurado por una anotacion
+     *
+     * @param limit Anotacion de la ruta
+     * @return Limitador
+     */
+    static ConcurrencyLimiter of(MaxConcurrent limit) {
+        return new ConcurrencyLimiter(limit.value(), limit.perClient());
+    }
+
+    /**
+     * Cambia el limite, se aplica desde la proxima peticion
+     *
+     * @param limit Cantidad maxima de peticiones en curso
+     */
+    public void setLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limite invalido " + limit);
+        }
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Intenta tomar un permiso, que debe devolverse con release al terminar
+     * la peticion
+     *
+     * @param client Direccion del cliente, solo se usa si el limite es por
+     * cliente
+     * @return true si se tomo el permiso
+     */
+    public boolean tryAcquire(String client) {
+        AtomicInteger active = perClient ? clientCounter(client) : shared;
+        int max = limit;
+        while (true) {
+            if (active == null) {
+                rejected.increment();
+                return false;
+            }
+            int current = active.get();
+            if (current == EVICTED) {
+                active = clientCounter(client);
+                continue;
+            }
+            if (current >= max) {
+                rejected.increment();
+                return false;
+            }
+            if (active.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Devuelve un permiso tomado con tryAcquire
+     *
+     * @param client Direccion del cliente con que se tomo
+     */
+    public void release(String client) {
+        AtomicInteger active = perClient ? clients.get(client) : shared;
+        if (active != null) {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Contador de un cliente, se crea si no existe o fue descartado
+     *
+     * @param client Direccion del cliente
+     * @return Contador, o null si se alcanzo la cantidad maxima de clientes
+     */
+    private AtomicInteger clientCounter(String client) {
+        AtomicInteger active = clients.get(client);
+        if (active != null && active.get() == EVICTED) {
+            clients.remove(client, active);
+            active = null;
+        }
+        if (active == null) {
+            if (clients.size() >= MAX_CLIENTS && !makeRoom()) {
+                return null;
+            }
+            AtomicInteger created = new AtomicInteger();
+            active = clients.putIfAbsent(client, created);
+            if (active == null) {
+                active = created;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Descarta los clientes inactivos si paso el intervalo desde la ultima
+     * busqueda. Solo busca el hilo que logra adelantar el proximo instante
+     *
+     * @return true si hay lugar para un cliente nuevo
+     */
+    private boolean makeRoom() {
+        long now = System.nanoTime();
+        long next = nextEviction.get();
+        if (now - next >= 0 && nextEviction.compareAndSet(next, now + EVICT_INTERVAL)) {
+            evictIdle();
+        }
+        return clients.size() < MAX_CLIENTS;
+    }
+
+    /**
+     * Descarta los clientes sin peticiones en curso. El contador se marca
+     * antes de quitarlo, asi ninguna peticion puede tomar un permiso de un
+     * contador que ya no esta en el mapa
+     */
+    private void evictIdle() {
+        for (Map.Entry<String, AtomicInteger> entry : clients.entrySet()) {
+            if (entry.getValue().compareAndSet(0, EVICTED)) {
+                clients.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Cantidad de peticiones en curso, sumando todos los clientes
+     *
+     * @return Cantidad de peticiones
+     */
+    public int getActive() {
+        if (!perClient) {
+            return shared.get();
+        }
+        int total = 0;
+        for (AtomicInteger active : clients.values()) {
+            total += Math.max(0, active.get());
+        }
+        return total;
+    }
+
+    /**
+     * Cantidad de peticiones rechazadas
+     *
+     * @return Cantidad de peticiones
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public boolean isPerClient() {
+        return perClient;
+    }
+}
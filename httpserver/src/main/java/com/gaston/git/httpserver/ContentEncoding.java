@@ -0,0 +1,28 @@
+package com.gaston.git.httpserver;
+
+/**
+ * Codificaciones de compresion que el servidor puede aplicar a las respuestas
+ *
+ * @author gaston
+ */
+public enum ContentEncoding {
+
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String token;
+
+    private ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Nombre de la codificacion en los headers Accept-Encoding y
+     * Content-Encoding
+     *
+     * @return Nombre de la codificacion
+     */
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,180 @@
+package com.gaston.git.httpserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Resuelve el codec de la respuesta de una ruta. Se construye al registrar la
+ * ruta a partir de su anotacion @Produces: si la ruta produce un unico media
+ * type el codec queda fijo, sino se elige segun el header Accept de la
+ * peticion y el resultado se guarda por valor de Accept, de forma que cada
+ * combinacion se negocia una sola vez
+ *
+ * @author gaston
+ */
+public final class ContentNegotiator {
+
+    /**
+     * Cantidad maxima de valores de Accept distintos que se guardan por ruta
+     */
+    private static final int MAX_CACHED = 64;
+
+    /**
+     * Marca de los Accept que no tienen ningun codec compatible, ya que el
+     * mapa no admite null
+     */
+    private static final Codec NOT_ACCEPTABLE = new TextCodec();
+
+    /**
+     * Codec fijo si la ruta produce un unico media type
+     */
+    private final Codec fixed;
+
+    /**
+     * Codecs candidatos en orden de preferencia
+     */
+    private final List<Codec> candidates;
+
+    /**
+     * Media types a enviar como Content-Type por codec, respetando los
+     * parametros indicados en @Produces
+     */
+    private final List<String> contentTypes;
+
+    private final ConcurrentMap<String, Codec> cache = new ConcurrentHashMap<>();
+
+    private ContentNegotiator(List<Codec> candidates, List<String> contentTypes) {
+        this.candidates = candidates;
+        this.contentTypes = contentTypes;
+        this.fixed = candidates.size() == 1 ? candidates.get(0) : null;
+    }
+
+    /**
+     * Crea el negociador de una ruta
+     *
+     * @param produces Media types de la anotacion @Produces, o null si la ruta
+     * no la tiene
+     * @param registry Registro de codecs
+     * @return Negociador de la ruta
+     */
+    public static ContentNegotiator create(String[] produces, CodecRegistry registry) {
+        List<Codec> candidates = new ArrayList<>();
+        List<String> contentTypes = new ArrayList<>();
+        if (produces == null || produces.length == 0) {
+            for (Codec codec : registry.getCodecs()) {
+                candidates.add(codec);
+                contentTypes.add(codec.getMediaType());
+            }
+        } else {
+            for (String value : produces) {
+                for (String mediaType : value.split(",")) {
+                    mediaType = mediaType.trim();
+                    Codec codec = MediaType.WILDCARD.equals(mediaType)
+                            ? registry.get(MediaType.APPLICATION_JSON)
+                            : registry.get(mediaType);
+                    if (codec != null && !candidates.contains(codec)) {
+                        candidates.add(codec);
+                        contentTypes.add(MediaType.WILDCARD.equals(mediaType) ? codec.getMediaType() : mediaType);
+                    }
+                }
+            }
+        }
+        return new ContentNegotiator(Collections.unmodifiableList(candidates),
+                Collections.unmodifiableList(contentTypes));
+    }
+
+    /**
+     * Selecciona el codec segun el header Accept
+     *
+     * @param accept Valor del header Accept, puede ser null
+     * @return Codec o null si ninguno de los media types aceptados se puede
+     * producir
+     */
+    public Codec select(String accept) {
+        if (fixed != null) {
+            return fixed;
+        }
+        if (accept == null) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        Codec codec = cache.get(accept);
+        if (codec == null) {
+            codec = negotiate(accept);
+            if (codec == null) {
+                codec = NOT_ACCEPTABLE;
+            }
+            if (cache.size() < MAX_CACHED) {
+                cache.putIfAbsent(accept, codec);
+            }
+        }
+        return codec == NOT_ACCEPTABLE ? null : codec;
+    }
+
+    /**
+     * Content-Type que se envia para el codec seleccionado
+     *
+     * @param codec Codec seleccionado
+     * @return Media type de la respuesta
+     */
+    public String contentType(Codec codec) {
+        int index = candidates.indexOf(codec);
+        return index < 0 ? codec.getMediaType() : contentTypes.get(index);
+    }
+
+    /**
+     * Elige el candidato con mayor calidad segun el header Accept. A igual
+     * calidad se prefiere el media type mas especifico y luego el orden de los
+     * candidatos
+     */
+    private Codec negotiate(String accept) {
+        Codec best = null;
+        double bestQuality = 0;
+        int bestSpecificity = -1;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase();
+            if (type.isEmpty()) {
+                continue;
+            }
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (quality <= 0) {
+                continue;
+            }
+            int specificity = type.equals("*/*") ? 0 : type.endsWith("/*") ? 1 : 2;
+            for (Codec codec : candidates) {
+                if (matches(type, CodecRegistry.baseType(codec.getMediaType()))
+                        && (quality > bestQuality || (quality == bestQuality && specificity > bestSpecificity))) {
+                    best = codec;
+                    bestQuality = quality;
+                    bestSpecificity = specificity;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean matches(String range, String mediaType) {
+        if (range.equals("*/*") || range.equals("*")) {
+            return true;
+        }
+        if (range.endsWith("/*")) {
+            return mediaType.startsWith(range.substring(0, range.length() - 1));
+        }
+        return range.equals(mediaType);
+    }
+}
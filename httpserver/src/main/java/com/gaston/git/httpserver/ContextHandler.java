@@ -1,35 +1,43 @@
 package com.gaston.git.httpserver;
 
 
-import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.text.SimpleDateFormat;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import javax.ws.rs.BeanParam;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
-import javax.ws.rs.Produces;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.json.JSONObject;
-import org.json.XML;
 
 /**
  * Clase encargada de manejar un contexto web.Todas las peticiones que se
@@ -51,15 +59,57 @@ import org.json.XML;
  * necesita el annotation @QueryParam, sino ese parametro en el metodo es
  * ignorado
  *
+ * El annotation @Path de los metodos puede contener parametros de la forma
+ * {nombre}, por ejemplo /orders/{id}, que se inyectan en los parametros del
+ * metodo anotados con @PathParam. Si el path existe pero no para el metodo http
+ * invocado se responde 405 indicando los metodos permitidos
+ *
  *
  * Todos lo metodos pueden ser anotados con @Consume o @Produces para
  * especificar el formato en como recibiran o enviaran los datos, en el caso de
  * poner el wildcard "*" se toma el valor por defecto que es application/json,
  * si no se indica nada en el metodo se retorna segun el formato que se envia en
- * el mismo request
+ * el mismo request. Los formatos disponibles son los codecs del CodecRegistry
+ * (json, xml, texto plano, Smile, ndjson y text/event-stream), si el cliente no acepta ninguno de los que
+ * produce el metodo se responde 406
  *
  * A nivel de clase estos annotationes no tienen ningun efecto
  *
+ * Los metodos @GET anotados con @Cacheable guardan su respuesta serializada y
+ * no se vuelven a invocar mientras la entrada este vigente; las respuestas se
+ * envian con ETag y se responde 304 a los If-None-Match que coinciden. Las
+ * entradas pueden descartarse con invalidateCache
+ *
+ * Las respuestas se comprimen con gzip o deflate segun el header
+ * Accept-Encoding cuando superan el tamaño minimo de ResponseCompression o el
+ * indicado con @Compress; las respuestas en cache guardan su forma comprimida
+ *
+ * Los metodos pueden retornar un CompletableFuture o CompletionStage: el hilo
+ * del pool se libera al retornar y la respuesta se envia cuando el resultado
+ * se completa, o 504 si no se completa dentro del tiempo indicado con
+ * @AsyncTimeout o setAsyncTimeout
+ *
+ * Los metodos que retornan un Stream o un Iterator envian la respuesta chunked
+ * a medida que se generan los elementos, en lotes de @StreamBatch elementos:
+ * como arreglo json, una linea por elemento en ndjson o un evento por elemento
+ * en text/event-stream. Estas respuestas no se guardan en cache
+ *
+ * Los metodos @GET anotados con @Coalesce se invocan una sola vez para las
+ * peticiones identicas que llegan mientras estan en curso; las demas esperan
+ * sin ocupar un hilo y reciben los mismos bytes serializados con su ETag, sin
+ * que quede nada guardado al terminar
+ *
+ * Las rutas anotadas con @RateLimit o @MaxConcurrent se responden 429 con
+ * Retry-After sin invocar el metodo cuando superan su limite, asi una ruta muy
+ * usada o lenta no ocupa todo el pool del servidor. Las anotadas con @Bulkhead
+ * se atienden en un pool propio que crea el WebServer
+ *
+ * Los metodos que retornan un StaticFile, como los del StaticContext, envian
+ * el archivo tal cual con su Content-Type, sin pasar por ningun codec
+ *
+ * Cada ruta registra sin bloqueos sus peticiones, errores, bytes y un
+ * histograma de latencias, que expone el MetricsContext
+ *
  * @author gaston
  */
 public class ContextHandler implements HttpHandler {
@@ -67,110 +117,173 @@ public class ContextHandler implements HttpHandler {
     private static final Logger logger = Logger.getLogger("webServerLogger");
 
     /**
-     * Este mapa contiene las representaciones de los metodos post de insercion
-     * en forma de nombre de <pathMetodo,<Metodo,Parametros>>
-     *
+     * Tabla de rutas del contexto, se construye una unica vez en el constructor
+     * y luego es inmutable, por lo que se consulta sin ningun bloqueo
      */
-    public Map<String, Map<Method, List<HttpMethodParameter>>> contextPostMethods;
+    private final Router router;
 
     /**
-     * Este mapa contiene las representaciones de los metodos put de
-     * actualizacion en forma de nombre de <pathMetodo,<Metodo,Parametros>>
-     *
+     * Indica si alguna ruta tiene @Bulkhead, si no hay ninguna las peticiones
+     * no se buscan antes de atenderlas
      */
-    public Map<String, Map<Method, List<HttpMethodParameter>>> contextPutMethods;
+    private final boolean bulkheads;
 
     /**
-     * Este mapa contiene las representaciones de los metodos get de
-     * actualizacion en forma de nombre de <pathMetodo,<Metodo,Parametros>>
+     * Nomre del contexto que se corresponde con el path
      */
-    public Map<String, Map<Method, List<HttpMethodParameter>>> contextGetMethods;
+    private String name;
 
     /**
-     * Este mapa contiene las representaciones de los metodos delete de
-     * actualizacion en forma de nombre de <pathMetodo,<Metodo,Parametros>>
+     * Mapper Json
      */
-    public Map<String, Map<Method, List<HttpMethodParameter>>> contextDeleteMethods;
+    private ObjectMapper mapper;
 
     /**
-     * Nomre del contexto que se corresponde con el path
+     * Tamaño maximo por defecto del cuerpo de las peticiones
      */
-    private String name;
+    public static final long DEFAULT_MAX_BODY_SIZE = 10L * 1024 * 1024;
 
     /**
-     * Mapper Json
+     * Tamaño maximo del cuerpo para las rutas sin @MaxBodySize
      */
-    private ObjectMapper mapper;
+    private long maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    /**
+     * Tiempo maximo de espera por defecto de las rutas asincronicas
+     */
+    public static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+
+    /**
+     * Tiempo maximo de espera en milisegundos de las rutas asincronicas sin
+     * @AsyncTimeout
+     */
+    private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
 
-    private Throwable contextException;
+    /**
+     * Access log donde se registran las peticiones, null si no se registran
+     */
+    private volatile AccessLog accessLog;
+
+    /**
+     * Peticiones que se estan atendiendo en todos los contextos
+     */
+    private static final LongAdder IN_FLIGHT = new LongAdder();
+
+    /**
+     * Metricas de las peticiones que no corresponden a ninguna ruta
+     */
+    private final RouteMetrics unmatchedMetrics = new RouteMetrics();
+
+    /**
+     * Contenedor de parametros reutilizado por cada hilo que atiende peticiones
+     */
+    private static final ThreadLocal<RequestParameters> REQUEST_PARAMETERS = new ThreadLocal<RequestParameters>() {
+        @Override
+        protected RequestParameters initialValue() {
+            return new RequestParameters();
+        }
+    };
 
     /**
      * Aqui por reflections se obtienen todos los datos de los distintos metodos
-     * para completar los mapas de metodos de cada operacion
+     * para construir la tabla de rutas del contexto. Para cada metodo se
+     * compila su invocador en este momento, asi en cada peticion solo se hace
+     * una busqueda y una llamada directa
      *
      * @param name Nombre del contexto
      */
     public ContextHandler(String name) {
+        this.name = name;
+        this.mapper = new ObjectMapper(new JsonFactory());
+        this.mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        DtoModule.register(this.mapper);
+        this.router = buildRouter();
+        boolean bulkhead = false;
+        for (HttpRoute route : router.getRoutes()) {
+            bulkhead |= route.getBulkhead() != null;
+        }
+        this.bulkheads = bulkhead;
+    }
+
+    /**
+     * Registra en el router todos los metodos anotados con @GET, @POST, @PUT o
+     * @DELETE. El path de cada ruta es el nombre del contexto mas el valor de
+     * la anotacion @Path del metodo, que puede contener parametros {nombre}
+     *
+     * @return Router del contexto
+     */
+    private Router buildRouter() {
+        Router.Builder builder = new Router.Builder();
         try {
-            this.name = name;
-            this.mapper = new ObjectMapper(new JsonFactory());
-            contextPostMethods = Collections.synchronizedMap(new HashMap());
-            contextPutMethods = Collections.synchronizedMap(new HashMap());
-            contextGetMethods = Collections.synchronizedMap(new HashMap());
-            contextDeleteMethods = Collections.synchronizedMap(new HashMap());
             for (Method method : this.getClass().getDeclaredMethods()) {
-                Map methodRepresetation = Collections.synchronizedMap(new HashMap());
+                String httpMethod = httpMethodOf(method);
+                if (httpMethod == null) {
+                    continue;
+                }
                 List<HttpMethodParameter> httpParams = new ArrayList<>();
-                if (method.getAnnotation(PUT.class) != null) {
-                    for (int i = 0; i < method.getParameterTypes().length; i++) {
-                        httpParams.add(new HttpMethodParameter("",
-                                method.getGenericParameterTypes()[i]));
-                    }
-                    methodRepresetation.put(method, httpParams);
-                    if (method.getAnnotation(Path.class) != null) {
-                        contextPutMethods.put(this.name + "" + method.getAnnotation(Path.class).value(), methodRepresetation);
-                    } else {
-                        contextPutMethods.put(this.name, methodRepresetation);
-                    }
-                } else if (method.getAnnotation(POST.class) != null) {
-                    for (int i = 0; i < method.getParameterTypes().length; i++) {
-                        httpParams.add(new HttpMethodParameter("",
-                                method.getGenericParameterTypes()[i]));
-                    }
-                    methodRepresetation.put(method, httpParams);
-                    if (method.getAnnotation(Path.class) != null) {
-                        contextPostMethods.put(this.name + "" + method.getAnnotation(Path.class).value(), methodRepresetation);
-                    } else {
-                        contextPostMethods.put(this.name, methodRepresetation);
-                    }
-                } else if (method.getAnnotation(GET.class) != null) {
-                    for (int i = 0; i < method.getParameterTypes().length; i++) {
-                        httpParams.add(new HttpMethodParameter(((QueryParam) method.getParameterAnnotations()[i][0]).value(),
-                                method.getGenericParameterTypes()[i]));
-                    }
-                    methodRepresetation.put(method, httpParams);
-                    if (method.getAnnotation(Path.class) != null) {
-                        contextGetMethods.put(this.name + "" + method.getAnnotation(Path.class).value(), methodRepresetation);
-                    } else {
-                        contextGetMethods.put(this.name, methodRepresetation);
-                    }
-                } else if (method.getAnnotation(DELETE.class) != null) {
-                    for (int i = 0; i < method.getParameterTypes().length; i++) {
-                        httpParams.add(new HttpMethodParameter("",
-                                method.getGenericParameterTypes()[i]));
-                    }
-                    methodRepresetation.put(method, httpParams);
-                    if (method.getAnnotation(Path.class) != null) {
-                        contextDeleteMethods.put(this.name + "" + method.getAnnotation(Path.class).value(), methodRepresetation);
-                    } else {
-                        contextDeleteMethods.put(this.name, methodRepresetation);
-                    }
+                for (int i = 0; i < method.getParameterTypes().length; i++) {
+                    httpParams.add(createParameter(method.getParameterAnnotations()[i],
+                            method.getGenericParameterTypes()[i]));
                 }
+                String path = method.getAnnotation(Path.class) != null
+                        ? this.name + "" + method.getAnnotation(Path.class).value()
+                        : this.name;
+                builder.add(new HttpRoute(this, httpMethod, path, method, httpParams));
             }
-        } catch (SecurityException e) {
+        } catch (SecurityException | IllegalAccessException | IllegalArgumentException e) {
             logger.error("Error iniciando contexto web", e);
             //TODO Aca hay q enviar un evento para que el weserver maneje este error
         }
+        return builder.build();
+    }
+
+    private static String httpMethodOf(Method method) {
+        if (method.getAnnotation(GET.class) != null) {
+            return "GET";
+        } else if (method.getAnnotation(POST.class) != null) {
+            return "POST";
+        } else if (method.getAnnotation(PUT.class) != null) {
+            return "PUT";
+        } else if (method.getAnnotation(DELETE.class) != null) {
+            return "DELETE";
+        }
+        return null;
+    }
+
+    /**
+     * Los parametros anotados con @QueryParam o @FormParam se leen del query
+     * string o del formulario, los
+     * anotados con @PathParam de los segmentos del path, los anotados con
+     * @HeaderParam de los headers y el resto del cuerpo de la peticion. Los
+     * dtos anotados con @BeanParam, @QueryParam o @FormParam se completan con
+     * los parametros del query string que tienen el nombre de sus propiedades
+     */
+    private HttpMethodParameter createParameter(Annotation[] annotations, Type type) {
+        for (Annotation annotation : annotations) {
+            if ((annotation instanceof BeanParam || annotation instanceof QueryParam
+                    || annotation instanceof FormParam) && isDto(type)) {
+                return new HttpMethodParameter("", type, HttpMethodParameter.Source.BEAN);
+            } else if (annotation instanceof QueryParam) {
+                return new HttpMethodParameter(((QueryParam) annotation).value(), type,
+                        HttpMethodParameter.Source.QUERY);
+            } else if (annotation instanceof FormParam) {
+                return new HttpMethodParameter(((FormParam) annotation).value(), type,
+                        HttpMethodParameter.Source.QUERY);
+            } else if (annotation instanceof PathParam) {
+                return new HttpMethodParameter(((PathParam) annotation).value(), type,
+                        HttpMethodParameter.Source.PATH);
+            } else if (annotation instanceof HeaderParam) {
+                return new HttpMethodParameter(((HeaderParam) annotation).value(), type,
+                        HttpMethodParameter.Source.HEADER);
+            }
+        }
+        HttpMethodParameter parameter = new HttpMethodParameter("", type, HttpMethodParameter.Source.BODY);
+        parameter.setBodyBinder(BodyBinders.forType(type, mapper));
+        return parameter;
+    }
+
+    private static boolean isDto(Type type) {
+        return type instanceof Class && BaseDto.class.isAssignableFrom((Class<?>) type);
     }
 
     /**
@@ -180,194 +293,858 @@ public class ContextHandler implements HttpHandler {
      * de los metdos del hashmap de la operacion correspondiente, es el que se
      * debe ejecutar si alguno de los valores no se corresponden con la
      * definicion de metodo, o el path invocado no existe en ninugn metodo, se
-     * lanza una excepcion que se traduce en una respuesta con un mensaje de
-     * error al cliente que invoco el servicio
+     * responde con la ErrorResponse que corresponde: 400 si falta un parametro
+     * o no es valido, 404 si el path no existe, 405 si no acepta el metodo http,
+     * 406 o 415 si no se puede producir o leer el formato pedido. Estos casos
+     * no crean excepciones, el resultado de cada peticion se guarda en un
+     * Outcome propio. Las HttpStatusException que lanza la ruta se responden
+     * con su codigo y cualquier otra excepcion con 500
+     *
+     * El valor retornado se serializa con el codec que corresponde al
+     * @Produces de la ruta y al header Accept, directamente sobre el cuerpo de
+     * la respuesta a traves de un ResponseOutputStream, las respuestas chicas se
+     * envian con su Content-Length exacto en bytes y las grandes con
+     * transferencia chunked
      *
+     * Si el pool del servidor rechazo la peticion por estar lleno solo se
+     * responde 503 con Retry-After
      *
      * @param he Informacion de la peticion web
      */
     @Override
     public void handle(HttpExchange he) throws IOException {
+        handle(new JdkExchange(he));
+    }
+
+    /**
+     * Atiende una peticion recibida por cualquier transporte. Si la ruta tiene
+     * @Bulkhead la peticion se entrega a su pool y este metodo retorna sin
+     * esperarla
+     *
+     * @param he Informacion de la peticion web
+     * @throws IOException Si no se pudo enviar la respuesta
+     */
+    public void handle(ServerExchange exchange) throws IOException {
+        if (RequestExecutors.rejectedRetryAfter() == null) {
+            BulkheadPool bulkhead = bulkheadFor(exchange);
+            if (bulkhead != null) {
+                bulkhead.execute(this, exchange);
+                return;
+            }
+        }
+        serve(exchange);
+    }
+
+    /**
+     * Pool de la ruta de una peticion, para que el transporte se la entregue
+     * directamente
+     *
+     * @param exchange Peticion recibida
+     * @return Pool de la ruta o null si se atiende en el pool del servidor
+     */
+    BulkheadPool bulkheadFor(ServerExchange exchange) {
+        if (!bulkheads) {
+            return null;
+        }
+        HttpRoute route = router.lookup(exchange.getRawPath()).getRoute(exchange.getRequestMethod());
+        return route != null ? route.getBulkheadPool() : null;
+    }
+
+    /**
+     * Atiende una peticion en el hilo actual
+     *
+     * @param exchange Peticion recibida
+     * @throws IOException Si no se pudo enviar la respuesta
+     */
+    void serve(ServerExchange exchange) throws IOException {
+        Integer retryAfter = RequestExecutors.rejectedRetryAfter();
+        if (retryAfter != null) {
+            reject(exchange, retryAfter);
+            return;
+        }
+        long start = System.nanoTime();
+        IN_FLIGHT.increment();
+        MeteredExchange he = new MeteredExchange(exchange);
+        Outcome outcome = new Outcome();
+        boolean async = false;
         try {
-            Headers headers = he.getRequestHeaders();
-            Object returnValue = null;
-            Method methodContext = null;
-            switch (he.getRequestMethod()) {
-                case "GET": {
-                    String path = he.getRequestURI().getPath();
-                    Map<Method, List<HttpMethodParameter>> methodMap = contextGetMethods.get(path);
-                    if (methodMap != null) {
-                        String query = he.getRequestURI().getQuery();
-                        Map<String, String> parameters = getParameters(query);
-                        for (Map.Entry<Method, List<HttpMethodParameter>> methodToInvoke : methodMap.entrySet()) {
-                            methodContext = methodToInvoke.getKey();
-                            returnValue = methodContext.invoke(this, checkHttpParameters(methodToInvoke, parameters).toArray());
-                        }
-                    } else {
-                        contextException = new Exception("Metodo inexistente");
+            he.setResponseHeader("Server", "CNS");
+            dispatch(he, outcome);
+            if (outcome.error != null) {
+                failShared(outcome, outcome.error.toException());
+                outcome.error.send(he);
+            } else if (outcome.shared != null) {
+                async = true;
+                awaitShared(he, outcome, start);
+            } else if (outcome.value instanceof CompletionStage) {
+                async = true;
+                sendAsync(he, outcome, (CompletionStage<?>) outcome.value, start);
+            } else {
+                send(he, outcome, outcome.value);
+            }
+        } catch (HttpStatusException e) {
+            failShared(outcome, e);
+            sendError(he, e.getStatus(), e.getMessage());
+        } catch (BodyTooLargeException e) {
+            sendError(he, 413, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error atendiendo " + he.getRequestMethod() + " " + he.getRawPath(), e);
+            ErrorResponse.INTERNAL_ERROR.send(he);
+        } finally {
+            if (!async) {
+                finish(he, outcome, start);
+            }
+        }
+    }
+
+    /**
+     * Resuelve la peticion: busca la ruta, aplica sus limites, negocia el
+     * formato, consulta la cache y convierte los parametros para invocar el
+     * metodo. Los fallos esperados quedan en el resultado como una
+     * ErrorResponse, sin lanzar excepciones; solo se propagan las que lanza el
+     * propio metodo y los errores de lectura de la peticion
+     *
+     * @param he Informacion de la peticion web
+     * @param outcome Resultado de la peticion
+     * @throws Exception Excepcion lanzada por el metodo de la ruta
+     */
+    private void dispatch(MeteredExchange he, Outcome outcome) throws Exception {
+        Router.RouteMatch match = router.lookup(he.getRawPath());
+        HttpRoute route = match.getRoute(he.getRequestMethod());
+        if (route == null) {
+            if (match.isFound()) {
+                he.setResponseHeader("Allow", match.getAllow());
+                outcome.error = ErrorResponse.METHOD_NOT_ALLOWED;
+            } else {
+                outcome.error = ErrorResponse.NOT_FOUND;
+            }
+            return;
+        }
+        outcome.route = route;
+        outcome.error = admit(he, route);
+        if (outcome.error != null) {
+            return;
+        }
+        outcome.codec = route.getNegotiator().select(he.getRequestHeader(HttpHeaders.ACCEPT));
+        if (outcome.codec == null) {
+            outcome.error = ErrorResponse.NOT_ACCEPTABLE;
+            return;
+        }
+        RequestParameters parameters = null;
+        if (route.getCache() != null) {
+            parameters = getParameters(he, route, outcome);
+            if (parameters == null) {
+                return;
+            }
+            outcome.cacheKey = cacheKey(he, route, parameters, outcome.codec);
+            outcome.cached = route.getCache().get(outcome.cacheKey);
+            if (outcome.cached != null) {
+                return;
+            }
+        }
+        RequestCoalescer coalescer = route.getCoalescer();
+        if (coalescer != null) {
+            if (parameters == null) {
+                parameters = getParameters(he, route, outcome);
+                if (parameters == null) {
+                    return;
+                }
+            }
+            String key = outcome.cacheKey != null
+                    ? outcome.cacheKey
+                    : cacheKey(he, route, parameters, outcome.codec);
+            CompletableFuture<ResponseCache.Entry> call = new CompletableFuture<>();
+            outcome.coalesceKey = key;
+            outcome.shared = coalescer.join(key, call);
+            if (outcome.shared != null) {
+                return;
+            }
+            outcome.leading = call;
+        }
+        Object[] arguments = checkHttpParameters(route, match.getPathValues(), parameters, he, outcome);
+        if (arguments != null) {
+            outcome.value = route.invoke(arguments);
+        }
+    }
+
+    /**
+     * Serializa el valor retornado por la ruta y envia la respuesta, desde la
+     * cache si la ruta tiene @Cacheable. Si la peticion invoco una ruta con
+     * @Coalesce los bytes serializados se entregan tambien a las peticiones
+     * que esperan esta invocacion
+     *
+     * @param he Informacion de la peticion web
+     * @param outcome Resultado de la peticion
+     * @param returnValue Valor retornado por la ruta
+     * @throws IOException Si no se pudo serializar el valor y aun no se
+     * habia enviado nada
+     */
+    private static void send(ServerExchange he, Outcome outcome, Object returnValue) throws IOException {
+        if (returnValue instanceof StaticFile) {
+            ((StaticFile) returnValue).send(he);
+            return;
+        }
+        HttpRoute route = outcome.route;
+        Codec codec = outcome.codec;
+        int threshold = route.compressionThreshold(codec);
+        ContentEncoding encoding = responseEncoding(he, threshold);
+        boolean streaming = StreamingWriter.isStreaming(returnValue);
+        if ((outcome.cacheKey != null || outcome.leading != null) && !streaming) {
+            ResponseCache.Entry cached = outcome.cached;
+            if (cached == null) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                codec.write(returnValue, body);
+                String contentType = route.getNegotiator().contentType(codec);
+                cached = outcome.cacheKey != null
+                        ? route.getCache().put(outcome.cacheKey, body.toByteArray(), contentType)
+                        : ResponseCache.Entry.of(body.toByteArray(), contentType);
+            }
+            try {
+                sendCached(he, cached, encoding, threshold);
+            } finally {
+                // Las peticiones que esperan se responden despues de esta
+                if (outcome.leading != null) {
+                    route.getCoalescer().complete(outcome.coalesceKey, outcome.leading, cached);
+                }
+            }
+            return;
+        }
+        he.setResponseHeader(HttpHeaders.CONTENT_TYPE, route.getNegotiator().contentType(codec));
+        if (codec instanceof EventStreamCodec) {
+            he.setResponseHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        }
+        ResponseOutputStream out = new ResponseOutputStream(he, 200, encoding, threshold);
+        try {
+            if (streaming) {
+                StreamingWriter.write(returnValue, codec, out, route.getStreamBatch());
+            } else {
+                codec.write(returnValue, out);
+            }
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            if (!out.isCommitted()) {
+                throw e;
+            }
+            logger.error("Error escribiendo la respuesta", e);
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Espera el resultado de una ruta asincronica sin ocupar el hilo actual.
+     * La respuesta se envia desde el hilo que completa el resultado, o 504
+     * desde el hilo de tiempos de espera si no se completa a tiempo; lo que
+     * ocurra primero es lo unico que se envia
+     *
+     * @param he Informacion de la peticion web
+     * @param outcome Resultado de la peticion
+     * @param stage Resultado pendiente
+     * @param start Inicio de la peticion
+     */
+    private void sendAsync(final MeteredExchange he, final Outcome outcome, final CompletionStage<?> stage,
+            final long start) {
+        final HttpRoute route = outcome.route;
+        final AtomicBoolean responded = new AtomicBoolean();
+        long timeout = route.getAsyncTimeout() >= 0 ? route.getAsyncTimeout() : asyncTimeout;
+        final ScheduledFuture<?> timer = timeout > 0 ? RequestExecutors.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (responded.compareAndSet(false, true)) {
+                    try {
+                        stage.toCompletableFuture().cancel(false);
+                    } catch (UnsupportedOperationException e) {
+                        // El CompletionStage no admite cancelacion
+                    }
+                    failShared(outcome, ErrorResponse.GATEWAY_TIMEOUT.toException());
+                    try {
+                        ErrorResponse.GATEWAY_TIMEOUT.send(he);
+                    } catch (IOException e) {
+                        logger.debug("Error enviando respuesta 504", e);
+                    } finally {
+                        finish(he, outcome, start);
                     }
-                    break;
                 }
-                case "POST": {
-                    Map<Method, List<HttpMethodParameter>> methodMap = contextPostMethods.get(he.getRequestURI().getPath());
-                    if (methodMap != null) {
-                        for (Map.Entry<Method, List<HttpMethodParameter>> methodToInvoke : methodMap.entrySet()) {
-                            Class clazz = (Class) ((ParameterizedType) methodToInvoke.getValue().get(0).getParameterType()).getRawType();
-                            methodContext = methodToInvoke.getKey();
-                            returnValue = methodContext.invoke(this, mapper.readValue(new InputStreamReader(he.getRequestBody()), clazz));
-                        }
+            }
+        }, timeout, TimeUnit.MILLISECONDS) : null;
+        stage.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object value, Throwable error) {
+                if (!responded.compareAndSet(false, true)) {
+                    return;
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                try {
+                    if (error == null) {
+                        send(he, outcome, value);
                     } else {
-                        //Exception pq el path no existe
-                        contextException = new Exception("Metodo inexistente");
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause()
+                                : error;
+                        failShared(outcome, cause);
+                        if (cause instanceof HttpStatusException) {
+                            sendError(he, ((HttpStatusException) cause).getStatus(), cause.getMessage());
+                        } else {
+                            logger.error("Error en la ruta asincronica " + route.getPath(), cause);
+                            ErrorResponse.INTERNAL_ERROR.send(he);
+                        }
                     }
-                    break;
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Error enviando la respuesta asincronica", e);
+                } finally {
+                    finish(he, outcome, start);
                 }
-                case "PUT": {
-                    Map<Method, List<HttpMethodParameter>> methodMap = contextPutMethods.get(he.getRequestURI().getPath());
-                    if (methodMap != null) {
-                        for (Map.Entry<Method, List<HttpMethodParameter>> methodToInvoke : methodMap.entrySet()) {
-                            Class clazz = (Class) ((ParameterizedType) methodToInvoke.getValue().get(0).getParameterType()).getRawType();
-                            methodContext = methodToInvoke.getKey();
-                            returnValue = methodContext.invoke(this, mapper.readValue(new InputStreamReader(he.getRequestBody()), clazz));
-                        }
-                    } else {
-                        //Exception pq el path no existe
-                        contextException = new Exception("Metodo inexistente");
+            }
+        });
+    }
+
+    /**
+     * Espera sin ocupar el hilo actual el resultado de la invocacion de otra
+     * peticion identica a una ruta con @Coalesce, y envia los mismos bytes
+     * con su ETag. Los errores de la invocacion se responden igual que en la
+     * peticion que la hizo, y si no termina dentro del tiempo maximo de
+     * espera de la ruta se responde 504 sin afectar a las demas
+     *
+     * @param he Informacion de la peticion web
+     * @param outcome Resultado de la peticion
+     * @param start Inicio de la peticion
+     */
+    private void awaitShared(final MeteredExchange he, final Outcome outcome, final long start) {
+        final RequestCoalescer coalescer = outcome.route.getCoalescer();
+        final AtomicBoolean responded = new AtomicBoolean();
+        long maxWait = coalescer.getMaxWait();
+        final ScheduledFuture<?> timer = maxWait > 0 ? RequestExecutors.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (responded.compareAndSet(false, true)) {
+                    coalescer.timedOut();
+                    try {
+                        ErrorResponse.GATEWAY_TIMEOUT.send(he);
+                    } catch (IOException e) {
+                        logger.debug("Error enviando respuesta 504", e);
+                    } finally {
+                        finish(he, outcome, start);
                     }
-                    break;
                 }
-                case "DELETE": {
-                    String path = he.getRequestURI().getPath().contains("&")
-                            ? he.getRequestURI().getPath().substring(0, he.getRequestURI().getPath().indexOf("&"))
-                            : he.getRequestURI().getPath();
-                    Map<Method, List<HttpMethodParameter>> methodMap = contextGetMethods.get(path);
-                    if (methodMap != null) {
-                        String query = he.getRequestURI().getPath().substring(he.getRequestURI().getPath().indexOf("&") + 1,
-                                he.getRequestURI().getPath().length());
-                        Map<String, String> parameters = getParameters(query);
-                        for (Map.Entry<Method, List<HttpMethodParameter>> methodToInvoke : methodMap.entrySet()) {
-                            methodContext = methodToInvoke.getKey();
-                            returnValue = methodContext.invoke(this, checkHttpParameters(methodToInvoke, parameters).toArray());
-                        }
+            }
+        }, maxWait, TimeUnit.MILLISECONDS) : null;
+        outcome.shared.whenComplete(new BiConsumer<ResponseCache.Entry, Throwable>() {
+            @Override
+            public void accept(ResponseCache.Entry entry, Throwable error) {
+                if (!responded.compareAndSet(false, true)) {
+                    return;
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                try {
+                    if (error == null) {
+                        int threshold = outcome.route.compressionThreshold(outcome.codec);
+                        sendCached(he, entry, responseEncoding(he, threshold), threshold);
+                    } else if (error instanceof HttpStatusException) {
+                        sendError(he, ((HttpStatusException) error).getStatus(), error.getMessage());
                     } else {
-                        contextException = new Exception("Metodo inexistente");
+                        ErrorResponse.INTERNAL_ERROR.send(he);
                     }
-                    break;
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Error enviando la respuesta compartida", e);
+                } finally {
+                    finish(he, outcome, start);
                 }
             }
+        });
+    }
 
-            he.getResponseHeaders().set("Server", "CNS");
-            String produces = headers.getFirst(HttpHeaders.ACCEPT);
-            if (contextException == null) {
-                if (methodContext.getAnnotation(Produces.class) != null) {
-                    if (methodContext.getAnnotation(Produces.class).value()[0].equals(MediaType.WILDCARD)) {
-                        he.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-                        produces = MediaType.APPLICATION_JSON.toString();
-                    } else {
+    /**
+     * Entrega un error a las peticiones que esperan la invocacion de esta
+     * peticion, si la hizo y aun no termino
+     *
+     * @param outcome Resultado de la peticion
+     * @param error Error de la invocacion
+     */
+    private static void failShared(Outcome outcome, Throwable error) {
+        if (outcome.leading != null && !outcome.leading.isDone()) {
+            outcome.route.getCoalescer().fail(outcome.coalesceKey, outcome.leading, error);
+        }
+    }
 
-                        he.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, methodContext.getAnnotation(Produces.class).value()[0]);
-                        produces = methodContext.getAnnotation(Produces.class).value()[0];
-                    }
-                } else {
-                    he.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, headers.getFirst(HttpHeaders.ACCEPT));
+    /**
+     * Codificacion de la respuesta segun el header Accept-Encoding, indicando
+     * en Vary que la respuesta depende de el si se comprime
+     *
+     * @param he Informacion de la peticion web
+     * @param threshold Tamaño minimo de las respuestas que se comprimen,
+     * negativo si no se comprimen
+     * @return Codificacion negociada o null
+     */
+    private static ContentEncoding responseEncoding(ServerExchange he, int threshold) {
+        if (threshold < 0) {
+            return null;
+        }
+        he.setResponseHeader("Vary", "Accept-Encoding");
+        return ResponseCompression.negotiate(he.getRequestHeader("Accept-Encoding"));
+    }
+
+    /**
+     * Cierra el intercambio y registra las metricas de la peticion, y la
+     * peticion en el access log si hay uno. Si la peticion invoco una ruta con
+     * @Coalesce y termino sin entregar el resultado, las peticiones que lo
+     * esperan reciben un 500
+     */
+    private void finish(MeteredExchange he, Outcome outcome, long start) {
+        failShared(outcome, ErrorResponse.INTERNAL_ERROR.toException());
+        HttpRoute route = outcome.route;
+        try {
+            he.getResponseBody().close();
+        } catch (IOException e) {
+            logger.debug("Error cerrando la respuesta", e);
+        }
+        he.releaseAdmission();
+        he.close();
+        IN_FLIGHT.decrement();
+        long nanos = System.nanoTime() - start;
+        (route != null ? route.getMetrics() : unmatchedMetrics).record(he.getStatus(), he.getBytesIn(),
+                he.getBytesOut(), nanos);
+        AccessLog log = accessLog;
+        if (log != null) {
+            log.record(System.currentTimeMillis(), he.getRemoteAddress(), he.getRequestMethod(), he.getRawPath(),
+                    route != null ? route.getPath() : null, he.getStatus(), he.getBytesIn(), he.getBytesOut(), nanos);
+        }
+    }
+
+    /**
+     * Envia una respuesta guardada en cache con su ETag, o 304 sin cuerpo si
+     * el cliente ya la tiene. La forma comprimida se guarda en la entrada, de
+     * modo que cada respuesta se comprime una sola vez
+     *
+     * @param he Informacion de la peticion web
+     * @param cached Respuesta guardada
+     * @param encoding Codificacion negociada, puede ser null
+     * @param threshold Tamaño minimo de las respuestas que se comprimen
+     */
+    private static void sendCached(ServerExchange he, ResponseCache.Entry cached, ContentEncoding encoding,
+            int threshold) throws IOException {
+        byte[] body = cached.getBody();
+        String etag = cached.getEtag();
+        if (encoding != null && threshold >= 0 && body.length > 0 && body.length >= threshold) {
+            byte[] encoded = cached.getBody(encoding);
+            if (encoded != null) {
+                body = encoded;
+                etag = cached.getEtag(encoding);
+                he.setResponseHeader("Content-Encoding", encoding.getToken());
+            }
+        }
+        he.setResponseHeader("ETag", etag);
+        if (ResponseCache.matches(he.getRequestHeader("If-None-Match"), etag)) {
+            he.sendResponseHeaders(304, -1);
+            return;
+        }
+        he.setResponseHeader(HttpHeaders.CONTENT_TYPE, cached.getContentType());
+        he.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        he.getResponseBody().write(body);
+    }
+
+    /**
+     * Clave de cache de una peticion, tambien usada por @Coalesce: el path sin
+     * decodificar, los valores de los parametros @QueryParam del metodo y de
+     * las propiedades de sus dtos en el orden en que se declaran, el formato
+     * de la respuesta y los valores de los parametros @HeaderParam, ya que la
+     * respuesta puede depender de ellos. Los parametros que el metodo no usa
+     * no forman parte de la clave
+     */
+    private static String cacheKey(ServerExchange he, HttpRoute route, RequestParameters parameters,
+            Codec codec) {
+        String rawPath = he.getRawPath();
+        StringBuilder key = new StringBuilder(rawPath.length() + 64);
+        key.append(rawPath).append('?');
+        for (HttpMethodParameter parameter : route.getParameters()) {
+            if (parameter.getSource() == HttpMethodParameter.Source.QUERY) {
+                appendKey(key, parameter.getParameterName(), parameters);
+            } else if (parameter.getSource() == HttpMethodParameter.Source.BEAN) {
+                for (DtoModel.Property property : DtoModel.of((Class<?>) parameter.getParameterType()).getWriters()) {
+                    appendKey(key, property.getName(), parameters);
                 }
-                String response = null;
-                switch (produces) {
-                    case MediaType.APPLICATION_JSON: {
-                        response = mapper.writeValueAsString(returnValue);
-                        he.sendResponseHeaders(200, response.length());
-                        he.getResponseBody().write(response.getBytes());
-                        break;
-                    }
-                    case MediaType.APPLICATION_XML: {
-                        JSONObject obj = new JSONObject(returnValue);
-                        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + XML.toString(obj);
-                        he.sendResponseHeaders(200, xml.length());
-                        he.getResponseBody().write(xml.getBytes());
-                        break;
-                    }
-                    case MediaType.TEXT_PLAIN: {
-                        response = mapper.writeValueAsString(returnValue);
-                        he.sendResponseHeaders(200, response.length());
-                        he.getResponseBody().write(response.getBytes());
-                        break;
-                    }
+            }
+        }
+        key.append('|').append(codec.getMediaType()).append('|');
+        for (HttpMethodParameter parameter : route.getParameters()) {
+            if (parameter.getSource() == HttpMethodParameter.Source.HEADER) {
+                String name = parameter.getParameterName();
+                String value = he.getRequestHeader(name);
+                key.append(name.length()).append(':').append(name).append('=');
+                if (value != null) {
+                    key.append(value.length()).append(':').append(value);
                 }
-            } else {
-                he.sendResponseHeaders(404, contextException.getMessage().length());
-                he.getResponseBody().write(contextException.getMessage().getBytes());
+                key.append('&');
             }
-        } catch (Exception e) {
-            he.sendResponseHeaders(404, e.getMessage().length());
-            he.getResponseBody().write(e.getMessage().getBytes());
+        }
+        return key.toString();
+    }
+
+    private static void appendKey(StringBuilder key, String name, RequestParameters parameters) {
+        for (String value : parameters.getAll(name)) {
+            key.append(name.length()).append(':').append(name)
+                    .append('=').append(value.length()).append(':').append(value).append('&');
+        }
+    }
+
+    /**
+     * Descarta las respuestas en cache de un path del contexto, para todas sus
+     * variantes de query string y formato
+     *
+     * @param path Path concreto, por ejemplo /orders/15
+     * @return Cantidad de respuestas descartadas
+     */
+    public int invalidateCache(String path) {
+        int removed = 0;
+        Router.RouteMatch match = router.lookup(path);
+        HttpRoute route = match.getRoute("GET");
+        if (route != null && route.getCache() != null) {
+            removed = route.getCache().invalidate(path);
+        }
+        return removed;
+    }
+
+    /**
+     * Descarta todas las respuestas en cache del contexto
+     */
+    public void invalidateCache() {
+        for (HttpRoute route : router.getRoutes()) {
+            if (route.getCache() != null) {
+                route.getCache().invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Responde 503 a una peticion que el pool no pudo aceptar, sin leer su
+     * cuerpo. Se cierra la conexion para no seguir recibiendo peticiones por
+     * ella mientras el servidor esta saturado
+     *
+     * @param he Informacion de la peticion web
+     * @param retryAfter Segundos que el cliente debe esperar para reintentar
+     */
+    private static void reject(ServerExchange he, int retryAfter) throws IOException {
+        try {
+            he.setResponseHeader("Server", "CNS");
+            he.setResponseHeader("Retry-After", Integer.toString(retryAfter));
+            he.setResponseHeader("Connection", "close");
+            ErrorResponse.SERVICE_UNAVAILABLE.send(he);
         } finally {
-            he.getResponseBody().close();
             he.close();
         }
     }
 
-    private List<Object> checkHttpParameters(Map.Entry<Method, List<HttpMethodParameter>> methodToInvoke, Map<String, String> parameters) throws Exception {
-        List<Object> valuesParam = new ArrayList<>();
-        for (HttpMethodParameter httpParam : methodToInvoke.getValue()) {
-            String valueParam = parameters.get(httpParam.getParameterName());
-            if (valueParam == null) {
-                throw new Exception("Parametros inválidos");
-            } else {
-                Type type = httpParam.getParameterType();
-                Class clazz = null;
-                Class listType = null;
-                //Clase normal
-                if (type instanceof Class) {
-                    clazz = (Class) type;
-                } //clase parametrizada
-                else if (type instanceof ParameterizedType) {
-                    clazz = (Class) ((ParameterizedType) type).getRawType();
-                    listType = (Class) ((ParameterizedType) type).getActualTypeArguments()[0];
-                }
+    /**
+     * Aplica los limites de la ruta antes de invocarla. Si se supera alguno
+     * se responde 429 con Retry-After sin leer el cuerpo de la peticion; el
+     * permiso de concurrencia tomado se devuelve en finish
+     *
+     * @param he Informacion de la peticion web
+     * @param route Ruta invocada
+     * @return null si la peticion se admite, o la respuesta de rechazo
+     */
+    private static ErrorResponse admit(MeteredExchange he, HttpRoute route) {
+        RateLimiter rateLimiter = route.getRateLimiter();
+        ConcurrencyLimiter concurrencyLimiter = route.getConcurrencyLimiter();
+        if (rateLimiter == null && concurrencyLimiter == null) {
+            return null;
+        }
+        String client = clientAddress(he);
+        if (rateLimiter != null) {
+            long wait = rateLimiter.tryAcquire(client);
+            if (wait > 0) {
+                he.setResponseHeader("Retry-After", Long.toString(TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1));
+                return ErrorResponse.TOO_MANY_REQUESTS;
+            }
+        }
+        if (concurrencyLimiter != null) {
+            if (!concurrencyLimiter.tryAcquire(client)) {
+                he.setResponseHeader("Retry-After", "1");
+                return ErrorResponse.TOO_MANY_REQUESTS;
+            }
+            he.admitted(concurrencyLimiter, client);
+        }
+        return null;
+    }
+
+    /**
+     * Direccion ip del cliente, clave de los limites por cliente
+     */
+    private static String clientAddress(ServerExchange he) {
+        InetSocketAddress remote = he.getRemoteAddress();
+        if (remote == null) {
+            return "";
+        }
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+
+    /**
+     * Envia una respuesta de error con el mensaje como cuerpo, para los
+     * errores que indica la propia ruta; los del servidor son ErrorResponse
+     *
+     * @param he Informacion de la peticion web
+     * @param status Codigo de estado
+     * @param message Mensaje de error
+     */
+    private static void sendError(ServerExchange he, int status, String message) throws IOException {
+        byte[] body = (message != null ? message : "").getBytes(StandardCharsets.UTF_8);
+        he.setResponseHeader(HttpHeaders.CONTENT_TYPE, ErrorResponse.CONTENT_TYPE);
+        he.sendResponseHeaders(status, body.length);
+        he.getResponseBody().write(body);
+    }
 
-                if (clazz.isAssignableFrom(List.class)) {
-                    List list = new ArrayList();
-                    if (valueParam.contains(",")) {
-                        String splitList[] = valueParam.split(",");
-                        for (String param : splitList) {
-                            list.add(listType.getDeclaredMethod("valueOf", String.class).invoke(new Object(), param));
+    /**
+     * Convierte los parametros de la peticion en los argumentos del metodo de
+     * la ruta
+     *
+     * @param route Ruta invocada
+     * @param pathValues Valores de los parametros del path
+     * @param parameters Parametros ya leidos, o null si aun no se leyeron
+     * @param he Informacion de la peticion web
+     * @param outcome Resultado de la peticion, donde se indica el error si
+     * algun parametro falta o no es valido
+     * @return Argumentos, o null si algun parametro no es valido
+     * @throws IOException Si no se pudo leer el cuerpo de la peticion
+     */
+    Object[] checkHttpParameters(HttpRoute route, String[] pathValues, RequestParameters parameters,
+            ServerExchange he, Outcome outcome) throws IOException {
+        List<HttpMethodParameter> httpParams = route.getParameters();
+        Object[] valuesParam = new Object[httpParams.size()];
+        for (int i = 0; i < valuesParam.length; i++) {
+            HttpMethodParameter httpParam = httpParams.get(i);
+            String value = null;
+            List<String> values = null;
+            switch (httpParam.getSource()) {
+                case PATH:
+                    value = QueryStringParser.decodePath(pathValues[httpParam.getPathIndex()]);
+                    break;
+                case BODY:
+                    if (!route.consumes(he.getRequestHeader(HttpHeaders.CONTENT_TYPE))) {
+                        outcome.error = ErrorResponse.UNSUPPORTED_MEDIA_TYPE;
+                        return null;
+                    }
+                    InputStream body = requestBody(he, route, outcome);
+                    if (body == null) {
+                        return null;
+                    }
+                    try {
+                        valuesParam[i] = httpParam.getBodyBinder().bind(body);
+                    } catch (JsonProcessingException e) {
+                        outcome.error = ErrorResponse.BAD_REQUEST;
+                        return null;
+                    }
+                    continue;
+                case BEAN:
+                    if (parameters == null) {
+                        parameters = getParameters(he, route, outcome);
+                        if (parameters == null) {
+                            return null;
                         }
+                    }
+                    try {
+                        valuesParam[i] = DtoModel.of((Class<?>) httpParam.getParameterType()).bind(parameters);
+                    } catch (Exception e) {
+                        outcome.error = ErrorResponse.BAD_REQUEST;
+                        return null;
+                    }
+                    continue;
+                case HEADER:
+                    // Un header ausente es null, como en jaxrs; un primitivo no puede
+                    // recibirlo y se rechaza igual que un query param faltante
+                    value = he.getRequestHeader(httpParam.getParameterName());
+                    if (value == null) {
+                        if (httpParam.isPrimitive()) {
+                            outcome.error = ErrorResponse.BAD_REQUEST;
+                            return null;
+                        }
+                        continue;
+                    }
+                    break;
+                default:
+                    if (parameters == null) {
+                        parameters = getParameters(he, route, outcome);
+                        if (parameters == null) {
+                            return null;
+                        }
+                    }
+                    int count = parameters.count(httpParam.getParameterName());
+                    if (count == 0) {
+                        outcome.error = ErrorResponse.BAD_REQUEST;
+                        return null;
+                    } else if (count == 1) {
+                        value = parameters.get(httpParam.getParameterName());
                     } else {
-                        list.add(listType.getDeclaredMethod("valueOf", String.class).invoke(new Object(), valueParam));
+                        values = parameters.getAll(httpParam.getParameterName());
                     }
-                    valuesParam.add(list);
-                } else if (clazz.isAssignableFrom(Date.class)) {
-                    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
-                    valuesParam.add(format.parse(valueParam));
-                } else if (clazz.isAssignableFrom(String.class)) {
-                    valuesParam.add(valueParam);
-                } else if (clazz.isAssignableFrom(BaseDto.class)) {
-                    //Implemetar esto
-                } else {
-                    valuesParam.add(clazz.getDeclaredMethod("valueOf", String.class).invoke(new Object(), valueParam));
-                }
+            }
+            try {
+                valuesParam[i] = values != null ? httpParam.convert(values) : httpParam.convert(value);
+            } catch (Exception e) {
+                // Los conversores son parsers del jdk o de la aplicacion que solo informan con excepciones
+                outcome.error = ErrorResponse.BAD_REQUEST;
+                return null;
             }
         }
         return valuesParam;
     }
 
     /**
-     * Metodo que lee los valores del queryStrign de una url en una peticion get
+     * Obtiene el cuerpo de la peticion limitado al tamaño maximo de la ruta. Si
+     * la peticion declara un Content-Length mayor se rechaza sin leer nada; si
+     * no lo declara el stream falla con BodyTooLargeException al superarlo
      *
-     * @param queryParameters String con los parametros
-     * @return Mapa con los parametrosf
+     * @param he Informacion de la peticion web
+     * @param route Ruta invocada
+     * @param outcome Resultado de la peticion
+     * @return Stream del cuerpo, o null si el Content-Length supera el maximo
      */
-    private Map<String, String> getParameters(String queryParameters) {
-        String[] params = queryParameters.split("&");
-        HashMap<String, String> result = new HashMap<>();
-        for (String param : params) {
-            if (param.split("=").length == 2) {
-                result.put(param.split("=")[0], (param.split("=")[1]));
-            } else {
-                result.put(param.split("=")[0], "");
+    private InputStream requestBody(ServerExchange he, HttpRoute route, Outcome outcome) {
+        long limit = route.getMaxBodySize() >= 0 ? route.getMaxBodySize() : maxBodySize;
+        String contentLength = he.getRequestHeader("Content-Length");
+        if (contentLength != null && declaredLength(contentLength) > limit) {
+            outcome.error = ErrorResponse.PAYLOAD_TOO_LARGE;
+            return null;
+        }
+        return new LimitedInputStream(he.getRequestBody(), limit);
+    }
+
+    /**
+     * Valor del header Content-Length, o -1 si no es un numero y se valida
+     * mientras se lee
+     */
+    private static long declaredLength(String contentLength) {
+        long length = 0;
+        int end = contentLength.length();
+        int i = 0;
+        while (i < end && contentLength.charAt(i) == ' ') {
+            i++;
+        }
+        while (end > i && contentLength.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (i == end || end - i > 18) {
+            return -1;
+        }
+        for (; i < end; i++) {
+            char c = contentLength.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            length = length * 10 + (c - '0');
         }
-        return result;
+        return length;
+    }
+
+    /**
+     * Metodo que lee los valores del queryString de la url y, si la peticion
+     * es un formulario application/x-www-form-urlencoded, los del cuerpo. Se
+     * reutiliza el contenedor de parametros del hilo
+     *
+     * @param he Informacion de la peticion web
+     * @param route Ruta invocada
+     * @param outcome Resultado de la peticion
+     * @return Parametros de la peticion, o null si el formulario supera el
+     * tamaño maximo
+     * @throws IOException Si no se pudo leer el formulario
+     */
+    RequestParameters getParameters(ServerExchange he, HttpRoute route, Outcome outcome) throws IOException {
+        RequestParameters parameters = REQUEST_PARAMETERS.get();
+        parameters.clear();
+        QueryStringParser.parse(he.getRawQuery(), parameters);
+        String contentType = he.getRequestHeader(HttpHeaders.CONTENT_TYPE);
+        if (contentType != null && contentType.startsWith(MediaType.APPLICATION_FORM_URLENCODED)) {
+            InputStream body = requestBody(he, route, outcome);
+            if (body == null) {
+                return null;
+            }
+            QueryStringParser.parse(new String(BodyBinders.readFully(body), StandardCharsets.ISO_8859_1),
+                    parameters);
+        }
+        return parameters;
+    }
+
+    /**
+     * Tamaño maximo del cuerpo de las peticiones para las rutas que no indican
+     * uno propio con @MaxBodySize
+     *
+     * @return Cantidad de bytes
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Establece el tamaño maximo del cuerpo de las peticiones para las rutas
+     * que no indican uno propio con @MaxBodySize
+     *
+     * @param maxBodySize Cantidad de bytes
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Tiempo maximo de espera de las rutas asincronicas que no indican uno
+     * propio con @AsyncTimeout
+     *
+     * @return Milisegundos, 0 sin limite
+     */
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Establece el tiempo maximo de espera de las rutas asincronicas que no
+     * indican uno propio con @AsyncTimeout
+     *
+     * @param asyncTimeout Milisegundos, 0 sin limite
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Establece el access log donde se registran las peticiones del contexto
+     *
+     * @param accessLog Access log o null para no registrarlas
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Rutas del contexto, cada una con sus metricas
+     *
+     * @return Rutas en el orden en que se registraron
+     */
+    public List<HttpRoute> getRoutes() {
+        return router.getRoutes();
+    }
+
+    /**
+     * Metricas de las peticiones al contexto que no correspondieron a ninguna
+     * ruta, por path inexistente o metodo no permitido
+     *
+     * @return Metricas
+     */
+    public RouteMetrics getUnmatchedMetrics() {
+        return unmatchedMetrics;
+    }
+
+    /**
+     * Cantidad de peticiones que se estan atendiendo en todos los contextos
+     *
+     * @return Cantidad de peticiones
+     */
+    public static long getInFlightRequests() {
+        return IN_FLIGHT.sum();
     }
 
     /**
@@ -387,4 +1164,22 @@ public class ContextHandler implements HttpHandler {
     public void setName(String name) {
         this.name = name;
     }
+
+    /**
+     * Resultado de una peticion, propio de cada peticion: la ruta que la
+     * atiende, la respuesta de error si fallo o lo necesario para enviar el
+     * valor retornado
+     */
+    static final class Outcome {
+
+        private HttpRoute route;
+        private ErrorResponse error;
+        private Codec codec;
+        private String cacheKey;
+        private ResponseCache.Entry cached;
+        private String coalesceKey;
+        private CompletableFuture<ResponseCache.Entry> leading;
+        private CompletableFuture<ResponseCache.Entry> shared;
+        private Object value;
+    }
 }
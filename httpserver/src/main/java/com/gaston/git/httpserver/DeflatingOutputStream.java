@@ -0,0 +1,138 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Stream que comprime en formato gzip o deflate a medida que se escribe, con
+ * un Deflater y un buffer tomados de sus pools. A diferencia de
+ * GZIPOutputStream no crea un Deflater por respuesta, y flush envia lo
+ * comprimido hasta el momento para que las respuestas que se generan de a
+ * partes lleguen al cliente sin esperar al final.
+ *
+ * Al cerrar se escribe el final del formato pero no se cierra el stream
+ * destino
+ *
+ * @author gaston
+ */
+public class DeflatingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final ContentEncoding encoding;
+    private final BufferPool pool;
+    private final CRC32 crc;
+    private Deflater deflater;
+    private byte[] buffer;
+    private boolean headerWritten;
+    private boolean closed;
+
+    public DeflatingOutputStream(OutputStream out, ContentEncoding encoding, BufferPool pool) {
+        this.out = out;
+        this.encoding = encoding;
+        this.pool = pool;
+        this.crc = encoding == ContentEncoding.GZIP ? new CRC32() : null;
+        this.deflater = ResponseCompression.acquire(encoding);
+        this.buffer = pool.acquire();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return;
+        }
+        writeHeader();
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Envia lo comprimido hasta el momento con un SYNC_FLUSH
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeHeader();
+        int count;
+        do {
+            count = deflate(Deflater.SYNC_FLUSH);
+        } while (count == buffer.length);
+        out.flush();
+    }
+
+    /**
+     * Termina la compresion y escribe el final del formato, sin cerrar el
+     * stream destino
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeHeader();
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            if (crc != null) {
+                int value = (int) crc.getValue();
+                int size = (int) deflater.getBytesRead();
+                out.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)});
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Devuelve el Deflater y el buffer a sus pools sin terminar el formato
+     */
+    public void release() {
+        closed = true;
+        if (deflater != null) {
+            ResponseCompression.release(encoding, deflater);
+            deflater = null;
+        }
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        int count = deflater.deflate(buffer, 0, buffer.length, flush);
+        if (count > 0) {
+            out.write(buffer, 0, count);
+        }
+        return count;
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+            if (crc != null) {
+                out.write(ResponseCompression.GZIP_HEADER);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream cerrado");
+        }
+    }
+}
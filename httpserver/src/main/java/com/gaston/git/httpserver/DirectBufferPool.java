@@ -0,0 +1,72 @@
+package com.gaston.git.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de ByteBuffer directos de tamaño fijo para leer y escribir en los
+ * sockets del NioTransport. Los buffers directos se escriben en el socket sin
+ * la copia intermedia que hace el jdk con los buffers del heap, pero son caros
+ * de crear, por eso se reutilizan
+ *
+ * @author gaston
+ */
+public final class DirectBufferPool {
+
+    /**
+     * Tamaño por defecto de los buffers
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Obtiene un buffer vacio del pool o crea uno nuevo
+     *
+     * @return Buffer directo de tamaño getBufferSize()
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Devuelve un buffer al pool, los buffers que no fueron creados por el pool
+     * se ignoran, como los de archivos mapeados en memoria
+     *
+     * @param buffer Buffer obtenido con acquire
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Tamaño de los buffers del pool
+     *
+     * @return Tamaño en bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,719 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Propiedades de una subclase de BaseDto con sus accesores ya generados. El
+ * modelo se construye una unica vez por clase, la primera vez que se usa: los
+ * getters, setters y el constructor sin parametros se compilan con
+ * LambdaMetafactory, igual que los invocadores de HttpRoute, de forma que leer
+ * o escribir una propiedad es una llamada directa sin Method.invoke. Los
+ * getters de int, long, double y boolean tienen su propia interfaz para no
+ * crear un objeto por cada valor. Los campos publicos y los metodos que no se
+ * pueden compilar usan un MethodHandle.
+ *
+ * Las propiedades se descubren con las mismas reglas por defecto de Jackson:
+ * getters getX e isX publicos, setters setX de cualquier visibilidad y campos
+ * publicos, con el nombre en minusculas. Las clases con anotaciones de Jackson
+ * no se modelan y las sigue resolviendo Jackson
+ *
+ * @author gaston
+ */
+public final class DtoModel {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * Tipo de valor de una propiedad, para leer los primitivos sin
+     * convertirlos en objetos
+     */
+    enum Kind {
+        OBJECT, INT, LONG, DOUBLE, BOOLEAN
+    }
+
+    private static final ClassValue<DtoModel> MODELS = new ClassValue<DtoModel>() {
+        @Override
+        protected DtoModel computeValue(Class<?> type) {
+            return new DtoModel(type);
+        }
+    };
+
+    private final Class<?> type;
+
+    /**
+     * Indica si la clase o alguna de sus propiedades tiene anotaciones de
+     * Jackson, en cuyo caso no se usa el modelo
+     */
+    private final boolean annotated;
+
+    /**
+     * Indica si la clase puede crearse y completarse desde el modelo: tiene
+     * constructor sin parametros, no es generica y sus propiedades de
+     * coleccion tienen setter
+     */
+    private final boolean writable;
+
+    private final Property[] readers;
+    private final Property[] writers;
+    private final Map<String, Property> writersByName;
+    private final Factory factory;
+
+    private DtoModel(Class<?> type) {
+        this.type = type;
+        this.annotated = hasJacksonAnnotations(type);
+        Map<String, Property> readable = new LinkedHashMap<>();
+        Map<String, Property> settable = new LinkedHashMap<>();
+        boolean conflicts = false;
+        if (!annotated) {
+            // Las propiedades siguen el orden de declaracion de los campos, como en Jackson
+            for (Class<?> c : hierarchy(type)) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (isProperty(field) && !field.isSynthetic()) {
+                        readable.put(field.getName(), null);
+                    }
+                }
+            }
+            for (Method method : type.getMethods()) {
+                String name = getterName(method);
+                if (name != null) {
+                    readable.put(name, Property.ofGetter(name, method));
+                }
+            }
+            for (Field field : type.getFields()) {
+                if (isProperty(field) && readable.get(field.getName()) == null) {
+                    readable.put(field.getName(), Property.ofField(field.getName(), field));
+                }
+            }
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    String name = setterName(method);
+                    if (name == null) {
+                        continue;
+                    }
+                    Property previous = settable.get(name);
+                    if (previous == null) {
+                        settable.put(name, Property.ofSetter(name, method));
+                    } else if (!previous.hasSameType(method.getGenericParameterTypes()[0])) {
+                        // Jackson no acepta setters sobrecargados
+                        conflicts = true;
+                    }
+                }
+            }
+            for (Field field : type.getFields()) {
+                if (isProperty(field) && !Modifier.isFinal(field.getModifiers()) && !settable.containsKey(field.getName())) {
+                    settable.put(field.getName(), Property.ofFieldSetter(field.getName(), field));
+                }
+            }
+        }
+        List<Property> readers = new ArrayList<>();
+        for (Property property : readable.values()) {
+            if (property != null) {
+                readers.add(property);
+            }
+        }
+        this.readers = readers.toArray(new Property[readers.size()]);
+        this.writers = settable.values().toArray(new Property[settable.size()]);
+        this.writersByName = new HashMap<>(settable);
+        this.factory = annotated || Modifier.isAbstract(type.getModifiers()) ? null : createFactory(type);
+        this.writable = factory != null && !conflicts && !isGeneric(type) && !hasGetterOnlyCollections(settable);
+    }
+
+    /**
+     * Modelo de una clase, se construye la primera vez que se pide
+     *
+     * @param type Subclase de BaseDto
+     * @return Modelo de la clase
+     */
+    public static DtoModel of(Class<?> type) {
+        return MODELS.get(type);
+    }
+
+    /**
+     * Clase modelada
+     *
+     * @return Clase del dto
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Indica si los valores de la clase pueden serializarse con el modelo
+     *
+     * @return true si no tiene anotaciones de Jackson
+     */
+    public boolean isReadable() {
+        return !annotated;
+    }
+
+    /**
+     * Indica si la clase puede crearse y completarse con el modelo
+     *
+     * @return true si tiene constructor sin parametros y sus propiedades
+     * pueden asignarse
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Propiedades que se serializan, en orden
+     *
+     * @return Propiedades con getter o campo publico
+     */
+    Property[] getReaders() {
+        return readers;
+    }
+
+    /**
+     * Propiedades que pueden asignarse
+     *
+     * @return Propiedades con setter o campo publico
+     */
+    Property[] getWriters() {
+        return writers;
+    }
+
+    /**
+     * Propiedad que puede asignarse por su nombre
+     *
+     * @param name Nombre de la propiedad
+     * @return Propiedad o null si no existe
+     */
+    Property getWriter(String name) {
+        return writersByName.get(name);
+    }
+
+    /**
+     * Crea una instancia vacia con el constructor sin parametros
+     *
+     * @return Nueva instancia
+     */
+    Object newInstance() {
+        return factory.create();
+    }
+
+    /**
+     * Crea una instancia y la completa con los parametros de la peticion que
+     * tienen el nombre de alguna propiedad. Las propiedades sin parametro
+     * quedan con su valor inicial
+     *
+     * @param parameters Parametros de la peticion
+     * @return Nueva instancia
+     * @throws Exception Si algun valor no es valido para su propiedad
+     */
+    public Object bind(RequestParameters parameters) throws Exception {
+        if (!writable) {
+            throw new IllegalArgumentException("No es posible crear " + type.getName() + " desde los parametros");
+        }
+        Object bean = factory.create();
+        for (Property property : writers) {
+            HttpMethodParameter parameter = property.getParameter();
+            int count = parameters.count(parameter.getParameterName());
+            if (count == 1) {
+                property.set(bean, parameter.convert(parameters.get(parameter.getParameterName())));
+            } else if (count > 1) {
+                property.set(bean, parameter.convert(parameters.getAll(parameter.getParameterName())));
+            }
+        }
+        return bean;
+    }
+
+    private static List<Class<?>> hierarchy(Class<?> type) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            classes.add(0, c);
+        }
+        return classes;
+    }
+
+    private static boolean isProperty(Field field) {
+        int modifiers = field.getModifiers();
+        return !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers);
+    }
+
+    /**
+     * Nombre de la propiedad de un getter publico getX o isX
+     */
+    private static String getterName(Method method) {
+        if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length > 0
+                || method.isSynthetic() || method.isBridge() || method.getDeclaringClass() == Object.class) {
+            return null;
+        }
+        String name = method.getName();
+        if (name.startsWith("get") && method.getReturnType() != void.class) {
+            return propertyName(name, 3);
+        } else if (name.startsWith("is") && method.getReturnType() == boolean.class) {
+            return propertyName(name, 2);
+        }
+        return null;
+    }
+
+    /**
+     * Nombre de la propiedad de un setter setX de cualquier visibilidad
+     */
+    private static String setterName(Method method) {
+        if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 1
+                || method.isSynthetic() || method.isBridge() || !method.getName().startsWith("set")) {
+            return null;
+        }
+        return propertyName(method.getName(), 3);
+    }
+
+    /**
+     * Nombre de la propiedad como lo calcula Jackson: se pasan a minusculas
+     * todas las mayusculas iniciales, getURL es url
+     */
+    static String propertyName(String name, int prefix) {
+        int length = name.length();
+        if (length == prefix) {
+            return null;
+        }
+        char c = name.charAt(prefix);
+        char lower = Character.toLowerCase(c);
+        if (c == lower) {
+            return name.substring(prefix);
+        }
+        StringBuilder property = new StringBuilder(length - prefix);
+        property.append(lower);
+        for (int i = prefix + 1; i < length; i++) {
+            c = name.charAt(i);
+            lower = Character.toLowerCase(c);
+            if (c == lower) {
+                property.append(name, i, length);
+                break;
+            }
+            property.append(lower);
+        }
+        return property.toString();
+    }
+
+    private static boolean hasJacksonAnnotations(Class<?> type) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            if (isJackson(c.getDeclaredAnnotations())) {
+                return true;
+            }
+            for (Field field : c.getDeclaredFields()) {
+                if (isJackson(field.getDeclaredAnnotations())) {
+                    return true;
+                }
+            }
+            for (Method method : c.getDeclaredMethods()) {
+                if (isJackson(method.getDeclaredAnnotations())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isJackson(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation.annotationType().getName().startsWith("org.codehaus.jackson.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isGeneric(Class<?> type) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            if (c.getTypeParameters().length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Jackson completa las colecciones que solo tienen getter a traves del
+     * getter, en ese caso la clase se deja a Jackson
+     */
+    private boolean hasGetterOnlyCollections(Map<String, Property> settable) {
+        for (Property property : readers) {
+            if (!settable.containsKey(property.getName())
+                    && (Collection.class.isAssignableFrom(property.getRawType())
+                    || Map.class.isAssignableFrom(property.getRawType()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Factory createFactory(Class<?> type) {
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        try {
+            constructor.setAccessible(true);
+            final MethodHandle handle = LOOKUP.unreflectConstructor(constructor);
+            Factory factory = (Factory) generate(Factory.class, "create", MethodType.methodType(Object.class), handle,
+                    MethodType.methodType(type));
+            if (factory != null) {
+                return factory;
+            }
+            final MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+            return new Factory() {
+                @Override
+                public Object create() {
+                    try {
+                        return (Object) generic.invokeExact();
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new UndeclaredThrowableException(t);
+                    }
+                }
+            };
+        } catch (IllegalAccessException | RuntimeException e) {
+            logger.debug("No se puede acceder al constructor de " + type.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Genera la implementacion de una interfaz funcional que invoca
+     * directamente el metodo indicado
+     *
+     * @return Implementacion generada, o null si no se pudo generar
+     */
+    private static Object generate(Class<?> interfaceType, String name, MethodType erased, MethodHandle handle,
+            MethodType instantiated) {
+        try {
+            return LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(interfaceType), erased, handle,
+                    instantiated).getTarget().invoke();
+        } catch (Throwable t) {
+            logger.debug("No se pudo generar el accesor " + handle + ", se usa MethodHandle", t);
+            return null;
+        }
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (type == int.class) {
+            return Kind.INT;
+        } else if (type == long.class) {
+            return Kind.LONG;
+        } else if (type == double.class) {
+            return Kind.DOUBLE;
+        } else if (type == boolean.class) {
+            return Kind.BOOLEAN;
+        }
+        return Kind.OBJECT;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new UndeclaredThrowableException(t);
+    }
+
+    /**
+     * Propiedad de un dto, con su getter o su setter generado
+     */
+    static final class Property {
+
+        private final String name;
+        private final Type type;
+        private final Class<?> rawType;
+        private final Kind kind;
+
+        /**
+         * Accesor generado, alguna de las interfaces Getter o Setter, o null
+         * si se usa el MethodHandle
+         */
+        private final Object accessor;
+
+        /**
+         * Accesor con firma (Object)Object, (Object)primitivo o
+         * (Object,Object)void, se usa si no hay accesor generado
+         */
+        private final MethodHandle handle;
+
+        /**
+         * Parametro con el conversor del valor textual, para completar el dto
+         * desde los parametros de la peticion
+         */
+        private volatile HttpMethodParameter parameter;
+
+        private Property(String name, Type type, Class<?> rawType, Kind kind, Object accessor, MethodHandle handle) {
+            this.name = name;
+            this.type = type;
+            this.rawType = rawType;
+            this.kind = kind;
+            this.accessor = accessor;
+            this.handle = handle;
+        }
+
+        static Property ofGetter(String name, Method method) {
+            Class<?> rawType = method.getReturnType();
+            Kind kind = kindOf(rawType);
+            try {
+                method.setAccessible(true);
+                MethodHandle handle = LOOKUP.unreflect(method);
+                Class<?> declaring = method.getDeclaringClass();
+                Object getter;
+                switch (kind) {
+                    case INT:
+                        getter = generate(IntGetter.class, "get", MethodType.methodType(int.class, Object.class),
+                                handle, MethodType.methodType(int.class, declaring));
+                        break;
+                    case LONG:
+                        getter = generate(LongGetter.class, "get", MethodType.methodType(long.class, Object.class),
+                                handle, MethodType.methodType(long.class, declaring));
+                        break;
+                    case DOUBLE:
+                        getter = generate(DoubleGetter.class, "get", MethodType.methodType(double.class, Object.class),
+                                handle, MethodType.methodType(double.class, declaring));
+                        break;
+                    case BOOLEAN:
+                        getter = generate(BooleanGetter.class, "get",
+                                MethodType.methodType(boolean.class, Object.class),
+                                handle, MethodType.methodType(boolean.class, declaring));
+                        break;
+                    default:
+                        getter = generate(Getter.class, "get", MethodType.methodType(Object.class, Object.class),
+                                handle, MethodType.methodType(MethodType.methodType(rawType).wrap().returnType(),
+                                        declaring));
+                }
+                return new Property(name, method.getGenericReturnType(), rawType, kind, getter,
+                        getter != null ? null : getterHandle(handle, kind));
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalStateException("No se puede acceder a " + method, e);
+            }
+        }
+
+        static Property ofSetter(String name, Method method) {
+            Class<?> rawType = method.getParameterTypes()[0];
+            try {
+                method.setAccessible(true);
+                MethodHandle handle = LOOKUP.unreflect(method);
+                Object setter = method.getReturnType() == void.class
+                        ? generate(Setter.class, "set", MethodType.methodType(void.class, Object.class, Object.class),
+                                handle, MethodType.methodType(void.class, method.getDeclaringClass(),
+                                        MethodType.methodType(rawType).wrap().returnType()))
+                        : null;
+                return new Property(name, method.getGenericParameterTypes()[0], rawType, kindOf(rawType), setter,
+                        setter != null ? null : handle.asType(MethodType.methodType(void.class, Object.class,
+                                Object.class)));
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalStateException("No se puede acceder a " + method, e);
+            }
+        }
+
+        static Property ofField(String name, Field field) {
+            Class<?> rawType = field.getType();
+            Kind kind = kindOf(rawType);
+            try {
+                return new Property(name, field.getGenericType(), rawType, kind, null,
+                        getterHandle(LOOKUP.unreflectGetter(field), kind));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("No se puede acceder a " + field, e);
+            }
+        }
+
+        /**
+         * Setter de un campo publico, se crea aparte del getter
+         */
+        static Property ofFieldSetter(String name, Field field) {
+            try {
+                return new Property(name, field.getGenericType(), field.getType(), kindOf(field.getType()), null,
+                        LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class,
+                                Object.class)));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("No se puede acceder a " + field, e);
+            }
+        }
+
+        private static MethodHandle getterHandle(MethodHandle handle, Kind kind) {
+            Class<?> returnType = kind == Kind.OBJECT ? Object.class : handle.type().returnType();
+            return handle.asType(MethodType.methodType(returnType, Object.class));
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Type getType() {
+            return type;
+        }
+
+        Class<?> getRawType() {
+            return rawType;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        boolean hasSameType(Type other) {
+            return type.equals(other);
+        }
+
+        Object get(Object bean) {
+            if (accessor != null) {
+                switch (kind) {
+                    case INT:
+                        return ((IntGetter) accessor).get(bean);
+                    case LONG:
+                        return ((LongGetter) accessor).get(bean);
+                    case DOUBLE:
+                        return ((DoubleGetter) accessor).get(bean);
+                    case BOOLEAN:
+                        return ((BooleanGetter) accessor).get(bean);
+                    default:
+                        return ((Getter) accessor).get(bean);
+                }
+            }
+            try {
+                switch (kind) {
+                    case INT:
+                        return (int) handle.invokeExact(bean);
+                    case LONG:
+                        return (long) handle.invokeExact(bean);
+                    case DOUBLE:
+                        return (double) handle.invokeExact(bean);
+                    case BOOLEAN:
+                        return (boolean) handle.invokeExact(bean);
+                    default:
+                        return (Object) handle.invokeExact(bean);
+                }
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        int getInt(Object bean) {
+            if (accessor != null) {
+                return ((IntGetter) accessor).get(bean);
+            }
+            try {
+                return (int) handle.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        long getLong(Object bean) {
+            if (accessor != null) {
+                return ((LongGetter) accessor).get(bean);
+            }
+            try {
+                return (long) handle.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        double getDouble(Object bean) {
+            if (accessor != null) {
+                return ((DoubleGetter) accessor).get(bean);
+            }
+            try {
+                return (double) handle.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        boolean getBoolean(Object bean) {
+            if (accessor != null) {
+                return ((BooleanGetter) accessor).get(bean);
+            }
+            try {
+                return (boolean) handle.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        /**
+         * Asigna el valor, un null en una propiedad primitiva se ignora
+         *
+         * @param bean Instancia del dto
+         * @param value Valor ya convertido al tipo de la propiedad
+         */
+        void set(Object bean, Object value) {
+            if (value == null && rawType.isPrimitive()) {
+                return;
+            }
+            if (accessor != null) {
+                ((Setter) accessor).set(bean, value);
+                return;
+            }
+            try {
+                handle.invokeExact(bean, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        HttpMethodParameter getParameter() {
+            HttpMethodParameter current = parameter;
+            if (current == null) {
+                current = new HttpMethodParameter(name, type);
+                parameter = current;
+            }
+            return current;
+        }
+    }
+
+    interface Factory {
+
+        Object create();
+    }
+
+    interface Getter {
+
+        Object get(Object bean);
+    }
+
+    interface IntGetter {
+
+        int get(Object bean);
+    }
+
+    interface LongGetter {
+
+        long get(Object bean);
+    }
+
+    interface DoubleGetter {
+
+        double get(Object bean);
+    }
+
+    interface BooleanGetter {
+
+        boolean get(Object bean);
+    }
+
+    interface Setter {
+
+        void set(Object bean, Object value);
+    }
+}
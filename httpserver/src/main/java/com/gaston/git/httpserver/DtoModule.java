@@ -0,0 +1,357 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.io.SerializedString;
+import org.codehaus.jackson.map.BeanDescription;
+import org.codehaus.jackson.map.BeanProperty;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.DeserializerProvider;
+import org.codehaus.jackson.map.Deserializers;
+import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.Module;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ResolvableDeserializer;
+import org.codehaus.jackson.map.ResolvableSerializer;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.Serializers;
+import org.codehaus.jackson.map.TypeDeserializer;
+import org.codehaus.jackson.map.TypeSerializer;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.map.deser.std.StdDeserializer;
+import org.codehaus.jackson.map.ser.std.SerializerBase;
+import org.codehaus.jackson.type.JavaType;
+
+/**
+ * Modulo de Jackson que serializa y deserializa las subclases de BaseDto con
+ * los accesores generados de DtoModel. El serializador escribe cada propiedad
+ * directamente sobre el generador, los int, long, double y boolean sin
+ * convertirlos en objetos, y no crea BeanPropertyWriter ni mapas intermedios.
+ * Como el XmlGenerator recibe los mismos eventos, la respuesta xml usa el
+ * mismo serializador que la json.
+ *
+ * El resultado es el mismo que el de Jackson con su configuracion por defecto.
+ * Si el mapper cambia alguna opcion que afecta a los beans, como la inclusion
+ * de nulos o el orden alfabetico, o la clase tiene anotaciones o mix-ins, el
+ * modulo no interviene y la clase la resuelve Jackson
+ *
+ * @author gaston
+ */
+public final class DtoModule extends Module {
+
+    private static final Map<ObjectMapper, Boolean> REGISTERED = Collections.synchronizedMap(
+            new WeakHashMap<ObjectMapper, Boolean>());
+
+    /**
+     * Registra el modulo en un mapper, una unica vez aunque varios codecs
+     * compartan el mismo
+     *
+     * @param mapper Mapper de Jackson
+     */
+    public static void register(ObjectMapper mapper) {
+        if (REGISTERED.put(mapper, Boolean.TRUE) == null) {
+            mapper.registerModule(new DtoModule());
+        }
+    }
+
+    @Override
+    public String getModuleName() {
+        return "httpserver-dto";
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public void setupModule(SetupContext context) {
+        context.addSerializers(new Serializers.Base() {
+            @Override
+            public JsonSerializer<?> findSerializer(SerializationConfig config, JavaType type,
+                    BeanDescription beanDesc, BeanProperty property) {
+                Class<?> raw = type.getRawClass();
+                if (!BaseDto.class.isAssignableFrom(raw) || !isDefault(config)
+                        || config.findMixInClassFor(raw) != null || config.getDefaultTyper(type) != null) {
+                    return null;
+                }
+                DtoModel model = DtoModel.of(raw);
+                if (!model.isReadable() || model.getReaders().length == 0) {
+                    return null;
+                }
+                return new DtoSerializer(model);
+            }
+        });
+        context.addDeserializers(new Deserializers.Base() {
+            @Override
+            public JsonDeserializer<?> findBeanDeserializer(JavaType type, DeserializationConfig config,
+                    DeserializerProvider provider, BeanDescription beanDesc, BeanProperty property) {
+                Class<?> raw = type.getRawClass();
+                if (!BaseDto.class.isAssignableFrom(raw) || !isDefault(config)
+                        || config.findMixInClassFor(raw) != null || config.getDefaultTyper(type) != null
+                        || hasCreators(raw)) {
+                    return null;
+                }
+                DtoModel model = DtoModel.of(raw);
+                if (!model.isReadable() || !model.isWritable()) {
+                    return null;
+                }
+                return new DtoDeserializer(model);
+            }
+        });
+    }
+
+    private static boolean isDefault(SerializationConfig config) {
+        return config.getSerializationInclusion() == JsonSerialize.Inclusion.ALWAYS
+                && config.getSerializationView() == null
+                && config.isEnabled(SerializationConfig.Feature.USE_ANNOTATIONS)
+                && config.isEnabled(SerializationConfig.Feature.AUTO_DETECT_GETTERS)
+                && config.isEnabled(SerializationConfig.Feature.AUTO_DETECT_IS_GETTERS)
+                && config.isEnabled(SerializationConfig.Feature.AUTO_DETECT_FIELDS)
+                && config.isEnabled(SerializationConfig.Feature.CAN_OVERRIDE_ACCESS_MODIFIERS)
+                && config.isEnabled(SerializationConfig.Feature.WRITE_EMPTY_JSON_ARRAYS)
+                && !config.isEnabled(SerializationConfig.Feature.REQUIRE_SETTERS_FOR_GETTERS)
+                && !config.isEnabled(SerializationConfig.Feature.USE_STATIC_TYPING)
+                && !config.isEnabled(SerializationConfig.Feature.SORT_PROPERTIES_ALPHABETICALLY);
+    }
+
+    private static boolean isDefault(DeserializationConfig config) {
+        return config.isEnabled(DeserializationConfig.Feature.USE_ANNOTATIONS)
+                && config.isEnabled(DeserializationConfig.Feature.AUTO_DETECT_SETTERS)
+                && config.isEnabled(DeserializationConfig.Feature.AUTO_DETECT_FIELDS)
+                && config.isEnabled(DeserializationConfig.Feature.CAN_OVERRIDE_ACCESS_MODIFIERS)
+                && !config.isEnabled(DeserializationConfig.Feature.FAIL_ON_NULL_FOR_PRIMITIVES)
+                && !config.isEnabled(DeserializationConfig.Feature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
+    }
+
+    /**
+     * Jackson crea las clases con un constructor o un metodo valueOf de un
+     * parametro a partir de un valor que no es un objeto, esas clases se dejan
+     * a Jackson
+     */
+    private static boolean hasCreators(Class<?> type) {
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            if (constructor.getParameterTypes().length == 1) {
+                return true;
+            }
+        }
+        for (Method method : type.getDeclaredMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) && method.getParameterTypes().length == 1
+                    && (method.getName().equals("valueOf") || method.getName().equals("fromString"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serializador de un dto. Los serializadores de las propiedades de tipo
+     * final se resuelven una vez, el resto se busca segun la clase del valor
+     * y se recuerda el ultimo
+     */
+    static final class DtoSerializer extends SerializerBase<Object> implements ResolvableSerializer {
+
+        private final DtoModel.Property[] properties;
+        private final SerializedString[] names;
+        private final JsonSerializer<Object>[] serializers;
+        private final Dynamic[] dynamic;
+
+        @SuppressWarnings("unchecked")
+        DtoSerializer(DtoModel model) {
+            super(Object.class, false);
+            this.properties = model.getReaders();
+            this.names = new SerializedString[properties.length];
+            this.serializers = (JsonSerializer<Object>[]) new JsonSerializer<?>[properties.length];
+            this.dynamic = new Dynamic[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                names[i] = new SerializedString(properties[i].getName());
+            }
+        }
+
+        @Override
+        public void resolve(SerializerProvider provider) throws JsonMappingException {
+            for (int i = 0; i < properties.length; i++) {
+                Class<?> type = properties[i].getRawType();
+                if (properties[i].getKind() == DtoModel.Kind.OBJECT && Modifier.isFinal(type.getModifiers())) {
+                    serializers[i] = provider.findValueSerializer(
+                            provider.getConfig().getTypeFactory().constructType(properties[i].getType()), null);
+                }
+            }
+        }
+
+        @Override
+        public void serialize(Object bean, JsonGenerator jgen, SerializerProvider provider)
+                throws IOException, JsonProcessingException {
+            jgen.writeStartObject();
+            writeProperties(bean, jgen, provider);
+            jgen.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(Object bean, JsonGenerator jgen, SerializerProvider provider,
+                TypeSerializer typeSer) throws IOException, JsonProcessingException {
+            typeSer.writeTypePrefixForObject(bean, jgen);
+            writeProperties(bean, jgen, provider);
+            typeSer.writeTypeSuffixForObject(bean, jgen);
+        }
+
+        private void writeProperties(Object bean, JsonGenerator jgen, SerializerProvider provider)
+                throws IOException, JsonProcessingException {
+            int i = 0;
+            try {
+                for (; i < properties.length; i++) {
+                    DtoModel.Property property = properties[i];
+                    switch (property.getKind()) {
+                        case INT:
+                            jgen.writeFieldName(names[i]);
+                            jgen.writeNumber(property.getInt(bean));
+                            break;
+                        case LONG:
+                            jgen.writeFieldName(names[i]);
+                            jgen.writeNumber(property.getLong(bean));
+                            break;
+                        case DOUBLE:
+                            jgen.writeFieldName(names[i]);
+                            jgen.writeNumber(property.getDouble(bean));
+                            break;
+                        case BOOLEAN:
+                            jgen.writeFieldName(names[i]);
+                            jgen.writeBoolean(property.getBoolean(bean));
+                            break;
+                        default:
+                            Object value = property.get(bean);
+                            if (value == bean) {
+                                throw new JsonMappingException("Direct self-reference leading to cycle");
+                            }
+                            jgen.writeFieldName(names[i]);
+                            if (value == null) {
+                                provider.defaultSerializeNull(jgen);
+                            } else {
+                                serializerFor(i, value.getClass(), provider).serialize(value, jgen, provider);
+                            }
+                    }
+                }
+            } catch (RuntimeException | JsonMappingException e) {
+                throw JsonMappingException.wrapWithPath(e, bean, properties[i].getName());
+            } catch (StackOverflowError e) {
+                throw new JsonMappingException("Infinite recursion (StackOverflowError)", e);
+            }
+        }
+
+        private JsonSerializer<Object> serializerFor(int i, Class<?> type, SerializerProvider provider)
+                throws JsonMappingException {
+            JsonSerializer<Object> serializer = serializers[i];
+            if (serializer != null) {
+                return serializer;
+            }
+            Dynamic last = dynamic[i];
+            if (last != null && last.type == type) {
+                return last.serializer;
+            }
+            serializer = provider.findValueSerializer(type, null);
+            dynamic[i] = new Dynamic(type, serializer);
+            return serializer;
+        }
+    }
+
+    /**
+     * Ultimo serializador usado por una propiedad cuyo tipo no es final
+     */
+    private static final class Dynamic {
+
+        private final Class<?> type;
+        private final JsonSerializer<Object> serializer;
+
+        private Dynamic(Class<?> type, JsonSerializer<Object> serializer) {
+            this.type = type;
+            this.serializer = serializer;
+        }
+    }
+
+    /**
+     * Deserializador de un dto. Crea la instancia con el constructor generado
+     * y asigna cada propiedad con su setter a medida que se leen los campos
+     */
+    static final class DtoDeserializer extends StdDeserializer<Object> implements ResolvableDeserializer {
+
+        private final DtoModel model;
+        private final DtoModel.Property[] properties;
+        private final JsonDeserializer<Object>[] deserializers;
+
+        /**
+         * Posicion de cada propiedad en deserializers, por nombre
+         */
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        DtoDeserializer(DtoModel model) {
+            super(model.getType());
+            this.model = model;
+            this.properties = model.getWriters();
+            this.deserializers = (JsonDeserializer<Object>[]) new JsonDeserializer<?>[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                indexes.put(properties[i].getName(), i);
+            }
+        }
+
+        @Override
+        public void resolve(DeserializationConfig config, DeserializerProvider provider)
+                throws JsonMappingException {
+            for (int i = 0; i < properties.length; i++) {
+                deserializers[i] = provider.findValueDeserializer(config,
+                        config.getTypeFactory().constructType(properties[i].getType()), null);
+            }
+        }
+
+        @Override
+        public Object deserialize(JsonParser jp, DeserializationContext ctxt)
+                throws IOException, JsonProcessingException {
+            JsonToken token = jp.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = jp.nextToken();
+            } else if (token != JsonToken.FIELD_NAME) {
+                throw ctxt.mappingException(model.getType());
+            }
+            Object bean = model.newInstance();
+            for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+                String name = jp.getCurrentName();
+                Integer index = indexes.get(name);
+                token = jp.nextToken();
+                if (index == null) {
+                    handleUnknownProperty(jp, ctxt, bean, name);
+                    continue;
+                }
+                JsonDeserializer<Object> deserializer = deserializers[index];
+                try {
+                    Object value = token == JsonToken.VALUE_NULL ? deserializer.getNullValue()
+                            : deserializer.deserialize(jp, ctxt);
+                    properties[index].set(bean, value);
+                } catch (RuntimeException | JsonMappingException e) {
+                    throw JsonMappingException.wrapWithPath(e, bean, name);
+                }
+            }
+            return bean;
+        }
+
+        @Override
+        public Object deserializeWithType(JsonParser jp, DeserializationContext ctxt,
+                TypeDeserializer typeDeserializer) throws IOException, JsonProcessingException {
+            return typeDeserializer.deserializeTypedFromObject(jp, ctxt);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.core.HttpHeaders;
+
+/**
+ * Respuestas de error que el servidor envia por su cuenta, con el cuerpo ya
+ * codificado una unica vez. Los fallos esperados de una peticion, como un path
+ * inexistente o un parametro invalido, se resuelven con una de estas
+ * respuestas sin crear ni lanzar ninguna excepcion
+ *
+ * @author gaston
+ */
+enum ErrorResponse {
+
+    BAD_REQUEST(400, "Parametros inválidos"),
+    NOT_FOUND(404, "Metodo inexistente"),
+    METHOD_NOT_ALLOWED(405, "Metodo no permitido"),
+    NOT_ACCEPTABLE(406, "Formato de respuesta no soportado"),
+    PAYLOAD_TOO_LARGE(413, "El cuerpo de la peticion supera el maximo permitido"),
+    UNSUPPORTED_MEDIA_TYPE(415, "Formato de la peticion no soportado"),
+    TOO_MANY_REQUESTS(429, "Demasiadas peticiones"),
+    INTERNAL_ERROR(500, "Error interno"),
+    SERVICE_UNAVAILABLE(503, "Servidor ocupado"),
+    GATEWAY_TIMEOUT(504, "Tiempo de espera agotado");
+
+    static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private final int status;
+    private final String message;
+    private final byte[] body;
+
+    private ErrorResponse(int status, String message) {
+        this.status = status;
+        this.message = message;
+        this.body = message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Codigo de estado http
+     *
+     * @return Codigo de estado
+     */
+    int getStatus() {
+        return status;
+    }
+
+    /**
+     * Esta respuesta como excepcion, para entregarla a las peticiones que
+     * esperan una invocacion compartida con @Coalesce
+     *
+     * @return Excepcion con el codigo y el mensaje de la respuesta
+     */
+    HttpStatusException toException() {
+        return new HttpStatusException(status, message);
+    }
+
+    /**
+     * Envia la respuesta, los headers propios del error como Allow o
+     * Retry-After deben indicarse antes
+     *
+     * @param he Informacion de la peticion web
+     * @throws IOException Si no se pudo enviar
+     */
+    void send(ServerExchange he) throws IOException {
+        he.setResponseHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE);
+        he.sendResponseHeaders(status, body.length);
+        he.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,110 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Codec text/event-stream (Server-Sent Events). Cada elemento de un Stream o
+ * Iterator se envia como un evento apenas se genera. Los ServerSentEvent
+ * indican nombre, id y tiempo de reconexion; los String se envian tal cual,
+ * una linea data por cada linea del texto, y el resto de los valores como
+ * json. Un valor que no es una secuencia se envia como un unico evento
+ *
+ * @author gaston
+ */
+public class EventStreamCodec implements StreamingCodec {
+
+    /**
+     * Media type del formato
+     */
+    public static final String TEXT_EVENT_STREAM = "text/event-stream";
+
+    private final ObjectMapper mapper;
+
+    public EventStreamCodec() {
+        this(new ObjectMapper(new JsonFactory()));
+    }
+
+    public EventStreamCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    }
+
+    @Override
+    public String getMediaType() {
+        return TEXT_EVENT_STREAM;
+    }
+
+    @Override
+    public void write(Object value, OutputStream out) throws IOException {
+        StringBuilder event = new StringBuilder(256);
+        if (value instanceof ServerSentEvent) {
+            ServerSentEvent sse = (ServerSentEvent) value;
+            field(event, "event", sse.getEvent());
+            field(event, "id", sse.getId());
+            if (sse.getRetry() >= 0) {
+                event.append("retry: ").append(sse.getRetry()).append('\n');
+            }
+            value = sse.getData();
+        }
+        if (value != null) {
+            field(event, "data", value instanceof String ? (String) value : mapper.writeValueAsString(value));
+        }
+        event.append('\n');
+        out.write(event.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Agrega un campo, repitiendolo por cada linea del valor ya que el formato
+     * no admite saltos de linea dentro de un campo
+     */
+    private static void field(StringBuilder event, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            if (i == value.length() || value.charAt(i) == '\n' || value.charAt(i) == '\r') {
+                event.append(name).append(": ").append(value, start, i).append('\n');
+                if (i < value.length() - 1 && value.charAt(i) == '\r' && value.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    @Override
+    public ElementWriter open(final OutputStream out) {
+        return new ElementWriter() {
+            @Override
+            public void write(Object value) throws IOException {
+                EventStreamCodec.this.write(value, out);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+                // Cada evento ya esta completo
+            }
+        };
+    }
+
+    /**
+     * Los eventos se envian de a uno
+     *
+     * @return 1
+     */
+    @Override
+    public int getBatchSize() {
+        return 1;
+    }
+}
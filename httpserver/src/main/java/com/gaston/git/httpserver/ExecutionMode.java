@@ -0,0 +1,29 @@
+package com.gaston.git.httpserver;
+
+/**
+ * Estrategias para ejecutar las peticiones que recibe el servidor
+ *
+ * @author gaston
+ */
+public enum ExecutionMode {
+
+    /**
+     * Pool fijo de hilos con una cola sin limite, el comportamiento original
+     * del servidor. Si los metodos se demoran las peticiones se acumulan en
+     * memoria
+     */
+    FIXED,
+    /**
+     * Pool fijo de hilos con una cola de tamaño limitado. Cuando la cola esta
+     * llena las peticiones nuevas se rechazan con 503 y el header Retry-After
+     * en lugar de acumularse
+     */
+    BOUNDED,
+    /**
+     * Un hilo virtual por peticion. Conviene cuando los metodos se bloquean
+     * esperando entrada/salida, ya que la cantidad de peticiones concurrentes
+     * no queda limitada por la cantidad de hilos de plataforma. Requiere una
+     * JVM 21 o superior, en versiones anteriores se usa FIXED
+     */
+    VIRTUAL
+}
@@ -0,0 +1,62 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+
+/**
+ * Escritor de elementos de los codecs basados en Jackson. Todos los elementos
+ * se escriben sobre un mismo generador, dentro de un arreglo o como valores
+ * raiz terminados en salto de linea, y el generador solo se vacia cuando se llena su buffer o
+ * cuando se envia un lote
+ *
+ * @author gaston
+ */
+final class GeneratorElementWriter implements StreamingCodec.ElementWriter {
+
+    private final ObjectMapper mapper;
+    private final SerializationConfig config;
+    private final JsonGenerator generator;
+    private final boolean array;
+
+    /**
+     * Crea el escritor sobre un generador abierto
+     *
+     * @param mapper Mapper del codec
+     * @param generator Generador sobre el stream de la respuesta
+     * @param array true para escribir los elementos dentro de un arreglo,
+     * false para terminar cada uno con un salto de linea
+     */
+    GeneratorElementWriter(ObjectMapper mapper, JsonGenerator generator, boolean array) throws IOException {
+        this.mapper = mapper;
+        // Por defecto Jackson vacia el generador despues de cada valor
+        this.config = mapper.getSerializationConfig().without(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE);
+        this.generator = generator;
+        this.array = array;
+        if (array) {
+            generator.writeStartArray();
+        }
+    }
+
+    @Override
+    public void write(Object value) throws IOException {
+        mapper.writeValue(generator, value, config);
+        if (!array) {
+            generator.writeRaw('\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (array) {
+            generator.writeEndArray();
+        }
+        generator.close();
+    }
+}
@@ -1,25 +1,77 @@
 package com.gaston.git.httpserver;
 
 import java.lang.reflect.Type;
+import java.util.List;
 
 /**
  * Clase que se utiliza para mantener el par nombre de parametro. tipo de clase
- * que identifica los parametros de cada servicio web
+ * que identifica los parametros de cada servicio web. Ademas mantiene el
+ * conversor del tipo, que se resuelve una sola vez al registrar la ruta
  *
  * @author gaston
  */
 public class HttpMethodParameter {
 
+    /**
+     * Origen del valor del parametro en la peticion
+     */
+    public enum Source {
+
+        /**
+         * Parametro del query string o de un formulario, anotado con
+         * @QueryParam o @FormParam
+         */
+        QUERY,
+        /**
+         * Segmento del path, anotado con @PathParam
+         */
+        PATH,
+        /**
+         * Header de la peticion, anotado con @HeaderParam
+         */
+        HEADER,
+        /**
+         * Cuerpo de la peticion, parametros sin anotacion
+         */
+        BODY,
+        /**
+         * Subclase de BaseDto que se completa con los parametros del query
+         * string que tienen el nombre de sus propiedades, anotada con
+         * @BeanParam, o con @QueryParam o @FormParam
+         */
+        BEAN
+    }
+
     private String parameterName;
     private Type parameterType;
+    private ParameterConverter converter;
+    private Source source = Source.QUERY;
+
+    /**
+     * Posicion del valor dentro de los parametros del path, solo para
+     * parametros de tipo PATH
+     */
+    private int pathIndex = -1;
+
+    /**
+     * Binder del cuerpo de la peticion, solo para parametros de tipo BODY
+     */
+    private BodyBinder bodyBinder;
 
     public HttpMethodParameter(String parameterName, Type parameterType) {
         this.parameterName = parameterName;
         this.parameterType = parameterType;
+        this.converter = ParameterConverters.forType(parameterType);
+    }
+
+    public HttpMethodParameter(String parameterName, Type parameterType, Source source) {
+        this(parameterName, parameterType);
+        this.source = source;
     }
 
     public HttpMethodParameter(Type parameterType) {
         this.parameterType = parameterType;
+        this.converter = ParameterConverters.forType(parameterType);
     }
 
     /**
@@ -56,6 +108,106 @@ public class HttpMethodParameter {
      */
     public void setParameterType(Type parameterType) {
         this.parameterType = parameterType;
+        this.converter = ParameterConverters.forType(parameterType);
+    }
+
+    /**
+     * Indica si el parametro es de un tipo primitivo, que no admite null
+     *
+     * @return true si el tipo es primitivo
+     */
+    public boolean isPrimitive() {
+        return parameterType instanceof Class && ((Class<?>) parameterType).isPrimitive();
+    }
+
+    /**
+     * Obtiene el origen del valor del parametro
+     *
+     * @return Origen del parametro
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Establece el origen del valor del parametro
+     *
+     * @param source Origen del parametro
+     */
+    public void setSource(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Posicion del valor entre los parametros del path de la ruta
+     *
+     * @return Posicion o -1 si no es un parametro del path
+     */
+    public int getPathIndex() {
+        return pathIndex;
+    }
+
+    /**
+     * Establece la posicion del valor entre los parametros del path, la asigna
+     * el router al registrar la ruta
+     *
+     * @param pathIndex Posicion del parametro
+     */
+    public void setPathIndex(int pathIndex) {
+        this.pathIndex = pathIndex;
+    }
+
+    /**
+     * Binder del cuerpo de la peticion
+     *
+     * @return Binder o null si el parametro no se lee del cuerpo
+     */
+    public BodyBinder getBodyBinder() {
+        return bodyBinder;
+    }
+
+    /**
+     * Establece el binder del cuerpo de la peticion
+     *
+     * @param bodyBinder Binder del cuerpo
+     */
+    public void setBodyBinder(BodyBinder bodyBinder) {
+        this.bodyBinder = bodyBinder;
+    }
+
+    /**
+     * Obtiene el conversor del valor textual al tipo del parametro
+     *
+     * @return Conversor del parametro
+     */
+    public ParameterConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Convierte el valor recibido en la peticion al tipo del parametro
+     *
+     * @param value Valor textual del parametro
+     * @return Valor convertido
+     * @throws Exception Si el valor no es valido para el tipo
+     */
+    public Object convert(String value) throws Exception {
+        return converter.convert(value);
+    }
+
+    /**
+     * Convierte un parametro que llego con varios valores. Si el parametro es
+     * una lista se incluyen todos los valores, sino se toma el primero
+     *
+     * @param values Valores textuales del parametro
+     * @return Valor convertido
+     * @throws Exception Si algun valor no es valido para el tipo
+     */
+    public Object convert(List<String> values) throws Exception {
+        if (converter instanceof ParameterConverters.ListConverter) {
+            return ((ParameterConverters.ListConverter) converter).convertAll(values);
+        }
+        return converter.convert(values.get(0));
     }
 
 }
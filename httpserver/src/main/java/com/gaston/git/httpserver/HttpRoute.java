@@ -0,0 +1,559 @@
+package com.gaston.git.httpserver;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.BaseStream;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import org.apache.log4j.Logger;
+
+/**
+ * Representacion de un endpoint de un contexto web. Mantiene el metodo java
+ * asociado, la definicion de sus parametros y un invocador precompilado que se
+ * construye una unica vez al crear el contexto, de forma que en cada peticion
+ * solo se realiza una llamada directa sin pasar por Method.invoke
+ *
+ * Para metodos de hasta seis parametros el invocador se genera con
+ * LambdaMetafactory, lo que deja una llamada a interfaz que el JIT puede
+ * resolver como una invocacion normal. Si no es posible generarlo (metodos
+ * void, mas parametros o una JVM sin soporte) se usa un MethodHandle
+ * esparcido sobre el arreglo de argumentos
+ *
+ * @author gaston
+ */
+public class HttpRoute {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Cantidad maxima de parametros para la que se genera un invocador directo
+     */
+    private static final int MAX_DIRECT_ARITY = 6;
+
+    /**
+     * Metodo http de la ruta
+     */
+    private final String httpMethod;
+
+    /**
+     * Template del path completo de la ruta, incluyendo el nombre del contexto
+     */
+    private final String path;
+
+    /**
+     * Metodo del contexto que atiende la ruta
+     */
+    private final Method method;
+
+    /**
+     * Parametros del metodo en el orden de declaracion
+     */
+    private final List<HttpMethodParameter> parameters;
+
+    /**
+     * Tamaño maximo del cuerpo indicado con @MaxBodySize, -1 si se usa el del
+     * contexto
+     */
+    private final long maxBodySize;
+
+    /**
+     * Negociador del codec de la respuesta segun @Produces
+     */
+    private final ContentNegotiator negotiator;
+
+    /**
+     * Media types del cuerpo aceptados segun @Consumes, null si la ruta acepta
+     * cualquiera
+     */
+    private final String[] consumes;
+
+    /**
+     * Cache de respuestas segun @Cacheable, null si la ruta no se cachea
+     */
+    private final ResponseCache cache;
+
+    /**
+     * Configuracion de compresion segun @Compress, null si se usa la del
+     * formato de la respuesta
+     */
+    private final Compress compress;
+
+    /**
+     * Tiempo maximo de espera de las respuestas asincronicas en milisegundos
+     * segun @AsyncTimeout, negativo si se usa el del contexto
+     */
+    private final long asyncTimeout;
+
+    /**
+     * Elementos entre cada envio de las respuestas Stream o Iterator segun
+     * @StreamBatch, negativo si se usa el del codec
+     */
+    private final int streamBatch;
+
+    /**
+     * Limite de peticiones por unidad de tiempo segun @RateLimit, null si la
+     * ruta no tiene
+     */
+    private volatile RateLimiter rateLimiter;
+
+    /**
+     * Limite de peticiones en curso segun @MaxConcurrent, null si la ruta no
+     * tiene
+     */
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Invocaciones en curso compartidas segun @Coalesce, null si cada
+     * peticion invoca la ruta
+     */
+    private final RequestCoalescer coalescer;
+
+    /**
+     * Pool propio segun @Bulkhead, null si la ruta se atiende en el pool del
+     * servidor
+     */
+    private final Bulkhead bulkhead;
+
+    /**
+     * Pool creado por el WebServer para el @Bulkhead de la ruta, null hasta
+     * que se registra el contexto
+     */
+    private volatile BulkheadPool bulkheadPool;
+
+    /**
+     * Metricas de las peticiones atendidas por la ruta
+     */
+    private final RouteMetrics metrics = new RouteMetrics();
+
+    /**
+     * Cantidad de parametros del metodo
+     */
+    private final int arity;
+
+    /**
+     * Invocador generado, instancia de alguna de las interfaces InvokerN, o
+     * null si se utiliza el MethodHandle
+     */
+    private final Object directInvoker;
+
+    /**
+     * Invocador con firma (Object[])Object ya ligado a la instancia del
+     * contexto, se usa cuando no hay invocador directo
+     */
+    private final MethodHandle invoker;
+
+    /**
+     * Crea la ruta y compila su invocador
+     *
+     * @param target Instancia del contexto sobre la que se invoca el metodo
+     * @param httpMethod Metodo http (GET,POST,PUT,DELETE)
+     * @param path Template del path de la ruta
+     * @param method Metodo del contexto
+     * @param parameters Parametros del metodo
+     * @throws IllegalAccessException Si no es posible acceder al metodo
+     */
+    public HttpRoute(Object target, String httpMethod, String path, Method method,
+            List<HttpMethodParameter> parameters) throws IllegalAccessException {
+        this.httpMethod = httpMethod;
+        this.path = path;
+        this.method = method;
+        this.parameters = parameters;
+        this.arity = method.getParameterTypes().length;
+        MaxBodySize limit = method.getAnnotation(MaxBodySize.class) != null
+                ? method.getAnnotation(MaxBodySize.class)
+                : method.getDeclaringClass().getAnnotation(MaxBodySize.class);
+        this.maxBodySize = limit != null ? limit.value() : -1;
+        this.negotiator = ContentNegotiator.create(method.getAnnotation(Produces.class) != null
+                ? method.getAnnotation(Produces.class).value()
+                : null, CodecRegistry.getDefault());
+        Consumes consumed = method.getAnnotation(Consumes.class) != null
+                ? method.getAnnotation(Consumes.class)
+                : method.getDeclaringClass().getAnnotation(Consumes.class);
+        this.consumes = consumed != null ? mediaTypes(consumed.value()) : null;
+        Cacheable cacheable = method.getAnnotation(Cacheable.class);
+        if (cacheable != null && !"GET".equals(httpMethod)) {
+            logger.warn("@Cacheable solo se aplica a metodos GET, se ignora en " + method);
+            cacheable = null;
+        }
+        this.cache = cacheable != null ? ResponseCache.of(cacheable) : null;
+        AsyncTimeout timeout = method.getAnnotation(AsyncTimeout.class) != null
+                ? method.getAnnotation(AsyncTimeout.class)
+                : method.getDeclaringClass().getAnnotation(AsyncTimeout.class);
+        this.asyncTimeout = timeout != null ? timeout.unit().toMillis(timeout.value()) : -1;
+        this.compress = method.getAnnotation(Compress.class) != null
+                ? method.getAnnotation(Compress.class)
+                : method.getDeclaringClass().getAnnotation(Compress.class);
+        StreamBatch batch = method.getAnnotation(StreamBatch.class) != null
+                ? method.getAnnotation(StreamBatch.class)
+                : method.getDeclaringClass().getAnnotation(StreamBatch.class);
+        this.streamBatch = batch != null ? Math.max(1, batch.value()) : -1;
+        RateLimit rateLimit = method.getAnnotation(RateLimit.class) != null
+                ? method.getAnnotation(RateLimit.class)
+                : method.getDeclaringClass().getAnnotation(RateLimit.class);
+        this.rateLimiter = rateLimit != null ? RateLimiter.of(rateLimit) : null;
+        MaxConcurrent maxConcurrent = method.getAnnotation(MaxConcurrent.class) != null
+                ? method.getAnnotation(MaxConcurrent.class)
+                : method.getDeclaringClass().getAnnotation(MaxConcurrent.class);
+        this.concurrencyLimiter = maxConcurrent != null ? ConcurrencyLimiter.of(maxConcurrent) : null;
+        Coalesce coalesce = method.getAnnotation(Coalesce.class);
+        if (coalesce != null && !"GET".equals(httpMethod)) {
+            logger.warn("@Coalesce solo se aplica a metodos GET, se ignora en " + method);
+            coalesce = null;
+        } else if (coalesce != null && !sharedReturnType(method.getReturnType())) {
+            logger.warn("@Coalesce no se aplica a metodos que retornan un Stream, Iterator o StaticFile, se ignora en "
+                    + method);
+            coalesce = null;
+        }
+        this.coalescer = coalesce != null ? RequestCoalescer.of(coalesce) : null;
+        this.bulkhead = method.getAnnotation(Bulkhead.class) != null
+                ? method.getAnnotation(Bulkhead.class)
+                : method.getDeclaringClass().getAnnotation(Bulkhead.class);
+        method.setAccessible(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle = lookup.unreflect(method);
+        this.directInvoker = createDirectInvoker(lookup, handle, target);
+        if (directInvoker == null) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                handle = handle.bindTo(target);
+            }
+            this.invoker = handle.asType(handle.type().generic()).asSpreader(Object[].class, arity);
+        } else {
+            this.invoker = null;
+        }
+    }
+
+    /**
+     * Genera una implementacion de InvokerN que llama directamente al metodo
+     *
+     * @return Invocador generado o null si no se pudo generar
+     */
+    private Object createDirectInvoker(MethodHandles.Lookup lookup, MethodHandle handle, Object target) {
+        if (arity > MAX_DIRECT_ARITY || method.getReturnType() == void.class) {
+            return null;
+        }
+        try {
+            boolean isStatic = Modifier.isStatic(method.getModifiers());
+            Class<?> invokerType = INVOKER_TYPES[arity];
+            Class<?>[] boxedTypes = new Class<?>[arity];
+            for (int i = 0; i < arity; i++) {
+                boxedTypes[i] = MethodType.methodType(method.getParameterTypes()[i]).wrap().returnType();
+            }
+            MethodType factoryType = isStatic
+                    ? MethodType.methodType(invokerType)
+                    : MethodType.methodType(invokerType, method.getDeclaringClass());
+            MethodHandle factory = LambdaMetafactory.metafactory(lookup, "invoke", factoryType,
+                    MethodType.genericMethodType(arity),
+                    handle,
+                    MethodType.methodType(Object.class, boxedTypes)).getTarget();
+            return isStatic ? factory.invoke() : factory.invoke(target);
+        } catch (Throwable t) {
+            logger.debug("No se pudo generar invocador directo para " + method + ", se usa MethodHandle", t);
+            return null;
+        }
+    }
+
+    /**
+     * Ejecuta el metodo de la ruta con los argumentos ya convertidos
+     *
+     * @param args Argumentos del metodo
+     * @return Valor retornado por el metodo, null si es void
+     * @throws Exception Excepcion lanzada por el propio metodo
+     */
+    public Object invoke(Object[] args) throws Exception {
+        if (directInvoker != null) {
+            switch (arity) {
+                case 0:
+                    return ((Invoker0) directInvoker).invoke();
+                case 1:
+                    return ((Invoker1) directInvoker).invoke(args[0]);
+                case 2:
+                    return ((Invoker2) directInvoker).invoke(args[0], args[1]);
+                case 3:
+                    return ((Invoker3) directInvoker).invoke(args[0], args[1], args[2]);
+                case 4:
+                    return ((Invoker4) directInvoker).invoke(args[0], args[1], args[2], args[3]);
+                case 5:
+                    return ((Invoker5) directInvoker).invoke(args[0], args[1], args[2], args[3], args[4]);
+                default:
+                    return ((Invoker6) directInvoker).invoke(args[0], args[1], args[2], args[3], args[4], args[5]);
+            }
+        }
+        try {
+            return (Object) invoker.invokeExact(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    private static String[] mediaTypes(String[] values) {
+        List<String> types = new ArrayList<>();
+        for (String value : values) {
+            for (String mediaType : value.split(",")) {
+                String type = CodecRegistry.baseType(mediaType);
+                if (type.equals("*/*") || type.equals("*")) {
+                    return null;
+                }
+                if (!type.isEmpty()) {
+                    types.add(type);
+                }
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Indica si la ruta acepta un cuerpo del Content-Type indicado segun su
+     * @Consumes. Las peticiones sin Content-Type se aceptan siempre
+     *
+     * @param contentType Header Content-Type de la peticion, puede ser null
+     * @return true si el cuerpo se acepta
+     */
+    public boolean consumes(String contentType) {
+        if (consumes == null || contentType == null) {
+            return true;
+        }
+        String type = CodecRegistry.baseType(contentType);
+        for (String accepted : consumes) {
+            if (accepted.equals(type)
+                    || (accepted.endsWith("/*") && type.startsWith(accepted.substring(0, accepted.length() - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Metodo http de la ruta
+     *
+     * @return Metodo http
+     */
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    /**
+     * Template del path de la ruta
+     *
+     * @return Path de la ruta
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Tamaño maximo del cuerpo de las peticiones de la ruta
+     *
+     * @return Cantidad de bytes o -1 si se usa el maximo del contexto
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Negociador del codec de la respuesta
+     *
+     * @return Negociador de la ruta
+     */
+    public ContentNegotiator getNegotiator() {
+        return negotiator;
+    }
+
+    /**
+     * Cache de respuestas de la ruta
+     *
+     * @return Cache o null si la ruta no esta anotada con @Cacheable
+     */
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Tiempo maximo de espera de las respuestas asincronicas de la ruta
+     *
+     * @return Milisegundos, 0 sin limite o negativo si no tiene @AsyncTimeout
+     */
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Cantidad de elementos entre cada envio de las respuestas Stream o
+     * Iterator de la ruta
+     *
+     * @return Cantidad de elementos o negativo si no tiene @StreamBatch
+     */
+    public int getStreamBatch() {
+        return streamBatch;
+    }
+
+    /**
+     * Limite de peticiones por unidad de tiempo de la ruta
+     *
+     * @return Limitador o null si la ruta no tiene limite
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Establece el limite de peticiones por unidad de tiempo de la ruta, se
+     * aplica desde la proxima peticion
+     *
+     * @param rateLimiter Limitador o null para quitar el limite
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Limite de peticiones en curso de la ruta
+     *
+     * @return Limitador o null si la ruta no tiene limite
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Establece el limite de peticiones en curso de la ruta, se aplica desde
+     * la proxima peticion
+     *
+     * @param concurrencyLimiter Limitador o null para quitar el limite
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Invocaciones en curso compartidas por las peticiones identicas
+     *
+     * @return Coalescedor o null si la ruta no tiene @Coalesce
+     */
+    public RequestCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Pool propio de la ruta
+     *
+     * @return Anotacion del pool o null si la ruta no tiene @Bulkhead
+     */
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * Pool donde se atienden las peticiones de la ruta
+     *
+     * @return Pool o null si se atienden en el pool del servidor
+     */
+    public BulkheadPool getBulkheadPool() {
+        return bulkheadPool;
+    }
+
+    /**
+     * Establece el pool donde se atienden las peticiones de la ruta, se
+     * aplica desde la proxima peticion
+     *
+     * @param bulkheadPool Pool o null para usar el pool del servidor
+     */
+    public void setBulkheadPool(BulkheadPool bulkheadPool) {
+        this.bulkheadPool = bulkheadPool;
+    }
+
+    /**
+     * Indica si el resultado de un metodo puede serializarse una vez y
+     * compartirse, lo que no ocurre con las respuestas que se envian a medida
+     * que se generan
+     */
+    private static boolean sharedReturnType(Class<?> type) {
+        return !BaseStream.class.isAssignableFrom(type) && !Iterator.class.isAssignableFrom(type)
+                && !StaticFile.class.isAssignableFrom(type);
+    }
+
+    public RouteMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Tamaño minimo de las respuestas de la ruta que se comprimen, segun
+     * @Compress o la configuracion del formato
+     *
+     * @param codec Codec de la respuesta
+     * @return Cantidad de bytes, negativo si no se comprime
+     */
+    public int compressionThreshold(Codec codec) {
+        if (compress != null) {
+            return compress.enabled() ? compress.minSize() : -1;
+        }
+        return ResponseCompression.getThreshold(codec.getMediaType());
+    }
+
+    /**
+     * Metodo del contexto asociado a la ruta
+     *
+     * @return Metodo java
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Parametros del metodo de la ruta
+     *
+     * @return Lista de parametros
+     */
+    public List<HttpMethodParameter> getParameters() {
+        return parameters;
+    }
+
+    private static final Class<?>[] INVOKER_TYPES = {
+        Invoker0.class, Invoker1.class, Invoker2.class, Invoker3.class,
+        Invoker4.class, Invoker5.class, Invoker6.class
+    };
+
+    interface Invoker0 {
+
+        Object invoke() throws Exception;
+    }
+
+    interface Invoker1 {
+
+        Object invoke(Object a0) throws Exception;
+    }
+
+    interface Invoker2 {
+
+        Object invoke(Object a0, Object a1) throws Exception;
+    }
+
+    interface Invoker3 {
+
+        Object invoke(Object a0, Object a1, Object a2) throws Exception;
+    }
+
+    interface Invoker4 {
+
+        Object invoke(Object a0, Object a1, Object a2, Object a3) throws Exception;
+    }
+
+    interface Invoker5 {
+
+        Object invoke(Object a0, Object a1, Object a2, Object a3, Object a4) throws Exception;
+    }
+
+    interface Invoker6 {
+
+        Object invoke(Object a0, Object a1, Object a2, Object a3, Object a4, Object a5) throws Exception;
+    }
+}
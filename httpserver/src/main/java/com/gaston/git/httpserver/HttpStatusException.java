@@ -0,0 +1,28 @@
+package com.gaston.git.httpserver;
+
+/**
+ * Excepcion que ademas del mensaje indica el codigo de estado http con el que
+ * se debe responder al cliente
+ *
+ * @author gaston
+ */
+public class HttpStatusException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public HttpStatusException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Codigo de estado http de la respuesta
+     *
+     * @return Codigo de estado
+     */
+    public int getStatus() {
+        return status;
+    }
+}
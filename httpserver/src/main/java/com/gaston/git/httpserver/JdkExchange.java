@@ -0,0 +1,90 @@
+package com.gaston.git.httpserver;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Adaptador de un HttpExchange del servidor del jdk
+ *
+ * @author gaston
+ */
+public final class JdkExchange implements ServerExchange {
+
+    private final HttpExchange exchange;
+
+    public JdkExchange(HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return exchange.getRequestMethod();
+    }
+
+    @Override
+    public String getRawPath() {
+        return exchange.getRequestURI().getRawPath();
+    }
+
+    @Override
+    public String getRawQuery() {
+        return exchange.getRequestURI().getRawQuery();
+    }
+
+    @Override
+    public String getProtocol() {
+        return exchange.getProtocol();
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        return exchange.getRequestHeaders().getFirst(name);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return exchange.getRequestBody();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return exchange.getRemoteAddress();
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+        exchange.getResponseHeaders().set(name, value);
+    }
+
+    @Override
+    public void addResponseHeader(String name, String value) {
+        exchange.getResponseHeaders().add(name, value);
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) throws IOException {
+        exchange.sendResponseHeaders(status, length);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return exchange.getResponseBody();
+    }
+
+    @Override
+    public void close() {
+        exchange.close();
+    }
+
+    /**
+     * HttpExchange original
+     *
+     * @return Exchange del jdk
+     */
+    public HttpExchange unwrap() {
+        return exchange;
+    }
+}
@@ -0,0 +1,57 @@
+package com.gaston.git.httpserver;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Transporte basado en com.sun.net.httpserver.HttpServer, es el transporte por
+ * defecto del WebServer
+ *
+ * @author gaston
+ */
+public class JdkTransport implements Transport {
+
+    private HttpServer server;
+
+    @Override
+    public void bind(InetSocketAddress address, ExecutorService executor) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+    }
+
+    @Override
+    public void createContext(String path, ContextHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        server.removeContext(path);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Servidor del jdk subyacente
+     *
+     * @return Servidor http
+     */
+    public HttpServer getServer() {
+        return server;
+    }
+}
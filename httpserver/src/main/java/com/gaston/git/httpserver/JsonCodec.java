@@ -0,0 +1,67 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.ws.rs.core.MediaType;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Codec application/json, Jackson escribe los bytes UTF-8 directamente sobre
+ * el stream de la respuesta. Los Stream e Iterator se escriben como un arreglo
+ * que se envia a medida que se generan sus elementos
+ *
+ * @author gaston
+ */
+public class JsonCodec implements StreamingCodec {
+
+    /**
+     * Elementos entre cada envio por defecto de las respuestas Stream o
+     * Iterator
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final ObjectMapper mapper;
+
+    public JsonCodec() {
+        this(new ObjectMapper(new JsonFactory()));
+    }
+
+    public JsonCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        DtoModule.register(this.mapper);
+    }
+
+    @Override
+    public String getMediaType() {
+        return MediaType.APPLICATION_JSON;
+    }
+
+    @Override
+    public void write(Object value, OutputStream out) throws IOException {
+        mapper.writeValue(out, value);
+    }
+
+    @Override
+    public ElementWriter open(OutputStream out) throws IOException {
+        return new GeneratorElementWriter(mapper, mapper.getJsonFactory().createJsonGenerator(out,
+                JsonEncoding.UTF8), true);
+    }
+
+    @Override
+    public int getBatchSize() {
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Mapper utilizado por el codec
+     *
+     * @return Mapper Json
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+}
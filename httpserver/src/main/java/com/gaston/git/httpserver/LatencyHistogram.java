@@ -0,0 +1,141 @@
+package com.gaston.git.httpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias sin bloqueos, al estilo de HdrHistogram: los valores
+ * en microsegundos se agrupan por potencia de dos y cada potencia se divide en
+ * 8 sub-rangos, con lo que el error relativo es como maximo 12,5% en todo el
+ * rango. Cada rango es un LongAdder, de forma que hilos que registran a la vez
+ * no compiten por la misma variable.
+ *
+ * Los limites de los rangos coinciden con las potencias de dos, por eso al
+ * exportar se usan como limites de los buckets acumulados
+ *
+ * @author gaston
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Bits de sub-rango dentro de cada potencia de dos
+     */
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * Mayor potencia de dos registrada, los valores mayores a 2^32
+     * microsegundos (mas de una hora) se cuentan en el ultimo rango
+     */
+    private static final int MAX_EXPONENT = 31;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registra una latencia
+     *
+     * @param nanos Duracion en nanosegundos
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[index(nanos / 1000)].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Limite superior exclusivo de un rango en microsegundos
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index + 1;
+        }
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        int sub = index % SUB_COUNT;
+        return (long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * Cantidad de latencias registradas
+     *
+     * @return Cantidad de valores
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Suma de las latencias registradas
+     *
+     * @return Nanosegundos
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Cantidad de latencias menores a 2^exponent microsegundos
+     *
+     * @param exponent Potencia de dos del limite, entre 0 y 32
+     * @return Cantidad acumulada de valores
+     */
+    public long getCountBelow(int exponent) {
+        long limit = 1L << exponent;
+        long total = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) <= limit; i++) {
+            total += counts[i].sum();
+        }
+        return total;
+    }
+
+    /**
+     * Estima un percentil como el limite superior del rango que lo contiene
+     *
+     * @param percentile Percentil entre 0 y 100
+     * @return Latencia en nanosegundos, 0 si no hay valores
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return upperBound(i) * 1000;
+            }
+        }
+        return upperBound(BUCKETS - 1) * 1000;
+    }
+}
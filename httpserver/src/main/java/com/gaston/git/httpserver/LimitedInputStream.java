@@ -0,0 +1,60 @@
+package com.gaston.git.httpserver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream del cuerpo de una peticion que falla con BodyTooLargeException en
+ * cuanto se leen mas bytes que el maximo permitido, sin importar si la
+ * peticion indicaba Content-Length o venia chunked
+ *
+ * @author gaston
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long read;
+
+    public LimitedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) throws BodyTooLargeException {
+        read += n;
+        if (read > maxBytes) {
+            throw new BodyTooLargeException(maxBytes);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indica el tamaño maximo en bytes del cuerpo de las peticiones que acepta un
+ * metodo, o todos los metodos de un contexto si se anota la clase. Las
+ * peticiones que lo superan se rechazan con 413. Con el NioTransport el valor
+ * no puede superar el maxRequestSize del transporte, que lee el cuerpo
+ * completo antes de entregar la peticion
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface MaxBodySize {
+
+    /**
+     * Tamaño maximo en bytes
+     *
+     * @return Cantidad de bytes
+     */
+    long value();
+}
@@ -0,0 +1,35 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limita la cantidad de peticiones en curso de un metodo, o de cada metodo de
+ * un contexto si se anota la clase, para que una ruta lenta no ocupe todos los
+ * hilos del servidor. Las peticiones que superan el limite se responden 429
+ * sin invocar el metodo. Las respuestas asincronicas ocupan su lugar hasta que
+ * se envian
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface MaxConcurrent {
+
+    /**
+     * Cantidad maxima de peticiones en curso
+     *
+     * @return Cantidad de peticiones
+     */
+    int value();
+
+    /**
+     * Indica si el limite se aplica a cada direccion ip por separado en lugar
+     * de a todos los clientes juntos
+     *
+     * @return true para limitar por cliente
+     */
+    boolean perClient() default false;
+}
@@ -0,0 +1,170 @@
+package com.gaston.git.httpserver;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decorador de un ServerExchange que recuerda el codigo de estado enviado y
+ * cuenta los bytes leidos del cuerpo de la peticion y escritos en el de la
+ * respuesta, para registrarlos en las metricas de la ruta, y el permiso de
+ * concurrencia que hay que devolver al terminar. Los contadores son campos
+ * simples porque cada peticion la atiende un unico hilo
+ *
+ * @author gaston
+ */
+final class MeteredExchange implements ServerExchange {
+
+    private final ServerExchange exchange;
+    private int status;
+    private long bytesIn;
+    private long bytesOut;
+    private InputStream requestBody;
+    private OutputStream responseBody;
+    private ConcurrencyLimiter admission;
+    private String client;
+
+    MeteredExchange(ServerExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * Recuerda el permiso de concurrencia tomado para la peticion
+     *
+     * @param limiter Limitador de la ruta
+     * @param client Cliente con que se tomo el permiso
+     */
+    void admitted(ConcurrencyLimiter limiter, String client) {
+        this.admission = limiter;
+        this.client = client;
+    }
+
+    /**
+     * Devuelve el permiso de concurrencia, si se tomo uno
+     */
+    void releaseAdmission() {
+        if (admission != null) {
+            admission.release(client);
+            admission = null;
+        }
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    long getBytesIn() {
+        return bytesIn;
+    }
+
+    long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return exchange.getRequestMethod();
+    }
+
+    @Override
+    public String getRawPath() {
+        return exchange.getRawPath();
+    }
+
+    @Override
+    public String getRawQuery() {
+        return exchange.getRawQuery();
+    }
+
+    @Override
+    public String getProtocol() {
+        return exchange.getProtocol();
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        return exchange.getRequestHeader(name);
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        if (requestBody == null) {
+            requestBody = new FilterInputStream(exchange.getRequestBody()) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b >= 0) {
+                        bytesIn++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = in.read(b, off, len);
+                    if (read > 0) {
+                        bytesIn += read;
+                    }
+                    return read;
+                }
+            };
+        }
+        return requestBody;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return exchange.getRemoteAddress();
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+        exchange.setResponseHeader(name, value);
+    }
+
+    @Override
+    public void addResponseHeader(String name, String value) {
+        exchange.addResponseHeader(name, value);
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) throws IOException {
+        this.status = status;
+        exchange.sendResponseHeaders(status, length);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        if (responseBody == null) {
+            responseBody = new FilterOutputStream(exchange.getResponseBody()) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytesOut++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    bytesOut += len;
+                }
+            };
+        }
+        return responseBody;
+    }
+
+    @Override
+    public void sendFile(FileChannel file, long position, long count) throws IOException {
+        exchange.sendFile(file, position, count);
+        bytesOut += count;
+    }
+
+    @Override
+    public void close() {
+        exchange.close();
+    }
+}
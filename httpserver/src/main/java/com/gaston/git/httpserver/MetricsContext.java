@@ -0,0 +1,253 @@
+package com.gaston.git.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.GET;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Contexto que expone las metricas del servidor en el formato de texto de
+ * Prometheus: peticiones, errores, bytes y latencias de cada ruta de cada
+ * contexto, aciertos de las caches, rechazos por los limites de cada ruta,
+ * peticiones unidas a una invocacion en curso y el estado del pool de
+ * peticiones y de cada bulkhead.
+ *
+ * No se anota con @Path para que el escaneo de paquetes no lo instancie, el
+ * WebServer lo registra en init en el path configurado
+ *
+ * @author gaston
+ */
+public class MetricsContext extends WebContext {
+
+    /**
+     * Menor y mayor potencia de dos en microsegundos usadas como limites de
+     * los buckets del histograma, de 16 microsegundos a 33,5 segundos
+     */
+    private static final int MIN_BUCKET_EXPONENT = 4;
+    private static final int MAX_BUCKET_EXPONENT = 25;
+
+    private final WebServer server;
+
+    public MetricsContext(String name, WebServer server) {
+        super(name);
+        this.server = server;
+    }
+
+    /**
+     * Metricas actuales en formato Prometheus
+     *
+     * @return Texto de las metricas
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public String metrics() {
+        List<WebContext> contexts = new ArrayList<>(server.getContexts());
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "httpserver_requests_total", "counter", "Peticiones atendidas");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                sample(out, "httpserver_requests_total", context, route, route.getMetrics().getRequests());
+            }
+            sample(out, "httpserver_requests_total", context, null, context.getUnmatchedMetrics().getRequests());
+        }
+        header(out, "httpserver_request_errors_total", "counter", "Respuestas con codigo 400 o mayor");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                sample(out, "httpserver_request_errors_total", context, route, route.getMetrics().getErrors());
+            }
+            sample(out, "httpserver_request_errors_total", context, null, context.getUnmatchedMetrics().getErrors());
+        }
+        header(out, "httpserver_request_bytes_total", "counter", "Bytes leidos del cuerpo de las peticiones");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                sample(out, "httpserver_request_bytes_total", context, route, route.getMetrics().getBytesIn());
+            }
+        }
+        header(out, "httpserver_response_bytes_total", "counter", "Bytes escritos en el cuerpo de las respuestas");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                sample(out, "httpserver_response_bytes_total", context, route, route.getMetrics().getBytesOut());
+            }
+        }
+        header(out, "httpserver_request_duration_seconds", "histogram", "Duracion de las peticiones");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                histogram(out, context, route, route.getMetrics().getLatency());
+            }
+        }
+        header(out, "httpserver_cache_hits_total", "counter", "Peticiones respondidas desde la cache");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                if (route.getCache() != null) {
+                    sample(out, "httpserver_cache_hits_total", context, route, route.getCache().getHits());
+                }
+            }
+        }
+        header(out, "httpserver_cache_misses_total", "counter", "Peticiones sin respuesta vigente en la cache");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                if (route.getCache() != null) {
+                    sample(out, "httpserver_cache_misses_total", context, route, route.getCache().getMisses());
+                }
+            }
+        }
+
+        header(out, "httpserver_route_rejected_total", "counter",
+                "Peticiones rechazadas con 429 por los limites de la ruta");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                if (route.getRateLimiter() != null) {
+                    rejected(out, context, route, "rate", route.getRateLimiter().getRejected());
+                }
+                if (route.getConcurrencyLimiter() != null) {
+                    rejected(out, context, route, "concurrency", route.getConcurrencyLimiter().getRejected());
+                }
+            }
+        }
+        header(out, "httpserver_coalesced_requests_total", "counter",
+                "Peticiones respondidas con el resultado de una invocacion en curso");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                if (route.getCoalescer() != null) {
+                    sample(out, "httpserver_coalesced_requests_total", context, route,
+                            route.getCoalescer().getMerged());
+                }
+            }
+        }
+        header(out, "httpserver_coalesced_timeouts_total", "counter",
+                "Peticiones respondidas con 504 esperando una invocacion en curso");
+        for (WebContext context : contexts) {
+            for (HttpRoute route : context.getRoutes()) {
+                if (route.getCoalescer() != null) {
+                    sample(out, "httpserver_coalesced_timeouts_total", context, route,
+                            route.getCoalescer().getTimeouts());
+                }
+            }
+        }
+
+        gauge(out, "httpserver_requests_in_flight", "Peticiones en curso", ContextHandler.getInFlightRequests());
+        gauge(out, "httpserver_executor_active_threads", "Hilos del pool atendiendo peticiones",
+                server.getActiveThreads());
+        gauge(out, "httpserver_executor_queue_depth", "Peticiones en espera en la cola del pool",
+                server.getQueueDepth());
+        header(out, "httpserver_rejected_total", "counter", "Peticiones rechazadas por falta de capacidad");
+        out.append("httpserver_rejected_total ").append(RequestExecutors.getRejectedCount()).append('\n');
+        List<BulkheadPool> bulkheads = server.getBulkheads();
+        if (!bulkheads.isEmpty()) {
+            header(out, "httpserver_bulkhead_active_threads", "gauge", "Hilos de cada bulkhead atendiendo peticiones");
+            for (BulkheadPool pool : bulkheads) {
+                bulkhead(out, "httpserver_bulkhead_active_threads", pool, pool.getActiveThreads());
+            }
+            header(out, "httpserver_bulkhead_queue_depth", "gauge", "Peticiones en espera en la cola de cada bulkhead");
+            for (BulkheadPool pool : bulkheads) {
+                bulkhead(out, "httpserver_bulkhead_queue_depth", pool, pool.getQueueDepth());
+            }
+            header(out, "httpserver_bulkhead_rejected_total", "counter",
+                    "Peticiones rechazadas por tener llenos los hilos y la cola del bulkhead");
+            for (BulkheadPool pool : bulkheads) {
+                bulkhead(out, "httpserver_bulkhead_rejected_total", pool, pool.getRejected());
+            }
+        }
+        AccessLog accessLog = server.getAccessLog();
+        if (accessLog != null) {
+            header(out, "httpserver_access_log_dropped_total", "counter",
+                    "Registros del access log descartados por tener el buffer lleno");
+            out.append("httpserver_access_log_dropped_total ").append(accessLog.getDropped()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String metric, String type, String help) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String metric, String help, long value) {
+        if (value >= 0) {
+            header(out, metric, "gauge", help);
+            out.append(metric).append(' ').append(value).append('\n');
+        }
+    }
+
+    private static void sample(StringBuilder out, String metric, WebContext context, HttpRoute route, long value) {
+        out.append(metric);
+        labels(out, context, route);
+        out.append('}').append(' ').append(value).append('\n');
+    }
+
+    private static void rejected(StringBuilder out, WebContext context, HttpRoute route, String limit, long value) {
+        out.append("httpserver_route_rejected_total");
+        labels(out, context, route);
+        out.append(",limit=\"").append(limit).append("\"} ").append(value).append('\n');
+    }
+
+    private static void bulkhead(StringBuilder out, String metric, BulkheadPool pool, long value) {
+        out.append(metric).append("{pool=\"");
+        escape(out, pool.getName());
+        out.append("\"} ").append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, WebContext context, HttpRoute route, LatencyHistogram latency) {
+        for (int exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent++) {
+            out.append("httpserver_request_duration_seconds_bucket");
+            labels(out, context, route);
+            out.append(",le=\"");
+            seconds(out, 1L << exponent);
+            out.append("\"} ").append(latency.getCountBelow(exponent)).append('\n');
+        }
+        long count = latency.getCount();
+        out.append("httpserver_request_duration_seconds_bucket");
+        labels(out, context, route);
+        out.append(",le=\"+Inf\"} ").append(count).append('\n');
+        out.append("httpserver_request_duration_seconds_sum");
+        labels(out, context, route);
+        out.append("} ").append(latency.getSumNanos() / 1e9).append('\n');
+        out.append("httpserver_request_duration_seconds_count");
+        labels(out, context, route);
+        out.append("} ").append(count).append('\n');
+    }
+
+    /**
+     * Etiquetas de una ruta sin cerrar la llave, las peticiones que no
+     * corresponden a ninguna ruta usan route="" y method=""
+     */
+    private static void labels(StringBuilder out, WebContext context, HttpRoute route) {
+        out.append("{context=\"");
+        escape(out, context.getName());
+        out.append("\",method=\"").append(route != null ? route.getHttpMethod() : "");
+        out.append("\",route=\"");
+        escape(out, route != null ? route.getPath() : "");
+        out.append('"');
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Escribe microsegundos como segundos en decimal exacto
+     */
+    private static void seconds(StringBuilder out, long micros) {
+        out.append(micros / 1000000);
+        long fraction = micros % 1000000;
+        if (fraction > 0) {
+            String digits = Long.toString(1000000 + fraction).substring(1);
+            int end = digits.length();
+            while (digits.charAt(end - 1) == '0') {
+                end--;
+            }
+            out.append('.').append(digits, 0, end);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
+
+/**
+ * Codec application/x-ndjson: un documento json por linea. Es el formato
+ * natural de las rutas que retornan un Stream o un Iterator, ya que el cliente
+ * puede procesar cada linea apenas la recibe sin esperar el final de la
+ * respuesta. Un valor que no es una secuencia se escribe como una sola linea
+ *
+ * @author gaston
+ */
+public class NdjsonCodec extends JsonCodec {
+
+    /**
+     * Media type del formato
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    public NdjsonCodec() {
+        super();
+    }
+
+    public NdjsonCodec(ObjectMapper mapper) {
+        super(mapper);
+    }
+
+    @Override
+    public String getMediaType() {
+        return APPLICATION_NDJSON;
+    }
+
+    @Override
+    public void write(Object value, OutputStream out) throws IOException {
+        super.write(value, out);
+        out.write('\n');
+    }
+
+    @Override
+    public ElementWriter open(OutputStream out) throws IOException {
+        JsonGenerator generator = getMapper().getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        // Sin separador entre valores raiz, cada uno termina con su salto
+        MinimalPrettyPrinter printer = new MinimalPrettyPrinter();
+        printer.setRootValueSeparator("");
+        generator.setPrettyPrinter(printer);
+        return new GeneratorElementWriter(getMapper(), generator, false);
+    }
+}
@@ -0,0 +1,603 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Conexion http/1.1 de un NioEventLoop. Acumula los bytes leidos, interpreta
+ * la linea de peticion, los headers y el cuerpo, y entrega cada peticion
+ * completa al transporte. Mientras una peticion esta en curso no se leen mas
+ * bytes del socket; al terminar su respuesta se continua con la siguiente
+ * peticion encadenada, si ya se habia recibido.
+ *
+ * Las respuestas se encolan como ByteBuffer desde cualquier hilo y las envia el
+ * event loop. Si el cliente no lee y la cola supera HIGH_WATER bytes, el hilo
+ * que escribe la respuesta espera hasta que baje de LOW_WATER
+ *
+ * @author gaston
+ */
+final class NioConnection {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    private static final int HIGH_WATER = 256 * 1024;
+    private static final int LOW_WATER = 64 * 1024;
+    private static final int MAX_GATHER = 16;
+
+    /**
+     * Valor de chunkRemaining cuando ya se leyo el chunk final y faltan los
+     * headers finales
+     */
+    private static final long TRAILERS = -2;
+
+    /**
+     * Tamaño inicial del buffer del cuerpo, crece al doble a medida que
+     * llegan los bytes
+     */
+    private static final int INITIAL_BODY_SIZE = BufferPool.DEFAULT_BUFFER_SIZE;
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final InetSocketAddress remoteAddress;
+
+    /**
+     * Bytes recibidos pendientes de interpretar, entre inStart e inEnd
+     */
+    private byte[] in = new byte[4096];
+    private int inStart;
+    private int inEnd;
+
+    /**
+     * Posicion desde donde continuar buscando el fin de los headers
+     */
+    private int headerScan;
+
+    /**
+     * Peticion cuyos headers ya se interpretaron y espera el cuerpo
+     */
+    private NioExchange pending;
+    private byte[] body;
+    private int bodyLength;
+
+    /**
+     * Content-Length de la peticion pendiente, -1 si es chunked o no tiene
+     * cuerpo
+     */
+    private long bodyExpected = -1;
+    private long chunkRemaining = -1;
+
+    /**
+     * Indica si hay una peticion entregada al contexto sin terminar, solo se
+     * modifica en el event loop
+     */
+    private boolean inFlight;
+
+    /**
+     * Cerrar la conexion una vez enviada la respuesta en curso
+     */
+    private boolean closeAfterWrite;
+
+    private long lastActivity = System.currentTimeMillis();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private volatile boolean writerWaiting;
+    private volatile boolean closed;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            writeOutput();
+        }
+    };
+
+    NioConnection(NioEventLoop loop, SocketChannel channel) throws IOException {
+        this.loop = loop;
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    NioTransport getTransport() {
+        return loop.getTransport();
+    }
+
+    /**
+     * Indica si la conexion esta sin actividad desde antes del instante dado y
+     * sin ninguna peticion en curso
+     */
+    boolean isIdleSince(long limit) {
+        return !inFlight && output.isEmpty() && lastActivity < limit;
+    }
+
+    void onReadable() {
+        ByteBuffer buffer = loop.getReadBuffer();
+        buffer.clear();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        if (read == 0) {
+            return;
+        }
+        lastActivity = System.currentTimeMillis();
+        buffer.flip();
+        ensureCapacity(read);
+        buffer.get(in, inEnd, read);
+        inEnd += read;
+        processInput();
+    }
+
+    void onWritable() {
+        writeOutput();
+    }
+
+    /**
+     * Interpreta las peticiones completas que haya en el buffer de entrada
+     */
+    private void processInput() {
+        while (!inFlight && !closed && !closeAfterWrite) {
+            if (pending == null && !parseHead()) {
+                break;
+            }
+            if (pending == null || !readBody()) {
+                break;
+            }
+            NioExchange exchange = pending;
+            exchange.setBody(body, bodyLength);
+            pending = null;
+            body = null;
+            bodyLength = 0;
+            bodyExpected = -1;
+            chunkRemaining = -1;
+            inFlight = true;
+            loop.getTransport().dispatch(exchange);
+        }
+        if (inStart == inEnd) {
+            inStart = 0;
+            inEnd = 0;
+            headerScan = 0;
+        }
+        updateInterest();
+    }
+
+    /**
+     * Busca el fin de los headers e interpreta la linea de peticion y los
+     * headers
+     *
+     * @return true si se interpreto una peticion o se respondio un error
+     */
+    private boolean parseHead() {
+        int end = findHeaderEnd();
+        int maxHeaderSize = loop.getTransport().getMaxHeaderSize();
+        if (end < 0) {
+            if (inEnd - inStart > maxHeaderSize) {
+                sendError(431, "Headers demasiado grandes");
+            }
+            return false;
+        }
+        if (end - inStart > maxHeaderSize) {
+            sendError(431, "Headers demasiado grandes");
+            return false;
+        }
+        NioExchange exchange = NioExchange.parse(this, in, inStart, end);
+        inStart = end;
+        headerScan = end;
+        if (exchange == null) {
+            sendError(400, "Peticion invalida");
+            return false;
+        }
+        long contentLength = exchange.getContentLength();
+        long maxRequestSize = loop.getTransport().getMaxRequestSize();
+        if (exchange.isChunked() && contentLength >= 0) {
+            sendError(400, "Peticion invalida");
+            return false;
+        }
+        if (exchange.hasUnsupportedTransferEncoding()) {
+            sendError(501, "Transfer-Encoding no soportado");
+            return false;
+        }
+        if (contentLength > maxRequestSize || contentLength > Integer.MAX_VALUE - 8) {
+            sendError(413, "El cuerpo de la peticion supera el maximo de " + maxRequestSize + " bytes");
+            return false;
+        }
+        pending = exchange;
+        // El buffer del cuerpo se crea al recibir los primeros bytes, un Content-Length grande no reserva memoria
+        bodyExpected = exchange.isChunked() ? -1 : Math.max(0, contentLength);
+        if ((exchange.isChunked() || contentLength > inEnd - inStart) && exchange.expectsContinue()) {
+            send(ByteBuffer.wrap(CONTINUE), false);
+        }
+        return true;
+    }
+
+    /**
+     * Busca la linea vacia que termina los headers, admitiendo fines de linea
+     * con o sin \r
+     *
+     * @return Posicion siguiente a la linea vacia o -1 si aun no se recibio
+     */
+    private int findHeaderEnd() {
+        int from = Math.max(inStart, headerScan);
+        for (int i = from; i < inEnd; i++) {
+            if (in[i] == '\n') {
+                if (i + 1 < inEnd && in[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < inEnd && in[i + 1] == '\r' && in[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        // Se retrocede para no perder un fin de linea partido entre lecturas
+        headerScan = Math.max(inStart, inEnd - 2);
+        return -1;
+    }
+
+    /**
+     * Lee el cuerpo de la peticion pendiente
+     *
+     * @return true si el cuerpo esta completo
+     */
+    private boolean readBody() {
+        if (!pending.isChunked()) {
+            int available = (int) Math.min(bodyExpected - bodyLength, inEnd - inStart);
+            if (available > 0) {
+                appendBody(available);
+            }
+            return bodyLength == bodyExpected;
+        }
+        if (chunkRemaining == TRAILERS) {
+            return skipTrailers();
+        }
+        while (true) {
+            if (chunkRemaining < 0) {
+                int lineEnd = indexOf('\n', inStart);
+                if (lineEnd < 0) {
+                    return false;
+                }
+                long size = parseChunkSize(inStart, lineEnd);
+                if (size < 0) {
+                    sendError(400, "Peticion invalida");
+                    return false;
+                }
+                inStart = lineEnd + 1;
+                if (size == 0) {
+                    return skipTrailers();
+                }
+                if (bodyLength + size > loop.getTransport().getMaxRequestSize()) {
+                    sendError(413, "El cuerpo de la peticion supera el maximo de "
+                            + loop.getTransport().getMaxRequestSize() + " bytes");
+                    return false;
+                }
+                chunkRemaining = size;
+            }
+            if (chunkRemaining > 0) {
+                int available = (int) Math.min(chunkRemaining, inEnd - inStart);
+                if (available == 0) {
+                    return false;
+                }
+                appendBody(available);
+                chunkRemaining -= available;
+            }
+            if (chunkRemaining == 0) {
+                // Fin de linea que sigue a los datos del chunk
+                int lineEnd = indexOf('\n', inStart);
+                if (lineEnd < 0) {
+                    return false;
+                }
+                inStart = lineEnd + 1;
+                chunkRemaining = -1;
+            }
+        }
+    }
+
+    /**
+     * Copia bytes recibidos al cuerpo de la peticion pendiente. El buffer
+     * crece al doble a medida que llegan los bytes, sin superar el
+     * Content-Length, de forma que la memoria de una conexion depende de lo
+     * que realmente envio el cliente y no de lo que declaro
+     *
+     * @param count Cantidad de bytes a copiar desde inStart
+     */
+    private void appendBody(int count) {
+        int needed = bodyLength + count;
+        if (body == null || needed > body.length) {
+            long capacity = Math.max(needed, body == null ? INITIAL_BODY_SIZE : (long) body.length * 2);
+            if (bodyExpected >= 0) {
+                capacity = Math.min(capacity, bodyExpected);
+            }
+            body = body == null ? new byte[(int) capacity] : Arrays.copyOf(body, (int) capacity);
+        }
+        System.arraycopy(in, inStart, body, bodyLength, count);
+        bodyLength = needed;
+        inStart += count;
+    }
+
+    /**
+     * Descarta los headers finales de un cuerpo chunked
+     *
+     * @return true si se recibio la linea vacia final
+     */
+    private boolean skipTrailers() {
+        while (true) {
+            int lineEnd = indexOf('\n', inStart);
+            if (lineEnd < 0) {
+                // Se recuerda que ya se leyo el chunk final
+                chunkRemaining = TRAILERS;
+                return false;
+            }
+            boolean empty = lineEnd == inStart || (lineEnd == inStart + 1 && in[inStart] == '\r');
+            inStart = lineEnd + 1;
+            if (empty) {
+                return true;
+            }
+        }
+    }
+
+    private long parseChunkSize(int start, int end) {
+        long size = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(in[i], 16);
+            if (digit < 0) {
+                break;
+            }
+            size = size * 16 + digit;
+            if (++digits > 15) {
+                return -1;
+            }
+        }
+        return digits == 0 ? -1 : size;
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < inEnd; i++) {
+            if (in[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int length) {
+        if (inEnd + length <= in.length) {
+            return;
+        }
+        int used = inEnd - inStart;
+        if (used + length <= in.length && inStart > 0) {
+            System.arraycopy(in, inStart, in, 0, used);
+        } else {
+            byte[] bigger = new byte[Math.max(in.length * 2, used + length)];
+            System.arraycopy(in, inStart, bigger, 0, used);
+            in = bigger;
+        }
+        headerScan = Math.max(0, headerScan - inStart);
+        inStart = 0;
+        inEnd = used;
+    }
+
+    /**
+     * Responde un error del propio transporte y cierra la conexion
+     */
+    private void sendError(int status, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + NioExchange.reasonPhrase(status) + "\r\n"
+                + "Date: " + NioExchange.currentDate() + "\r\n"
+                + "Content-Length: " + bytes.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        ByteBuffer response = ByteBuffer.allocate(head.length() + bytes.length);
+        response.put(head.getBytes(StandardCharsets.ISO_8859_1)).put(bytes).flip();
+        pending = null;
+        closeAfterWrite = true;
+        inStart = inEnd;
+        send(response, false);
+    }
+
+    /**
+     * Encola un buffer para enviar. Puede invocarse desde cualquier hilo
+     *
+     * @param buffer Buffer listo para leer
+     * @param wait Si el hilo debe esperar cuando la cola esta llena
+     */
+    void send(ByteBuffer buffer, boolean wait) {
+        output.add(buffer);
+        long pending = pendingBytes.addAndGet(buffer.remaining());
+        if (loop.inLoop()) {
+            writeOutput();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+        if (wait && pending > HIGH_WATER) {
+            awaitDrain();
+        }
+    }
+
+    /**
+     * Espera a que el cliente lea la respuesta encolada
+     */
+    private void awaitDrain() {
+        synchronized (this) {
+            writerWaiting = true;
+            try {
+                while (!closed && pendingBytes.get() > LOW_WATER) {
+                    wait(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writerWaiting = false;
+            }
+        }
+    }
+
+    /**
+     * Escribe en el socket todo lo que acepte sin bloquearse
+     */
+    private void writeOutput() {
+        if (closed) {
+            releaseOutput();
+            return;
+        }
+        try {
+            while (true) {
+                int count = 0;
+                for (ByteBuffer buffer : output) {
+                    gather[count++] = buffer;
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                if (count == 0) {
+                    break;
+                }
+                long written = channel.write(gather, 0, count);
+                pendingBytes.addAndGet(-written);
+                boolean blocked = false;
+                for (int i = 0; i < count; i++) {
+                    if (gather[i].hasRemaining()) {
+                        blocked = true;
+                        break;
+                    }
+                    loop.getTransport().getBufferPool().release(output.poll());
+                }
+                Arrays.fill(gather, 0, count, null);
+                if (blocked) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Error escribiendo en " + remoteAddress, e);
+            close();
+            return;
+        }
+        if (writerWaiting && pendingBytes.get() <= LOW_WATER) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        if (output.isEmpty() && closeAfterWrite && !inFlight) {
+            close();
+            return;
+        }
+        updateInterest();
+    }
+
+    /**
+     * Se invoca al terminar la respuesta de la peticion en curso, desde
+     * cualquier hilo
+     *
+     * @param close Si la conexion debe cerrarse al enviar la respuesta
+     */
+    void exchangeDone(final boolean close) {
+        Runnable done = new Runnable() {
+            @Override
+            public void run() {
+                inFlight = false;
+                lastActivity = System.currentTimeMillis();
+                if (close) {
+                    closeAfterWrite = true;
+                }
+                writeOutput();
+                if (!closed) {
+                    processInput();
+                }
+            }
+        };
+        // Aun desde el propio loop se difiere, para no interpretar la
+        // siguiente peticion dentro de la que se esta terminando
+        loop.execute(done);
+    }
+
+    private void updateInterest() {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!inFlight && !closeAfterWrite) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!output.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Cierra la conexion descartando lo pendiente
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!loop.inLoop()) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeChannel();
+                }
+            });
+        } else {
+            closeChannel();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void closeChannel() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error cerrando conexion", e);
+        }
+        releaseOutput();
+        loop.removeConnection(this);
+    }
+
+    private void releaseOutput() {
+        ByteBuffer buffer;
+        while ((buffer = output.poll()) != null) {
+            loop.getTransport().getBufferPool().release(buffer);
+        }
+        pendingBytes.set(0);
+    }
+}
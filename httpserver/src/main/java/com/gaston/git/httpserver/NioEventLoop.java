@@ -0,0 +1,247 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.log4j.Logger;
+
+/**
+ * Hilo con un selector propio que atiende un grupo de conexiones del
+ * NioTransport. Todo el estado de lectura de sus conexiones se modifica solo
+ * desde este hilo; el resto de los hilos se comunican con el loop encolando
+ * tareas con execute
+ *
+ * @author gaston
+ */
+final class NioEventLoop implements Runnable {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Milisegundos entre revisiones de conexiones inactivas
+     */
+    private static final long SWEEP_INTERVAL = 1000;
+
+    private final NioTransport transport;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<NioConnection> connections = new ArrayList<>();
+    private final List<ServerSocketChannel> listeners = new ArrayList<>();
+
+    /**
+     * Buffer directo donde se leen los sockets, compartido por todas las
+     * conexiones del loop
+     */
+    private final ByteBuffer readBuffer;
+
+    /**
+     * Loops entre los que se reparten las conexiones aceptadas cuando no se
+     * usa SO_REUSEPORT
+     */
+    private NioEventLoop[] acceptTargets;
+    private int nextTarget;
+
+    private volatile boolean running = true;
+    private long lastSweep;
+
+    NioEventLoop(NioTransport transport, String name) throws IOException {
+        this.transport = transport;
+        this.selector = Selector.open();
+        this.readBuffer = transport.getBufferPool().acquire();
+        this.thread = new Thread(this, name);
+    }
+
+    /**
+     * Registra un socket de escucha en el loop
+     *
+     * @param listener Socket de escucha
+     * @param targets Loops entre los que repartir las conexiones, o null si
+     * las atiende este loop
+     */
+    void listen(ServerSocketChannel listener, NioEventLoop[] targets) throws IOException {
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+        listeners.add(listener);
+        this.acceptTargets = targets;
+    }
+
+    void start() {
+        lastSweep = System.currentTimeMillis();
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void awaitTermination(long millis) {
+        try {
+            thread.join(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ejecuta una tarea en el hilo del loop
+     *
+     * @param task Tarea
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Indica si el hilo actual es el del loop
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    NioTransport getTransport() {
+        return transport;
+    }
+
+    void removeConnection(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(SWEEP_INTERVAL);
+                wakeupPending.set(false);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    } else {
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    }
+                }
+                runTasks();
+                sweep();
+            } catch (Throwable t) {
+                logger.error("Error en " + thread.getName(), t);
+            }
+        }
+        close();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("Error ejecutando tarea en " + thread.getName(), t);
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel listener) throws IOException {
+        SocketChannel channel;
+        while ((channel = listener.accept()) != null) {
+            if (acceptTargets == null || acceptTargets.length == 1) {
+                register(channel);
+            } else {
+                final NioEventLoop target = acceptTargets[nextTarget++ % acceptTargets.length];
+                final SocketChannel accepted = channel;
+                if (target == this) {
+                    register(accepted);
+                } else {
+                    target.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            target.register(accepted);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    private void register(SocketChannel channel) {
+        try {
+            connections.add(new NioConnection(this, channel));
+        } catch (IOException e) {
+            logger.debug("No se pudo registrar la conexion", e);
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Ya esta cerrada
+            }
+        }
+    }
+
+    /**
+     * Cierra las conexiones que superaron el tiempo de inactividad
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SWEEP_INTERVAL) {
+            return;
+        }
+        lastSweep = now;
+        long limit = now - transport.getKeepAliveTimeout();
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            if (connection.isIdleSince(limit)) {
+                connection.close();
+            }
+        }
+    }
+
+    private void close() {
+        runTasks();
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                logger.debug("Error cerrando socket de escucha", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Error cerrando selector", e);
+        }
+        transport.getBufferPool().release(readBuffer);
+    }
+}
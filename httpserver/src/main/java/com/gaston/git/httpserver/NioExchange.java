@@ -0,0 +1,663 @@
+package com.gaston.git.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Peticion recibida por el NioTransport y su respuesta. La peticion llega con
+ * el cuerpo completo; la respuesta se escribe en buffers directos del pool que
+ * se encolan en la conexion, con Content-Length o con transferencia chunked
+ * segun lo indicado en sendResponseHeaders. Los archivos enviados con sendFile
+ * se mapean en memoria y se encolan tal cual, sin copiarlos al heap
+ *
+ * @author gaston
+ */
+final class NioExchange implements ServerExchange {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile CachedDate cachedDate = new CachedDate(0, "");
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    /**
+     * Bytes que se reservan al principio de cada chunk para su tamaño, cuatro
+     * digitos hexadecimales y el fin de linea
+     */
+    private static final int CHUNK_HEADER = 6;
+
+    /**
+     * Tamaño maximo de cada porcion de un archivo que se mapea en memoria
+     */
+    private static final long MAP_WINDOW = 4 * 1024 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int MODE_FIXED = 0;
+    private static final int MODE_CHUNKED = 1;
+    private static final int MODE_UNTIL_CLOSE = 2;
+    private static final int MODE_NONE = 3;
+
+    private final NioConnection connection;
+    private final String method;
+    private final String rawPath;
+    private final String rawQuery;
+    private final String protocol;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final int headerCount;
+
+    private long contentLength = -1;
+    private boolean chunked;
+    private boolean unsupportedEncoding;
+    private boolean expectContinue;
+    private boolean keepAlive;
+
+    private InputStream requestBody;
+    private final List<String> responseNames = new ArrayList<>();
+    private final List<String> responseValues = new ArrayList<>();
+    private ResponseStream response;
+    private boolean done;
+
+    private NioExchange(NioConnection connection, String method, String rawPath, String rawQuery, String protocol,
+            String[] headerNames, String[] headerValues, int headerCount) {
+        this.connection = connection;
+        this.method = method;
+        this.rawPath = rawPath;
+        this.rawQuery = rawQuery;
+        this.protocol = protocol;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.headerCount = headerCount;
+    }
+
+    /**
+     * Interpreta la linea de peticion y los headers
+     *
+     * @param connection Conexion que recibio la peticion
+     * @param in Bytes recibidos
+     * @param start Inicio de la peticion
+     * @param end Posicion siguiente a la linea vacia que termina los headers
+     * @return Peticion o null si es invalida
+     */
+    static NioExchange parse(NioConnection connection, byte[] in, int start, int end) {
+        int lineEnd = lineEnd(in, start, end);
+        String requestLine = new String(in, start, lineEnd - start, StandardCharsets.ISO_8859_1);
+        int firstSpace = requestLine.indexOf(' ');
+        int lastSpace = requestLine.lastIndexOf(' ');
+        if (firstSpace <= 0 || lastSpace <= firstSpace + 1) {
+            return null;
+        }
+        String method = requestLine.substring(0, firstSpace);
+        String target = requestLine.substring(firstSpace + 1, lastSpace);
+        String protocol = requestLine.substring(lastSpace + 1);
+        if (!protocol.startsWith("HTTP/1.")) {
+            return null;
+        }
+        if (!target.startsWith("/")) {
+            // absolute-form, se descartan el esquema y el host
+            int authority = target.indexOf("//");
+            int slash = authority < 0 ? -1 : target.indexOf('/', authority + 2);
+            if (authority < 0) {
+                return null;
+            }
+            target = slash < 0 ? "/" : target.substring(slash);
+        }
+        int fragment = target.indexOf('#');
+        if (fragment >= 0) {
+            target = target.substring(0, fragment);
+        }
+        int question = target.indexOf('?');
+        String rawPath = question < 0 ? target : target.substring(0, question);
+        String rawQuery = question < 0 ? null : target.substring(question + 1);
+
+        String[] names = new String[16];
+        String[] values = new String[16];
+        int count = 0;
+        int position = next(in, lineEnd, end);
+        while (position < end) {
+            lineEnd = lineEnd(in, position, end);
+            if (lineEnd == position) {
+                break;
+            }
+            String line = new String(in, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            position = next(in, lineEnd, end);
+            if (line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+                // Continuacion obsoleta del header anterior
+                if (count == 0) {
+                    return null;
+                }
+                values[count - 1] = values[count - 1] + " " + line.trim();
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0 || line.charAt(colon - 1) == ' ') {
+                return null;
+            }
+            if (count == names.length) {
+                names = Arrays.copyOf(names, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            names[count] = line.substring(0, colon);
+            values[count] = line.substring(colon + 1).trim();
+            count++;
+        }
+        NioExchange exchange = new NioExchange(connection, method, rawPath, rawQuery, protocol, names, values, count);
+        return exchange.readRequestHeaders() ? exchange : null;
+    }
+
+    /**
+     * Interpreta los headers que afectan al transporte
+     *
+     * @return false si son invalidos
+     */
+    private boolean readRequestHeaders() {
+        boolean close = false;
+        boolean keepAliveRequested = false;
+        for (int i = 0; i < headerCount; i++) {
+            String name = headerNames[i];
+            String value = headerValues[i];
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                long length;
+                try {
+                    length = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (length < 0 || (contentLength >= 0 && contentLength != length)) {
+                    return false;
+                }
+                contentLength = length;
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                if ("chunked".equalsIgnoreCase(value)) {
+                    chunked = true;
+                } else if (!value.isEmpty() && !"identity".equalsIgnoreCase(value)) {
+                    unsupportedEncoding = true;
+                }
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                for (String token : value.split(",")) {
+                    close |= "close".equalsIgnoreCase(token.trim());
+                    keepAliveRequested |= "keep-alive".equalsIgnoreCase(token.trim());
+                }
+            } else if ("Expect".equalsIgnoreCase(name)) {
+                expectContinue = "100-continue".equalsIgnoreCase(value);
+            }
+        }
+        keepAlive = "HTTP/1.0".equals(protocol) ? keepAliveRequested && !close : !close;
+        return true;
+    }
+
+    private static int lineEnd(byte[] in, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (in[i] == '\n') {
+                return i > start && in[i - 1] == '\r' ? i - 1 : i;
+            }
+        }
+        return end;
+    }
+
+    private static int next(byte[] in, int lineEnd, int end) {
+        if (lineEnd < end && in[lineEnd] == '\r') {
+            lineEnd++;
+        }
+        return lineEnd + 1;
+    }
+
+    long getContentLength() {
+        return contentLength;
+    }
+
+    boolean isChunked() {
+        return chunked;
+    }
+
+    boolean hasUnsupportedTransferEncoding() {
+        return unsupportedEncoding;
+    }
+
+    boolean expectsContinue() {
+        return expectContinue;
+    }
+
+    void setBody(byte[] body, int length) {
+        this.requestBody = new ByteArrayInputStream(body == null ? NO_BODY : body, 0, length);
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRawPath() {
+        return rawPath;
+    }
+
+    @Override
+    public String getRawQuery() {
+        return rawQuery;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getRequestHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                return headerValues[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+        for (int i = responseNames.size() - 1; i >= 0; i--) {
+            if (responseNames.get(i).equalsIgnoreCase(name)) {
+                responseNames.remove(i);
+                responseValues.remove(i);
+            }
+        }
+        addResponseHeader(name, value);
+    }
+
+    @Override
+    public void addResponseHeader(String name, String value) {
+        responseNames.add(name);
+        responseValues.add(value);
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) throws IOException {
+        if (response != null) {
+            throw new IOException("Los headers de la respuesta ya fueron enviados");
+        }
+        for (int i = 0; i < responseNames.size(); i++) {
+            if ("Connection".equalsIgnoreCase(responseNames.get(i))
+                    && "close".equalsIgnoreCase(responseValues.get(i))) {
+                keepAlive = false;
+            }
+        }
+        boolean noBody = "HEAD".equals(method) || status < 200 || status == 204 || status == 304;
+        int mode;
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reasonPhrase(status)).append("\r\n");
+        head.append("Date: ").append(currentDate()).append("\r\n");
+        for (int i = 0; i < responseNames.size(); i++) {
+            if (!"Connection".equalsIgnoreCase(responseNames.get(i))) {
+                head.append(responseNames.get(i)).append(": ").append(responseValues.get(i)).append("\r\n");
+            }
+        }
+        if (length > 0) {
+            head.append("Content-Length: ").append(length).append("\r\n");
+            mode = MODE_FIXED;
+        } else if (length == 0 && !noBody) {
+            if ("HTTP/1.0".equals(protocol)) {
+                // Un cliente http/1.0 no entiende chunked, el fin del cuerpo lo marca el cierre
+                keepAlive = false;
+                mode = MODE_UNTIL_CLOSE;
+            } else {
+                head.append("Transfer-Encoding: chunked\r\n");
+                mode = MODE_CHUNKED;
+            }
+        } else {
+            if (!noBody || "HEAD".equals(method)) {
+                head.append("Content-Length: 0\r\n");
+            }
+            mode = MODE_NONE;
+        }
+        if (noBody) {
+            mode = MODE_NONE;
+        }
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        } else if ("HTTP/1.0".equals(protocol)) {
+            head.append("Connection: keep-alive\r\n");
+        }
+        head.append("\r\n");
+        response = new ResponseStream(head.toString().getBytes(StandardCharsets.ISO_8859_1), mode,
+                length > 0 ? length : 0);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return response != null ? response : UnsentStream.INSTANCE;
+    }
+
+    @Override
+    public void sendFile(FileChannel file, long position, long count) throws IOException {
+        if (response == null) {
+            throw new IOException("No se enviaron los headers de la respuesta");
+        }
+        if (!response.sendFile(file, position, count)) {
+            ServerExchange.super.sendFile(file, position, count);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (done) {
+            return;
+        }
+        done = true;
+        boolean close = !keepAlive;
+        if (response == null) {
+            close = true;
+        } else {
+            try {
+                response.close();
+            } catch (IOException e) {
+                close = true;
+            }
+            close |= !response.isComplete();
+        }
+        connection.exchangeDone(close);
+    }
+
+    /**
+     * Descarta la peticion cerrando la conexion
+     */
+    void abort() {
+        done = true;
+        connection.close();
+    }
+
+    /**
+     * Fecha actual en el formato del header Date, se recalcula una vez por
+     * segundo
+     */
+    static String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate cached = cachedDate;
+        if (cached.second != second) {
+            cached = new CachedDate(second, HTTP_DATE.format(ZonedDateTime.now(ZoneOffset.UTC)));
+            cachedDate = cached;
+        }
+        return cached.value;
+    }
+
+    static String reasonPhrase(int status) {
+        switch (status) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 406: return "Not Acceptable";
+            case 408: return "Request Timeout";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 416: return "Range Not Satisfiable";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "Status";
+        }
+    }
+
+    private static final class CachedDate {
+
+        private final long second;
+        private final String value;
+
+        private CachedDate(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Cuerpo de la respuesta antes de enviar los headers
+     */
+    private static final class UnsentStream extends OutputStream {
+
+        private static final UnsentStream INSTANCE = new UnsentStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("No se enviaron los headers de la respuesta");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Cuerpo de la respuesta. Acumula lo escrito en un buffer directo que se
+     * encola en la conexion al llenarse, en cada flush y al cerrar. En modo
+     * chunked se reservan los primeros bytes del buffer para el tamaño del
+     * chunk, que se completa al enviarlo, asi cada chunk sale en una sola
+     * escritura junto con su encabezado
+     */
+    private final class ResponseStream extends OutputStream {
+
+        private final DirectBufferPool pool = connection.getTransport().getBufferPool();
+        private final int mode;
+        private long remaining;
+        private ByteBuffer buffer;
+        private int chunkStart;
+        private boolean closed;
+
+        private ResponseStream(byte[] head, int mode, long length) throws IOException {
+            this.mode = mode;
+            this.remaining = length;
+            this.buffer = pool.acquire();
+            if (head.length > buffer.capacity() - CHUNK_HEADER - 2) {
+                ensureConnection();
+                connection.send(ByteBuffer.wrap(head), true);
+            } else {
+                buffer.put(head);
+            }
+            if (mode == MODE_CHUNKED) {
+                beginChunk();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Respuesta cerrada");
+            }
+            if (mode == MODE_NONE) {
+                return;
+            }
+            if (mode == MODE_FIXED) {
+                if (len > remaining) {
+                    throw new IOException("Se escribieron mas bytes que los indicados en Content-Length");
+                }
+                remaining -= len;
+            }
+            while (len > 0) {
+                int room = buffer.remaining() - (mode == MODE_CHUNKED ? 2 : 0);
+                if (room <= 0) {
+                    sendBuffer();
+                    continue;
+                }
+                int count = Math.min(room, len);
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed && hasData()) {
+                sendBuffer();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (mode == MODE_CHUNKED) {
+                    endChunk();
+                    if (buffer.remaining() < LAST_CHUNK.length) {
+                        enqueue();
+                        buffer = pool.acquire();
+                    }
+                    buffer.put(LAST_CHUNK);
+                }
+                if (buffer.position() > 0) {
+                    enqueue();
+                } else {
+                    pool.release(buffer);
+                }
+            } finally {
+                buffer = null;
+            }
+        }
+
+        /**
+         * Encola lo escrito hasta ahora y luego el archivo mapeado en memoria
+         * por porciones de MAP_WINDOW bytes; la conexion aplica la misma
+         * espera que al resto de la respuesta si el cliente no lee. En modo
+         * chunked cada porcion tendria que ir con su encabezado, y el archivo
+         * se copia como cualquier escritura
+         *
+         * @return false si hay que copiarlo porque la respuesta es chunked
+         */
+        private boolean sendFile(FileChannel file, long position, long count) throws IOException {
+            if (closed) {
+                throw new IOException("Respuesta cerrada");
+            }
+            if (mode == MODE_CHUNKED) {
+                return false;
+            }
+            if (mode == MODE_NONE || count <= 0) {
+                return true;
+            }
+            if (mode == MODE_FIXED) {
+                if (count > remaining) {
+                    throw new IOException("Se escribieron mas bytes que los indicados en Content-Length");
+                }
+                remaining -= count;
+            }
+            if (buffer.position() > 0) {
+                enqueue();
+                buffer = pool.acquire();
+            }
+            while (count > 0) {
+                long size = Math.min(count, MAP_WINDOW);
+                if (position + size > file.size()) {
+                    throw new IOException("El archivo termino antes de lo esperado");
+                }
+                ensureConnection();
+                connection.send(file.map(FileChannel.MapMode.READ_ONLY, position, size), true);
+                position += size;
+                count -= size;
+            }
+            return true;
+        }
+
+        /**
+         * Indica si se escribio todo el cuerpo declarado
+         */
+        private boolean isComplete() {
+            return mode != MODE_FIXED || remaining == 0;
+        }
+
+        private boolean hasData() {
+            return mode == MODE_CHUNKED ? buffer.position() > chunkStart + CHUNK_HEADER : buffer.position() > 0;
+        }
+
+        private void sendBuffer() throws IOException {
+            if (mode == MODE_CHUNKED) {
+                endChunk();
+            }
+            if (buffer.position() > 0) {
+                enqueue();
+                buffer = pool.acquire();
+            }
+            if (mode == MODE_CHUNKED) {
+                beginChunk();
+            }
+        }
+
+        private void enqueue() throws IOException {
+            ensureConnection();
+            buffer.flip();
+            connection.send(buffer, true);
+        }
+
+        private void beginChunk() {
+            chunkStart = buffer.position();
+            buffer.position(chunkStart + CHUNK_HEADER);
+        }
+
+        /**
+         * Completa el encabezado y el fin de linea del chunk en curso, o lo
+         * descarta si esta vacio
+         */
+        private void endChunk() {
+            int size = buffer.position() - chunkStart - CHUNK_HEADER;
+            if (size == 0) {
+                buffer.position(chunkStart);
+                return;
+            }
+            for (int i = 3; i >= 0; i--) {
+                buffer.put(chunkStart + i, HEX[size & 0xF]);
+                size >>>= 4;
+            }
+            buffer.put(chunkStart + 4, (byte) '\r');
+            buffer.put(chunkStart + 5, (byte) '\n');
+            buffer.put((byte) '\r').put((byte) '\n');
+        }
+
+        private void ensureConnection() throws IOException {
+            if (connection.isClosed()) {
+                throw new IOException("Conexion cerrada");
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.log4j.Logger;
+
+/**
+ * Transporte http/1.1 propio basado en selectores de java.nio. Las conexiones
+ * se reparten entre N event loops, cada uno con su propio selector, que leen e
+ * interpretan las peticiones sin bloquearse; los ContextHandler se ejecutan en
+ * el executor del WebServer y escriben la respuesta en buffers directos que el
+ * event loop de la conexion envia al socket.
+ *
+ * En Linux cada event loop abre su propio socket de escucha con SO_REUSEPORT,
+ * de forma que el kernel reparte las conexiones nuevas entre ellos sin un hilo
+ * aceptador comun. En otros sistemas, o en JVMs sin esa opcion, el primer
+ * event loop acepta todas las conexiones y las reparte en ronda.
+ *
+ * Las conexiones son keep-alive por defecto y admiten pipelining: las
+ * peticiones encadenadas se atienden de a una y sus respuestas se envian en el
+ * mismo orden. El cuerpo de cada peticion se lee completo en memoria antes de
+ * entregarla al contexto, con un maximo de maxRequestSize bytes; el buffer
+ * crece a medida que llegan los bytes y no segun el Content-Length declarado.
+ * Por eso con este transporte los BodyBinder leen el cuerpo desde memoria y no
+ * a medida que llega por la red, y un @MaxBodySize mayor que maxRequestSize no
+ * tiene efecto: el transporte responde 413 antes de llegar al contexto
+ *
+ * @author gaston
+ */
+public class NioTransport implements Transport {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    private static final byte[] NO_CONTEXT = "<h1>404 Not Found</h1>No context found for request"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Cantidad de event loops, por defecto uno por procesador
+     */
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Milisegundos que una conexion puede permanecer sin actividad
+     */
+    private long keepAliveTimeout = 30000;
+
+    /**
+     * Tamaño maximo de la linea de peticion mas los headers
+     */
+    private int maxHeaderSize = 16 * 1024;
+
+    /**
+     * Tamaño maximo del cuerpo de una peticion
+     */
+    private long maxRequestSize = ContextHandler.DEFAULT_MAX_BODY_SIZE;
+
+    /**
+     * Indica si se intenta usar SO_REUSEPORT
+     */
+    private boolean reusePort = true;
+
+    /**
+     * Cantidad de conexiones pendientes de aceptar en cada socket de escucha
+     */
+    private int backlog = 1024;
+
+    private final DirectBufferPool bufferPool = new DirectBufferPool(DirectBufferPool.DEFAULT_BUFFER_SIZE, 1024);
+
+    /**
+     * Contextos publicados ordenados del path mas largo al mas corto
+     */
+    private volatile Context[] contexts = new Context[0];
+
+    private ExecutorService executor;
+
+    private NioEventLoop[] loops;
+
+    private InetSocketAddress address;
+
+    @Override
+    public void bind(InetSocketAddress address, ExecutorService executor) throws IOException {
+        this.executor = executor;
+        this.loops = new NioEventLoop[Math.max(1, eventLoops)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(this, "nio-loop-" + i);
+        }
+        SocketOption<Boolean> reusePortOption = reusePort && loops.length > 1 ? reusePortOption() : null;
+        ServerSocketChannel first = ServerSocketChannel.open();
+        if (reusePortOption != null && first.supportedOptions().contains(reusePortOption)) {
+            first.setOption(reusePortOption, true);
+        } else {
+            reusePortOption = null;
+        }
+        first.bind(address, backlog);
+        this.address = (InetSocketAddress) first.getLocalAddress();
+        loops[0].listen(first, reusePortOption == null ? loops : null);
+        if (reusePortOption != null) {
+            // El resto de los sockets se abre sobre el puerto efectivo, por si se pidio el puerto 0
+            InetSocketAddress bound = new InetSocketAddress(address.getAddress(), this.address.getPort());
+            for (int i = 1; i < loops.length; i++) {
+                ServerSocketChannel listener = ServerSocketChannel.open();
+                listener.setOption(reusePortOption, true);
+                listener.bind(bound, backlog);
+                loops[i].listen(listener, null);
+            }
+        }
+        logger.debug("NioTransport en " + this.address + " con " + loops.length + " event loops"
+                + (reusePortOption != null ? " y SO_REUSEPORT" : ""));
+    }
+
+    @Override
+    public synchronized void createContext(String path, ContextHandler handler) {
+        Context[] current = contexts;
+        Context[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new Context(path, handler);
+        Arrays.sort(updated, new Comparator<Context>() {
+            @Override
+            public int compare(Context a, Context b) {
+                return b.path.length() - a.path.length();
+            }
+        });
+        contexts = updated;
+    }
+
+    @Override
+    public synchronized void removeContext(String path) {
+        Context[] current = contexts;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].path.equals(path)) {
+                Context[] updated = new Context[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                contexts = updated;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No existe el contexto " + path);
+    }
+
+    @Override
+    public void start() {
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (loops == null) {
+            return;
+        }
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (NioEventLoop loop : loops) {
+            loop.awaitTermination(5000);
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Entrega una peticion completa al contexto que le corresponde, en el
+     * pool de su ruta si tiene @Bulkhead. Se invoca desde el event loop de la
+     * conexion. El contexto cierra el exchange al terminar de responder, en
+     * las rutas asincronicas despues de que handle retorna
+     *
+     * @param exchange Peticion recibida
+     */
+    void dispatch(final NioExchange exchange) {
+        final ContextHandler handler = findContext(exchange.getRawPath());
+        if (handler == null) {
+            try {
+                exchange.setResponseHeader("Content-Type", "text/html");
+                exchange.sendResponseHeaders(404, NO_CONTEXT.length);
+                exchange.getResponseBody().write(NO_CONTEXT);
+            } catch (IOException e) {
+                logger.debug("Error respondiendo peticion sin contexto", e);
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        BulkheadPool bulkhead = handler.bulkheadFor(exchange);
+        if (bulkhead != null) {
+            bulkhead.execute(handler, exchange);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.serve(exchange);
+                    } catch (Throwable t) {
+                        logger.error("Error atendiendo " + exchange.getRequestMethod() + " " + exchange.getRawPath(), t);
+                        exchange.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Peticion rechazada por el executor", e);
+            exchange.abort();
+        }
+    }
+
+    /**
+     * Busca el contexto cuyo path es el prefijo mas largo del path pedido, con
+     * el mismo criterio que el servidor del jdk
+     */
+    private ContextHandler findContext(String path) {
+        for (Context context : contexts) {
+            if (path.startsWith(context.path)) {
+                return context.handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtiene StandardSocketOptions.SO_REUSEPORT, que existe a partir de Java 9.
+     * Solo se usa en Linux, donde el kernel reparte las conexiones entre los
+     * sockets que comparten el puerto
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        if (!System.getProperty("os.name", "").toLowerCase().startsWith("linux")) {
+            return null;
+        }
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Establece la cantidad de event loops, debe indicarse antes de bind
+     *
+     * @param eventLoops Cantidad de event loops
+     */
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Establece los milisegundos que una conexion puede permanecer sin
+     * actividad antes de cerrarse
+     *
+     * @param keepAliveTimeout Milisegundos
+     */
+    public void setKeepAliveTimeout(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Establece el tamaño maximo de la linea de peticion y los headers, las
+     * peticiones que lo superan se responden con 431
+     *
+     * @param maxHeaderSize Cantidad de bytes
+     */
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public long getMaxRequestSize() {
+        return maxRequestSize;
+    }
+
+    /**
+     * Establece el tamaño maximo del cuerpo de las peticiones que acepta el
+     * transporte, las que lo superan se responden con 413 sin leerlas. Es
+     * tambien el limite efectivo de los @MaxBodySize de las rutas
+     *
+     * @param maxRequestSize Cantidad de bytes
+     */
+    public void setMaxRequestSize(long maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Indica si se intenta usar SO_REUSEPORT, debe indicarse antes de bind
+     *
+     * @param reusePort true para abrir un socket de escucha por event loop
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Establece la cantidad de conexiones pendientes de aceptar, debe
+     * indicarse antes de bind
+     *
+     * @param backlog Cantidad de conexiones
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    private static final class Context {
+
+        private final String path;
+        private final ContextHandler handler;
+
+        private Context(String path, ContextHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+    }
+}
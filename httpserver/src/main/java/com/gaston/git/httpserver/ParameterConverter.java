@@ -0,0 +1,20 @@
+package com.gaston.git.httpserver;
+
+/**
+ * Convierte el valor textual de un parametro http al tipo java que espera el
+ * metodo del contexto. Cada HttpMethodParameter resuelve su conversor una
+ * unica vez al registrarse la ruta
+ *
+ * @author gaston
+ */
+public interface ParameterConverter {
+
+    /**
+     * Convierte el valor recibido en la peticion
+     *
+     * @param value Valor del parametro, nunca null
+     * @return Valor convertido al tipo del parametro
+     * @throws Exception Si el valor no es valido para el tipo
+     */
+    Object convert(String value) throws Exception;
+}
@@ -0,0 +1,295 @@
+package com.gaston.git.httpserver;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fabrica de conversores de parametros. Aqui se decide, segun el tipo
+ * declarado en el metodo, como se convierte el valor textual de la peticion,
+ * de forma que en cada peticion no sea necesario volver a inspeccionar el tipo
+ * ni buscar metodos por reflection
+ *
+ * @author gaston
+ */
+public final class ParameterConverters {
+
+    /**
+     * Formato de fecha aceptado en los parametros, la hora va de 00 a 23
+     */
+    public static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * DateTimeFormatter es inmutable, una unica instancia sirve a todos los
+     * hilos
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern(DATE_PATTERN);
+
+    private static final ParameterConverter STRING = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return value;
+        }
+    };
+
+    private static final ParameterConverter INTEGER = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Integer.valueOf(Integer.parseInt(value));
+        }
+    };
+
+    private static final ParameterConverter LONG = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Long.valueOf(Long.parseLong(value));
+        }
+    };
+
+    private static final ParameterConverter SHORT = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Short.valueOf(Short.parseShort(value));
+        }
+    };
+
+    private static final ParameterConverter BYTE = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Byte.valueOf(Byte.parseByte(value));
+        }
+    };
+
+    private static final ParameterConverter DOUBLE = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Double.valueOf(Double.parseDouble(value));
+        }
+    };
+
+    private static final ParameterConverter FLOAT = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Float.valueOf(Float.parseFloat(value));
+        }
+    };
+
+    private static final ParameterConverter BOOLEAN = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return Boolean.valueOf(value);
+        }
+    };
+
+    private static final ParameterConverter CHARACTER = new ParameterConverter() {
+        @Override
+        public Object convert(String value) throws Exception {
+            if (value.length() != 1) {
+                throw new IllegalArgumentException("Caracter invalido: " + value);
+            }
+            return Character.valueOf(value.charAt(0));
+        }
+    };
+
+    private static final ParameterConverter BIG_DECIMAL = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return new BigDecimal(value);
+        }
+    };
+
+    private static final ParameterConverter BIG_INTEGER = new ParameterConverter() {
+        @Override
+        public Object convert(String value) {
+            return new BigInteger(value);
+        }
+    };
+
+    private static final ParameterConverter DATE = new ParameterConverter() {
+        @Override
+        public Object convert(String value) throws Exception {
+            LocalDateTime date = LocalDateTime.parse(value, DATE_FORMAT);
+            return Date.from(date.atZone(ZoneId.systemDefault()).toInstant());
+        }
+    };
+
+    private ParameterConverters() {
+    }
+
+    /**
+     * Obtiene el conversor para el tipo de un parametro
+     *
+     * @param type Tipo generico del parametro
+     * @return Conversor para el tipo
+     */
+    public static ParameterConverter forType(Type type) {
+        if (type instanceof ParameterizedType) {
+            Class<?> raw = (Class<?>) ((ParameterizedType) type).getRawType();
+            if (List.class.isAssignableFrom(raw)) {
+                Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+                return new ListConverter(forType(elementType));
+            }
+            return forClass(raw);
+        }
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (List.class.isAssignableFrom(clazz)) {
+                return new ListConverter(STRING);
+            }
+            return forClass(clazz);
+        }
+        return unsupported(type);
+    }
+
+    private static ParameterConverter forClass(Class<?> clazz) {
+        if (clazz == String.class || clazz == Object.class) {
+            return STRING;
+        } else if (clazz == int.class || clazz == Integer.class) {
+            return INTEGER;
+        } else if (clazz == long.class || clazz == Long.class) {
+            return LONG;
+        } else if (clazz == double.class || clazz == Double.class) {
+            return DOUBLE;
+        } else if (clazz == boolean.class || clazz == Boolean.class) {
+            return BOOLEAN;
+        } else if (clazz == float.class || clazz == Float.class) {
+            return FLOAT;
+        } else if (clazz == short.class || clazz == Short.class) {
+            return SHORT;
+        } else if (clazz == byte.class || clazz == Byte.class) {
+            return BYTE;
+        } else if (clazz == char.class || clazz == Character.class) {
+            return CHARACTER;
+        } else if (clazz == BigDecimal.class) {
+            return BIG_DECIMAL;
+        } else if (clazz == BigInteger.class) {
+            return BIG_INTEGER;
+        } else if (Date.class.isAssignableFrom(clazz)) {
+            return DATE;
+        } else if (clazz.isEnum()) {
+            return enumConverter(clazz);
+        } else if (BaseDto.class.isAssignableFrom(clazz)) {
+            // Un dto no se obtiene de un unico valor, se completa propiedad por propiedad con DtoModel.bind
+            return unsupported(clazz);
+        }
+        return factoryConverter(clazz);
+    }
+
+    /**
+     * Las constantes de un enum se indexan por nombre una sola vez, igual que
+     * hace Enum.valueOf
+     */
+    private static ParameterConverter enumConverter(final Class<?> clazz) {
+        final Map<String, Object> constants = new HashMap<>();
+        for (Object constant : clazz.getEnumConstants()) {
+            constants.put(((Enum<?>) constant).name(), constant);
+        }
+        return new ParameterConverter() {
+            @Override
+            public Object convert(String value) {
+                Object constant = constants.get(value);
+                if (constant == null) {
+                    throw new IllegalArgumentException("Valor invalido para " + clazz.getName() + ": " + value);
+                }
+                return constant;
+            }
+        };
+    }
+
+    /**
+     * Para el resto de los tipos se busca, una sola vez, un metodo estatico
+     * valueOf(String) o un constructor que reciba un String
+     */
+    private static ParameterConverter factoryConverter(Class<?> clazz) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle factory;
+        try {
+            factory = lookup.findStatic(clazz, "valueOf", MethodType.methodType(clazz, String.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            try {
+                factory = lookup.findConstructor(clazz, MethodType.methodType(void.class, String.class));
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                return unsupported(clazz);
+            }
+        }
+        final MethodHandle handle = factory.asType(MethodType.methodType(Object.class, String.class));
+        return new ParameterConverter() {
+            @Override
+            public Object convert(String value) throws Exception {
+                try {
+                    return (Object) handle.invokeExact(value);
+                } catch (Exception | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalArgumentException(t);
+                }
+            }
+        };
+    }
+
+    private static ParameterConverter unsupported(final Type type) {
+        return new ParameterConverter() {
+            @Override
+            public Object convert(String value) {
+                throw new IllegalArgumentException("Tipo de parametro no soportado: " + type);
+            }
+        };
+    }
+
+    /**
+     * Conversor de listas separadas por coma. Recorre el valor con indexOf en
+     * lugar de split para no crear expresiones regulares ni arreglos
+     * intermedios, y convierte cada elemento con el conversor del tipo de la
+     * lista
+     */
+    static final class ListConverter implements ParameterConverter {
+
+        private final ParameterConverter elementConverter;
+
+        ListConverter(ParameterConverter elementConverter) {
+            this.elementConverter = elementConverter;
+        }
+
+        @Override
+        public Object convert(String value) throws Exception {
+            List<Object> list = new ArrayList<>();
+            int start = 0;
+            int comma;
+            while ((comma = value.indexOf(',', start)) >= 0) {
+                list.add(elementConverter.convert(value.substring(start, comma)));
+                start = comma + 1;
+            }
+            list.add(elementConverter.convert(value.substring(start)));
+            return list;
+        }
+
+        /**
+         * Convierte un parametro que llego repetido, cada valor a su vez puede
+         * tener varios elementos separados por coma
+         *
+         * @param values Valores del parametro
+         * @return Lista con todos los elementos
+         * @throws Exception Si algun elemento no es valido
+         */
+        @SuppressWarnings("unchecked")
+        public Object convertAll(List<String> values) throws Exception {
+            List<Object> list = new ArrayList<>();
+            for (String value : values) {
+                list.addAll((List<Object>) convert(value));
+            }
+            return list;
+        }
+    }
+}
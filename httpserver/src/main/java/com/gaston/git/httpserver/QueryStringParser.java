@@ -0,0 +1,132 @@
+package com.gaston.git.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parser de query strings y formularios application/x-www-form-urlencoded.
+ * Recorre el texto una sola vez, sin split ni expresiones regulares, y
+ * decodifica los escapes %XX como UTF-8 y el '+' como espacio. Si un nombre o
+ * valor no contiene escapes se toma directamente como substring sin copias
+ * adicionales
+ *
+ * @author gaston
+ */
+public final class QueryStringParser {
+
+    private QueryStringParser() {
+    }
+
+    /**
+     * Lee los parametros del texto y los agrega al contenedor
+     *
+     * @param raw Query string sin decodificar, puede ser null
+     * @param into Contenedor donde se agregan los parametros
+     */
+    public static void parse(String raw, RequestParameters into) {
+        if (raw == null) {
+            return;
+        }
+        int length = raw.length();
+        int start = 0;
+        int equals = -1;
+        boolean encoded = false;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? raw.charAt(i) : '&';
+            switch (c) {
+                case '&':
+                    if (i > start) {
+                        if (equals < 0) {
+                            into.add(decode(raw, start, i, encoded, true), "");
+                        } else if (equals > start) {
+                            into.add(decode(raw, start, equals, encoded, true),
+                                    decode(raw, equals + 1, i, encoded, true));
+                        }
+                    }
+                    start = i + 1;
+                    equals = -1;
+                    encoded = false;
+                    break;
+                case '=':
+                    if (equals < 0) {
+                        equals = i;
+                    }
+                    break;
+                case '%':
+                case '+':
+                    encoded = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Decodifica un segmento de path. A diferencia del query string el '+' no
+     * representa un espacio
+     *
+     * @param raw Segmento sin decodificar
+     * @return Segmento decodificado
+     */
+    public static String decodePath(String raw) {
+        return raw.indexOf('%') < 0 ? raw : decode(raw, 0, raw.length(), true, false);
+    }
+
+    /**
+     * Decodifica el rango indicado. Los escapes invalidos se mantienen
+     * literalmente
+     */
+    private static String decode(String raw, int from, int to, boolean encoded, boolean plusAsSpace) {
+        if (!encoded) {
+            return raw.substring(from, to);
+        }
+        byte[] bytes = new byte[to - from];
+        int count = 0;
+        boolean changed = false;
+        for (int i = from; i < to; i++) {
+            char c = raw.charAt(i);
+            if (c == '+' && plusAsSpace) {
+                bytes[count++] = ' ';
+                changed = true;
+            } else if (c == '%' && hex(raw, i + 1, to) >= 0 && hex(raw, i + 2, to) >= 0) {
+                bytes[count++] = (byte) ((hex(raw, i + 1, to) << 4) | hex(raw, i + 2, to));
+                i += 2;
+                changed = true;
+            } else if (c < 0x80) {
+                bytes[count++] = (byte) c;
+            } else {
+                // Caracter no ascii sin escapar, se copia como UTF-8
+                byte[] utf8 = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                if (Character.isHighSurrogate(c) && i + 1 < to) {
+                    utf8 = raw.substring(i, i + 2).getBytes(StandardCharsets.UTF_8);
+                    i++;
+                }
+                if (count + utf8.length > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length + utf8.length + 8);
+                }
+                System.arraycopy(utf8, 0, bytes, count, utf8.length);
+                count += utf8.length;
+            }
+        }
+        if (!changed) {
+            return raw.substring(from, to);
+        }
+        return new String(bytes, 0, count, StandardCharsets.UTF_8);
+    }
+
+    private static int hex(String raw, int index, int to) {
+        if (index >= to) {
+            return -1;
+        }
+        char c = raw.charAt(index);
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,56 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limita la cantidad de peticiones por unidad de tiempo de un metodo, o de
+ * cada metodo de un contexto si se anota la clase. Las peticiones que superan
+ * el limite se responden 429 con Retry-After sin invocar el metodo
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface RateLimit {
+
+    /**
+     * Cantidad de peticiones admitidas en cada periodo
+     *
+     * @return Cantidad de peticiones
+     */
+    int value();
+
+    /**
+     * Duracion del periodo
+     *
+     * @return Cantidad de unidades
+     */
+    long period() default 1;
+
+    /**
+     * Unidad del periodo
+     *
+     * @return Unidad de tiempo
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * Cantidad de peticiones que pueden llegar juntas despues de un tiempo
+     * sin actividad, por defecto las de un periodo
+     *
+     * @return Cantidad de peticiones, 0 para usar value
+     */
+    int burst() default 0;
+
+    /**
+     * Indica si el limite se aplica a cada direccion ip por separado en lugar
+     * de a todos los clientes juntos
+     *
+     * @return true para limitar por cliente
+     */
+    boolean perClient() default false;
+}
@@ -0,0 +1,192 @@
+package com.gaston.git.httpserver;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limitador de peticiones por unidad de tiempo sin bloqueos. Es un token
+ * bucket implementado con el algoritmo GCRA: en lugar de contar tokens cada
+ * clave guarda en un AtomicLong el instante teorico en que el bucket vuelve a
+ * estar lleno, y admitir una peticion es un unico compareAndSet que lo
+ * adelanta un intervalo. No hay ningun hilo que reponga tokens.
+ *
+ * El limite y la rafaga pueden cambiarse en cualquier momento. Con limite por
+ * cliente las claves que ya volvieron a estar llenas se descartan cuando hay
+ * muchas, ya que equivalen a un bucket nuevo. La busqueda se hace como mucho
+ * una vez por segundo, y si el mapa sigue lleno los clientes nuevos se
+ * rechazan hasta que haya lugar
+ *
+ * @author gaston
+ */
+public final class RateLimiter {
+
+    /**
+     * Cantidad maxima de clientes, a partir de ella se descartan los
+     * inactivos y se rechazan los nuevos
+     */
+    private static final int MAX_CLIENTS = 10000;
+
+    /**
+     * Tiempo minimo entre dos busquedas de clientes inactivos
+     */
+    private static final long EVICT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Parametros del limite, se reemplazan completos al cambiarlo
+     */
+    private static final class Rate {
+
+        private final long interval;
+        private final long tolerance;
+
+        private Rate(long interval, long tolerance) {
+            this.interval = interval;
+            this.tolerance = tolerance;
+        }
+    }
+
+    private final boolean perClient;
+    private final AtomicLong shared = new AtomicLong(System.nanoTime());
+    private final Map<String, AtomicLong> clients;
+    private final AtomicLong nextEviction = new AtomicLong(System.nanoTime());
+    private final LongAdder rejected = new LongAdder();
+    private volatile Rate rate;
+
+    /**
+     * Crea un limitador
+     *
+     * @param permits Peticiones admitidas por periodo
+     * @param period Duracion del periodo
+     * @param unit Unidad del periodo
+     * @param burst Peticiones que pueden llegar juntas, 0 para usar permits
+     * @param perClient true para limitar cada cliente por separado
+     */
+    public RateLimiter(int permits, long period, TimeUnit unit, int burst, boolean perClient) {
+        this.perClient = perClient;
+        this.clients = perClient ? new ConcurrentHashMap<String, AtomicLong>() : null;
+        setRate(permits, period, unit, burst);
+    }
+
+    /**
+     * Crea el limitador configurado por una anotacion
+     *
+     * @param limit Anotacion de la ruta
+     * @return Limitador
+     */
+    static RateLimiter of(RateLimit limit) {
+        return new RateLimiter(limit.value(), limit.period(), limit.unit(), limit.burst(), limit.perClient());
+    }
+
+    /**
+     * Cambia el limite, se aplica desde la proxima peticion
+     *
+     * @param permits Peticiones admitidas por periodo
+     * @param period Duracion del periodo
+     * @param unit Unidad del periodo
+     * @param burst Peticiones que pueden llegar juntas, 0 para usar permits
+     */
+    public void setRate(int permits, long period, TimeUnit unit, int burst) {
+        if (permits <= 0 || period <= 0 || burst < 0) {
+            throw new IllegalArgumentException("Limite invalido " + permits + "/" + period + " " + unit);
+        }
+        long interval = Math.max(1, unit.toNanos(period) / permits);
+        int capacity = burst > 0 ? burst : permits;
+        rate = new Rate(interval, interval * (capacity - 1));
+    }
+
+    /**
+     * Intenta admitir una peticion
+     *
+     * @param client Direccion del cliente, solo se usa si el limite es por
+     * cliente
+     * @return 0 si se admite, o los nanosegundos que faltan para que se
+     * admita la proxima
+     */
+    public long tryAcquire(String client) {
+        AtomicLong state = perClient ? clientState(client) : shared;
+        Rate current = rate;
+        if (state == null) {
+            rejected.increment();
+            return current.interval;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long tat = state.get();
+            long base = tat - now > 0 ? tat : now;
+            long wait = base - now - current.tolerance;
+            if (wait > 0) {
+                rejected.increment();
+                return wait;
+            }
+            if (state.compareAndSet(tat, base + current.interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Estado de un cliente, se crea si no existe
+     *
+     * @param client Direccion del cliente
+     * @return Estado, o null si se alcanzo la cantidad maxima de clientes
+     */
+    private AtomicLong clientState(String client) {
+        AtomicLong state = clients.get(client);
+        if (state == null) {
+            if (clients.size() >= MAX_CLIENTS && !makeRoom()) {
+                return null;
+            }
+            AtomicLong created = new AtomicLong(System.nanoTime());
+            state = clients.putIfAbsent(client, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Descarta los clientes inactivos si paso el intervalo desde la ultima
+     * busqueda. Solo busca el hilo que logra adelantar el proximo instante
+     *
+     * @return true si hay lugar para un cliente nuevo
+     */
+    private boolean makeRoom() {
+        long now = System.nanoTime();
+        long next = nextEviction.get();
+        if (now - next >= 0 && nextEviction.compareAndSet(next, now + EVICT_INTERVAL)) {
+            evictIdle(now);
+        }
+        return clients.size() < MAX_CLIENTS;
+    }
+
+    /**
+     * Descarta los clientes cuyo bucket ya esta lleno
+     *
+     * @param now Instante actual
+     */
+    private void evictIdle(long now) {
+        for (Iterator<AtomicLong> it = clients.values().iterator(); it.hasNext();) {
+            if (it.next().get() - now <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Cantidad de peticiones rechazadas
+     *
+     * @return Cantidad de peticiones
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public boolean isPerClient() {
+        return perClient;
+    }
+}
@@ -0,0 +1,156 @@
+package com.gaston.git.httpserver;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocaciones en curso de una ruta con @Coalesce. La primera peticion de
+ * cada clave registra su invocacion con putIfAbsent y las que llegan mientras
+ * esta en curso reciben la misma invocacion para esperar su resultado, sin
+ * bloquear ningun hilo. Al completarse la invocacion se quita del mapa antes
+ * de entregar el resultado, de modo que no queda nada guardado
+ *
+ * @author gaston
+ */
+public final class RequestCoalescer {
+
+    private final Map<String, CompletableFuture<ResponseCache.Entry>> calls = new ConcurrentHashMap<>();
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile long maxWait;
+
+    /**
+     * Crea un coalescedor
+     *
+     * @param maxWait Tiempo maximo de espera de las peticiones que se unen a
+     * una invocacion en curso, 0 sin limite
+     * @param unit Unidad del tiempo maximo de espera
+     */
+    public RequestCoalescer(long maxWait, TimeUnit unit) {
+        setMaxWait(maxWait, unit);
+    }
+
+    /**
+     * Crea el coalescedor configurado por una anotacion
+     *
+     * @param coalesce Anotacion de la ruta
+     * @return Coalescedor
+     */
+    static RequestCoalescer of(Coalesce coalesce) {
+        return new RequestCoalescer(coalesce.maxWait(), coalesce.unit());
+    }
+
+    /**
+     * Registra una invocacion para la clave, o se une a la que ya esta en
+     * curso
+     *
+     * @param key Clave de la peticion
+     * @param call Invocacion que se registra si no hay otra en curso
+     * @return null si se registro call y la peticion debe invocar la ruta, o
+     * la invocacion en curso cuyo resultado debe esperar
+     */
+    CompletableFuture<ResponseCache.Entry> join(String key, CompletableFuture<ResponseCache.Entry> call) {
+        CompletableFuture<ResponseCache.Entry> current = calls.putIfAbsent(key, call);
+        if (current == null) {
+            invocations.increment();
+        } else {
+            merged.increment();
+        }
+        return current;
+    }
+
+    /**
+     * Entrega la respuesta de una invocacion a las peticiones que la esperan
+     *
+     * @param key Clave de la peticion
+     * @param call Invocacion registrada con join
+     * @param entry Respuesta serializada
+     */
+    void complete(String key, CompletableFuture<ResponseCache.Entry> call, ResponseCache.Entry entry) {
+        calls.remove(key, call);
+        call.complete(entry);
+    }
+
+    /**
+     * Entrega el error de una invocacion a las peticiones que la esperan
+     *
+     * @param key Clave de la peticion
+     * @param call Invocacion registrada con join
+     * @param error Error de la invocacion, las HttpStatusException se
+     * responden con su codigo y el resto con 500
+     */
+    void fail(String key, CompletableFuture<ResponseCache.Entry> call, Throwable error) {
+        calls.remove(key, call);
+        call.completeExceptionally(error);
+    }
+
+    /**
+     * Registra una peticion que se respondio 504 por esperar demasiado
+     */
+    void timedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * Tiempo maximo de espera de las peticiones que se unen a una invocacion
+     *
+     * @return Milisegundos, 0 sin limite
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Cambia el tiempo maximo de espera, se aplica desde la proxima peticion
+     *
+     * @param maxWait Tiempo maximo, 0 sin limite
+     * @param unit Unidad del tiempo
+     */
+    public void setMaxWait(long maxWait, TimeUnit unit) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("El tiempo maximo de espera no puede ser negativo");
+        }
+        this.maxWait = unit.toMillis(maxWait);
+    }
+
+    /**
+     * Cantidad de invocaciones de la ruta
+     *
+     * @return Cantidad de invocaciones
+     */
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    /**
+     * Cantidad de peticiones que se respondieron con el resultado de otra
+     * invocacion en lugar de invocar la ruta
+     *
+     * @return Cantidad de peticiones
+     */
+    public long getMerged() {
+        return merged.sum();
+    }
+
+    /**
+     * Cantidad de peticiones que se respondieron 504 esperando una invocacion
+     *
+     * @return Cantidad de peticiones
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Cantidad de invocaciones en curso
+     *
+     * @return Cantidad de invocaciones
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+}
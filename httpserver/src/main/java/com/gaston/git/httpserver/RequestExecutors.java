@@ -0,0 +1,223 @@
+package com.gaston.git.httpserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.log4j.Logger;
+
+/**
+ * Crea el executor del servidor segun el modo de ejecucion configurado, y los
+ * de los pools de @Bulkhead
+ *
+ * En el modo BOUNDED, cuando el pool y su cola estan llenos la peticion no se
+ * descarta sin responder: se ejecuta en el propio hilo que la recibio marcada
+ * como rechazada, y el ContextHandler responde inmediatamente 503 con el header
+ * Retry-After sin leer el cuerpo ni invocar ningun metodo. Los pools de
+ * @Bulkhead rechazan de la misma forma
+ *
+ * @author gaston
+ */
+public final class RequestExecutors {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Segundos de Retry-After de la peticion que se esta rechazando en el hilo
+     * actual, null si la peticion se atiende normalmente
+     */
+    private static final ThreadLocal<Integer> REJECTED = new ThreadLocal<>();
+
+    /**
+     * Cantidad de peticiones rechazadas por todos los pools
+     */
+    private static final AtomicLong rejectedCount = new AtomicLong();
+
+    private RequestExecutors() {
+    }
+
+    /**
+     * Planifica una tarea en el hilo de tiempos de espera del servidor. La
+     * tarea debe ser breve
+     *
+     * @param task Tarea a ejecutar
+     * @param delay Demora
+     * @param unit Unidad de la demora
+     * @return Tarea planificada, para cancelarla
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TimeoutScheduler.INSTANCE.schedule(task, delay, unit);
+    }
+
+    /**
+     * Crea el executor del modo indicado
+     *
+     * @param mode Modo de ejecucion
+     * @param poolSize Cantidad de hilos para FIXED y BOUNDED
+     * @param queueCapacity Tamaño de la cola para BOUNDED
+     * @param retryAfter Segundos del header Retry-After para BOUNDED
+     * @return Executor de las peticiones
+     */
+    public static ExecutorService create(ExecutionMode mode, int poolSize, int queueCapacity, int retryAfter) {
+        switch (mode) {
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                logger.warn("La JVM no soporta hilos virtuales, se usa un pool fijo de " + poolSize + " hilos");
+                return Executors.newFixedThreadPool(poolSize);
+            case BOUNDED:
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueCapacity), new RequestThreadFactory(null),
+                        new RejectHandler(retryAfter, null));
+                executor.prestartAllCoreThreads();
+                return executor;
+            default:
+                return Executors.newFixedThreadPool(poolSize);
+        }
+    }
+
+    /**
+     * Crea el executor de un pool de @Bulkhead, que rechaza las peticiones
+     * igual que el modo BOUNDED
+     *
+     * @param name Nombre del pool, forma parte del nombre de sus hilos
+     * @param poolSize Cantidad de hilos
+     * @param queueCapacity Tamaño de la cola
+     * @param retryAfter Segundos del header Retry-After
+     * @param rejected Contador de las peticiones rechazadas por el pool
+     * @return Executor del pool
+     */
+    static ThreadPoolExecutor createBulkhead(String name, int poolSize, int queueCapacity, int retryAfter,
+            LongAdder rejected) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new RequestThreadFactory(name),
+                new RejectHandler(retryAfter, rejected));
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    /**
+     * Indica si la peticion que se atiende en el hilo actual fue rechazada por
+     * el pool
+     *
+     * @return Segundos a informar en Retry-After, o null si no fue rechazada
+     */
+    static Integer rejectedRetryAfter() {
+        return REJECTED.get();
+    }
+
+    /**
+     * Cantidad total de peticiones rechazadas por falta de capacidad
+     *
+     * @return Cantidad de peticiones
+     */
+    public static long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Obtiene por reflection Executors.newVirtualThreadPerTaskExecutor, que solo
+     * existe a partir de Java 21
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            logger.debug("Hilos virtuales no disponibles", e);
+            return null;
+        }
+    }
+
+    /**
+     * Ejecuta la peticion rechazada en el hilo que la recibio, marcada para que
+     * solo se responda 503
+     */
+    private static final class RejectHandler implements RejectedExecutionHandler {
+
+        private final int retryAfter;
+
+        /**
+         * Contador propio del pool, null si solo se cuenta el total
+         */
+        private final LongAdder rejected;
+
+        private RejectHandler(int retryAfter, LongAdder rejected) {
+            this.retryAfter = retryAfter;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            rejectedCount.incrementAndGet();
+            if (rejected != null) {
+                rejected.increment();
+            }
+            if (executor.isShutdown()) {
+                return;
+            }
+            REJECTED.set(retryAfter);
+            try {
+                task.run();
+            } finally {
+                REJECTED.remove();
+            }
+        }
+    }
+
+    private static final class RequestThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String prefix;
+
+        /**
+         * @param name Nombre del pool, o null para numerarlo
+         */
+        private RequestThreadFactory(String name) {
+            this.prefix = "webServer-" + (name != null ? name : Integer.toString(poolNumber.incrementAndGet())) + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+
+    /**
+     * Planificador compartido de los tiempos de espera de las respuestas
+     * asincronicas. Las tareas canceladas se quitan de la cola al cancelarlas,
+     * asi miles de peticiones en curso no retienen memoria al completarse
+     */
+    private static final class TimeoutScheduler {
+
+        private static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+        private static ScheduledThreadPoolExecutor create() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "http-timeouts");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
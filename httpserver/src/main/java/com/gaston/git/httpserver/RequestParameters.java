@@ -0,0 +1,129 @@
+package com.gaston.git.httpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contenedor de los parametros de una peticion (query string o formulario).
+ * Mantiene los nombres y valores en dos arreglos paralelos en el orden en que
+ * llegaron, admite claves repetidas y se puede reutilizar entre peticiones
+ * llamando a clear, de forma que no se crea un mapa nuevo por cada peticion.
+ *
+ * No es thread safe, cada hilo debe usar su propia instancia
+ *
+ * @author gaston
+ */
+public final class RequestParameters {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Agrega un parametro, si el nombre ya existia se mantienen ambos valores
+     *
+     * @param name Nombre del parametro
+     * @param value Valor del parametro
+     */
+    public void add(String name, String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Obtiene el primer valor del parametro
+     *
+     * @param name Nombre del parametro
+     * @return Valor o null si el parametro no existe
+     */
+    public String get(String name) {
+        for (int i = 0; i < size; i++) {
+            if (name.equals(names[i])) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtiene todos los valores del parametro en el orden en que llegaron
+     *
+     * @param name Nombre del parametro
+     * @return Valores del parametro, vacio si no existe
+     */
+    public List<String> getAll(String name) {
+        List<String> result = null;
+        for (int i = 0; i < size; i++) {
+            if (name.equals(names[i])) {
+                if (result == null) {
+                    result = new ArrayList<>(2);
+                }
+                result.add(values[i]);
+            }
+        }
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    /**
+     * Cantidad de valores del parametro
+     *
+     * @param name Nombre del parametro
+     * @return Cantidad de apariciones del parametro
+     */
+    public int count(String name) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (name.equals(names[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Nombre del parametro en la posicion indicada
+     *
+     * @param index Posicion del parametro
+     * @return Nombre del parametro
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Valor del parametro en la posicion indicada
+     *
+     * @param index Posicion del parametro
+     * @return Valor del parametro
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Cantidad total de valores
+     *
+     * @return Cantidad de valores
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Elimina todos los parametros para reutilizar la instancia
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+}
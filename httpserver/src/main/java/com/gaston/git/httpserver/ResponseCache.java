@@ -0,0 +1,340 @@
+package com.gaston.git.httpserver;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache de respuestas serializadas de una ruta anotada con @Cacheable. Se
+ * divide en segmentos, cada uno un LinkedHashMap en orden de acceso protegido
+ * por su propio lock, de forma que peticiones con claves distintas no compiten
+ * por el mismo bloqueo. Cada segmento descarta su entrada usada menos
+ * recientemente al superar su capacidad, y las entradas vencidas se descartan
+ * al consultarlas
+ *
+ * @author gaston
+ */
+public final class ResponseCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Entradas minimas por segmento, las caches chicas usan un solo segmento
+     * para que el orden LRU sea exacto
+     */
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final byte[] NOT_COMPRESSIBLE = new byte[0];
+
+    private final Segment[] segments;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Crea la cache
+     *
+     * @param maxEntries Cantidad maxima de entradas
+     * @param ttlNanos Tiempo de vida de cada entrada en nanosegundos
+     */
+    public ResponseCache(int maxEntries, long ttlNanos) {
+        int count = 1;
+        while (count < MAX_SEGMENTS && maxEntries / (count * 2) >= MIN_SEGMENT_ENTRIES) {
+            count *= 2;
+        }
+        this.segments = new Segment[count];
+        int capacity = (maxEntries + count - 1) / count;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(Math.max(1, capacity));
+        }
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Crea la cache configurada por la anotacion
+     *
+     * @param cacheable Anotacion del metodo
+     * @return Cache de la ruta
+     */
+    static ResponseCache of(Cacheable cacheable) {
+        return new ResponseCache(cacheable.maxEntries(), cacheable.unit().toNanos(cacheable.ttl()));
+    }
+
+    /**
+     * Obtiene una entrada vigente
+     *
+     * @param key Clave de la respuesta
+     * @return Entrada o null si no existe o vencio
+     */
+    public Entry get(String key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Guarda una respuesta
+     *
+     * @param key Clave de la respuesta
+     * @param body Bytes de la respuesta
+     * @param contentType Content-Type de la respuesta
+     * @return Entrada guardada
+     */
+    public Entry put(String key, byte[] body, String contentType) {
+        Entry entry = new Entry(body, contentType, etag(body), System.nanoTime() + ttlNanos);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Descarta todas las entradas de un path, sin importar su query string ni
+     * su formato
+     *
+     * @param path Path de la peticion sin decodificar
+     * @return Cantidad de entradas descartadas
+     */
+    public int invalidate(String path) {
+        String prefix = path + '?';
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<String> keys = segment.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (keys.next().startsWith(prefix)) {
+                        keys.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Descarta todas las entradas
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Cantidad de entradas guardadas, incluyendo las vencidas que aun no se
+     * descartaron
+     *
+     * @return Cantidad de entradas
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Cantidad de consultas que encontraron una entrada vigente
+     *
+     * @return Cantidad de aciertos
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Cantidad de consultas sin entrada vigente
+     *
+     * @return Cantidad de fallos
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * ETag fuerte, los primeros 64 bits del SHA-256 del contenido
+     */
+    static String etag(byte[] body) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] etag = new char[18];
+        etag[0] = '"';
+        for (int i = 0; i < 8; i++) {
+            etag[1 + i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            etag[2 + i * 2] = HEX[digest[i] & 0xF];
+        }
+        etag[17] = '"';
+        return new String(etag);
+    }
+
+    /**
+     * Indica si el valor de un header If-None-Match incluye el ETag. Se usa la
+     * comparacion debil, como indica la especificacion para este header
+     *
+     * @param ifNoneMatch Valor del header, puede ser null
+     * @param etag ETag de la respuesta
+     * @return true si el cliente ya tiene la respuesta
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        int start = 0;
+        while (start < ifNoneMatch.length()) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0) {
+                end = ifNoneMatch.length();
+            }
+            String candidate = ifNoneMatch.substring(start, end).trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Respuesta guardada
+     */
+    public static final class Entry {
+
+        private final byte[] body;
+        private final String contentType;
+        private final String etag;
+        private final long expiresAt;
+
+        /**
+         * Formas comprimidas, se calculan la primera vez que se piden. Un
+         * arreglo vacio indica que comprimir no reduce el tamaño
+         */
+        private volatile byte[] gzip;
+        private volatile byte[] deflate;
+
+        private Entry(byte[] body, String contentType, String etag, long expiresAt) {
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Respuesta serializada que no se guarda en ninguna cache, para
+         * compartirla entre las peticiones de una ruta con @Coalesce
+         *
+         * @param body Bytes de la respuesta
+         * @param contentType Content-Type de la respuesta
+         * @return Entrada con su ETag
+         */
+        static Entry of(byte[] body, String contentType) {
+            return new Entry(body, contentType, etag(body), 0);
+        }
+
+        /**
+         * Bytes de la respuesta, no deben modificarse
+         *
+         * @return Cuerpo de la respuesta
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Bytes de la respuesta comprimida. Se comprime una sola vez por
+         * entrada, y si dos peticiones lo hacen a la vez ambas obtienen el
+         * mismo contenido
+         *
+         * @param encoding Codificacion
+         * @return Cuerpo comprimido, o null si no resulta mas chico que el
+         * original
+         */
+        public byte[] getBody(ContentEncoding encoding) {
+            byte[] encoded = encoding == ContentEncoding.GZIP ? gzip : deflate;
+            if (encoded == null) {
+                encoded = ResponseCompression.compress(body, 0, body.length, encoding);
+                if (encoded == null) {
+                    encoded = NOT_COMPRESSIBLE;
+                }
+                if (encoding == ContentEncoding.GZIP) {
+                    gzip = encoded;
+                } else {
+                    deflate = encoded;
+                }
+            }
+            return encoded.length > 0 ? encoded : null;
+        }
+
+        /**
+         * ETag de la respuesta comprimida, distinto del original porque los
+         * bytes son otros
+         *
+         * @param encoding Codificacion
+         * @return ETag de la representacion comprimida
+         */
+        public String getEtag(ContentEncoding encoding) {
+            return etag.substring(0, etag.length() - 1) + '-' + encoding.getToken() + '"';
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<String, ResponseCache.Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(Math.min(capacity, 1024) * 4 / 3 + 1, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+            return size() > capacity;
+        }
+    }
+}
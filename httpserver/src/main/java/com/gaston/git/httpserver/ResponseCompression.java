@@ -0,0 +1,299 @@
+package com.gaston.git.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Configuracion y utilidades de la compresion de respuestas.
+ *
+ * La codificacion se negocia con el header Accept-Encoding, prefiriendo gzip
+ * ante igual calidad. Solo se comprimen las respuestas de al menos un tamaño
+ * minimo, que puede configurarse por formato de respuesta o por metodo con
+ * @Compress. Los Deflater tienen memoria nativa asociada y son caros de crear,
+ * por eso se toman de un pool y se reinician al devolverlos
+ *
+ * @author gaston
+ */
+public final class ResponseCompression {
+
+    /**
+     * Tamaño minimo por defecto de las respuestas que se comprimen
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final int MAX_POOLED = 64;
+
+    /**
+     * Encabezado fijo de gzip: sin nombre de archivo, fecha ni flags
+     */
+    static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * Tamaño del final de gzip: CRC32 y tamaño original
+     */
+    private static final int GZIP_TRAILER = 8;
+
+    /**
+     * Cantidad maxima de valores de Accept-Encoding distintos que se recuerdan
+     */
+    private static final int MAX_CACHED_NEGOTIATIONS = 64;
+
+    /**
+     * Valor guardado para los Accept-Encoding que no admiten compresion
+     */
+    private static final Object IDENTITY = new Object();
+
+    private static volatile Map<String, Integer> thresholds = new HashMap<>();
+    private static volatile int defaultThreshold = DEFAULT_THRESHOLD;
+    private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+    private static final Map<String, Object> negotiated = new ConcurrentHashMap<>();
+
+    private static final DeflaterPool GZIP_POOL = new DeflaterPool(true);
+    private static final DeflaterPool DEFLATE_POOL = new DeflaterPool(false);
+
+    static {
+        // Los eventos se envian de a uno y no deben quedar retenidos en el
+        // Deflater, algunos proxies tampoco los entregan comprimidos
+        thresholds.put(EventStreamCodec.TEXT_EVENT_STREAM, -1);
+    }
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * Establece el tamaño minimo de las respuestas de un formato que se
+     * comprimen
+     *
+     * @param mediaType Formato, por ejemplo application/json
+     * @param minSize Cantidad de bytes, negativo para no comprimir nunca
+     */
+    public static synchronized void setThreshold(String mediaType, int minSize) {
+        Map<String, Integer> updated = new HashMap<>(thresholds);
+        updated.put(CodecRegistry.baseType(mediaType), minSize);
+        thresholds = updated;
+    }
+
+    /**
+     * Tamaño minimo de las respuestas de un formato que se comprimen
+     *
+     * @param mediaType Formato de la respuesta
+     * @return Cantidad de bytes, negativo si el formato no se comprime
+     */
+    public static int getThreshold(String mediaType) {
+        Integer threshold = thresholds.get(mediaType);
+        return threshold != null ? threshold : defaultThreshold;
+    }
+
+    /**
+     * Establece el tamaño minimo para los formatos sin configuracion propia
+     *
+     * @param minSize Cantidad de bytes, negativo para no comprimir
+     */
+    public static void setDefaultThreshold(int minSize) {
+        defaultThreshold = minSize;
+    }
+
+    /**
+     * Establece el nivel de compresion, de 1 (mas rapido) a 9 (mas chico)
+     *
+     * @param compressionLevel Nivel de compresion de Deflater
+     */
+    public static void setLevel(int compressionLevel) {
+        level = compressionLevel;
+    }
+
+    /**
+     * Elige la codificacion de la respuesta segun el header Accept-Encoding
+     *
+     * @param acceptEncoding Valor del header, puede ser null
+     * @return Codificacion o null si no se debe comprimir
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        Object result = negotiated.get(acceptEncoding);
+        if (result == null) {
+            ContentEncoding encoding = parse(acceptEncoding);
+            result = encoding != null ? encoding : IDENTITY;
+            if (negotiated.size() < MAX_CACHED_NEGOTIATIONS) {
+                negotiated.put(acceptEncoding, result);
+            }
+        }
+        return result == IDENTITY ? null : (ContentEncoding) result;
+    }
+
+    private static ContentEncoding parse(String acceptEncoding) {
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String token = part.trim();
+            float quality = 1;
+            int semicolon = token.indexOf(';');
+            if (semicolon >= 0) {
+                String parameter = token.substring(semicolon + 1).trim();
+                token = token.substring(0, semicolon).trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (token.equalsIgnoreCase("gzip") || token.equalsIgnoreCase("x-gzip")) {
+                gzip = quality;
+            } else if (token.equalsIgnoreCase("deflate")) {
+                deflate = quality;
+            } else if (token.equals("*")) {
+                any = quality;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return ContentEncoding.GZIP;
+        }
+        return deflate > 0 ? ContentEncoding.DEFLATE : null;
+    }
+
+    /**
+     * Comprime un arreglo completo
+     *
+     * @param data Bytes a comprimir
+     * @param offset Inicio
+     * @param length Cantidad de bytes
+     * @param encoding Codificacion
+     * @return Bytes comprimidos, o null si el resultado no es mas chico
+     */
+    public static byte[] compress(byte[] data, int offset, int length, ContentEncoding encoding) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(64, length / 4));
+        try (DeflatingOutputStream out = new DeflatingOutputStream(result, encoding, BufferPool.shared())) {
+            out.write(data, offset, length);
+        } catch (IOException e) {
+            // ByteArrayOutputStream no lanza IOException
+            throw new IllegalStateException(e);
+        }
+        return result.size() < length ? result.toByteArray() : null;
+    }
+
+    /**
+     * Comprime un arreglo sobre otro de tamaño fijo, sin crear arreglos
+     * intermedios. Se usa para las respuestas que entran completas en el
+     * buffer de escritura
+     *
+     * @param data Bytes a comprimir
+     * @param length Cantidad de bytes
+     * @param dest Arreglo destino
+     * @param encoding Codificacion
+     * @return Cantidad de bytes comprimidos, o -1 si no entran en el destino
+     * o el resultado no es mas chico que el original
+     */
+    static int compress(byte[] data, int length, byte[] dest, ContentEncoding encoding) {
+        Deflater deflater = acquire(encoding);
+        try {
+            boolean gzip = encoding == ContentEncoding.GZIP;
+            int limit = Math.min(dest.length, length) - (gzip ? GZIP_TRAILER : 0);
+            int start = gzip ? GZIP_HEADER.length : 0;
+            if (limit <= start) {
+                return -1;
+            }
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int count = start;
+            while (!deflater.finished() && count < limit) {
+                count += deflater.deflate(dest, count, limit - count);
+            }
+            if (!deflater.finished()) {
+                return -1;
+            }
+            if (gzip) {
+                System.arraycopy(GZIP_HEADER, 0, dest, 0, GZIP_HEADER.length);
+                CRC32 crc = new CRC32();
+                crc.update(data, 0, length);
+                count = putInt(dest, count, (int) crc.getValue());
+                count = putInt(dest, count, length);
+            }
+            return count;
+        } finally {
+            release(encoding, deflater);
+        }
+    }
+
+    private static int putInt(byte[] dest, int offset, int value) {
+        dest[offset] = (byte) value;
+        dest[offset + 1] = (byte) (value >> 8);
+        dest[offset + 2] = (byte) (value >> 16);
+        dest[offset + 3] = (byte) (value >> 24);
+        return offset + 4;
+    }
+
+    /**
+     * Obtiene un Deflater del pool configurado con el nivel actual
+     *
+     * @param encoding Codificacion
+     * @return Deflater listo para usar
+     */
+    static Deflater acquire(ContentEncoding encoding) {
+        Deflater deflater = (encoding == ContentEncoding.GZIP ? GZIP_POOL : DEFLATE_POOL).acquire();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Devuelve un Deflater al pool
+     *
+     * @param encoding Codificacion con la que se obtuvo
+     * @param deflater Deflater
+     */
+    static void release(ContentEncoding encoding, Deflater deflater) {
+        (encoding == ContentEncoding.GZIP ? GZIP_POOL : DEFLATE_POOL).release(deflater);
+    }
+
+    /**
+     * Pool de Deflater de un mismo formato. Gzip usa deflate sin el
+     * encabezado zlib, que lo escribe el propio stream
+     */
+    private static final class DeflaterPool {
+
+        private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+        private final boolean nowrap;
+
+        private DeflaterPool(boolean nowrap) {
+            this.nowrap = nowrap;
+        }
+
+        private Deflater acquire() {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+            }
+            pooled.decrementAndGet();
+            return deflater;
+        }
+
+        private void release(Deflater deflater) {
+            deflater.reset();
+            if (pooled.incrementAndGet() <= MAX_POOLED) {
+                deflaters.offer(deflater);
+            } else {
+                pooled.decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+}
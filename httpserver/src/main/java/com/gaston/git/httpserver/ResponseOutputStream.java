@@ -0,0 +1,216 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream de salida de una respuesta que escribe directamente sobre el cuerpo
+ * del ServerExchange usando un buffer del pool.
+ *
+ * Mientras la respuesta entre completa en el buffer no se envia nada; al
+ * cerrar el stream se envian los headers con el Content-Length exacto en bytes
+ * y el contenido. Si la respuesta supera el tamaño del buffer se envian los
+ * headers con transferencia chunked y a partir de ahi el buffer se usa solo
+ * para agrupar escrituras, de forma que nunca se mantiene la respuesta completa
+ * en memoria.
+ *
+ * Si se indica una codificacion, las respuestas que entran en el buffer se
+ * comprimen de una vez sobre un segundo buffer del pool cuando alcanzan el
+ * tamaño minimo, y las que lo superan se comprimen a medida que se escriben
+ * con un DeflatingOutputStream. Un tamaño minimo mayor al buffer se comporta
+ * como el tamaño del buffer
+ *
+ * @author gaston
+ */
+public class ResponseOutputStream extends OutputStream {
+
+    private final ServerExchange exchange;
+    private final int status;
+    private final BufferPool pool;
+    private byte[] buffer;
+    private int count;
+    private OutputStream body;
+    private DeflatingOutputStream deflating;
+    private boolean closed;
+    private final ContentEncoding encoding;
+    private final int threshold;
+
+    public ResponseOutputStream(ServerExchange exchange, int status) {
+        this(exchange, status, BufferPool.shared());
+    }
+
+    public ResponseOutputStream(ServerExchange exchange, int status, BufferPool pool) {
+        this(exchange, status, null, -1, pool);
+    }
+
+    /**
+     * Crea el stream de una respuesta que puede comprimirse
+     *
+     * @param exchange Peticion
+     * @param status Codigo de estado
+     * @param encoding Codificacion negociada, null para no comprimir
+     * @param threshold Tamaño minimo de las respuestas que se comprimen,
+     * negativo para no comprimir
+     */
+    public ResponseOutputStream(ServerExchange exchange, int status, ContentEncoding encoding, int threshold) {
+        this(exchange, status, encoding, threshold, BufferPool.shared());
+    }
+
+    public ResponseOutputStream(ServerExchange exchange, int status, ContentEncoding encoding, int threshold,
+            BufferPool pool) {
+        this.exchange = exchange;
+        this.status = status;
+        this.pool = pool;
+        this.buffer = pool.acquire();
+        this.encoding = threshold >= 0 ? encoding : null;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len > buffer.length - count) {
+            drain();
+            if (len >= buffer.length) {
+                body.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (body != null) {
+            body.write(buffer, 0, count);
+            count = 0;
+            body.flush();
+        }
+    }
+
+    /**
+     * Envia lo que quede pendiente. Si la respuesta no se habia comprometido
+     * se envia con Content-Length exacto. No cierra el cuerpo del exchange
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (body == null) {
+                if (encoding == null || count == 0 || count < threshold || !sendCompressed()) {
+                    exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+                    if (count > 0) {
+                        exchange.getResponseBody().write(buffer, 0, count);
+                    }
+                }
+            } else {
+                if (count > 0) {
+                    body.write(buffer, 0, count);
+                }
+                if (deflating != null) {
+                    deflating.close();
+                }
+            }
+            count = 0;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Indica si ya se enviaron los headers de la respuesta, en ese caso no es
+     * posible responder con otro codigo de estado
+     *
+     * @return true si la respuesta ya esta comprometida
+     */
+    public boolean isCommitted() {
+        return body != null;
+    }
+
+    /**
+     * Envia los headers con transferencia chunked sin esperar a que se llene
+     * el buffer, para las respuestas que se generan de a partes. A partir de
+     * aca flush envia al cliente lo escrito
+     *
+     * @throws IOException Si falla el envio
+     */
+    public void commit() throws IOException {
+        ensureOpen();
+        drain();
+    }
+
+    /**
+     * Descarta el contenido pendiente y devuelve el buffer al pool
+     */
+    public void release() {
+        closed = true;
+        if (deflating != null) {
+            deflating.release();
+        }
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Compromete la respuesta como chunked si aun no se hizo y envia el buffer
+     */
+    private void drain() throws IOException {
+        if (body == null) {
+            if (encoding != null) {
+                exchange.setResponseHeader("Content-Encoding", encoding.getToken());
+                exchange.sendResponseHeaders(status, 0);
+                deflating = new DeflatingOutputStream(exchange.getResponseBody(), encoding, pool);
+                body = deflating;
+            } else {
+                exchange.sendResponseHeaders(status, 0);
+                body = exchange.getResponseBody();
+            }
+        }
+        if (count > 0) {
+            body.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Comprime el buffer completo y lo envia con Content-Length exacto
+     *
+     * @return false si comprimir no reduce el tamaño y no se envio nada
+     */
+    private boolean sendCompressed() throws IOException {
+        byte[] compressed = pool.acquire();
+        try {
+            int length = ResponseCompression.compress(buffer, count, compressed, encoding);
+            if (length < 0) {
+                return false;
+            }
+            exchange.setResponseHeader("Content-Encoding", encoding.getToken());
+            exchange.sendResponseHeaders(status, length);
+            exchange.getResponseBody().write(compressed, 0, length);
+            return true;
+        } finally {
+            pool.release(compressed);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Respuesta cerrada");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.gaston.git.httpserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Indice de contextos web generado en tiempo de compilacion por el
+ * RouteIndexProcessor. Permite que el WebServer registre los contextos sin
+ * recorrer el classpath ni inicializar ninguna clase que no sea un contexto, y
+ * funciona tambien cuando la aplicacion se ejecuta desde un jar.
+ *
+ * El indice es un archivo de texto UTF-8 con una entrada por linea y campos
+ * separados por tabulador:
+ * <pre>
+ * context  clase  path
+ * </pre>
+ * Las rutas de cada contexto se obtienen de sus metodos al registrarlo. Cada
+ * jar o directorio de clases puede tener su propio indice, se leen todos y se
+ * ignoran las lineas de otros tipos
+ *
+ * @author gaston
+ */
+public final class RouteIndex {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Ubicacion del indice dentro del classpath
+     */
+    public static final String RESOURCE = "META-INF/httpserver/routes.idx";
+
+    private final Map<String, String> contexts;
+
+    private RouteIndex(Map<String, String> contexts) {
+        this.contexts = contexts;
+    }
+
+    /**
+     * Lee todos los indices visibles desde el class loader
+     *
+     * @param loader Class loader de la aplicacion
+     * @return Indice, vacio si no hay ninguno
+     */
+    public static RouteIndex load(ClassLoader loader) {
+        Map<String, String> contexts = new LinkedHashMap<>();
+        try {
+            Enumeration<URL> resources = loader.getResources(RESOURCE);
+            while (resources.hasMoreElements()) {
+                URL resource = resources.nextElement();
+                try (InputStream in = resource.openStream()) {
+                    read(in, contexts);
+                } catch (IOException e) {
+                    logger.error("No se pudo leer el indice de rutas " + resource, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("No se pudieron buscar los indices de rutas", e);
+        }
+        return new RouteIndex(contexts);
+    }
+
+    /**
+     * Lee las entradas de un indice
+     *
+     * @param in Contenido del indice
+     * @param contexts Clases de contexto y su path
+     */
+    static void read(InputStream in, Map<String, String> contexts) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields[0].equals("context") && fields.length == 3) {
+                contexts.put(fields[1], fields[2]);
+            }
+        }
+    }
+
+    /**
+     * Indica si no se encontro ningun contexto indexado
+     *
+     * @return true si el indice esta vacio
+     */
+    public boolean isEmpty() {
+        return contexts.isEmpty();
+    }
+
+    /**
+     * Nombres de las clases de contexto de un paquete y sus subpaquetes
+     *
+     * @param packageBase Paquete base, separado por puntos
+     * @return Nombres de clase en el orden del indice
+     */
+    public List<String> getContexts(String packageBase) {
+        String prefix = packageBase.isEmpty() ? "" : packageBase + '.';
+        List<String> names = new ArrayList<>();
+        for (String name : contexts.keySet()) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Path de un contexto indexado
+     *
+     * @param className Nombre de la clase
+     * @return Path o null si la clase no esta en el indice
+     */
+    public String getPath(String className) {
+        return contexts.get(className);
+    }
+}
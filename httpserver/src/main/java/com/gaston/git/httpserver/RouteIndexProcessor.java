@@ -0,0 +1,210 @@
+package com.gaston.git.httpserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Procesador de anotaciones que genera el RouteIndex: registra cada clase
+ * anotada con @Path que extiende WebContext, y verifica en tiempo de
+ * compilacion que el WebServer pueda instanciarla (clase publica, no abstracta
+ * y con un constructor publico que recibe el nombre). Ademas advierte de las
+ * rutas duplicadas de un contexto, de las que en ejecucion solo se usa una.
+ *
+ * Se publica en META-INF/services dentro del jar del servidor, por lo que
+ * javac lo ejecuta en cualquier proyecto que lo tenga en el classpath. A
+ * partir de Java 23 javac ya no busca procesadores en el classpath y hay que
+ * indicarlo con -proc:full o en los annotationProcessorPaths del
+ * maven-compiler-plugin.
+ *
+ * En una compilacion incremental se conservan las entradas del indice
+ * anterior cuyas clases siguen existiendo y no se volvieron a compilar
+ *
+ * @author gaston
+ */
+@SupportedAnnotationTypes("javax.ws.rs.Path")
+public class RouteIndexProcessor extends AbstractProcessor {
+
+    private static final String WEB_CONTEXT = "com.gaston.git.httpserver.WebContext";
+    private static final String PATH = "javax.ws.rs.Path";
+    private static final String[] HTTP_METHODS = {"GET", "POST", "PUT", "DELETE"};
+
+    /**
+     * Entrada de cada clase de contexto, en el orden en que se encontraron
+     */
+    private final Map<String, String> entries = new LinkedHashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        TypeElement webContext = processingEnv.getElementUtils().getTypeElement(WEB_CONTEXT);
+        TypeElement path = processingEnv.getElementUtils().getTypeElement(PATH);
+        if (webContext != null && path != null) {
+            TypeMirror contextType = processingEnv.getTypeUtils().erasure(webContext.asType());
+            for (Element element : round.getElementsAnnotatedWith(path)) {
+                if (element.getKind() == ElementKind.CLASS
+                        && processingEnv.getTypeUtils().isSubtype(element.asType(), contextType)) {
+                    index((TypeElement) element);
+                }
+            }
+        }
+        if (round.processingOver() && !entries.isEmpty()) {
+            write();
+        }
+        return false;
+    }
+
+    private void index(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return;
+        }
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+            error(type, "El contexto web " + className + " debe ser publico");
+            return;
+        }
+        if (!hasNameConstructor(type)) {
+            error(type, "El contexto web " + className + " necesita un constructor publico (String name)");
+            return;
+        }
+        String contextPath = value(type, PATH);
+        Set<String> seen = new HashSet<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            for (String httpMethod : HTTP_METHODS) {
+                if (annotation(method, "javax.ws.rs." + httpMethod) == null) {
+                    continue;
+                }
+                String methodPath = value(method, PATH);
+                String routePath = methodPath != null ? contextPath + methodPath : contextPath;
+                if (!seen.add(httpMethod + ' ' + routePath)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "Ruta duplicada " + httpMethod + " " + routePath + ", solo se usa una", method);
+                }
+            }
+        }
+        entries.put(className, "context\t" + className + '\t' + contextPath);
+    }
+
+    private static boolean hasNameConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PUBLIC)
+                    && constructor.getParameters().size() == 1
+                    && constructor.getParameters().get(0).asType().toString().equals("java.lang.String")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static String value(Element element, String annotationName) {
+        AnnotationMirror mirror = annotation(element, annotationName);
+        if (mirror == null) {
+            return null;
+        }
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Escribe el indice, agregando las entradas de una compilacion anterior
+     * cuyas clases no se recompilaron
+     */
+    private void write() {
+        List<String> lines = new ArrayList<>();
+        for (String[] previous : previousEntries()) {
+            if (!entries.containsKey(previous[0])
+                    && processingEnv.getElementUtils().getTypeElement(previous[0].replace('$', '.')) != null) {
+                lines.add(previous[1]);
+            }
+        }
+        lines.addAll(entries.values());
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    RouteIndex.RESOURCE);
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write("# Generado por " + getClass().getName() + "\n");
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "No se pudo escribir el indice de rutas: " + e);
+        }
+    }
+
+    /**
+     * Lineas de contexto del indice existente junto con la clase a la que
+     * pertenecen
+     */
+    private List<String[]> previousEntries() {
+        List<String[]> previous = new ArrayList<>();
+        try {
+            FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    RouteIndex.RESOURCE);
+            try (InputStream in = file.openInputStream();
+                    BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length == 3 && fields[0].equals("context")) {
+                        previous.add(new String[]{fields[1], line});
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // No hay indice previo
+        }
+        return previous;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,62 @@
+package com.gaston.git.httpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metricas de una ruta: peticiones, errores, bytes recibidos y enviados y el
+ * histograma de latencias. Todos los contadores son LongAdder, registrar una
+ * peticion no toma ningun bloqueo
+ *
+ * @author gaston
+ */
+public final class RouteMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Registra una peticion atendida
+     *
+     * @param status Codigo de estado de la respuesta, los mayores o iguales a
+     * 400 se cuentan como error
+     * @param requestBytes Bytes leidos del cuerpo de la peticion
+     * @param responseBytes Bytes escritos en el cuerpo de la respuesta
+     * @param nanos Duracion de la peticion
+     */
+    public void record(int status, long requestBytes, long responseBytes, long nanos) {
+        requests.increment();
+        if (status >= 400) {
+            errors.increment();
+        }
+        if (requestBytes > 0) {
+            bytesIn.add(requestBytes);
+        }
+        if (responseBytes > 0) {
+            bytesOut.add(responseBytes);
+        }
+        latency.record(nanos);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,495 @@
+package com.gaston.git.httpserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.log4j.Logger;
+
+/**
+ * Tabla de rutas de un contexto web organizada como un arbol de segmentos del
+ * path. Se construye una sola vez al crear el contexto mediante el Builder y
+ * luego es inmutable, por lo que las busquedas no necesitan ningun tipo de
+ * bloqueo.
+ *
+ * Los segmentos de la forma {nombre} representan parametros del path que se
+ * inyectan en los parametros del metodo anotados con @PathParam. En la busqueda
+ * siempre tiene prioridad un segmento literal sobre un parametro.
+ *
+ * Un parametro de la forma {nombre: regex} solo acepta segmentos que cumplen
+ * la expresion regular completa, por ejemplo {id: [0-9]+}. Las expresiones se
+ * compilan al construir el router y se prueban despues de los literales y
+ * antes de los parametros sin expresion, en el orden en que se agregaron.
+ *
+ * El ultimo segmento puede ser {nombre: .*} o {nombre: .+}, que toma el resto
+ * del path con sus barras, vacio o no vacio respectivamente. Se usa solo
+ * cuando no coincide ningun literal ni parametro
+ *
+ * Los paths que no tienen parametros se indexan ademas completos en un mapa,
+ * de forma que la mayoria de las busquedas se resuelven con un solo acceso sin
+ * recorrer el arbol
+ *
+ * @author gaston
+ */
+public final class Router {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    /**
+     * Metodos http soportados, el indice se corresponde con el arreglo de rutas
+     * de cada nodo
+     */
+    private static final String[] HTTP_METHODS = {"GET", "POST", "PUT", "DELETE"};
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final Node root;
+
+    /**
+     * Nodos de los paths sin parametros indexados por el path completo
+     */
+    private final Map<String, Node> staticPaths;
+
+    private final List<HttpRoute> routes;
+
+    private Router(Node root, Map<String, Node> staticPaths, List<HttpRoute> routes) {
+        this.root = root;
+        this.staticPaths = staticPaths;
+        this.routes = routes;
+    }
+
+    /**
+     * Busca el nodo correspondiente al path, sin importar el metodo http
+     *
+     * @param path Path de la peticion
+     * @return Resultado de la busqueda, nunca null
+     */
+    public RouteMatch lookup(String path) {
+        Node exact = staticPaths.get(path);
+        if (exact != null) {
+            return new RouteMatch(exact, NO_VALUES);
+        }
+        String[] values = root.maxParams == 0 ? NO_VALUES : new String[root.maxParams];
+        Node node = match(root, path, skipSlashes(path, 0), values, 0);
+        return new RouteMatch(node, values);
+    }
+
+    /**
+     * Busca la ruta del metodo http y path indicados
+     *
+     * @param httpMethod Metodo http (GET,POST,PUT,DELETE)
+     * @param path Path de la peticion
+     * @return Ruta o null si no existe
+     */
+    public HttpRoute find(String httpMethod, String path) {
+        return lookup(path).getRoute(httpMethod);
+    }
+
+    /**
+     * Cantidad de rutas registradas
+     *
+     * @return Cantidad de rutas
+     */
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Rutas registradas
+     *
+     * @return Lista inmutable de rutas
+     */
+    public List<HttpRoute> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Recorre el arbol a partir de la posicion indicada del path. Primero se
+     * intenta con el hijo literal y si por esa rama no se llega a una ruta se
+     * prueba con los hijos parametro con expresion regular que aceptan el
+     * segmento y por ultimo con el hijo parametro sin expresion
+     */
+    private static Node match(Node node, String path, int start, String[] values, int depth) {
+        if (start >= path.length()) {
+            if (node.isEndpoint()) {
+                return node;
+            }
+            if (node.tailChild != null && node.tailChild.optional) {
+                values[depth] = "";
+                return node.tailChild;
+            }
+            return null;
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        String segment = path.substring(start, end);
+        int next = skipSlashes(path, end);
+        Node child = node.staticChildren.get(segment);
+        if (child != null) {
+            Node found = match(child, path, next, values, depth);
+            if (found != null) {
+                return found;
+            }
+        }
+        for (int i = 0; i < node.regexChildren.length; i++) {
+            if (node.regexPatterns[i].matcher(segment).matches()) {
+                Node found = match(node.regexChildren[i], path, next, values, depth + 1);
+                if (found != null) {
+                    values[depth] = segment;
+                    return found;
+                }
+            }
+        }
+        if (node.paramChild != null) {
+            Node found = match(node.paramChild, path, next, values, depth + 1);
+            if (found != null) {
+                values[depth] = segment;
+                return found;
+            }
+        }
+        if (node.tailChild != null) {
+            values[depth] = path.substring(start);
+            return node.tailChild;
+        }
+        return null;
+    }
+
+    private static int skipSlashes(String path, int index) {
+        while (index < path.length() && path.charAt(index) == '/') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int indexOf(String httpMethod) {
+        for (int i = 0; i < HTTP_METHODS.length; i++) {
+            if (HTTP_METHODS[i].equals(httpMethod)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Separa un template de path en sus segmentos, ignorando barras repetidas
+     *
+     * @param template Template del path
+     * @return Segmentos del template
+     */
+    static List<String> segments(String template) {
+        List<String> segments = new ArrayList<>();
+        int start = skipSlashes(template, 0);
+        while (start < template.length()) {
+            int end = template.indexOf('/', start);
+            if (end < 0) {
+                end = template.length();
+            }
+            segments.add(template.substring(start, end));
+            start = skipSlashes(template, end);
+        }
+        return segments;
+    }
+
+    /**
+     * Indica si el segmento es un parametro de la forma {nombre}
+     */
+    static boolean isParam(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    /**
+     * Obtiene el nombre de un segmento parametro, descartando una posible
+     * expresion regular en la forma {nombre: regex}
+     */
+    static String paramName(String segment) {
+        String name = segment.substring(1, segment.length() - 1);
+        int colon = name.indexOf(':');
+        return (colon < 0 ? name : name.substring(0, colon)).trim();
+    }
+
+    /**
+     * Expresion regular de un segmento parametro, o null si no tiene
+     */
+    private static String paramRegex(String segment) {
+        int colon = segment.indexOf(':');
+        return colon < 0 ? null : segment.substring(colon + 1, segment.length() - 1).trim();
+    }
+
+    /**
+     * Indica si el segmento es un parametro que toma el resto del path
+     */
+    static boolean isTailParam(String segment) {
+        String regex = isParam(segment) ? paramRegex(segment) : null;
+        return ".*".equals(regex) || ".+".equals(regex);
+    }
+
+    /**
+     * Nodo del arbol
+     */
+    static final class Node {
+
+        private final Map<String, Node> staticChildren;
+        private final Pattern[] regexPatterns;
+        private final Node[] regexChildren;
+        private final Node paramChild;
+        private final Node tailChild;
+        private final HttpRoute[] routes;
+        private final String allow;
+
+        /**
+         * Si es un nodo {nombre: .*}, que tambien toma un resto vacio
+         */
+        private final boolean optional;
+
+        /**
+         * Mayor cantidad de parametros de path por debajo de este nodo
+         */
+        private final int maxParams;
+
+        private Node(Map<String, Node> staticChildren, Pattern[] regexPatterns, Node[] regexChildren,
+                Node paramChild, Node tailChild, HttpRoute[] routes, int maxParams, boolean optional) {
+            this.staticChildren = staticChildren;
+            this.regexPatterns = regexPatterns;
+            this.regexChildren = regexChildren;
+            this.paramChild = paramChild;
+            this.tailChild = tailChild;
+            this.optional = optional;
+            this.routes = routes;
+            this.maxParams = maxParams;
+            StringBuilder allowed = new StringBuilder();
+            for (int i = 0; i < routes.length; i++) {
+                if (routes[i] != null) {
+                    if (allowed.length() > 0) {
+                        allowed.append(", ");
+                    }
+                    allowed.append(HTTP_METHODS[i]);
+                }
+            }
+            this.allow = allowed.toString();
+        }
+
+        boolean isEndpoint() {
+            return !allow.isEmpty();
+        }
+    }
+
+    /**
+     * Resultado de una busqueda en el router
+     */
+    public static final class RouteMatch {
+
+        private final Node node;
+        private final String[] pathValues;
+
+        private RouteMatch(Node node, String[] pathValues) {
+            this.node = node;
+            this.pathValues = pathValues;
+        }
+
+        /**
+         * Indica si el path existe para algun metodo http
+         *
+         * @return true si el path existe
+         */
+        public boolean isFound() {
+            return node != null;
+        }
+
+        /**
+         * Ruta correspondiente al metodo http
+         *
+         * @param httpMethod Metodo http
+         * @return Ruta o null si el path no existe o no acepta el metodo
+         */
+        public HttpRoute getRoute(String httpMethod) {
+            int index = indexOf(httpMethod);
+            return node == null || index < 0 ? null : node.routes[index];
+        }
+
+        /**
+         * Metodos aceptados por el path, en el formato del header Allow
+         *
+         * @return Metodos separados por coma
+         */
+        public String getAllow() {
+            return node == null ? "" : node.allow;
+        }
+
+        /**
+         * Valores de los parametros del path en el orden en que aparecen
+         *
+         * @return Valores de los parametros
+         */
+        public String[] getPathValues() {
+            return pathValues;
+        }
+    }
+
+    /**
+     * Constructor del router. No es thread safe, se utiliza solo durante la
+     * creacion del contexto
+     */
+    public static final class Builder {
+
+        private final MutableNode root = new MutableNode();
+
+        private final Map<String, MutableNode> staticPaths = new HashMap<>();
+
+        private final List<HttpRoute> routes = new ArrayList<>();
+
+        /**
+         * Agrega una ruta, si ya existia una ruta para el mismo metodo y path
+         * es reemplazada
+         *
+         * @param route Ruta a agregar
+         * @return El propio builder
+         */
+        public Builder add(HttpRoute route) {
+            int index = indexOf(route.getHttpMethod());
+            if (index < 0) {
+                throw new IllegalArgumentException("Metodo http no soportado: " + route.getHttpMethod());
+            }
+            MutableNode node = root;
+            List<String> pathParams = new ArrayList<>();
+            StringBuilder normalized = new StringBuilder();
+            List<String> segments = segments(route.getPath());
+            for (int i = 0; i < segments.size(); i++) {
+                String segment = segments.get(i);
+                normalized.append('/').append(segment);
+                if (isTailParam(segment)) {
+                    if (i < segments.size() - 1) {
+                        throw new IllegalArgumentException("El parametro " + segment
+                                + " debe ser el ultimo segmento del path " + route.getPath());
+                    }
+                    if (node.tailChild == null) {
+                        node.tailChild = new MutableNode();
+                    }
+                    node.tailChild.optional |= ".*".equals(paramRegex(segment));
+                    pathParams.add(paramName(segment));
+                    node = node.tailChild;
+                } else if (isParam(segment)) {
+                    String regex = paramRegex(segment);
+                    if (regex == null || regex.isEmpty()) {
+                        if (node.paramChild == null) {
+                            node.paramChild = new MutableNode();
+                        }
+                        node = node.paramChild;
+                    } else {
+                        MutableNode child = node.regexChildren.get(regex);
+                        if (child == null) {
+                            child = new MutableNode();
+                            try {
+                                child.pattern = Pattern.compile(regex);
+                            } catch (PatternSyntaxException e) {
+                                throw new IllegalArgumentException("Expresion regular invalida en el parametro "
+                                        + segment + " del path " + route.getPath(), e);
+                            }
+                            node.regexChildren.put(regex, child);
+                        }
+                        node = child;
+                    }
+                    pathParams.add(paramName(segment));
+                } else {
+                    MutableNode child = node.staticChildren.get(segment);
+                    if (child == null) {
+                        child = new MutableNode();
+                        node.staticChildren.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            if (node.routes[index] != null) {
+                logger.warn("Ruta duplicada " + route.getHttpMethod() + " " + route.getPath()
+                        + ", se reemplaza " + node.routes[index].getMethod());
+                routes.remove(node.routes[index]);
+            }
+            routes.add(route);
+            for (HttpMethodParameter parameter : route.getParameters()) {
+                if (parameter.getSource() == HttpMethodParameter.Source.PATH) {
+                    int pathIndex = pathParams.indexOf(parameter.getParameterName());
+                    if (pathIndex < 0) {
+                        throw new IllegalArgumentException("El parametro " + parameter.getParameterName()
+                                + " no existe en el path " + route.getPath());
+                    }
+                    parameter.setPathIndex(pathIndex);
+                }
+            }
+            node.routes[index] = route;
+            if (pathParams.isEmpty()) {
+                staticPaths.put(normalized.length() == 0 ? "/" : normalized.toString(), node);
+            }
+            return this;
+        }
+
+        /**
+         * Genera el router inmutable
+         *
+         * @return Router
+         */
+        public Router build() {
+            Map<MutableNode, Node> frozen = new HashMap<>();
+            Node frozenRoot = freeze(root, frozen);
+            Map<String, Node> exact = new HashMap<>(staticPaths.size() * 2);
+            for (Map.Entry<String, MutableNode> entry : staticPaths.entrySet()) {
+                exact.put(entry.getKey(), frozen.get(entry.getValue()));
+            }
+            return new Router(frozenRoot, exact, Collections.unmodifiableList(new ArrayList<>(routes)));
+        }
+
+        private static Node freeze(MutableNode node, Map<MutableNode, Node> frozen) {
+            Map<String, Node> children = new HashMap<>(node.staticChildren.size() * 2);
+            int maxParams = 0;
+            for (Map.Entry<String, MutableNode> entry : node.staticChildren.entrySet()) {
+                Node child = freeze(entry.getValue(), frozen);
+                maxParams = Math.max(maxParams, child.maxParams);
+                children.put(entry.getKey(), child);
+            }
+            Pattern[] regexPatterns = new Pattern[node.regexChildren.size()];
+            Node[] regexChildren = new Node[regexPatterns.length];
+            int i = 0;
+            for (MutableNode regexChild : node.regexChildren.values()) {
+                regexPatterns[i] = regexChild.pattern;
+                regexChildren[i] = freeze(regexChild, frozen);
+                maxParams = Math.max(maxParams, regexChildren[i].maxParams + 1);
+                i++;
+            }
+            Node paramChild = null;
+            if (node.paramChild != null) {
+                paramChild = freeze(node.paramChild, frozen);
+                maxParams = Math.max(maxParams, paramChild.maxParams + 1);
+            }
+            Node tailChild = null;
+            if (node.tailChild != null) {
+                tailChild = freeze(node.tailChild, frozen);
+                maxParams = Math.max(maxParams, 1);
+            }
+            Node result = new Node(children.isEmpty() ? Collections.<String, Node>emptyMap() : children,
+                    regexPatterns, regexChildren, paramChild, tailChild, node.routes.clone(), maxParams,
+                    node.optional);
+            frozen.put(node, result);
+            return result;
+        }
+    }
+
+    private static final class MutableNode {
+
+        private final Map<String, MutableNode> staticChildren = new HashMap<>();
+
+        /**
+         * Hijos parametro con expresion regular por expresion, en el orden en
+         * que se agregaron
+         */
+        private final Map<String, MutableNode> regexChildren = new LinkedHashMap<>();
+        private Pattern pattern;
+        private MutableNode paramChild;
+        private MutableNode tailChild;
+        private boolean optional;
+        private final HttpRoute[] routes = new HttpRoute[HTTP_METHODS.length];
+    }
+}
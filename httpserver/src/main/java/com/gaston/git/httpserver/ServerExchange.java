@@ -0,0 +1,134 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Peticion y respuesta http tal como las ve un ContextHandler, independiente
+ * del transporte que las recibio. Tiene la misma semantica que el HttpExchange
+ * del servidor del jdk: primero se indican los headers de la respuesta, luego
+ * se envian con sendResponseHeaders y por ultimo se escribe el cuerpo
+ *
+ * @author gaston
+ */
+public interface ServerExchange {
+
+    /**
+     * Metodo http de la peticion
+     *
+     * @return Metodo http
+     */
+    String getRequestMethod();
+
+    /**
+     * Path de la peticion sin decodificar
+     *
+     * @return Path
+     */
+    String getRawPath();
+
+    /**
+     * Query string de la peticion sin decodificar
+     *
+     * @return Query string o null si la peticion no tiene
+     */
+    String getRawQuery();
+
+    /**
+     * Protocolo de la peticion, por ejemplo HTTP/1.1
+     *
+     * @return Protocolo
+     */
+    String getProtocol();
+
+    /**
+     * Primer valor de un header de la peticion, el nombre no distingue
+     * mayusculas
+     *
+     * @param name Nombre del header
+     * @return Valor o null si la peticion no lo tiene
+     */
+    String getRequestHeader(String name);
+
+    /**
+     * Cuerpo de la peticion
+     *
+     * @return Stream del cuerpo
+     */
+    InputStream getRequestBody();
+
+    /**
+     * Direccion del cliente
+     *
+     * @return Direccion remota
+     */
+    InetSocketAddress getRemoteAddress();
+
+    /**
+     * Establece un header de la respuesta reemplazando los valores previos
+     *
+     * @param name Nombre del header
+     * @param value Valor
+     */
+    void setResponseHeader(String name, String value);
+
+    /**
+     * Agrega un valor a un header de la respuesta
+     *
+     * @param name Nombre del header
+     * @param value Valor
+     */
+    void addResponseHeader(String name, String value);
+
+    /**
+     * Envia el codigo de estado y los headers de la respuesta
+     *
+     * @param status Codigo de estado
+     * @param length Cantidad de bytes del cuerpo, 0 para transferencia chunked
+     * o -1 si la respuesta no tiene cuerpo
+     * @throws IOException Si no se pudo enviar
+     */
+    void sendResponseHeaders(int status, long length) throws IOException;
+
+    /**
+     * Cuerpo de la respuesta, solo puede escribirse despues de
+     * sendResponseHeaders
+     *
+     * @return Stream del cuerpo
+     */
+    OutputStream getResponseBody();
+
+    /**
+     * Escribe una parte de un archivo en el cuerpo de la respuesta, despues
+     * de sendResponseHeaders. Por defecto se copia con transferTo sobre el
+     * stream del cuerpo; los transportes que escriben en el socket pueden
+     * enviarlo sin pasar por el heap
+     *
+     * @param file Archivo abierto para lectura, no se cierra
+     * @param position Posicion del primer byte
+     * @param count Cantidad de bytes
+     * @throws IOException Si no se pudo leer el archivo o enviar la respuesta
+     */
+    default void sendFile(FileChannel file, long position, long count) throws IOException {
+        WritableByteChannel target = Channels.newChannel(getResponseBody());
+        while (count > 0) {
+            long written = file.transferTo(position, count, target);
+            if (written <= 0) {
+                throw new IOException("El archivo termino antes de lo esperado");
+            }
+            position += written;
+            count -= written;
+        }
+    }
+
+    /**
+     * Finaliza el intercambio, cerrando los streams de la peticion y la
+     * respuesta
+     */
+    void close();
+}
@@ -0,0 +1,70 @@
+package com.gaston.git.httpserver;
+
+/**
+ * Evento de una respuesta text/event-stream con nombre, id o tiempo de
+ * reconexion. Las rutas que solo envian datos pueden retornar directamente los
+ * valores, cada uno se envia como un evento sin nombre
+ *
+ * @author gaston
+ */
+public final class ServerSentEvent {
+
+    private final String event;
+    private final Object data;
+    private String id;
+    private long retry = -1;
+
+    public ServerSentEvent(Object data) {
+        this(null, data);
+    }
+
+    /**
+     * Crea un evento con nombre
+     *
+     * @param event Nombre del evento, null para el evento message
+     * @param data Datos, los String se envian tal cual y el resto como json
+     */
+    public ServerSentEvent(String event, Object data) {
+        this.event = event;
+        this.data = data;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Establece el id del evento, el cliente lo envia en Last-Event-ID al
+     * reconectarse
+     *
+     * @param id Id del evento
+     * @return El propio evento
+     */
+    public ServerSentEvent setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public long getRetry() {
+        return retry;
+    }
+
+    /**
+     * Establece el tiempo que el cliente espera antes de reconectarse
+     *
+     * @param retry Milisegundos
+     * @return El propio evento
+     */
+    public ServerSentEvent setRetry(long retry) {
+        this.retry = retry;
+        return this;
+    }
+}
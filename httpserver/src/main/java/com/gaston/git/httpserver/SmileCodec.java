@@ -0,0 +1,28 @@
+package com.gaston.git.httpserver;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+
+/**
+ * Codec binario application/x-jackson-smile. Usa el mismo modelo de datos que
+ * el json pero con una representacion binaria mas compacta y mas barata de
+ * generar y leer
+ *
+ * @author gaston
+ */
+public class SmileCodec extends JsonCodec {
+
+    /**
+     * Media type del formato Smile
+     */
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+    public SmileCodec() {
+        super(new ObjectMapper(new SmileFactory()));
+    }
+
+    @Override
+    public String getMediaType() {
+        return APPLICATION_SMILE;
+    }
+}
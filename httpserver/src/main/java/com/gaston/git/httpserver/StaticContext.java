@@ -0,0 +1,444 @@
+package com.gaston.git.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Contexto que sirve los archivos de un directorio o de un paquete del
+ * classpath, para no necesitar otro servidor delante solo por los archivos
+ * estaticos. Cada path dentro del contexto se resuelve contra la raiz, y un
+ * path vacio o terminado en / se resuelve al archivo indice, por defecto
+ * index.html. Los paths con segmentos .. o que salen de la raiz se responden
+ * 404.
+ *
+ * Los archivos se envian con Last-Modified y aceptan If-Modified-Since y
+ * Range. Los archivos grandes se envian con ServerExchange.sendFile, que con el
+ * NioTransport los mapea en memoria y los escribe en el socket sin copiarlos
+ * al heap. Los archivos chicos se guardan en una cache en memoria limitada en
+ * bytes, que descarta los usados menos recientemente y se revalida con la
+ * fecha de modificacion y el tamaño de cada archivo; los recursos del
+ * classpath no cambian y no se revalidan.
+ *
+ * Si existe un archivo con el mismo nombre mas .gz y el cliente acepta gzip,
+ * se envia ese con Content-Encoding gzip; estas respuestas no se comprimen al
+ * vuelo.
+ *
+ * No se anota con @Path, se registra con WebServer.addContext
+ *
+ * @author gaston
+ */
+public class StaticContext extends WebContext {
+
+    /**
+     * Tamaño maximo por defecto de los archivos que se guardan en memoria
+     */
+    public static final int DEFAULT_MAX_CACHED_FILE_SIZE = 64 * 1024;
+
+    /**
+     * Tamaño total por defecto de la cache en memoria
+     */
+    public static final long DEFAULT_CACHE_SIZE = 16L * 1024 * 1024;
+
+    private static final String DEFAULT_CONTENT_TYPE = MediaType.APPLICATION_OCTET_STREAM;
+
+    private static final Map<String, String> CONTENT_TYPES = new ConcurrentHashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css; charset=UTF-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("mjs", "application/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("json", "application/json; charset=UTF-8");
+        CONTENT_TYPES.put("map", "application/json; charset=UTF-8");
+        CONTENT_TYPES.put("xml", "application/xml; charset=UTF-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=UTF-8");
+        CONTENT_TYPES.put("csv", "text/csv; charset=UTF-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("ttf", "font/ttf");
+        CONTENT_TYPES.put("wasm", "application/wasm");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+        CONTENT_TYPES.put("zip", "application/zip");
+        CONTENT_TYPES.put("gz", "application/gzip");
+        CONTENT_TYPES.put("mp3", "audio/mpeg");
+        CONTENT_TYPES.put("mp4", "video/mp4");
+        CONTENT_TYPES.put("webm", "video/webm");
+    }
+
+    /**
+     * Directorio raiz, null si se sirve desde el classpath
+     */
+    private final File directory;
+
+    /**
+     * Paquete raiz dentro del classpath, con / como separador
+     */
+    private final String resourceRoot;
+
+    private final ClassLoader loader;
+
+    private volatile String indexFile = "index.html";
+
+    private volatile int maxCachedFileSize = DEFAULT_MAX_CACHED_FILE_SIZE;
+
+    private long cacheSize = DEFAULT_CACHE_SIZE;
+
+    private long cachedBytes;
+
+    /**
+     * Archivos en memoria por path relativo, en orden de acceso
+     */
+    private final LinkedHashMap<String, StaticFile> cache = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Crea el contexto sobre un directorio
+     *
+     * @param name Path del contexto
+     * @param directory Directorio raiz
+     */
+    public StaticContext(String name, File directory) {
+        super(name);
+        try {
+            this.directory = directory.getCanonicalFile();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Directorio invalido " + directory, e);
+        }
+        this.resourceRoot = null;
+        this.loader = null;
+    }
+
+    /**
+     * Crea el contexto sobre un paquete del classpath, por ejemplo "public" o
+     * "com/empresa/web"
+     *
+     * @param name Path del contexto
+     * @param resourceRoot Paquete raiz con / como separador
+     * @param loader Class loader donde se buscan los recursos
+     */
+    public StaticContext(String name, String resourceRoot, ClassLoader loader) {
+        super(name);
+        String root = resourceRoot.replace('\\', '/');
+        while (root.startsWith("/")) {
+            root = root.substring(1);
+        }
+        if (!root.isEmpty() && !root.endsWith("/")) {
+            root = root + '/';
+        }
+        this.directory = null;
+        this.resourceRoot = root;
+        this.loader = loader;
+    }
+
+    /**
+     * Resuelve un archivo del contexto
+     *
+     * @param path Path relativo a la raiz, ya decodificado
+     * @param acceptEncoding Header Accept-Encoding de la peticion
+     * @return Archivo a enviar, que responde 404 si no existe
+     */
+    @GET
+    @Path("/{path: .*}")
+    @Produces(MediaType.WILDCARD)
+    public StaticFile file(@PathParam("path") String path, @HeaderParam("Accept-Encoding") String acceptEncoding) {
+        String relative = normalize(path);
+        if (relative == null) {
+            return StaticFile.NOT_FOUND;
+        }
+        if (relative.isEmpty() || relative.endsWith("/")) {
+            relative = relative + indexFile;
+        }
+        StaticFile found = resolve(relative);
+        if (found == null) {
+            return StaticFile.NOT_FOUND;
+        }
+        if (!relative.endsWith(".gz")) {
+            boolean gzip = ResponseCompression.negotiate(acceptEncoding) == ContentEncoding.GZIP;
+            StaticFile compressed = resolve(relative + ".gz");
+            if (compressed != null) {
+                return gzip ? compressed.encodedAs(found, ContentEncoding.GZIP.getToken()) : found.withVary();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Valida el path pedido
+     *
+     * @return Path relativo sin barras iniciales ni repetidas, o null si
+     * contiene segmentos . o .., barras invertidas o caracteres nulos
+     */
+    static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        if (path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) {
+            return null;
+        }
+        StringBuilder relative = new StringBuilder(path.length());
+        for (String segment : Router.segments(path)) {
+            if (segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+            relative.append(segment).append('/');
+        }
+        if (relative.length() > 0 && !path.endsWith("/")) {
+            relative.setLength(relative.length() - 1);
+        }
+        return relative.toString();
+    }
+
+    /**
+     * Busca el archivo en la cache y sino en la raiz
+     *
+     * @param relative Path relativo validado
+     * @return Archivo o null si no existe
+     */
+    private StaticFile resolve(String relative) {
+        return directory != null ? resolveFile(relative) : resolveResource(relative);
+    }
+
+    private StaticFile resolveFile(String relative) {
+        File file = new File(directory, relative);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long length = attributes.size();
+        StaticFile cached = cached(relative);
+        if (cached != null && cached.getLastModified() == lastModified && cached.getLength() == length) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        try {
+            if (!file.getCanonicalPath().startsWith(directory.getPath() + File.separator)) {
+                // Un enlace que sale de la raiz
+                return null;
+            }
+            if (length <= maxCachedFileSize) {
+                byte[] body = Files.readAllBytes(file.toPath());
+                if (body.length == length) {
+                    return store(relative, StaticFile.ofBytes(contentType(relative), lastModified, body));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return StaticFile.ofFile(contentType(relative), lastModified, length, file);
+    }
+
+    /**
+     * Los recursos dentro de un jar no cambian, los que estan en un directorio
+     * se resuelven como archivos para enviarlos sin copiarlos
+     */
+    private StaticFile resolveResource(String relative) {
+        StaticFile cached = cached(relative);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        URL url = loader.getResource(resourceRoot + relative);
+        if (url == null) {
+            return null;
+        }
+        misses.increment();
+        try {
+            if ("file".equals(url.getProtocol())) {
+                File file = new File(url.toURI());
+                if (!file.isFile()) {
+                    return null;
+                }
+                long length = file.length();
+                if (length > maxCachedFileSize) {
+                    return StaticFile.ofFile(contentType(relative), file.lastModified(), length, file);
+                }
+            }
+            URLConnection connection = url.openConnection();
+            try (InputStream in = connection.getInputStream()) {
+                long length = connection.getContentLengthLong();
+                long lastModified = connection.getLastModified();
+                if (length >= 0 && length <= maxCachedFileSize) {
+                    return store(relative, StaticFile.ofBytes(contentType(relative), lastModified,
+                            BodyBinders.readFully(in)));
+                }
+                return length < 0 ? null : StaticFile.ofResource(contentType(relative), lastModified, length, url);
+            }
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            // Un directorio dentro de un jar no se puede leer
+            return null;
+        }
+    }
+
+    private StaticFile cached(String relative) {
+        synchronized (cache) {
+            return cache.get(relative);
+        }
+    }
+
+    /**
+     * Guarda un archivo en la cache descartando los usados menos
+     * recientemente hasta que entre
+     */
+    private StaticFile store(String relative, StaticFile file) {
+        long size = file.getLength();
+        synchronized (cache) {
+            if (size > cacheSize) {
+                return file;
+            }
+            StaticFile previous = cache.put(relative, file);
+            cachedBytes += size - (previous != null ? previous.getLength() : 0);
+            Iterator<StaticFile> eldest = cache.values().iterator();
+            while (cachedBytes > cacheSize && eldest.hasNext()) {
+                StaticFile evicted = eldest.next();
+                if (evicted != file) {
+                    cachedBytes -= evicted.getLength();
+                    eldest.remove();
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Descarta todos los archivos en memoria
+     */
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    private static String contentType(String relative) {
+        int slash = relative.lastIndexOf('/');
+        int dot = relative.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return DEFAULT_CONTENT_TYPE;
+        }
+        String type = CONTENT_TYPES.get(relative.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : DEFAULT_CONTENT_TYPE;
+    }
+
+    /**
+     * Registra el Content-Type de una extension para todos los contextos
+     *
+     * @param extension Extension sin el punto
+     * @param contentType Media type
+     */
+    public static synchronized void setContentType(String extension, String contentType) {
+        CONTENT_TYPES.put(extension.toLowerCase(Locale.ROOT), contentType);
+    }
+
+    public String getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Establece el archivo que se envia para los paths que terminan en /
+     *
+     * @param indexFile Nombre del archivo
+     */
+    public void setIndexFile(String indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public int getMaxCachedFileSize() {
+        return maxCachedFileSize;
+    }
+
+    /**
+     * Establece el tamaño maximo de los archivos que se guardan en memoria,
+     * los mas grandes se envian desde el disco
+     *
+     * @param maxCachedFileSize Cantidad de bytes, 0 para no guardar ninguno
+     */
+    public void setMaxCachedFileSize(int maxCachedFileSize) {
+        this.maxCachedFileSize = maxCachedFileSize;
+    }
+
+    public long getCacheSize() {
+        synchronized (cache) {
+            return cacheSize;
+        }
+    }
+
+    /**
+     * Establece el tamaño total de la cache en memoria
+     *
+     * @param cacheSize Cantidad de bytes
+     */
+    public void setCacheSize(long cacheSize) {
+        synchronized (cache) {
+            this.cacheSize = cacheSize;
+            Iterator<StaticFile> eldest = cache.values().iterator();
+            while (cachedBytes > cacheSize && eldest.hasNext()) {
+                cachedBytes -= eldest.next().getLength();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Bytes guardados en la cache en memoria
+     *
+     * @return Cantidad de bytes
+     */
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * Archivos encontrados en memoria
+     *
+     * @return Cantidad de aciertos
+     */
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Archivos leidos de la raiz por no estar en memoria o haber cambiado
+     *
+     * @return Cantidad de fallos
+     */
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+}
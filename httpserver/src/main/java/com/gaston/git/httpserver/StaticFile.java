@@ -0,0 +1,277 @@
+package com.gaston.git.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import javax.ws.rs.core.HttpHeaders;
+import org.apache.log4j.Logger;
+
+/**
+ * Archivo resuelto por un StaticContext y listo para enviar. El contenido puede
+ * estar en memoria, en un archivo que se envia con ServerExchange.sendFile sin
+ * pasar por el heap, o en un recurso del classpath dentro de un jar que se
+ * copia a medida que se lee.
+ *
+ * Al enviarlo se responde 304 si el If-Modified-Since del cliente no es
+ * anterior a la fecha de modificacion, y 206 con la porcion pedida si la
+ * peticion tiene un header Range de un unico rango; los rangos multiples se
+ * ignoran y se envia el archivo completo
+ *
+ * @author gaston
+ */
+public final class StaticFile {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    /**
+     * Resultado de parseRange para un rango fuera del contenido
+     */
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * Resultado de los paths que no corresponden a ningun archivo, se
+     * responde 404 sin lanzar una excepcion
+     */
+    static final StaticFile NOT_FOUND = new StaticFile(null, null, false, 0, 0, null, null, null);
+
+    private final String contentType;
+    private final String encoding;
+    private final boolean vary;
+    private final long lastModified;
+    private final long length;
+    private final byte[] body;
+    private final File file;
+    private final URL resource;
+
+    private StaticFile(String contentType, String encoding, boolean vary, long lastModified, long length,
+            byte[] body, File file, URL resource) {
+        this.contentType = contentType;
+        this.encoding = encoding;
+        this.vary = vary;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.body = body;
+        this.file = file;
+        this.resource = resource;
+    }
+
+    static StaticFile ofBytes(String contentType, long lastModified, byte[] body) {
+        return new StaticFile(contentType, null, false, lastModified, body.length, body, null, null);
+    }
+
+    static StaticFile ofFile(String contentType, long lastModified, long length, File file) {
+        return new StaticFile(contentType, null, false, lastModified, length, null, file, null);
+    }
+
+    static StaticFile ofResource(String contentType, long lastModified, long length, URL resource) {
+        return new StaticFile(contentType, null, false, lastModified, length, null, null, resource);
+    }
+
+    /**
+     * Este contenido enviado como el archivo original con un
+     * Content-Encoding, para los archivos .gz que lo acompañan
+     *
+     * @param original Archivo sin comprimir
+     * @param encoding Codificacion del contenido
+     * @return Archivo con el Content-Type del original y la codificacion
+     */
+    StaticFile encodedAs(StaticFile original, String encoding) {
+        return new StaticFile(original.contentType, encoding, true, lastModified, length, body, file, resource);
+    }
+
+    /**
+     * El mismo archivo indicando en Vary que la respuesta depende del
+     * Accept-Encoding, porque existe una version comprimida
+     *
+     * @return Archivo con Vary
+     */
+    StaticFile withVary() {
+        return vary ? this : new StaticFile(contentType, encoding, true, lastModified, length, body, file, resource);
+    }
+
+    /**
+     * Fecha de modificacion en milisegundos, 0 si se desconoce
+     *
+     * @return Fecha de modificacion
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Tamaño del contenido en bytes
+     *
+     * @return Cantidad de bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Envia el archivo como respuesta de la peticion
+     *
+     * @param he Informacion de la peticion web
+     * @throws IOException Si no se pudo enviar la respuesta
+     */
+    void send(ServerExchange he) throws IOException {
+        if (this == NOT_FOUND) {
+            ErrorResponse.NOT_FOUND.send(he);
+            return;
+        }
+        he.setResponseHeader(HttpHeaders.CONTENT_TYPE, contentType);
+        he.setResponseHeader("Accept-Ranges", "bytes");
+        if (encoding != null) {
+            he.setResponseHeader("Content-Encoding", encoding);
+        }
+        if (vary) {
+            he.setResponseHeader("Vary", "Accept-Encoding");
+        }
+        String modified = null;
+        if (lastModified > 0) {
+            modified = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+            he.setResponseHeader(HttpHeaders.LAST_MODIFIED, modified);
+            long since = parseDate(he.getRequestHeader(HttpHeaders.IF_MODIFIED_SINCE));
+            if (since >= 0 && lastModified / 1000 <= since / 1000) {
+                he.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        long start = 0;
+        long count = length;
+        int status = 200;
+        String range = he.getRequestHeader("Range");
+        String ifRange = he.getRequestHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(modified))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == UNSATISFIABLE) {
+                he.setResponseHeader("Content-Range", "bytes */" + length);
+                he.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                status = 206;
+                he.setResponseHeader("Content-Range", "bytes " + bounds[0] + '-' + bounds[1] + '/' + length);
+            }
+        }
+        he.sendResponseHeaders(status, count == 0 ? -1 : count);
+        if (count == 0) {
+            return;
+        }
+        try {
+            if (body != null) {
+                he.getResponseBody().write(body, (int) start, (int) count);
+            } else if (file != null) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    he.sendFile(channel, start, count);
+                }
+            } else {
+                copy(he.getResponseBody(), start, count);
+            }
+        } catch (IOException e) {
+            // Los headers ya se enviaron, la respuesta queda incompleta
+            logger.debug("Error enviando el archivo " + (file != null ? file : resource), e);
+        }
+    }
+
+    private void copy(OutputStream out, long start, long count) throws IOException {
+        try (InputStream in = resource.openStream()) {
+            long skipped = 0;
+            while (skipped < start) {
+                long n = in.skip(start - skipped);
+                if (n <= 0) {
+                    throw new IOException("El recurso termino antes de lo esperado");
+                }
+                skipped += n;
+            }
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            while (count > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    throw new IOException("El recurso termino antes de lo esperado");
+                }
+                out.write(buffer, 0, read);
+                count -= read;
+            }
+        }
+    }
+
+    /**
+     * Interpreta un header Range de un unico rango de bytes
+     *
+     * @param range Valor del header
+     * @param length Tamaño del contenido
+     * @return Primer y ultimo byte del rango, null si el header se ignora o
+     * UNSATISFIABLE si el rango esta fuera del contenido
+     */
+    static long[] parseRange(String range, long length) {
+        range = range.trim();
+        if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Sufijo: los ultimos n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                    return null;
+                }
+                if (start >= length) {
+                    return UNSATISFIABLE;
+                }
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fecha de un header en formato http
+     *
+     * @return Milisegundos, o -1 si no hay fecha o es invalida
+     */
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.gaston.git.httpserver;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indica cada cuantos elementos se envia al cliente lo escrito de las rutas
+ * que retornan un Stream o un Iterator, o de todos los metodos de un contexto
+ * si se anota la clase. Sin esta anotacion se usa la cantidad por defecto del
+ * codec: 1 para text/event-stream y lotes mas grandes para el resto
+ *
+ * @author gaston
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface StreamBatch {
+
+    /**
+     * Cantidad de elementos entre cada envio
+     *
+     * @return Cantidad de elementos
+     */
+    int value();
+}
@@ -0,0 +1,50 @@
+package com.gaston.git.httpserver;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Codec que ademas de un valor completo puede escribir una secuencia de
+ * valores de a uno, para las rutas que retornan un Stream o un Iterator. La
+ * respuesta se envia con transferencia chunked a medida que se generan los
+ * elementos, sin mantener la secuencia en memoria
+ *
+ * @author gaston
+ */
+public interface StreamingCodec extends Codec {
+
+    /**
+     * Comienza la escritura de una secuencia
+     *
+     * @param out Stream de la respuesta, no debe cerrarse
+     * @return Escritor de los elementos de esta respuesta
+     * @throws IOException Si falla la escritura
+     */
+    ElementWriter open(OutputStream out) throws IOException;
+
+    /**
+     * Cantidad de elementos que se escriben entre cada envio al cliente,
+     * cuando la ruta no indica una con @StreamBatch
+     *
+     * @return Cantidad de elementos
+     */
+    int getBatchSize();
+
+    /**
+     * Escritor de los elementos de una secuencia. No es thread safe, cada
+     * respuesta tiene el suyo. Al cerrarlo se termina el formato pero no se
+     * cierra el stream de la respuesta
+     */
+    interface ElementWriter extends Flushable, Closeable {
+
+        /**
+         * Escribe un elemento
+         *
+         * @param value Elemento de la secuencia
+         * @throws IOException Si falla la escritura
+         */
+        void write(Object value) throws IOException;
+    }
+}
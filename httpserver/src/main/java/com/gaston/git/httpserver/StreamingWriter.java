@@ -0,0 +1,82 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import org.apache.log4j.Logger;
+
+/**
+ * Escritura de las respuestas de las rutas que retornan un Stream o un
+ * Iterator. La respuesta se compromete como chunked antes del primer elemento
+ * y cada lote se envia al cliente apenas se completa, por lo que una secuencia
+ * de cualquier largo se escribe con el buffer de la respuesta como unica
+ * memoria. El Stream se cierra al terminar, tambien si falla la escritura o el
+ * cliente se desconecta
+ *
+ * @author gaston
+ */
+final class StreamingWriter {
+
+    private static final Logger logger = Logger.getLogger("webServerLogger");
+
+    private StreamingWriter() {
+    }
+
+    /**
+     * Indica si el valor retornado por una ruta se escribe como secuencia
+     *
+     * @param value Valor retornado
+     * @return true si es un Stream o un Iterator
+     */
+    static boolean isStreaming(Object value) {
+        return value instanceof Stream || value instanceof Iterator;
+    }
+
+    /**
+     * Escribe una secuencia sobre la respuesta, sin cerrarla
+     *
+     * @param value Stream o Iterator
+     * @param codec Codec de la respuesta
+     * @param out Stream de la respuesta
+     * @param batchSize Elementos entre cada envio, negativo para usar el del
+     * codec
+     * @throws IOException Si falla la escritura
+     */
+    static void write(Object value, Codec codec, ResponseOutputStream out, int batchSize) throws IOException {
+        Stream<?> stream = value instanceof Stream ? (Stream<?>) value : null;
+        Iterator<?> iterator = stream != null ? stream.iterator() : (Iterator<?>) value;
+        try {
+            if (!(codec instanceof StreamingCodec)) {
+                // Jackson recorre los Iterator de a un elemento, el resto de
+                // los codecs decide como escribirlos
+                codec.write(iterator, out);
+                return;
+            }
+            StreamingCodec streaming = (StreamingCodec) codec;
+            int batch = batchSize > 0 ? batchSize : Math.max(1, streaming.getBatchSize());
+            out.commit();
+            StreamingCodec.ElementWriter writer = streaming.open(out);
+            int pending = 0;
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+                if (++pending == batch) {
+                    writer.flush();
+                    pending = 0;
+                }
+            }
+            writer.close();
+        } finally {
+            close(stream != null ? stream : iterator);
+        }
+    }
+
+    private static void close(Object source) {
+        if (source instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) source).close();
+            } catch (Exception e) {
+                logger.warn("Error cerrando la secuencia de la respuesta", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Codec text/plain, escribe la representacion String del valor en UTF-8. Los
+ * Stream e Iterator se escriben con un elemento por linea
+ *
+ * @author gaston
+ */
+public class TextCodec implements StreamingCodec {
+
+    @Override
+    public String getMediaType() {
+        return MediaType.TEXT_PLAIN;
+    }
+
+    @Override
+    public void write(Object value, OutputStream out) throws IOException {
+        if (value != null) {
+            out.write(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public ElementWriter open(final OutputStream out) {
+        return new ElementWriter() {
+            @Override
+            public void write(Object value) throws IOException {
+                TextCodec.this.write(value, out);
+                out.write('\n');
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+                // Cada linea ya esta completa
+            }
+        };
+    }
+
+    @Override
+    public int getBatchSize() {
+        return JsonCodec.DEFAULT_BATCH_SIZE;
+    }
+}
@@ -0,0 +1,56 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Transporte http sobre el que el WebServer publica sus contextos. Se encarga
+ * de aceptar conexiones, interpretar las peticiones y entregarlas al
+ * ContextHandler cuyo nombre es el prefijo mas largo del path
+ *
+ * @author gaston
+ */
+public interface Transport {
+
+    /**
+     * Abre el puerto indicado, todavia sin atender peticiones
+     *
+     * @param address Direccion donde escuchar
+     * @param executor Executor donde se ejecutan los ContextHandler
+     * @throws IOException Si no se pudo abrir el puerto
+     */
+    void bind(InetSocketAddress address, ExecutorService executor) throws IOException;
+
+    /**
+     * Publica un contexto
+     *
+     * @param path Path del contexto
+     * @param handler Handler del contexto
+     */
+    void createContext(String path, ContextHandler handler);
+
+    /**
+     * Elimina un contexto publicado
+     *
+     * @param path Path del contexto
+     */
+    void removeContext(String path);
+
+    /**
+     * Comienza a atender peticiones
+     */
+    void start();
+
+    /**
+     * Cierra el puerto y las conexiones abiertas
+     */
+    void stop();
+
+    /**
+     * Direccion donde escucha el transporte
+     *
+     * @return Direccion local
+     */
+    InetSocketAddress getAddress();
+}
@@ -5,22 +5,38 @@ import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.ws.rs.Path;
 
 import org.apache.log4j.Logger;
 
-
-import com.sun.net.httpserver.HttpServer;
-
 /**
  * Esta clase es la encargada de levantar el servidor http en el puerto
  * indicado, y creando los contextos dinamicamente en base a las clases que
  * estan anotadas con el annotation @Path.Por defecto busca en el package y sus
  * packages donde se encuentran estas clases
  *
+ * Por defecto las conexiones se atienden con el servidor http del jdk; con
+ * setTransport puede usarse otro transporte, como el NioTransport
+ *
+ * Ademas de los contextos escaneados se registra un MetricsContext en /metrics
+ * con las metricas de cada ruta en formato Prometheus, y un BatchContext en
+ * /_batch que atiende varias peticiones en un solo viaje. Con addContext pueden
+ * registrarse contextos que no se escanean, como un StaticContext que sirve
+ * los archivos de un directorio. Con setAccessLog las
+ * peticiones se registran en un access log que se escribe fuera de los hilos
+ * que las atienden
+ *
+ * Las rutas anotadas con @Bulkhead se atienden en pools con nombre que el
+ * servidor crea al registrar sus contextos y cierra en stop
+ *
  * @author gaston
  */
 public final class WebServer {
@@ -28,9 +44,10 @@ public final class WebServer {
     private static final Logger logger = Logger.getLogger("webServerLogger");
 
     /**
-     * Instancia del serverWeb
+     * Transporte http sobre el que se publican los contextos, por defecto el
+     * servidor del jdk
      */
-    private HttpServer server;
+    private Transport transport = new JdkTransport();
 
     /**
      * Puerto donde inicia el servidor
@@ -53,6 +70,76 @@ public final class WebServer {
      */
     private List<WebContext> contexts;
 
+    /**
+     * Tamaño maximo del cuerpo de las peticiones que se aplica a todos los
+     * contextos, si es negativo cada contexto usa su valor por defecto
+     */
+    private long maxBodySize = -1;
+
+    /**
+     * Tiempo maximo de espera de las rutas asincronicas que se aplica a todos
+     * los contextos, si es negativo cada contexto usa su valor por defecto
+     */
+    private long asyncTimeout = -1;
+
+    /**
+     * Tamaño por defecto de la cola del modo BOUNDED
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Estrategia de ejecucion de las peticiones
+     */
+    private ExecutionMode executionMode = ExecutionMode.FIXED;
+
+    /**
+     * Cantidad maxima de peticiones en espera en el modo BOUNDED
+     */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * Segundos indicados en el header Retry-After de las peticiones rechazadas
+     * en el modo BOUNDED
+     */
+    private int retryAfter = 1;
+
+    /**
+     * Executor que atiende las peticiones
+     */
+    private ExecutorService executor;
+
+    /**
+     * Path del contexto de metricas, null para no registrarlo
+     */
+    private String metricsPath = "/metrics";
+
+    /**
+     * Path del contexto de lotes, null para no registrarlo
+     */
+    private String batchPath = "/_batch";
+
+    /**
+     * Cantidad maxima de peticiones de un lote
+     */
+    private int maxBatchSize = BatchContext.DEFAULT_MAX_REQUESTS;
+
+    /**
+     * Access log de todos los contextos, null para no registrar las
+     * peticiones
+     */
+    private AccessLog accessLog;
+
+    /**
+     * Contextos agregados con addContext antes de init
+     */
+    private final List<WebContext> pendingContexts = new ArrayList<>();
+
+    /**
+     * Pools de las rutas con @Bulkhead por nombre, se crean al registrar el
+     * primer contexto que los usa
+     */
+    private final Map<String, BulkheadPool> bulkheads = new LinkedHashMap<>();
+
     public WebServer() {
     }
 
@@ -68,30 +155,86 @@ public final class WebServer {
      * de los paquetes y subpaquetes segun el pquete base indicado, y cada clase
      * que se encuentre y tenga la annotacion Path ademas de extender de WebContext
      * se agrega como conterxto web
+     *
+     * Si el proyecto se compilo con el RouteIndexProcessor los contextos se
+     * leen del indice generado, lo que ademas permite ejecutar la aplicacion
+     * desde un jar. Si el paquete base esta en un directorio se recorre
+     * igualmente y se agregan los contextos que no estan en el indice, por
+     * ejemplo clases compiladas sin el procesador; las clases indexadas no se
+     * vuelven a cargar
      */
     public void init() {
         try {
-            server = HttpServer.create(new InetSocketAddress(port), 0);
-            server.setExecutor(Executors.newFixedThreadPool(poolSize));
+            if (accessLog != null) {
+                accessLog.start();
+            }
+            executor = RequestExecutors.create(executionMode, poolSize, queueCapacity, retryAfter);
+            transport.bind(new InetSocketAddress(port), executor);
             contexts = Collections.synchronizedList(new ArrayList<WebContext>());
             packageBase = packageBase.replace("/", ".");
-            URL resource = this.getClass().getClassLoader().getResource(packageBase.replace(".", "/"));        
-            List<Class> webContextClazzes = scanningAnnotatedClasses(new File(resource.getFile().replace("%20", " ")),
-                    packageBase);            
+            Set<String> indexed = new LinkedHashSet<>(RouteIndex.load(getClass().getClassLoader())
+                    .getContexts(packageBase));
+            List<Class> webContextClazzes = indexedClasses(indexed);
+            URL resource = this.getClass().getClassLoader().getResource(packageBase.replace(".", "/"));
+            if (resource != null && "file".equals(resource.getProtocol())) {
+                List<Class> scanned = scanningAnnotatedClasses(new File(resource.getFile().replace("%20", " ")),
+                        packageBase, indexed);
+                if (!scanned.isEmpty()) {
+                    logger.debug("Contextos sin indexar obtenidos del directorio " + scanned);
+                    webContextClazzes.addAll(scanned);
+                }
+            }
             for (Class contextClass : webContextClazzes) {
                 this.addWebContext((WebContext) contextClass.getConstructor(String.class).newInstance(((Path) contextClass.getAnnotation(Path.class)).value()));
          
             }
-            server.start();
-            logger.debug("Server iniciado en puerto ["+ port +"]");
-            logger.debug("Server Adress ["+ server.getAddress() +"]");
+            synchronized (pendingContexts) {
+                for (WebContext context : pendingContexts) {
+                    this.addWebContext(context);
+                }
+                pendingContexts.clear();
+            }
+            if (metricsPath != null && !hasContext(metricsPath)) {
+                this.addWebContext(new MetricsContext(metricsPath, this));
+            }
+            if (batchPath != null && !hasContext(batchPath)) {
+                BatchContext batch = new BatchContext(batchPath, this);
+                batch.setMaxRequests(maxBatchSize);
+                this.addWebContext(batch);
+            }
+            transport.start();
+            logger.debug("Server iniciado en puerto ["+ port +"] modo [" + executionMode + "]");
+            logger.debug("Server Adress ["+ transport.getAddress() +"]");
         } catch (Exception ex) {
             logger.error("Error iniciando server web", ex);
         }
 
     }
  
-    private List<Class> scanningAnnotatedClasses(File directory, String packageName) {    	
+    /**
+     * Carga los contextos del paquete base obtenidos del RouteIndex generado
+     * al compilar
+     * @param names Nombres de las clases indexadas
+     * @return Clases de contexto, vacio si no hay contextos indexados
+     */
+    private List<Class> indexedClasses(Set<String> names) {
+        ClassLoader loader = this.getClass().getClassLoader();
+        List<Class> classes = new ArrayList<>();
+        if (names.isEmpty()) {
+            return classes;
+        }
+        for (String name : names) {
+            try {
+                classes.add(Class.forName(name, true, loader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                logger.error("La clase indexada " + name + " no existe", e);
+            }
+        }
+        logger.debug("Contextos obtenidos del indice de rutas " + names);
+        return classes;
+    }
+
+    private List<Class> scanningAnnotatedClasses(File directory, String packageName, Set<String> indexed) {    	
         List<Class> classes = new ArrayList<>();
         if (!directory.exists()) {            
             return classes;
@@ -99,12 +242,15 @@ public final class WebServer {
         File[] files = directory.listFiles();
         for (File file : files) {
             if (file.isDirectory()) { 
-                classes.addAll(scanningAnnotatedClasses(file, packageName + "." + file.getName()));
+                classes.addAll(scanningAnnotatedClasses(file, packageName + "." + file.getName(), indexed));
             } else if (file.getName().endsWith(".class")) {
+                //-6 para restar .class
+                String className = packageName + '.' + file.getName().substring(0, file.getName().length() - 6);
+                if (indexed.contains(className)) {
+                    continue;
+                }
                 try {
-                    //-6 para restar .class
-                    Class clazz = Class.forName(packageName + '.'
-                            + file.getName().substring(0, file.getName().length() - 6));
+                    Class clazz = Class.forName(className);
                     if (clazz.isAnnotationPresent(Path.class) && WebContext.class.isAssignableFrom(clazz)) {
                         classes.add(clazz);
                     }
@@ -121,18 +267,80 @@ public final class WebServer {
      * @param context ContextoWeb 
      */
     private void addWebContext(WebContext context) {
+        if (maxBodySize >= 0) {
+            context.setMaxBodySize(maxBodySize);
+        }
+        if (asyncTimeout >= 0) {
+            context.setAsyncTimeout(asyncTimeout);
+        }
+        if (accessLog != null) {
+            context.setAccessLog(accessLog);
+        }
+        for (HttpRoute route : context.getRoutes()) {
+            if (route.getBulkhead() != null) {
+                route.setBulkheadPool(bulkheadPool(route.getBulkhead()));
+            }
+        }
         contexts.add(context);
-        server.createContext(context.getName(), context);
+        transport.createContext(context.getName(), context);
         logger.debug("Contexts["+context.getName()+" "+ context +"]");
     }
 
+    /**
+     * Agrega un contexto creado por la aplicacion, por ejemplo un
+     * StaticContext. Si el servidor no se inicio se registra en init junto
+     * con los contextos escaneados
+     * @param context Contexto web
+     */
+    public void addContext(WebContext context) {
+        synchronized (pendingContexts) {
+            if (contexts == null) {
+                pendingContexts.add(context);
+                return;
+            }
+        }
+        this.addWebContext(context);
+    }
+
+    /**
+     * Pool de un @Bulkhead, lo crea si es el primero con ese nombre. Las rutas
+     * que comparten el nombre usan el tamaño y la cola del primero
+     */
+    private BulkheadPool bulkheadPool(Bulkhead bulkhead) {
+        synchronized (bulkheads) {
+            BulkheadPool pool = bulkheads.get(bulkhead.pool());
+            if (pool == null) {
+                pool = BulkheadPool.of(bulkhead, retryAfter);
+                bulkheads.put(bulkhead.pool(), pool);
+                logger.debug("Bulkhead [" + bulkhead.pool() + "] hilos [" + bulkhead.size() + "] cola ["
+                        + bulkhead.queue() + "]");
+            } else if (pool.getSize() != bulkhead.size() || pool.getQueueCapacity() != bulkhead.queue()) {
+                logger.warn("El bulkhead " + bulkhead.pool() + " ya existe con " + pool.getSize() + " hilos y cola "
+                        + pool.getQueueCapacity() + ", se ignora la configuracion " + bulkhead.size() + "/"
+                        + bulkhead.queue());
+            }
+            return pool;
+        }
+    }
+
+    private boolean hasContext(String name) {
+        synchronized (contexts) {
+            for (WebContext context : contexts) {
+                if (context.getName().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Elimina el contexto web indicado
      * @param context  COntexto a eliminar
      */
     private void removeWebContext(WebContext context) {
         contexts.remove(context);
-        server.removeContext(context.getName());
+        transport.removeContext(context.getName());
     }
     
     /**
@@ -175,7 +383,193 @@ public final class WebServer {
         this.packageBase = packageBase;
     }
 
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Establece el tamaño maximo del cuerpo de las peticiones para todos los
+     * contextos, debe indicarse antes de init
+     * @param maxBodySize Cantidad de bytes
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Establece el tiempo maximo de espera en milisegundos de las rutas
+     * asincronicas sin @AsyncTimeout para todos los contextos, debe indicarse
+     * antes de init
+     * @param asyncTimeout Milisegundos, 0 sin limite
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Establece la estrategia de ejecucion de las peticiones, debe indicarse
+     * antes de init
+     * @param executionMode Modo de ejecucion
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Establece la cantidad maxima de peticiones en espera del modo BOUNDED,
+     * debe indicarse antes de init
+     * @param queueCapacity Cantidad de peticiones
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Establece los segundos del header Retry-After de las peticiones
+     * rechazadas en el modo BOUNDED, debe indicarse antes de init
+     * @param retryAfter Cantidad de segundos
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Establece el transporte http del servidor, debe indicarse antes de init
+     * @param transport Transporte, por ejemplo un NioTransport
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Establece el path del contexto de metricas en formato Prometheus, debe
+     * indicarse antes de init. Si un contexto escaneado ya usa ese path no se
+     * registra
+     * @param metricsPath Path del contexto o null para no exponer metricas
+     */
+    public void setMetricsPath(String metricsPath) {
+        this.metricsPath = metricsPath;
+    }
+
+    public String getBatchPath() {
+        return batchPath;
+    }
+
+    /**
+     * Establece el path del contexto de lotes, debe indicarse antes de init.
+     * Si un contexto escaneado ya usa ese path no se registra
+     * @param batchPath Path del contexto o null para no atender lotes
+     */
+    public void setBatchPath(String batchPath) {
+        this.batchPath = batchPath;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Establece la cantidad maxima de peticiones de un lote, debe indicarse
+     * antes de init
+     * @param maxBatchSize Cantidad de peticiones
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Establece el access log donde se registran las peticiones de todos los
+     * contextos, debe indicarse antes de init. El servidor lo inicia en init y
+     * lo cierra en stop
+     * @param accessLog Access log o null para no registrar las peticiones
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Cantidad de hilos del pool atendiendo peticiones. Con hilos virtuales
+     * no hay pool, y se informa la cantidad de peticiones en curso
+     * @return Cantidad de hilos, o -1 si el servidor no se inicio
+     */
+    public int getActiveThreads() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return executor != null ? (int) ContextHandler.getInFlightRequests() : -1;
+    }
+
+    /**
+     * Cantidad de peticiones esperando en la cola del pool
+     * @return Cantidad de peticiones, o -1 si el executor no tiene cola
+     */
+    public int getQueueDepth() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return -1;
+    }
+
+    /**
+     * Executor que atiende las peticiones, el BatchContext ejecuta en el las
+     * peticiones de cada lote
+     * @return Executor, o null si el servidor no se inicio
+     */
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Pools creados para las rutas con @Bulkhead
+     * @return Pools en el orden en que se crearon
+     */
+    public List<BulkheadPool> getBulkheads() {
+        synchronized (bulkheads) {
+            return new ArrayList<>(bulkheads.values());
+        }
+    }
+
     public void stop() {
-        server.stop(0);
+        transport.stop();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (bulkheads) {
+            for (BulkheadPool pool : bulkheads.values()) {
+                pool.shutdown();
+            }
+            bulkheads.clear();
+        }
+        if (accessLog != null) {
+            accessLog.close();
+        }
     }
 }
@@ -0,0 +1,52 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.ws.rs.core.MediaType;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Codec application/xml. Los serializadores de Jackson recorren el objeto una
+ * sola vez y escriben sobre un XmlGenerator, que traduce cada evento a xml
+ * directamente sobre el stream de la respuesta, sin pasar por JSONObject ni
+ * por un String intermedio. Los Stream e Iterator se escriben como una lista
+ * que se envia a medida que se generan sus elementos
+ *
+ * @author gaston
+ */
+public class XmlCodec implements StreamingCodec {
+
+    private final ObjectMapper mapper;
+
+    public XmlCodec() {
+        this(new ObjectMapper(new JsonFactory()));
+    }
+
+    public XmlCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        DtoModule.register(this.mapper);
+    }
+
+    @Override
+    public String getMediaType() {
+        return MediaType.APPLICATION_XML;
+    }
+
+    @Override
+    public void write(Object value, OutputStream out) throws IOException {
+        XmlGenerator generator = new XmlGenerator(out, mapper);
+        mapper.writeValue(generator, value);
+        generator.close();
+    }
+
+    @Override
+    public ElementWriter open(OutputStream out) throws IOException {
+        return new GeneratorElementWriter(mapper, new XmlGenerator(out, mapper), true);
+    }
+
+    @Override
+    public int getBatchSize() {
+        return JsonCodec.DEFAULT_BATCH_SIZE;
+    }
+}
@@ -0,0 +1,406 @@
+package com.gaston.git.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.codehaus.jackson.Base64Variant;
+import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.ObjectCodec;
+import org.codehaus.jackson.impl.JsonGeneratorBase;
+
+/**
+ * Generador de Jackson que en lugar de json escribe xml a medida que recibe los
+ * eventos. Codifica el texto en UTF-8 directamente sobre un buffer de bytes
+ * que se vuelca al stream de salida, sin pasar por un Writer.
+ *
+ * El valor raiz se escribe dentro del elemento response. Cada atributo de un
+ * objeto es un elemento con su nombre, y los elementos de una lista se
+ * escriben repitiendo el nombre del atributo que la contiene, o item si la
+ * lista no pertenece a un atributo. Los valores null se escriben como
+ * elementos vacios
+ *
+ * @author gaston
+ */
+public class XmlGenerator extends JsonGeneratorBase {
+
+    /**
+     * Nombre del elemento raiz del documento
+     */
+    public static final String ROOT_ELEMENT = "response";
+
+    /**
+     * Nombre de los elementos de una lista que no pertenece a un atributo
+     */
+    public static final String ITEM_ELEMENT = "item";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int count;
+
+    /**
+     * Pila de nombres de los elementos abiertos
+     */
+    private final Deque<String> open = new ArrayDeque<>();
+
+    /**
+     * Pila de estructuras abiertas, cada una indica el nombre de elemento que
+     * se usa para sus valores
+     */
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    /**
+     * Nombre del proximo valor dentro de un objeto
+     */
+    private String fieldName;
+
+    public XmlGenerator(OutputStream out, ObjectCodec codec) throws IOException {
+        super(0, codec);
+        this.out = out;
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    }
+
+    @Override
+    public void writeStartArray() throws IOException {
+        String name = nextElementName();
+        Frame parent = frames.peek();
+        if (parent == null || parent.array) {
+            // La lista necesita un elemento propio que la contenga
+            startElement(name);
+            frames.push(new Frame(true, ITEM_ELEMENT, true));
+        } else {
+            frames.push(new Frame(true, name, false));
+        }
+    }
+
+    @Override
+    public void writeEndArray() throws IOException {
+        Frame frame = frames.pop();
+        if (frame.wrapped) {
+            endElement();
+        }
+    }
+
+    @Override
+    public void writeStartObject() throws IOException {
+        startElement(nextElementName());
+        frames.push(new Frame(false, null, true));
+    }
+
+    @Override
+    public void writeEndObject() throws IOException {
+        frames.pop();
+        endElement();
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        fieldName = name;
+    }
+
+    @Override
+    public void writeString(String text) throws IOException {
+        writeSimple(text);
+    }
+
+    @Override
+    public void writeString(char[] text, int offset, int len) throws IOException {
+        writeSimple(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException {
+        writeSimple(new String(text, offset, length, "UTF-8"));
+    }
+
+    @Override
+    public void writeUTF8String(byte[] text, int offset, int length) throws IOException {
+        writeSimple(new String(text, offset, length, "UTF-8"));
+    }
+
+    @Override
+    public void writeRaw(String text) throws IOException {
+        characters(text);
+    }
+
+    @Override
+    public void writeRaw(String text, int offset, int len) throws IOException {
+        characters(text.substring(offset, offset + len));
+    }
+
+    @Override
+    public void writeRaw(char[] text, int offset, int len) throws IOException {
+        characters(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeRaw(char c) throws IOException {
+        characters(String.valueOf(c));
+    }
+
+    @Override
+    public void writeBinary(Base64Variant b64variant, byte[] data, int offset, int len) throws IOException {
+        writeSimple(b64variant.encode(offset == 0 && len == data.length ? data : copy(data, offset, len)));
+    }
+
+    @Override
+    public void writeNumber(int v) throws IOException {
+        writeSimple(Integer.toString(v));
+    }
+
+    @Override
+    public void writeNumber(long v) throws IOException {
+        writeSimple(Long.toString(v));
+    }
+
+    @Override
+    public void writeNumber(BigInteger v) throws IOException {
+        writeSimple(v == null ? null : v.toString());
+    }
+
+    @Override
+    public void writeNumber(double d) throws IOException {
+        writeSimple(Double.toString(d));
+    }
+
+    @Override
+    public void writeNumber(float f) throws IOException {
+        writeSimple(Float.toString(f));
+    }
+
+    @Override
+    public void writeNumber(BigDecimal dec) throws IOException {
+        writeSimple(dec == null ? null : dec.toString());
+    }
+
+    @Override
+    public void writeNumber(String encodedValue) throws IOException {
+        writeSimple(encodedValue);
+    }
+
+    @Override
+    public void writeBoolean(boolean state) throws IOException {
+        writeSimple(state ? "true" : "false");
+    }
+
+    @Override
+    public void writeNull() throws IOException {
+        writeSimple(null);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        super.close();
+        while (!open.isEmpty()) {
+            endElement();
+        }
+        flushBuffer();
+    }
+
+    @Override
+    protected void _releaseBuffers() {
+    }
+
+    @Override
+    protected void _verifyValueWrite(String typeMsg) throws IOException, JsonGenerationException {
+    }
+
+    /**
+     * Escribe un valor simple como un elemento con su texto
+     */
+    private void writeSimple(String text) throws IOException {
+        String name = nextElementName();
+        write('<');
+        write(name);
+        if (text == null) {
+            write("/>");
+        } else {
+            write('>');
+            characters(text);
+            write("</");
+            write(name);
+            write('>');
+        }
+    }
+
+    /**
+     * Nombre del elemento del proximo valor segun la estructura que lo
+     * contiene
+     */
+    private String nextElementName() {
+        Frame frame = frames.peek();
+        if (frame == null) {
+            return ROOT_ELEMENT;
+        } else if (frame.array) {
+            return frame.itemName;
+        }
+        String name = elementName(fieldName);
+        fieldName = null;
+        return name;
+    }
+
+    private void startElement(String name) throws IOException {
+        write('<');
+        write(name);
+        write('>');
+        open.push(name);
+    }
+
+    private void endElement() throws IOException {
+        write("</");
+        write(open.pop());
+        write('>');
+    }
+
+    /**
+     * Escribe texto escapando los caracteres reservados de xml. Los caracteres
+     * de control que xml no admite se descartan
+     */
+    private void characters(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                write("&lt;");
+            } else if (c == '>') {
+                write("&gt;");
+            } else if (c == '&') {
+                write("&amp;");
+            } else if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                if (c < 0x80) {
+                    if (count == BUFFER_SIZE) {
+                        flushBuffer();
+                    }
+                    buffer[count++] = (byte) c;
+                } else {
+                    i = writeUtf8(text, i);
+                }
+            }
+        }
+    }
+
+    private void write(char c) throws IOException {
+        if (count == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) c;
+    }
+
+    /**
+     * Escribe texto sin escapar, se usa para los nombres de los elementos
+     */
+    private void write(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (count == BUFFER_SIZE) {
+                    flushBuffer();
+                }
+                buffer[count++] = (byte) c;
+            } else {
+                i = writeUtf8(text, i);
+            }
+        }
+    }
+
+    /**
+     * Codifica en UTF-8 el caracter no ascii de la posicion indicada
+     *
+     * @return Posicion del ultimo caracter consumido
+     */
+    private int writeUtf8(String text, int index) throws IOException {
+        if (count > BUFFER_SIZE - 4) {
+            flushBuffer();
+        }
+        char c = text.charAt(index);
+        int codePoint = c;
+        if (Character.isHighSurrogate(c) && index + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(index + 1))) {
+            codePoint = Character.toCodePoint(c, text.charAt(++index));
+        } else if (Character.isSurrogate(c)) {
+            codePoint = '?';
+        }
+        if (codePoint < 0x80) {
+            buffer[count++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (codePoint >> 6));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            buffer[count++] = (byte) (0xE0 | (codePoint >> 12));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        return index;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Convierte el nombre de un atributo en un nombre de elemento xml valido
+     */
+    static String elementName(String name) {
+        if (name == null || name.isEmpty()) {
+            return ITEM_ELEMENT;
+        }
+        StringBuilder result = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = i == 0
+                    ? Character.isLetter(c) || c == '_'
+                    : Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+            if (!valid && result == null) {
+                result = new StringBuilder(name.length() + 1);
+                result.append(name, 0, i);
+            }
+            if (result != null) {
+                result.append(valid ? c : '_');
+            }
+        }
+        return result == null ? name : result.toString();
+    }
+
+    private static byte[] copy(byte[] data, int offset, int len) {
+        byte[] result = new byte[len];
+        System.arraycopy(data, offset, result, 0, len);
+        return result;
+    }
+
+    private static final class Frame {
+
+        private final boolean array;
+        private final String itemName;
+        private final boolean wrapped;
+
+        private Frame(boolean array, String itemName, boolean wrapped) {
+            this.array = array;
+            this.itemName = itemName;
+            this.wrapped = wrapped;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Access log: formato de las lineas, politicas DROP y BLOCK con el buffer
+ * lleno y rotacion de los segmentos
+ *
+ * @author gaston
+ */
+public class AccessLogTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 4321);
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("access-log").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Segmentos en orden de creacion
+     */
+    private List<File> segments() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Lineas de todos los segmentos, sin los encabezados
+     */
+    private List<String> lines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (File segment : segments()) {
+            for (String line : Files.readAllLines(segment.toPath(), StandardCharsets.US_ASCII)) {
+                if (!line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Registra la misma peticion desde varios hilos a la vez
+     */
+    private static void recordConcurrently(final AccessLog log, int threads, final int perThread)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        log.record(i, CLIENT, "GET", "/a", "/a", 200, 0, 10, 1000);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+        }
+    }
+
+    @Test
+    public void writesTabSeparatedLines() throws IOException {
+        AccessLog log = new AccessLog(directory);
+        log.start();
+        assertTrue(log.record(1500, CLIENT, "GET", "/users/15?x=1", "/users/{id}", 200, 0, 321,
+                TimeUnit.MICROSECONDS.toNanos(1250)));
+        assertTrue(log.record(86400000L + 61001, null, "POST", "/a b\tc", null, 404, 12, 0, 0));
+        log.close();
+
+        List<File> segments = segments();
+        assertEquals(1, segments.size());
+        assertTrue(segments.get(0).getName().startsWith("access-"));
+        String content = new String(Files.readAllBytes(segments.get(0).toPath()), StandardCharsets.US_ASCII);
+        assertTrue(content, content.startsWith("#time\tclient\tmethod\tpath\troute\tstatus"));
+        assertEquals(Arrays.asList(
+                "1970-01-01T00:00:01.500Z\t127.0.0.1\tGET\t/users/15?x=1\t/users/{id}\t200\t0\t321\t1250",
+                "1970-01-02T00:01:01.001Z\t-\tPOST\t/a?b?c\t-\t404\t12\t0\t0"), lines());
+        assertEquals(2, log.getWritten());
+        assertEquals(0, log.getDropped());
+    }
+
+    @Test
+    public void closedLogDropsRecords() {
+        AccessLog log = new AccessLog(directory);
+        assertFalse(log.record(0, CLIENT, "GET", "/", null, 200, 0, 0, 0));
+        log.start();
+        log.close();
+        assertFalse(log.record(0, CLIENT, "GET", "/", null, 200, 0, 0, 0));
+        assertEquals(2, log.getDropped());
+    }
+
+    @Test
+    public void dropPolicyNeverLosesCount() throws Exception {
+        AccessLog log = new AccessLog(directory);
+        log.setCapacity(4);
+        log.setOverflowPolicy(AccessLog.OverflowPolicy.DROP);
+        log.start();
+        recordConcurrently(log, 4, 20000);
+        log.close();
+        assertEquals(80000, log.getWritten() + log.getDropped());
+        assertEquals(log.getWritten(), lines().size());
+    }
+
+    @Test
+    public void blockPolicyWritesEveryRecord() throws Exception {
+        AccessLog log = new AccessLog(directory);
+        log.setCapacity(4);
+        log.setOverflowPolicy(AccessLog.OverflowPolicy.BLOCK);
+        log.start();
+        recordConcurrently(log, 4, 5000);
+        log.close();
+        assertEquals(0, log.getDropped());
+        assertEquals(20000, log.getWritten());
+        assertEquals(20000, lines().size());
+    }
+
+    @Test
+    public void rollsAndKeepsNewestSegments() throws IOException {
+        char[] chars = new char[200];
+        Arrays.fill(chars, 'p');
+        String path = "/" + new String(chars);
+        AccessLog log = new AccessLog(directory);
+        log.setPrefix("roll");
+        log.setSegmentSize(64 * 1024);
+        log.setMaxSegments(2);
+        log.setOverflowPolicy(AccessLog.OverflowPolicy.BLOCK);
+        log.start();
+        for (int i = 0; i < 1500; i++) {
+            log.record(0, CLIENT, "GET", path, null, 200, 0, i, 0);
+        }
+        log.close();
+
+        List<File> segments = segments();
+        assertEquals(2, segments.size());
+        for (File segment : segments) {
+            assertTrue(segment.getName().startsWith("roll-"));
+            assertTrue(segment.length() <= 64 * 1024);
+        }
+        List<String> lines = lines();
+        assertTrue(lines.size() < 1500);
+        // Se conservan las ultimas lineas, sin cortes
+        String last = lines.get(lines.size() - 1);
+        assertTrue(last, last.endsWith("\t200\t0\t1499\t0"));
+        for (String line : lines) {
+            assertEquals(9, line.split("\t").length);
+        }
+    }
+}
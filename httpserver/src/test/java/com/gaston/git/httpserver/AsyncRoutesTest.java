@@ -0,0 +1,153 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Rutas que retornan un CompletableFuture: respuesta desde el hilo que lo
+ * completa, errores y 504 cuando vence el tiempo de espera
+ *
+ * @author gaston
+ */
+public class AsyncRoutesTest {
+
+    private static AsyncContext context;
+    private static TestServer server;
+
+    /**
+     * Contexto con rutas asincronicas
+     */
+    public static class AsyncContext extends WebContext {
+
+        private final CompletableFuture<String> never = new CompletableFuture<>();
+        private final CountDownLatch slowStarted = new CountDownLatch(1);
+
+        public AsyncContext() {
+            super("/async");
+        }
+
+        @GET
+        @Path("/now")
+        @Produces(MediaType.APPLICATION_JSON)
+        public CompletableFuture<String> now() {
+            return CompletableFuture.completedFuture("ya");
+        }
+
+        @GET
+        @Path("/later")
+        @Produces(MediaType.APPLICATION_JSON)
+        public CompletionStage<String> later() {
+            final CompletableFuture<String> result = new CompletableFuture<>();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    result.complete("despues");
+                }
+            }).start();
+            return result;
+        }
+
+        @GET
+        @Path("/never")
+        @Produces(MediaType.APPLICATION_JSON)
+        @AsyncTimeout(100)
+        public CompletableFuture<String> never() {
+            return never;
+        }
+
+        @GET
+        @Path("/slow")
+        @Produces(MediaType.APPLICATION_JSON)
+        public CompletableFuture<String> slow() {
+            slowStarted.countDown();
+            return new CompletableFuture<>();
+        }
+
+        @GET
+        @Path("/conflict")
+        @Produces(MediaType.APPLICATION_JSON)
+        public CompletableFuture<String> conflict() {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            result.completeExceptionally(new HttpStatusException(409, "Conflicto"));
+            return result;
+        }
+
+        @GET
+        @Path("/broken")
+        @Produces(MediaType.APPLICATION_JSON)
+        public CompletableFuture<String> broken() {
+            return CompletableFuture.supplyAsync(new Supplier<String>() {
+                @Override
+                public String get() {
+                    throw new IllegalStateException("roto");
+                }
+            });
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        context = new AsyncContext();
+        context.setAsyncTimeout(200);
+        server = new TestServer(context);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void completedFutureIsSentRightAway() throws Exception {
+        TestServer.Response response = server.get("/async/now");
+        assertEquals(200, response.getStatus());
+        assertEquals("\"ya\"", response.getText());
+    }
+
+    @Test
+    public void responseIsSentFromCompletingThread() throws Exception {
+        TestServer.Response response = server.get("/async/later");
+        assertEquals(200, response.getStatus());
+        assertEquals("\"despues\"", response.getText());
+    }
+
+    @Test
+    public void annotatedTimeoutAnswersGatewayTimeoutAndCancels() throws Exception {
+        long start = System.nanoTime();
+        assertEquals(504, server.get("/async/never").getStatus());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(context.never.isCancelled());
+    }
+
+    @Test
+    public void contextTimeoutAppliesToOtherRoutes() throws Exception {
+        assertEquals(504, server.get("/async/slow").getStatus());
+        assertTrue(context.slowStarted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedStagesAnswerTheirStatus() throws Exception {
+        TestServer.Response response = server.get("/async/conflict");
+        assertEquals(409, response.getStatus());
+        assertTrue(response.getText(), response.getText().contains("Conflicto"));
+        assertEquals(500, server.get("/async/broken").getStatus());
+    }
+}
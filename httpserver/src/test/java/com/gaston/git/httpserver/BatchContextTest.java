@@ -0,0 +1,266 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Lotes de peticiones: orden de las respuestas, lecturas en paralelo en el
+ * executor del servidor, escrituras como barrera, headers heredados, errores
+ * de cada entrada y rechazo de las que no entran en la cola
+ *
+ * @author gaston
+ */
+public class BatchContextTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static StoreContext store;
+    private static WebServer webServer;
+    private static TestServer server;
+
+    /**
+     * Contexto con un valor que las peticiones del lote leen y escriben
+     */
+    public static class StoreContext extends WebContext {
+
+        private final AtomicInteger value = new AtomicInteger();
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public StoreContext() {
+            super("/store");
+        }
+
+        @GET
+        @Path("/value")
+        @Produces(MediaType.APPLICATION_JSON)
+        public int read() {
+            events.add("read");
+            return value.get();
+        }
+
+        @PUT
+        @Path("/value/{value}")
+        @Produces(MediaType.APPLICATION_JSON)
+        public int write(@PathParam("value") int newValue) {
+            events.add("write");
+            value.set(newValue);
+            return newValue;
+        }
+
+        @GET
+        @Path("/slow")
+        @Produces(MediaType.APPLICATION_JSON)
+        public long slow(@QueryParam("millis") long millis) throws InterruptedException {
+            Thread.sleep(millis);
+            events.add("slow");
+            return millis;
+        }
+
+        @GET
+        @Path("/whoami")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String whoami(@HeaderParam("Authorization") String authorization) {
+            return authorization;
+        }
+
+        @GET
+        @Path("/thread")
+        @Produces(MediaType.TEXT_PLAIN)
+        public String thread() {
+            return Thread.currentThread().getName();
+        }
+
+        @GET
+        @Path("/text")
+        @Produces(MediaType.TEXT_PLAIN)
+        public String text() {
+            return "plano";
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        store = new StoreContext();
+        webServer = webServer(ExecutionMode.BOUNDED, 4);
+        webServer.addContext(store);
+        BatchContext batch = new BatchContext("/_batch", webServer);
+        batch.setMaxRequests(5);
+        webServer.addContext(batch);
+        webServer.init();
+        server = new TestServer(store, batch);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+        webServer.stop();
+    }
+
+    /**
+     * Servidor sin contextos propios cuyo executor atiende las peticiones de
+     * los lotes
+     */
+    private static WebServer webServer(ExecutionMode mode, int poolSize) {
+        WebServer webServer = new WebServer(0, poolSize, "com.gaston.git.httpserver.ninguno");
+        webServer.setExecutionMode(mode);
+        webServer.setMetricsPath(null);
+        webServer.setBatchPath(null);
+        return webServer;
+    }
+
+    @Before
+    public void reset() {
+        store.value.set(0);
+        store.events.clear();
+    }
+
+    private static JsonNode batch(String requests, String... headers) throws Exception {
+        return batch(server, requests, headers);
+    }
+
+    private static JsonNode batch(TestServer server, String requests, String... headers) throws Exception {
+        String[] pairs = new String[headers.length + 2];
+        pairs[0] = "Content-Type";
+        pairs[1] = MediaType.APPLICATION_JSON;
+        System.arraycopy(headers, 0, pairs, 2, headers.length);
+        TestServer.Response response = server.call("POST", "/_batch", requests.getBytes(StandardCharsets.UTF_8),
+                pairs);
+        assertEquals(response.getText(), 200, response.getStatus());
+        return MAPPER.readTree(response.getText());
+    }
+
+    @Test
+    public void answersInRequestOrder() throws Exception {
+        JsonNode responses = batch("[{\"path\":\"/store/slow?millis=150\"},"
+                + "{\"path\":\"/store/slow\",\"query\":{\"millis\":0}},"
+                + "{\"path\":\"/store/value\"},"
+                + "{\"path\":\"/store/text\"}]");
+        assertEquals(4, responses.size());
+        assertEquals(200, responses.get(0).get("status").getIntValue());
+        assertEquals(150, responses.get(0).get("body").getIntValue());
+        assertEquals(0, responses.get(1).get("body").getIntValue());
+        assertEquals(0, responses.get(2).get("body").getIntValue());
+        assertEquals("plano", responses.get(3).get("body").getTextValue());
+        // Las lecturas consecutivas se ejecutan en paralelo
+        assertEquals("slow", store.events.get(store.events.size() - 1));
+    }
+
+    @Test
+    public void writesWaitForPreviousRequestsAndBlockLaterOnes() throws Exception {
+        JsonNode responses = batch("[{\"path\":\"/store/slow?millis=100\"},"
+                + "{\"method\":\"put\",\"path\":\"/store/value/7\"},"
+                + "{\"path\":\"/store/value\"}]");
+        assertEquals(100, responses.get(0).get("body").getIntValue());
+        assertEquals(7, responses.get(1).get("body").getIntValue());
+        assertEquals(7, responses.get(2).get("body").getIntValue());
+        assertEquals(Arrays.asList("slow", "write", "read"), store.events);
+    }
+
+    @Test
+    public void subRequestsInheritBatchHeaders() throws Exception {
+        JsonNode responses = batch("[{\"path\":\"/store/whoami\"},"
+                + "{\"path\":\"/store/whoami\",\"headers\":{\"Authorization\":\"propio\"}}]",
+                "Authorization", "lote");
+        assertEquals("lote", responses.get(0).get("body").getTextValue());
+        assertEquals("propio", responses.get(1).get("body").getTextValue());
+    }
+
+    @Test
+    public void eachEntryAnswersItsOwnError() throws Exception {
+        JsonNode responses = batch("[{\"path\":\"/otro/x\"},"
+                + "{\"path\":\"sin-barra\"},"
+                + "{\"path\":\"/_batch\"},"
+                + "{\"path\":\"/store/missing\"},"
+                + "{\"path\":\"/store/value\"}]");
+        assertEquals(404, responses.get(0).get("status").getIntValue());
+        assertEquals(400, responses.get(1).get("status").getIntValue());
+        assertEquals(400, responses.get(2).get("status").getIntValue());
+        assertEquals(404, responses.get(3).get("status").getIntValue());
+        assertEquals(200, responses.get(4).get("status").getIntValue());
+    }
+
+    @Test
+    public void nullMethodIsGet() throws Exception {
+        JsonNode responses = batch("[{\"method\":null,\"path\":\"/store/text\"}]");
+        assertEquals(200, responses.get(0).get("status").getIntValue());
+        assertEquals("plano", responses.get(0).get("body").getTextValue());
+    }
+
+    @Test
+    public void batchesOverTheLimitAreRejected() throws Exception {
+        StringBuilder requests = new StringBuilder("[");
+        for (int i = 0; i < 6; i++) {
+            requests.append(i > 0 ? "," : "").append("{\"path\":\"/store/value\"}");
+        }
+        TestServer.Response response = server.call("POST", "/_batch",
+                requests.append(']').toString().getBytes(StandardCharsets.UTF_8),
+                "Content-Type", MediaType.APPLICATION_JSON);
+        assertEquals(413, response.getStatus());
+        assertTrue(store.events.isEmpty());
+    }
+
+    @Test
+    public void emptyBatchAnswersEmptyArray() throws Exception {
+        assertEquals(0, batch("[]").size());
+    }
+
+    @Test
+    public void subRequestsRunOnTheServerExecutor() throws Exception {
+        JsonNode responses = batch("[{\"path\":\"/store/thread\"}]");
+        assertTrue(responses.get(0).get("body").getTextValue().startsWith("webServer-"));
+    }
+
+    @Test
+    public void subRequestsOverTheBoundedQueueAreRejected() throws Exception {
+        WebServer bounded = webServer(ExecutionMode.BOUNDED, 1);
+        bounded.setQueueCapacity(1);
+        bounded.setRetryAfter(3);
+        StoreContext boundedStore = new StoreContext();
+        bounded.addContext(boundedStore);
+        BatchContext batch = new BatchContext("/_batch", bounded);
+        bounded.addContext(batch);
+        bounded.init();
+        TestServer boundedServer = new TestServer(batch);
+        try {
+            // La primera peticion ocupa el unico hilo y en la cola entra a lo
+            // sumo una mas, las demas se rechazan sin ejecutarse
+            JsonNode responses = batch(boundedServer, "[{\"path\":\"/store/slow?millis=200\"},"
+                    + "{\"path\":\"/store/slow?millis=0\"},"
+                    + "{\"path\":\"/store/slow?millis=0\"}]");
+            assertEquals(200, responses.get(0).get("status").getIntValue());
+            int rejected = 0;
+            for (JsonNode response : responses) {
+                if (response.get("status").getIntValue() == 503) {
+                    assertEquals("3", response.get("headers").get("Retry-After").getTextValue());
+                    rejected++;
+                }
+            }
+            assertTrue(rejected >= 1);
+            assertEquals(3 - rejected, boundedStore.events.size());
+        } finally {
+            boundedServer.close();
+            bounded.stop();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Lectura del cuerpo de las peticiones: binding con Jackson, bytes sin
+ * conversion y limite de tamaño por ruta
+ *
+ * @author gaston
+ */
+public class BodyBindersTest {
+
+    private static TestServer server;
+
+    /**
+     * Cuerpo Json de las pruebas
+     */
+    public static class Item {
+
+        private String name;
+        private int quantity;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * Contexto con un parametro de cuerpo de cada tipo
+     */
+    public static class BodyContext extends WebContext {
+
+        public BodyContext() {
+            super("/body");
+        }
+
+        @POST
+        @Path("/item")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String item(Item item) {
+            return item.getName() + ":" + item.getQuantity();
+        }
+
+        @POST
+        @Path("/numbers")
+        @Produces(MediaType.APPLICATION_JSON)
+        public int numbers(List<Integer> numbers) {
+            int total = 0;
+            for (Integer number : numbers) {
+                total += number;
+            }
+            return total;
+        }
+
+        @POST
+        @Path("/raw")
+        @Produces(MediaType.APPLICATION_JSON)
+        @MaxBodySize(8)
+        public int raw(byte[] body) {
+            return body.length;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new TestServer(new BodyContext());
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void bindsJsonBodyToBean() throws Exception {
+        TestServer.Response response = server.call("POST", "/body/item", bytes("{\"name\":\"ñoqui\",\"quantity\":3}"),
+                "Content-Type", MediaType.APPLICATION_JSON);
+        assertEquals(200, response.getStatus());
+        assertEquals("\"ñoqui:3\"", response.getText());
+    }
+
+    @Test
+    public void bindsJsonBodyToGenericType() throws Exception {
+        TestServer.Response response = server.call("POST", "/body/numbers", bytes("[1,2,3,4]"),
+                "Content-Type", MediaType.APPLICATION_JSON);
+        assertEquals("10", response.getText());
+    }
+
+    @Test
+    public void passesRawBytesWithinLimit() throws Exception {
+        assertEquals("8", server.call("POST", "/body/raw", bytes("12345678")).getText());
+    }
+
+    @Test
+    public void declaredLengthOverLimitIsPayloadTooLarge() throws Exception {
+        assertEquals(413, server.call("POST", "/body/raw", bytes("123456789")).getStatus());
+    }
+
+    @Test
+    public void limitedStreamFailsOnceLimitIsExceeded() throws Exception {
+        InputStream in = new LimitedInputStream(new ByteArrayInputStream(bytes("123456789")), 8);
+        byte[] buffer = new byte[4];
+        assertEquals(4, in.read(buffer));
+        assertEquals(4, in.read(buffer));
+        try {
+            in.read();
+            fail("La lectura debia superar el limite");
+        } catch (BodyTooLargeException e) {
+            assertTrue(e.getMessage().contains("8"));
+        }
+    }
+
+    @Test
+    public void readFullyGrowsBuffer() throws Exception {
+        byte[] content = new byte[10000];
+        content[9999] = 7;
+        byte[] read = BodyBinders.readFully(new ByteArrayInputStream(content));
+        assertEquals(10000, read.length);
+        assertEquals(7, read[9999]);
+    }
+}
@@ -0,0 +1,159 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.Test;
+
+/**
+ * Rutas con @Bulkhead: se atienden en su propio pool, rechazan con 503 cuando
+ * esta lleno y no demoran a las demas rutas
+ *
+ * @author gaston
+ */
+public class BulkheadPoolTest {
+
+    /**
+     * Contexto con una ruta lenta aislada y otra que usa el pool del servidor
+     */
+    public static class IsolatedContext extends WebContext {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public IsolatedContext() {
+            super("/iso");
+        }
+
+        @GET
+        @Path("/slow")
+        @Produces(MediaType.APPLICATION_JSON)
+        @Bulkhead(pool = "slow", size = 1, queue = 1)
+        public String slow() throws InterruptedException {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Thread.currentThread().getName();
+        }
+
+        @GET
+        @Path("/fast")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String fast() {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    /**
+     * Contexto que usa el mismo pool con otra configuracion
+     */
+    public static class SharedContext extends WebContext {
+
+        public SharedContext() {
+            super("/shared");
+        }
+
+        @GET
+        @Path("/other")
+        @Produces(MediaType.APPLICATION_JSON)
+        @Bulkhead(pool = "slow", size = 4)
+        public String other() {
+            return "otro";
+        }
+    }
+
+    private static HttpRoute route(ContextHandler context, String path) {
+        for (HttpRoute route : context.getRoutes()) {
+            if (route.getPath().equals(path)) {
+                return route;
+            }
+        }
+        throw new AssertionError(path);
+    }
+
+    private static Future<TestServer.Response> callAsync(ExecutorService clients, final TestServer server,
+            final String path) {
+        return clients.submit(new Callable<TestServer.Response>() {
+            @Override
+            public TestServer.Response call() throws Exception {
+                return server.get(path);
+            }
+        });
+    }
+
+    @Test
+    public void rejectsWhenPoolAndQueueAreFull() throws Exception {
+        IsolatedContext context = new IsolatedContext();
+        HttpRoute slow = route(context, "/iso/slow");
+        assertEquals("slow", slow.getBulkhead().pool());
+        assertNull(route(context, "/iso/fast").getBulkhead());
+        BulkheadPool pool = BulkheadPool.of(slow.getBulkhead(), 3);
+        slow.setBulkheadPool(pool);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try (TestServer server = new TestServer(context)) {
+            Future<TestServer.Response> running = callAsync(clients, server, "/iso/slow");
+            assertTrue(context.entered.await(5, TimeUnit.SECONDS));
+            Future<TestServer.Response> queued = callAsync(clients, server, "/iso/slow");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getQueueDepth() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, pool.getActiveThreads());
+            assertEquals(1, pool.getQueueDepth());
+
+            TestServer.Response rejected = server.get("/iso/slow");
+            assertEquals(503, rejected.getStatus());
+            assertEquals("3", rejected.getHeader("Retry-After"));
+            assertEquals(1, pool.getRejected());
+
+            // El resto de las rutas sigue atendiendose en el pool del servidor
+            TestServer.Response fast = server.get("/iso/fast");
+            assertEquals(200, fast.getStatus());
+            assertTrue(fast.getText(), !fast.getText().contains("webServer-slow-"));
+
+            context.release.countDown();
+            TestServer.Response response = running.get(5, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatus());
+            assertTrue(response.getText(), response.getText().startsWith("\"webServer-slow-"));
+            assertEquals(200, queued.get(5, TimeUnit.SECONDS).getStatus());
+        } finally {
+            clients.shutdownNow();
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSizes() {
+        new BulkheadPool("vacio", 0, 10, 1);
+    }
+
+    @Test
+    public void webServerSharesPoolsByNameAndClosesThem() {
+        WebServer server = new WebServer(0, 2, "com.gaston.git.httpserver.ninguno");
+        server.addContext(new IsolatedContext());
+        server.addContext(new SharedContext());
+        server.init();
+        try {
+            assertEquals(1, server.getBulkheads().size());
+            BulkheadPool pool = server.getBulkheads().get(0);
+            assertEquals("slow", pool.getName());
+            assertEquals(1, pool.getSize());
+            assertEquals(1, pool.getQueueCapacity());
+            assertSame(pool, route(server.getContexts().get(1), "/shared/other").getBulkheadPool());
+        } finally {
+            server.stop();
+        }
+        assertTrue(server.getBulkheads().isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Limitador de peticiones en curso: permisos, cambios de limite en caliente,
+ * limite por cliente y cantidad maxima de clientes
+ *
+ * @author gaston
+ */
+public class ConcurrencyLimiterTest {
+
+    /**
+     * Cantidad maxima de clientes del limitador
+     */
+    private static final int MAX_CLIENTS = 10000;
+
+    @Test
+    public void admitsUpToLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, false);
+        assertTrue(limiter.tryAcquire(null));
+        assertTrue(limiter.tryAcquire(null));
+        assertFalse(limiter.tryAcquire(null));
+        assertEquals(2, limiter.getActive());
+        assertEquals(1, limiter.getRejected());
+        limiter.release(null);
+        assertTrue(limiter.tryAcquire(null));
+    }
+
+    @Test
+    public void lowerLimitLetsRunningRequestsFinish() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(3, false);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(null));
+        }
+        limiter.setLimit(1);
+        assertEquals(1, limiter.getLimit());
+        assertFalse(limiter.tryAcquire(null));
+        limiter.release(null);
+        limiter.release(null);
+        assertFalse(limiter.tryAcquire(null));
+        limiter.release(null);
+        assertTrue(limiter.tryAcquire(null));
+    }
+
+    @Test
+    public void higherLimitAppliesToNextRequest() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, false);
+        assertTrue(limiter.tryAcquire(null));
+        assertFalse(limiter.tryAcquire(null));
+        limiter.setLimit(2);
+        assertTrue(limiter.tryAcquire(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLimit() {
+        new ConcurrencyLimiter(1, false).setLimit(0);
+    }
+
+    @Test
+    public void limitsEachClientSeparately() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, true);
+        assertTrue(limiter.isPerClient());
+        assertTrue(limiter.tryAcquire("10.0.0.1"));
+        assertFalse(limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.2"));
+        assertEquals(2, limiter.getActive());
+        limiter.release("10.0.0.1");
+        assertTrue(limiter.tryAcquire("10.0.0.1"));
+    }
+
+    @Test
+    public void rejectsNewClientsWhenFullOfActiveClients() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, true);
+        for (int i = 0; i < MAX_CLIENTS; i++) {
+            assertTrue(limiter.tryAcquire("client-" + i));
+        }
+        assertFalse(limiter.tryAcquire("client-new"));
+        assertEquals(1, limiter.getRejected());
+        assertEquals(MAX_CLIENTS, limiter.getActive());
+        limiter.release("client-0");
+        assertTrue(limiter.tryAcquire("client-0"));
+    }
+
+    @Test
+    public void evictsIdleClientsToMakeRoom() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, true);
+        for (int i = 0; i < MAX_CLIENTS; i++) {
+            assertTrue(limiter.tryAcquire("client-" + i));
+            limiter.release("client-" + i);
+        }
+        assertTrue(limiter.tryAcquire("client-new"));
+        // Un cliente descartado obtiene un contador nuevo
+        assertTrue(limiter.tryAcquire("client-0"));
+        assertEquals(2, limiter.getActive());
+    }
+}
@@ -0,0 +1,183 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Negociacion del codec de la respuesta segun @Produces y el header Accept,
+ * y respuestas json, xml, smile y 406 de punta a punta
+ *
+ * @author gaston
+ */
+public class ContentNegotiatorTest {
+
+    private static final CodecRegistry REGISTRY = CodecRegistry.getDefault();
+    private static final Codec JSON = REGISTRY.get(MediaType.APPLICATION_JSON);
+    private static final Codec XML = REGISTRY.get(MediaType.APPLICATION_XML);
+    private static final Codec SMILE = REGISTRY.get(SmileCodec.APPLICATION_SMILE);
+
+    private static TestServer server;
+
+    /**
+     * Valor de las respuestas
+     */
+    public static class Point {
+
+        private int x;
+        private int y;
+
+        public Point() {
+        }
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public void setX(int x) {
+            this.x = x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public void setY(int y) {
+            this.y = y;
+        }
+    }
+
+    /**
+     * Contexto con una ruta que produce varios formatos
+     */
+    public static class FormatsContext extends WebContext {
+
+        public FormatsContext() {
+            super("/formats");
+        }
+
+        @GET
+        @Path("/point")
+        @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, SmileCodec.APPLICATION_SMILE})
+        public Point point() {
+            return new Point(3, 4);
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new TestServer(new FormatsContext());
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    private static ContentNegotiator negotiator(String... produces) {
+        return ContentNegotiator.create(produces, REGISTRY);
+    }
+
+    @Test
+    public void singleMediaTypeIsFixed() {
+        ContentNegotiator negotiator = negotiator(MediaType.APPLICATION_JSON);
+        assertSame(JSON, negotiator.select(null));
+        assertSame(JSON, negotiator.select("image/png"));
+    }
+
+    @Test
+    public void selectsAcceptedMediaType() {
+        ContentNegotiator negotiator = negotiator(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+        assertSame(JSON, negotiator.select(null));
+        assertSame(XML, negotiator.select("application/xml"));
+        assertSame(JSON, negotiator.select("*/*"));
+        assertSame(XML, negotiator.select("text/html, application/xml;q=0.9, */*;q=0.1"));
+    }
+
+    @Test
+    public void higherQualityWins() {
+        ContentNegotiator negotiator = negotiator(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+        assertSame(XML, negotiator.select("application/json;q=0.5, application/xml"));
+        assertSame(JSON, negotiator.select("application/xml;q=0, */*"));
+    }
+
+    @Test
+    public void moreSpecificRangeWinsAtSameQuality() {
+        ContentNegotiator negotiator = negotiator(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+        assertSame(XML, negotiator.select("*/*, application/xml"));
+        assertSame(JSON, negotiator.select("application/*"));
+    }
+
+    @Test
+    public void unacceptableReturnsNull() {
+        ContentNegotiator negotiator = negotiator(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+        assertNull(negotiator.select("image/png"));
+        // El resultado negativo tambien se guarda y se repite
+        assertNull(negotiator.select("image/png"));
+        assertNull(negotiator.select("application/json;q=0"));
+    }
+
+    @Test
+    public void withoutProducesOffersEveryCodec() {
+        ContentNegotiator negotiator = ContentNegotiator.create(null, REGISTRY);
+        assertSame(JSON, negotiator.select(null));
+        assertSame(SMILE, negotiator.select(SmileCodec.APPLICATION_SMILE));
+    }
+
+    @Test
+    public void contentTypeKeepsProducesParameters() {
+        ContentNegotiator negotiator = negotiator("application/json; charset=UTF-8", MediaType.APPLICATION_XML);
+        assertEquals("application/json; charset=UTF-8", negotiator.contentType(JSON));
+        assertEquals(MediaType.APPLICATION_XML, negotiator.contentType(XML));
+    }
+
+    @Test
+    public void writesJsonByDefault() throws Exception {
+        TestServer.Response response = server.get("/formats/point");
+        assertEquals(200, response.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON, response.getHeader("Content-Type"));
+        assertEquals("{\"x\":3,\"y\":4}", response.getText());
+    }
+
+    @Test
+    public void writesXmlWhenAccepted() throws Exception {
+        TestServer.Response response = server.get("/formats/point", "Accept", MediaType.APPLICATION_XML);
+        assertEquals(200, response.getStatus());
+        assertEquals(MediaType.APPLICATION_XML, response.getHeader("Content-Type"));
+        String body = response.getText();
+        assertTrue(body, body.startsWith("<?xml"));
+        assertTrue(body, body.contains("<x>3</x>"));
+        assertTrue(body, body.contains("<y>4</y>"));
+    }
+
+    @Test
+    public void writesSmileWhenAccepted() throws Exception {
+        TestServer.Response response = server.get("/formats/point", "Accept", SmileCodec.APPLICATION_SMILE);
+        assertEquals(200, response.getStatus());
+        assertEquals(SmileCodec.APPLICATION_SMILE, response.getHeader("Content-Type"));
+        Point point = new ObjectMapper(new SmileFactory()).readValue(response.getBody(), Point.class);
+        assertEquals(3, point.getX());
+        assertEquals(4, point.getY());
+    }
+
+    @Test
+    public void unacceptableRequestIsNotAcceptable() throws Exception {
+        assertEquals(406, server.get("/formats/point", "Accept", "image/png").getStatus());
+    }
+}
@@ -0,0 +1,154 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Atencion de peticiones en proceso: respuestas exitosas y cada uno de los
+ * errores que el contexto resuelve sin excepciones, ademas de los que lanza
+ * la ruta
+ *
+ * @author gaston
+ */
+public class ContextHandlerTest {
+
+    private static ContextHandler context;
+
+    /**
+     * Contexto con una ruta por cada caso
+     */
+    public static class DispatchContext extends WebContext {
+
+        public DispatchContext() {
+            super("/t");
+        }
+
+        @GET
+        @Path("/items/{id}")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String item(@PathParam("id") long id, @QueryParam("n") int n) {
+            return id + ":" + n;
+        }
+
+        @GET
+        @Path("/formats")
+        @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+        public String formats() {
+            return "ok";
+        }
+
+        @GET
+        @Path("/header")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String header(@HeaderParam("X-N") int n, @HeaderParam("X-Name") String name) {
+            return n + ":" + name;
+        }
+
+        @GET
+        @Path("/conflict")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String conflict() throws HttpStatusException {
+            throw new HttpStatusException(409, "Conflicto");
+        }
+
+        @GET
+        @Path("/broken")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String broken() {
+            throw new IllegalStateException("Falla de prueba");
+        }
+
+        @POST
+        @Path("/broken")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String create() {
+            return "created";
+        }
+    }
+
+    @BeforeClass
+    public static void createContext() {
+        context = new DispatchContext();
+    }
+
+    /**
+     * Atiende una peticion y espera su respuesta
+     */
+    private static BatchResponse call(String method, String path, String query, String... headers)
+            throws Exception {
+        TreeMap<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            requestHeaders.put(headers[i], headers[i + 1]);
+        }
+        BatchExchange exchange = new BatchExchange(method, path, query, requestHeaders, null);
+        context.handle(exchange);
+        return exchange.getResponse().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void invokesRouteWithConvertedParameters() throws Exception {
+        BatchResponse response = call("GET", "/t/items/7", "n=3");
+        assertEquals(200, response.getStatus());
+        assertEquals("\"7:3\"", response.getBody());
+    }
+
+    @Test
+    public void missingOrInvalidQueryParameterIsBadRequest() throws Exception {
+        assertEquals(400, call("GET", "/t/items/7", null).getStatus());
+        assertEquals(400, call("GET", "/t/items/7", "n=x").getStatus());
+        assertEquals(400, call("GET", "/t/items/x", "n=1").getStatus());
+    }
+
+    @Test
+    public void missingHeaderIsNullOrBadRequestForPrimitives() throws Exception {
+        assertEquals("\"5:null\"", call("GET", "/t/header", null, "X-N", "5").getBody());
+        assertEquals("\"5:ana\"", call("GET", "/t/header", null, "x-n", "5", "X-Name", "ana").getBody());
+        assertEquals(400, call("GET", "/t/header", null, "X-Name", "ana").getStatus());
+        assertEquals(400, call("GET", "/t/header", null, "X-N", "cinco").getStatus());
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws Exception {
+        assertEquals(404, call("GET", "/t/unknown", null).getStatus());
+    }
+
+    @Test
+    public void otherMethodIsNotAllowedWithAllowHeader() throws Exception {
+        BatchResponse response = call("DELETE", "/t/broken", null);
+        assertEquals(405, response.getStatus());
+        assertEquals("GET, POST", response.getHeaders().get("Allow"));
+    }
+
+    @Test
+    public void unsupportedAcceptIsNotAcceptable() throws Exception {
+        assertEquals(200, call("GET", "/t/formats", null, "Accept", "application/xml").getStatus());
+        assertEquals(406, call("GET", "/t/formats", null, "Accept", "image/png").getStatus());
+    }
+
+    @Test
+    public void statusExceptionKeepsItsStatus() throws Exception {
+        BatchResponse response = call("GET", "/t/conflict", null);
+        assertEquals(409, response.getStatus());
+        assertFalse(response.isJson());
+        assertEquals("\"Conflicto\"", response.getBody());
+    }
+
+    @Test
+    public void unexpectedExceptionIsInternalError() throws Exception {
+        assertEquals(500, call("GET", "/t/broken", null).getStatus());
+        assertEquals(200, call("POST", "/t/broken", null).getStatus());
+    }
+}
@@ -0,0 +1,270 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.ws.rs.BeanParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Modelo de los dtos: propiedades descubiertas, carga desde los parametros de
+ * la peticion y serializacion igual a la de Jackson
+ *
+ * @author gaston
+ */
+public class DtoModelTest {
+
+    private static TestServer server;
+
+    /**
+     * Dto con propiedades de cada tipo
+     */
+    public static class Person extends BaseDto {
+
+        private static final long serialVersionUID = 1L;
+
+        public String nickname;
+        private String name;
+        private int age;
+        private long id;
+        private double score;
+        private boolean active;
+        private List<String> tags;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public void setScore(double score) {
+            this.score = score;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Dto con anotaciones de Jackson, lo resuelve Jackson
+     */
+    public static class Renamed extends BaseDto {
+
+        private static final long serialVersionUID = 1L;
+
+        private String value = "v";
+
+        @JsonProperty("other")
+        public String getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Dto sin constructor sin parametros
+     */
+    public static class Immutable extends BaseDto {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        public Immutable(String value, int ignored) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Contexto que recibe y retorna dtos
+     */
+    public static class PeopleContext extends WebContext {
+
+        public PeopleContext() {
+            super("/people");
+        }
+
+        @GET
+        @Path("/search")
+        @Produces(MediaType.APPLICATION_JSON)
+        public Person search(@BeanParam Person filter) {
+            return filter;
+        }
+
+        @POST
+        @Path("/echo")
+        @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+        public Person echo(Person person) {
+            return person;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new TestServer(new PeopleContext());
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    private static Person person() {
+        Person person = new Person();
+        person.nickname = "pepe";
+        person.setName("José");
+        person.setAge(41);
+        person.setId(1L << 40);
+        person.setScore(2.5);
+        person.setActive(true);
+        person.setTags(Arrays.asList("a", "b"));
+        return person;
+    }
+
+    @Test
+    public void discoversPropertiesLikeJackson() {
+        DtoModel model = DtoModel.of(Person.class);
+        assertTrue(model.isReadable());
+        assertTrue(model.isWritable());
+        assertEquals(7, model.getReaders().length);
+        assertEquals(DtoModel.Kind.INT, model.getWriter("age").getKind());
+        assertEquals(DtoModel.Kind.BOOLEAN, model.getWriter("active").getKind());
+        assertEquals(DtoModel.Kind.OBJECT, model.getWriter("nickname").getKind());
+        assertNull(model.getWriter("class"));
+        Person person = person();
+        for (DtoModel.Property property : model.getReaders()) {
+            if (property.getName().equals("age")) {
+                assertEquals(41, property.getInt(person));
+            } else if (property.getName().equals("id")) {
+                assertEquals(1L << 40, property.getLong(person));
+            } else if (property.getName().equals("nickname")) {
+                assertEquals("pepe", property.get(person));
+            }
+        }
+    }
+
+    @Test
+    public void annotatedOrImmutableDtosAreLeftToJackson() {
+        assertFalse(DtoModel.of(Renamed.class).isReadable());
+        assertFalse(DtoModel.of(Immutable.class).isWritable());
+    }
+
+    @Test
+    public void bindsRequestParameters() throws Exception {
+        RequestParameters parameters = new RequestParameters();
+        parameters.add("name", "Ana");
+        parameters.add("age", "30");
+        parameters.add("active", "true");
+        parameters.add("tags", "x");
+        parameters.add("tags", "y");
+        parameters.add("unknown", "1");
+        Person person = (Person) DtoModel.of(Person.class).bind(parameters);
+        assertEquals("Ana", person.getName());
+        assertEquals(30, person.getAge());
+        assertTrue(person.isActive());
+        assertEquals(Arrays.asList("x", "y"), person.getTags());
+        assertEquals(0L, person.getId());
+        assertNull(person.nickname);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bindFailsWithoutDefaultConstructor() throws Exception {
+        DtoModel.of(Immutable.class).bind(new RequestParameters());
+    }
+
+    @Test
+    public void serializesLikeJackson() throws Exception {
+        ObjectMapper withModule = new ObjectMapper();
+        DtoModule.register(withModule);
+        ObjectMapper plain = new ObjectMapper();
+        Person person = person();
+        String json = withModule.writeValueAsString(person);
+        assertEquals(plain.writeValueAsString(person), json);
+        assertEquals(plain.writeValueAsString(new Renamed()), withModule.writeValueAsString(new Renamed()));
+
+        Person read = withModule.readValue(json, Person.class);
+        assertEquals(plain.writeValueAsString(plain.readValue(json, Person.class)),
+                plain.writeValueAsString(read));
+        assertEquals("José", read.getName());
+        assertEquals(Arrays.asList("a", "b"), read.getTags());
+    }
+
+    @Test
+    public void bindsBeanParamFromQueryString() throws Exception {
+        TestServer.Response response = server.get("/people/search?name=Ana&age=30&tags=x&tags=y");
+        assertEquals(200, response.getStatus());
+        Person person = new ObjectMapper().readValue(response.getText(), Person.class);
+        assertEquals("Ana", person.getName());
+        assertEquals(30, person.getAge());
+        assertEquals(Arrays.asList("x", "y"), person.getTags());
+        assertEquals(400, server.get("/people/search?age=abc").getStatus());
+    }
+
+    @Test
+    public void readsAndWritesDtoBodies() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        byte[] body = mapper.writeValueAsBytes(person());
+        TestServer.Response response = server.call("POST", "/people/echo", body,
+                "Content-Type", MediaType.APPLICATION_JSON);
+        assertEquals(200, response.getStatus());
+        assertEquals(mapper.writeValueAsString(person()), response.getText());
+
+        response = server.call("POST", "/people/echo", body,
+                "Content-Type", MediaType.APPLICATION_JSON, "Accept", MediaType.APPLICATION_XML);
+        assertEquals(200, response.getStatus());
+        String xml = response.getText();
+        assertTrue(xml, xml.contains("<age>41</age>"));
+        assertTrue(xml, xml.contains("<nickname>pepe</nickname>"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Invocacion de las rutas: invocadores generados hasta seis parametros y
+ * MethodHandle para los metodos void o con mas parametros
+ *
+ * @author gaston
+ */
+public class HttpRouteTest {
+
+    /**
+     * Contexto con metodos de distinta cantidad de parametros
+     */
+    public static class InvokeContext {
+
+        private int calls;
+
+        public String none() {
+            return "none";
+        }
+
+        public String one(long a) {
+            return "one:" + a;
+        }
+
+        public String six(int a, int b, int c, int d, int e, String f) {
+            return "six:" + (a + b + c + d + e) + f;
+        }
+
+        public int primitive(int a, boolean b) {
+            return b ? a * 2 : a;
+        }
+
+        public static String shared(String a, String b) {
+            return a + b;
+        }
+
+        public String seven(int a, int b, int c, int d, int e, int f, int g) {
+            return "seven:" + (a + b + c + d + e + f + g);
+        }
+
+        public void touch(int amount) {
+            calls += amount;
+        }
+
+        public String conflict() throws IOException {
+            throw new IOException("Conflicto");
+        }
+
+        public void broken() {
+            throw new IllegalStateException("Falla de prueba");
+        }
+    }
+
+    private final InvokeContext context = new InvokeContext();
+
+    private HttpRoute route(String name) throws Exception {
+        for (Method method : InvokeContext.class.getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                return new HttpRoute(context, "GET", "/" + name, method,
+                        Collections.<HttpMethodParameter>emptyList());
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    /**
+     * Invocador generado por LambdaMetafactory, null si la ruta usa el
+     * MethodHandle
+     */
+    private static Object directInvoker(HttpRoute route) throws Exception {
+        Field field = HttpRoute.class.getDeclaredField("directInvoker");
+        field.setAccessible(true);
+        return field.get(route);
+    }
+
+    @Test
+    public void generatesDirectInvokersUpToSixParameters() throws Exception {
+        HttpRoute none = route("none");
+        HttpRoute one = route("one");
+        HttpRoute six = route("six");
+        assertNotNull(directInvoker(none));
+        assertNotNull(directInvoker(one));
+        assertNotNull(directInvoker(six));
+        assertEquals("none", none.invoke(new Object[0]));
+        assertEquals("one:7", one.invoke(new Object[]{7L}));
+        assertEquals("six:15x", six.invoke(new Object[]{1, 2, 3, 4, 5, "x"}));
+    }
+
+    @Test
+    public void boxesPrimitiveArgumentsAndResult() throws Exception {
+        HttpRoute primitive = route("primitive");
+        assertNotNull(directInvoker(primitive));
+        assertEquals(8, primitive.invoke(new Object[]{4, true}));
+        assertEquals(4, primitive.invoke(new Object[]{4, false}));
+    }
+
+    @Test
+    public void invokesStaticMethodsWithoutTarget() throws Exception {
+        HttpRoute shared = route("shared");
+        assertNotNull(directInvoker(shared));
+        assertEquals("ab", shared.invoke(new Object[]{"a", "b"}));
+    }
+
+    @Test
+    public void fallsBackToMethodHandleAboveSixParameters() throws Exception {
+        HttpRoute seven = route("seven");
+        assertNull(directInvoker(seven));
+        assertEquals("seven:28", seven.invoke(new Object[]{1, 2, 3, 4, 5, 6, 7}));
+    }
+
+    @Test
+    public void fallsBackToMethodHandleForVoidMethods() throws Exception {
+        HttpRoute touch = route("touch");
+        assertNull(directInvoker(touch));
+        assertNull(touch.invoke(new Object[]{3}));
+        assertNull(touch.invoke(new Object[]{2}));
+        assertEquals(5, context.calls);
+    }
+
+    @Test
+    public void propagatesExceptionsFromBothInvokers() throws Exception {
+        HttpRoute conflict = route("conflict");
+        assertNotNull(directInvoker(conflict));
+        try {
+            conflict.invoke(new Object[0]);
+            fail("La ruta debia lanzar IOException");
+        } catch (IOException e) {
+            assertEquals("Conflicto", e.getMessage());
+        }
+        HttpRoute broken = route("broken");
+        assertNull(directInvoker(broken));
+        try {
+            broken.invoke(new Object[0]);
+            fail("La ruta debia lanzar IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Falla de prueba", e.getMessage());
+        }
+    }
+
+    @Test
+    public void keepsMethodAndParameters() throws Exception {
+        HttpRoute one = route("one");
+        assertEquals(InvokeContext.class.getDeclaredMethod("one", long.class), one.getMethod());
+        assertEquals(0, one.getParameters().size());
+    }
+}
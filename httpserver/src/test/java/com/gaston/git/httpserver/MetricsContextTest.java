@@ -0,0 +1,123 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.Test;
+
+/**
+ * Metricas de las rutas: histograma de latencias, contadores por ruta y
+ * exposicion en formato Prometheus
+ *
+ * @author gaston
+ */
+public class MetricsContextTest {
+
+    /**
+     * Contexto medido en las pruebas
+     */
+    public static class MeteredContext extends WebContext {
+
+        public MeteredContext() {
+            super("/m");
+        }
+
+        @GET
+        @Path("/hello")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String hello() {
+            return "hola";
+        }
+
+        @POST
+        @Path("/echo")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String echo(byte[] body) {
+            return new String(body);
+        }
+    }
+
+    @Test
+    public void histogramCountsAndPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(5));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(-1);
+        assertEquals(4, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(10105), histogram.getSumNanos());
+        assertEquals(2, histogram.getCountBelow(3));
+        assertEquals(3, histogram.getCountBelow(7));
+        assertEquals(4, histogram.getCountBelow(14));
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= TimeUnit.MICROSECONDS.toNanos(5) && median <= TimeUnit.MICROSECONDS.toNanos(8));
+        long p75 = histogram.getPercentile(75);
+        assertTrue(p75 > TimeUnit.MICROSECONDS.toNanos(100) && p75 <= TimeUnit.MICROSECONDS.toNanos(112));
+        long max = histogram.getPercentile(100);
+        assertTrue(max > TimeUnit.MILLISECONDS.toNanos(10) && max <= TimeUnit.MICROSECONDS.toNanos(11264));
+        assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+
+    @Test
+    public void routeMetricsCountErrorsAndBytes() {
+        RouteMetrics metrics = new RouteMetrics();
+        metrics.record(200, 10, 100, 1000);
+        metrics.record(404, 0, 20, 1000);
+        metrics.record(500, -1, -1, 1000);
+        assertEquals(3, metrics.getRequests());
+        assertEquals(2, metrics.getErrors());
+        assertEquals(10, metrics.getBytesIn());
+        assertEquals(120, metrics.getBytesOut());
+        assertEquals(3, metrics.getLatency().getCount());
+    }
+
+    @Test
+    public void exposesRouteMetricsInPrometheusFormat() throws Exception {
+        MeteredContext context = new MeteredContext();
+        WebServer webServer = new WebServer();
+        List<WebContext> contexts = new ArrayList<>();
+        contexts.add(context);
+        webServer.setContexts(contexts);
+        MetricsContext metrics = new MetricsContext("/metrics", webServer);
+        try (TestServer server = new TestServer(context, metrics)) {
+            assertEquals(200, server.get("/m/hello").getStatus());
+            assertEquals(200, server.get("/m/hello").getStatus());
+            assertEquals(200, server.call("POST", "/m/echo", "12345".getBytes("UTF-8")).getStatus());
+            assertEquals(404, server.get("/m/missing").getStatus());
+
+            // Las metricas se registran despues de enviar la respuesta
+            String unmatched = "httpserver_requests_total{context=\"/m\",method=\"\",route=\"\"} 1\n";
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            TestServer.Response response = server.get("/metrics");
+            while (!response.getText().contains(unmatched) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                response = server.get("/metrics");
+            }
+            assertEquals(200, response.getStatus());
+            String text = response.getText();
+            assertTrue(text, text.contains("# TYPE httpserver_requests_total counter\n"));
+            assertTrue(text, text.contains(
+                    "httpserver_requests_total{context=\"/m\",method=\"GET\",route=\"/m/hello\"} 2\n"));
+            assertTrue(text, text.contains(unmatched));
+            assertTrue(text, text.contains(
+                    "httpserver_request_errors_total{context=\"/m\",method=\"\",route=\"\"} 1\n"));
+            assertTrue(text, text.contains(
+                    "httpserver_request_bytes_total{context=\"/m\",method=\"POST\",route=\"/m/echo\"} 5\n"));
+            assertTrue(text, text.contains(
+                    "httpserver_response_bytes_total{context=\"/m\",method=\"GET\",route=\"/m/hello\"} 12\n"));
+            assertTrue(text, text.contains(
+                    "httpserver_request_duration_seconds_bucket{context=\"/m\",method=\"GET\",route=\"/m/hello\","
+                    + "le=\"+Inf\"} 2\n"));
+            assertTrue(text, text.contains(
+                    "httpserver_request_duration_seconds_count{context=\"/m\",method=\"GET\",route=\"/m/hello\"} 2\n"));
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Motor http/1.1 del NioTransport probado a nivel de socket: peticiones
+ * encadenadas, cuerpos chunked, limites de headers y cuerpo, peticiones
+ * ambiguas y cierre de conexiones inactivas
+ *
+ * @author gaston
+ */
+public class NioTransportTest {
+
+    private ExecutorService executor;
+    private NioTransport transport;
+    private Socket socket;
+    private InputStream in;
+
+    /**
+     * Contexto publicado en el transporte
+     */
+    public static class NioContext extends WebContext {
+
+        public NioContext() {
+            super("/nio");
+        }
+
+        @GET
+        @Path("/echo/{id}")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String echo(@PathParam("id") String id) {
+            return id;
+        }
+
+        @GET
+        @Path("/sleep/{millis}")
+        @Produces(MediaType.APPLICATION_JSON)
+        public long sleep(@PathParam("millis") long millis) throws InterruptedException {
+            Thread.sleep(millis);
+            return millis;
+        }
+
+        @POST
+        @Path("/body")
+        @Produces(MediaType.APPLICATION_JSON)
+        public int body(byte[] body) {
+            int sum = 0;
+            for (byte b : body) {
+                sum += b;
+            }
+            return body.length * 1000 + sum % 1000;
+        }
+    }
+
+    @Before
+    public void start() throws IOException {
+        executor = Executors.newFixedThreadPool(4);
+        transport = new NioTransport();
+        transport.setEventLoops(1);
+        transport.setMaxHeaderSize(1024);
+        transport.setMaxRequestSize(256 * 1024);
+        transport.setKeepAliveTimeout(30000);
+        transport.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), executor);
+        transport.createContext("/nio", new NioContext());
+        transport.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+        transport.stop();
+        executor.shutdownNow();
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), transport.getAddress().getPort());
+        socket.setSoTimeout(5000);
+        in = new BufferedInputStream(socket.getInputStream());
+    }
+
+    private void send(String raw) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(raw.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+
+    private static String post(String path, String body) {
+        return "POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n\r\n"
+                + body;
+    }
+
+    /**
+     * Suma con la que responde la ruta /nio/body
+     */
+    private static String bodySummary(byte[] body) {
+        int sum = 0;
+        for (byte b : body) {
+            sum += b;
+        }
+        return String.valueOf(body.length * 1000 + sum % 1000);
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        if (c < 0 && line.length() == 0) {
+            throw new IOException("Conexion cerrada");
+        }
+        return line.toString();
+    }
+
+    private byte[] readBytes(int count) throws IOException {
+        byte[] bytes = new byte[count];
+        int read = 0;
+        while (read < count) {
+            int n = in.read(bytes, read, count - read);
+            if (n < 0) {
+                throw new IOException("Conexion cerrada");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Lee una respuesta completa, con Content-Length o chunked
+     */
+    private Response read() throws IOException {
+        String[] statusLine = readLine().split(" ", 3);
+        Response response = new Response(Integer.parseInt(statusLine[1]));
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            response.headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(response.headers.get("Transfer-Encoding"))) {
+            int size;
+            while ((size = Integer.parseInt(readLine().trim(), 16)) > 0) {
+                body.write(readBytes(size));
+                readLine();
+            }
+            readLine();
+        } else if (response.headers.containsKey("Content-Length")) {
+            body.write(readBytes(Integer.parseInt(response.headers.get("Content-Length"))));
+        }
+        response.body = new String(body.toByteArray(), StandardCharsets.UTF_8);
+        return response;
+    }
+
+    /**
+     * Espera a que el servidor cierre la conexion
+     */
+    private void assertClosed() throws IOException {
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void answersPipelinedRequestsInOrder() throws IOException {
+        connect();
+        send(get("/nio/sleep/100") + get("/nio/echo/2") + post("/nio/body", "abc") + get("/nio/echo/4"));
+        assertEquals("100", read().body);
+        assertEquals("\"2\"", read().body);
+        assertEquals(bodySummary("abc".getBytes(StandardCharsets.UTF_8)), read().body);
+        Response last = read();
+        assertEquals(200, last.status);
+        assertEquals("\"4\"", last.body);
+    }
+
+    @Test
+    public void readsRequestsSplitAcrossWrites() throws Exception {
+        connect();
+        String request = post("/nio/body", "hola mundo");
+        for (int i = 0; i < request.length(); i += 7) {
+            send(request.substring(i, Math.min(request.length(), i + 7)));
+            Thread.sleep(2);
+        }
+        assertEquals(bodySummary("hola mundo".getBytes(StandardCharsets.UTF_8)), read().body);
+    }
+
+    @Test
+    public void readsLargeBodiesArrivingInPieces() throws Exception {
+        connect();
+        byte[] body = new byte[100 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        send("POST /nio/body HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n");
+        OutputStream out = socket.getOutputStream();
+        for (int i = 0; i < body.length; i += 16 * 1024) {
+            out.write(body, i, Math.min(16 * 1024, body.length - i));
+            out.flush();
+            Thread.sleep(2);
+        }
+        Response response = read();
+        assertEquals(200, response.status);
+        assertEquals(bodySummary(body), response.body);
+    }
+
+    @Test
+    public void readsChunkedUploads() throws Exception {
+        connect();
+        send("POST /nio/body HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nWiki");
+        Thread.sleep(20);
+        send("\r\n5;ext=1\r\npedia\r\n");
+        Thread.sleep(20);
+        send("0\r\nX-Trailer: 1\r\n\r\n" + get("/nio/echo/next"));
+        Response response = read();
+        assertEquals(200, response.status);
+        assertEquals(bodySummary("Wikipedia".getBytes(StandardCharsets.UTF_8)), response.body);
+        assertEquals("\"next\"", read().body);
+    }
+
+    @Test
+    public void oversizedHeadersAreRejected() throws IOException {
+        connect();
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            big.append('x');
+        }
+        send("GET /nio/echo/1 HTTP/1.1\r\nHost: localhost\r\nX-Big: " + big + "\r\n\r\n");
+        Response response = read();
+        assertEquals(431, response.status);
+        assertEquals("close", response.headers.get("Connection"));
+        assertClosed();
+    }
+
+    @Test
+    public void incompleteOversizedHeadersAreRejected() throws IOException {
+        connect();
+        StringBuilder big = new StringBuilder("GET /nio/echo/1 HTTP/1.1\r\nX-Big: ");
+        for (int i = 0; i < 2000; i++) {
+            big.append('x');
+        }
+        send(big.toString());
+        assertEquals(431, read().status);
+        assertClosed();
+    }
+
+    @Test
+    public void declaredBodyOverMaxRequestSizeIsRejected() throws IOException {
+        connect();
+        send("POST /nio/body HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + (256 * 1024 + 1) + "\r\n\r\n");
+        Response response = read();
+        assertEquals(413, response.status);
+        assertClosed();
+    }
+
+    @Test
+    public void chunkedBodyOverMaxRequestSizeIsRejected() throws IOException {
+        connect();
+        send("POST /nio/body HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + Integer.toHexString(256 * 1024 + 1) + "\r\n");
+        assertEquals(413, read().status);
+        assertClosed();
+    }
+
+    @Test
+    public void transferEncodingWithContentLengthIsRejected() throws IOException {
+        connect();
+        send("POST /nio/body HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "0\r\n\r\n" + get("/nio/echo/smuggled"));
+        Response response = read();
+        assertEquals(400, response.status);
+        assertEquals("close", response.headers.get("Connection"));
+        // La peticion que seguia no se interpreta
+        assertClosed();
+    }
+
+    @Test
+    public void unsupportedTransferEncodingIsRejected() throws IOException {
+        connect();
+        send("POST /nio/body HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: gzip\r\n\r\n");
+        assertEquals(501, read().status);
+        assertClosed();
+    }
+
+    @Test
+    public void malformedRequestLineIsRejected() throws IOException {
+        connect();
+        send("GARBAGE\r\n\r\n");
+        assertEquals(400, read().status);
+        assertClosed();
+    }
+
+    @Test
+    public void keepsConnectionOpenBetweenRequests() throws IOException {
+        connect();
+        send(get("/nio/echo/1"));
+        assertNull(read().headers.get("Connection"));
+        send(get("/nio/echo/2"));
+        assertEquals("\"2\"", read().body);
+        send("GET /nio/echo/3 HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+        assertEquals("keep-alive", read().headers.get("Connection"));
+        send(get("/nio/echo/4"));
+        assertEquals("\"4\"", read().body);
+    }
+
+    @Test
+    public void closesWhenClientAsksForIt() throws IOException {
+        connect();
+        send("GET /nio/echo/1 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        Response response = read();
+        assertEquals("\"1\"", response.body);
+        assertEquals("close", response.headers.get("Connection"));
+        assertClosed();
+    }
+
+    @Test
+    public void closesIdleConnections() throws Exception {
+        transport.setKeepAliveTimeout(100);
+        connect();
+        send(get("/nio/echo/1"));
+        assertEquals(200, read().status);
+        long start = System.nanoTime();
+        assertClosed();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+    }
+
+    @Test
+    public void unknownContextIsNotFound() throws IOException {
+        connect();
+        send(get("/other"));
+        assertEquals(404, read().status);
+    }
+
+    /**
+     * Respuesta leida del socket
+     */
+    private static final class Response {
+
+        private final int status;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private String body;
+
+        private Response(int status) {
+            this.status = status;
+        }
+    }
+}
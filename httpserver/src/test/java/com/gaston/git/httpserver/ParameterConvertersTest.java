@@ -0,0 +1,114 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Conversores resueltos por tipo: tipos simples, enums, listas, metodos
+ * valueOf o constructores de un String y fechas
+ *
+ * @author gaston
+ */
+public class ParameterConvertersTest {
+
+    /**
+     * Campo del que se obtiene el tipo generico List&lt;Integer&gt;
+     */
+    public List<Integer> numbers;
+
+    private static Object convert(Type type, String value) throws Exception {
+        return ParameterConverters.forType(type).convert(value);
+    }
+
+    @Test
+    public void convertsPrimitivesAndWrappers() throws Exception {
+        assertEquals(42, convert(int.class, "42"));
+        assertEquals(42, convert(Integer.class, "42"));
+        assertEquals(7L, convert(long.class, "7"));
+        assertEquals((short) 3, convert(short.class, "3"));
+        assertEquals((byte) 2, convert(Byte.class, "2"));
+        assertEquals(1.5d, convert(double.class, "1.5"));
+        assertEquals(2.5f, convert(Float.class, "2.5"));
+        assertEquals(Boolean.TRUE, convert(boolean.class, "true"));
+        assertEquals('x', convert(char.class, "x"));
+        assertEquals("texto", convert(String.class, "texto"));
+        assertEquals(new BigDecimal("10.25"), convert(BigDecimal.class, "10.25"));
+        assertEquals(new BigInteger("12345678901234567890"), convert(BigInteger.class, "12345678901234567890"));
+    }
+
+    @Test
+    public void resolvesConverterOncePerType() {
+        assertSame(ParameterConverters.forType(int.class), ParameterConverters.forType(Integer.class));
+        assertSame(ParameterConverters.forType(String.class), ParameterConverters.forType(Object.class));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void invalidNumberFails() throws Exception {
+        convert(int.class, "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCharacterFails() throws Exception {
+        convert(char.class, "xy");
+    }
+
+    @Test
+    public void convertsEnumConstants() throws Exception {
+        assertEquals(TimeUnit.SECONDS, convert(TimeUnit.class, "SECONDS"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownEnumConstantFails() throws Exception {
+        convert(TimeUnit.class, "seconds");
+    }
+
+    @Test
+    public void usesValueOfOrStringConstructor() throws Exception {
+        assertEquals(Thread.State.NEW, convert(Thread.State.class, "NEW"));
+        assertEquals(URI.create("http://localhost/a"), convert(URI.class, "http://localhost/a"));
+    }
+
+    @Test
+    public void convertsCommaSeparatedLists() throws Exception {
+        Type type = ParameterConvertersTest.class.getField("numbers").getGenericType();
+        assertEquals(Arrays.asList(1, 2, 3), convert(type, "1,2,3"));
+        assertEquals(Arrays.asList("a", "", "b"), convert(List.class, "a,,b"));
+    }
+
+    @Test
+    public void convertsDates() throws Exception {
+        Date date = (Date) convert(Date.class, "2020-01-02 10:30:15");
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        assertEquals(2020, calendar.get(Calendar.YEAR));
+        assertEquals(Calendar.JANUARY, calendar.get(Calendar.MONTH));
+        assertEquals(2, calendar.get(Calendar.DAY_OF_MONTH));
+        assertEquals(10, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(30, calendar.get(Calendar.MINUTE));
+        assertEquals(15, calendar.get(Calendar.SECOND));
+    }
+
+    @Test
+    public void convertsTwentyFourHourClock() throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime((Date) convert(Date.class, "2020-01-02 23:05:00"));
+        assertEquals(23, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(5, calendar.get(Calendar.MINUTE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedTypeFailsOnConversion() throws Exception {
+        convert(Object[].class, "a");
+    }
+}
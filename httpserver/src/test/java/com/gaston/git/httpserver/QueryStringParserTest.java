@@ -0,0 +1,90 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Lectura de query strings: separadores, escapes, parametros repetidos y
+ * decodificacion de paths
+ *
+ * @author gaston
+ */
+public class QueryStringParserTest {
+
+    private static RequestParameters parse(String raw) {
+        RequestParameters parameters = new RequestParameters();
+        QueryStringParser.parse(raw, parameters);
+        return parameters;
+    }
+
+    @Test
+    public void readsPlainPairs() {
+        RequestParameters parameters = parse("a=1&b=two&c=");
+        assertEquals(3, parameters.size());
+        assertEquals("1", parameters.get("a"));
+        assertEquals("two", parameters.get("b"));
+        assertEquals("", parameters.get("c"));
+    }
+
+    @Test
+    public void ignoresNullAndEmptySegments() {
+        assertEquals(0, parse(null).size());
+        assertEquals(0, parse("").size());
+        RequestParameters parameters = parse("&&a=1&&=x&");
+        assertEquals(1, parameters.size());
+        assertEquals("1", parameters.get("a"));
+    }
+
+    @Test
+    public void nameWithoutEqualsHasEmptyValue() {
+        RequestParameters parameters = parse("flag&a=1");
+        assertEquals("", parameters.get("flag"));
+        assertEquals("1", parameters.get("a"));
+    }
+
+    @Test
+    public void onlyFirstEqualsSeparatesValue() {
+        assertEquals("b=c", parse("a=b=c").get("a"));
+    }
+
+    @Test
+    public void decodesEscapesAndPlus() {
+        RequestParameters parameters = parse("q=hola+mundo&n=%C3%B1and%C3%BA&s=a%2Bb%26c&k%20ey=v");
+        assertEquals("hola mundo", parameters.get("q"));
+        assertEquals("ñandú", parameters.get("n"));
+        assertEquals("a+b&c", parameters.get("s"));
+        assertEquals("v", parameters.get("k ey"));
+    }
+
+    @Test
+    public void keepsInvalidEscapesLiterally() {
+        assertEquals("100%", parse("p=100%").get("p"));
+        assertEquals("%zz+", parse("p=%zz%2B").get("p"));
+    }
+
+    @Test
+    public void copiesUnescapedNonAsciiAsUtf8() {
+        assertEquals("ñ ñ", parse("n=ñ+%C3%B1").get("n"));
+    }
+
+    @Test
+    public void keepsRepeatedKeysInOrder() {
+        RequestParameters parameters = parse("id=1&x=0&id=2&id=3");
+        assertEquals(3, parameters.count("id"));
+        assertEquals("1", parameters.get("id"));
+        assertEquals(Arrays.asList("1", "2", "3"), parameters.getAll("id"));
+        assertEquals(Collections.<String>emptyList(), parameters.getAll("missing"));
+        assertNull(parameters.get("missing"));
+    }
+
+    @Test
+    public void decodesPathWithoutPlusAsSpace() {
+        assertEquals("a+b c", QueryStringParser.decodePath("a+b%20c"));
+        assertEquals("plain", QueryStringParser.decodePath("plain"));
+        assertEquals("ñ", QueryStringParser.decodePath("%C3%B1"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Limitador de peticiones por unidad de tiempo: rafaga, cambios de limite en
+ * caliente, limite por cliente y cantidad maxima de clientes
+ *
+ * @author gaston
+ */
+public class RateLimiterTest {
+
+    /**
+     * Cantidad maxima de clientes del limitador
+     */
+    private static final int MAX_CLIENTS = 10000;
+
+    @Test
+    public void admitsBurstThenRejects() {
+        RateLimiter limiter = new RateLimiter(3, 1, TimeUnit.HOURS, 0, false);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(null));
+        }
+        long wait = limiter.tryAcquire(null);
+        assertTrue(wait > 0 && wait <= TimeUnit.MINUTES.toNanos(20));
+        assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void burstOverridesPermits() {
+        RateLimiter limiter = new RateLimiter(100, 1, TimeUnit.HOURS, 1, false);
+        assertEquals(0, limiter.tryAcquire(null));
+        assertTrue(limiter.tryAcquire(null) > 0);
+    }
+
+    @Test
+    public void lowerRateAppliesToNextRequest() {
+        RateLimiter limiter = new RateLimiter(10, 1, TimeUnit.HOURS, 0, false);
+        assertEquals(0, limiter.tryAcquire(null));
+        limiter.setRate(1, 1, TimeUnit.HOURS, 1);
+        assertTrue(limiter.tryAcquire(null) > 0);
+    }
+
+    @Test
+    public void higherBurstAppliesToNextRequest() {
+        RateLimiter limiter = new RateLimiter(1, 1, TimeUnit.HOURS, 0, false);
+        assertEquals(0, limiter.tryAcquire(null));
+        assertTrue(limiter.tryAcquire(null) > 0);
+        limiter.setRate(1, 1, TimeUnit.HOURS, 10);
+        assertEquals(0, limiter.tryAcquire(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRate() {
+        new RateLimiter(1, 1, TimeUnit.SECONDS, 0, false).setRate(0, 1, TimeUnit.SECONDS, 0);
+    }
+
+    @Test
+    public void limitsEachClientSeparately() {
+        RateLimiter limiter = new RateLimiter(1, 1, TimeUnit.HOURS, 0, true);
+        assertTrue(limiter.isPerClient());
+        assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+        assertEquals(0, limiter.tryAcquire("10.0.0.2"));
+    }
+
+    @Test
+    public void rejectsNewClientsWhenFullOfActiveClients() {
+        RateLimiter limiter = new RateLimiter(1, 1, TimeUnit.HOURS, 0, true);
+        for (int i = 0; i < MAX_CLIENTS; i++) {
+            assertEquals(0, limiter.tryAcquire("client-" + i));
+        }
+        assertTrue(limiter.tryAcquire("client-new") > 0);
+        assertEquals(1, limiter.getRejected());
+        // Los clientes conocidos siguen con su propio estado
+        assertTrue(limiter.tryAcquire("client-0") > 0);
+    }
+
+    @Test
+    public void evictsIdleClientsToMakeRoom() throws Exception {
+        RateLimiter limiter = new RateLimiter(1000, 1, TimeUnit.MILLISECONDS, 0, true);
+        for (int i = 0; i < MAX_CLIENTS; i++) {
+            assertEquals(0, limiter.tryAcquire("client-" + i));
+        }
+        Thread.sleep(5);
+        assertEquals(0, limiter.tryAcquire("client-new"));
+    }
+}
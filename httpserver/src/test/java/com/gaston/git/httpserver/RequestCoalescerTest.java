@@ -0,0 +1,193 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Union de peticiones identicas: registro de la invocacion, entrega del
+ * resultado o del error de la peticion que invoca la ruta y tiempo maximo de
+ * espera de las que se unen
+ *
+ * @author gaston
+ */
+public class RequestCoalescerTest {
+
+    private CoalesceContext context;
+
+    /**
+     * Contexto cuya ruta espera a que la prueba la libere y luego responde o
+     * falla segun lo indicado
+     */
+    public static class CoalesceContext extends WebContext {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile Exception failure;
+
+        public CoalesceContext() {
+            super("/c");
+        }
+
+        @GET
+        @Path("/slow")
+        @Produces(MediaType.APPLICATION_JSON)
+        @Coalesce
+        public String slow() throws Exception {
+            entered.countDown();
+            if (!release.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("La prueba no libero la ruta");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return "ok";
+        }
+
+        RequestCoalescer coalescer() {
+            return getRoutes().get(0).getCoalescer();
+        }
+    }
+
+    @Before
+    public void createContext() {
+        context = new CoalesceContext();
+    }
+
+    private static BatchExchange exchange() {
+        return new BatchExchange("GET", "/c/slow", null, new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER),
+                null);
+    }
+
+    /**
+     * Inicia la peticion que invoca la ruta en otro hilo y espera a que entre
+     * en el metodo
+     */
+    private BatchExchange startLeader() throws Exception {
+        final BatchExchange leader = exchange();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    context.handle(leader);
+                } catch (Exception e) {
+                    leader.getResponse().completeExceptionally(e);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        assertTrue(context.entered.await(5, TimeUnit.SECONDS));
+        return leader;
+    }
+
+    private static BatchResponse response(BatchExchange exchange) throws Exception {
+        return exchange.getResponse().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void secondCallJoinsRegisteredInvocation() {
+        RequestCoalescer coalescer = new RequestCoalescer(0, TimeUnit.SECONDS);
+        CompletableFuture<ResponseCache.Entry> first = new CompletableFuture<>();
+        assertNull(coalescer.join("k", first));
+        assertSame(first, coalescer.join("k", new CompletableFuture<ResponseCache.Entry>()));
+        assertEquals(1, coalescer.getInFlight());
+
+        ResponseCache.Entry entry = ResponseCache.Entry.of("ok".getBytes(StandardCharsets.UTF_8), "text/plain");
+        coalescer.complete("k", first, entry);
+        assertSame(entry, first.getNow(null));
+        assertEquals(0, coalescer.getInFlight());
+        // Terminada la invocacion la proxima peticion vuelve a invocar la ruta
+        assertNull(coalescer.join("k", new CompletableFuture<ResponseCache.Entry>()));
+        assertEquals(2, coalescer.getInvocations());
+        assertEquals(1, coalescer.getMerged());
+    }
+
+    @Test
+    public void failureReachesWaitersAndReleasesKey() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(0, TimeUnit.SECONDS);
+        CompletableFuture<ResponseCache.Entry> first = new CompletableFuture<>();
+        assertNull(coalescer.join("k", first));
+        coalescer.fail("k", first, new HttpStatusException(409, "Conflicto"));
+        assertTrue(first.isCompletedExceptionally());
+        try {
+            first.get();
+            fail("La invocacion debia terminar con error");
+        } catch (ExecutionException e) {
+            assertEquals(409, ((HttpStatusException) e.getCause()).getStatus());
+        }
+        assertNull(coalescer.join("k", new CompletableFuture<ResponseCache.Entry>()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeMaxWait() {
+        new RequestCoalescer(0, TimeUnit.SECONDS).setMaxWait(-1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void followerGetsLeaderResponse() throws Exception {
+        BatchExchange leader = startLeader();
+        BatchExchange follower = exchange();
+        context.handle(follower);
+        assertFalse(follower.getResponse().isDone());
+        context.release.countDown();
+        assertEquals("\"ok\"", response(leader).getBody());
+        BatchResponse shared = response(follower);
+        assertEquals(200, shared.getStatus());
+        assertEquals("\"ok\"", shared.getBody());
+        assertEquals(1, context.coalescer().getInvocations());
+        assertEquals(1, context.coalescer().getMerged());
+    }
+
+    @Test
+    public void leaderStatusExceptionReachesFollower() throws Exception {
+        context.failure = new HttpStatusException(409, "Conflicto");
+        BatchExchange leader = startLeader();
+        BatchExchange follower = exchange();
+        context.handle(follower);
+        context.release.countDown();
+        assertEquals(409, response(leader).getStatus());
+        assertEquals(409, response(follower).getStatus());
+        assertEquals(0, context.coalescer().getInFlight());
+    }
+
+    @Test
+    public void leaderUnexpectedExceptionIsInternalErrorForFollower() throws Exception {
+        context.failure = new IllegalStateException("Falla de prueba");
+        BatchExchange leader = startLeader();
+        BatchExchange follower = exchange();
+        context.handle(follower);
+        context.release.countDown();
+        assertEquals(500, response(leader).getStatus());
+        assertEquals(500, response(follower).getStatus());
+    }
+
+    @Test
+    public void followerTimesOutWithoutAffectingLeader() throws Exception {
+        context.coalescer().setMaxWait(50, TimeUnit.MILLISECONDS);
+        BatchExchange leader = startLeader();
+        BatchExchange follower = exchange();
+        context.handle(follower);
+        assertEquals(504, response(follower).getStatus());
+        assertEquals(1, context.coalescer().getTimeouts());
+        assertFalse(leader.getResponse().isDone());
+        context.release.countDown();
+        assertEquals(200, response(leader).getStatus());
+    }
+}
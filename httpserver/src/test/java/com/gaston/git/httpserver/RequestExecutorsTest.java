@@ -0,0 +1,118 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.Test;
+
+/**
+ * Modos de ejecucion del servidor: el modo BOUNDED rechaza con 503 y
+ * Retry-After cuando el pool y su cola estan llenos
+ *
+ * @author gaston
+ */
+public class RequestExecutorsTest {
+
+    /**
+     * Contexto cuya ruta espera a que la prueba la libere
+     */
+    public static class BlockingContext extends WebContext {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public BlockingContext() {
+            super("/block");
+        }
+
+        @GET
+        @Path("/wait")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String hold() throws InterruptedException {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return "ok";
+        }
+    }
+
+    private static Future<TestServer.Response> callAsync(ExecutorService clients, final TestServer server) {
+        return clients.submit(new Callable<TestServer.Response>() {
+            @Override
+            public TestServer.Response call() throws Exception {
+                return server.get("/block/wait");
+            }
+        });
+    }
+
+    @Test
+    public void boundedModeRejectsWhenPoolAndQueueAreFull() throws Exception {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) RequestExecutors.create(ExecutionMode.BOUNDED, 1, 1, 7);
+        BlockingContext context = new BlockingContext();
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try (TestServer server = new TestServer(executor, context)) {
+            Future<TestServer.Response> running = callAsync(clients, server);
+            assertTrue(context.entered.await(5, TimeUnit.SECONDS));
+            Future<TestServer.Response> queued = callAsync(clients, server);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.getQueue().isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, executor.getQueue().size());
+
+            long rejected = RequestExecutors.getRejectedCount();
+            TestServer.Response response = server.get("/block/wait");
+            assertEquals(503, response.getStatus());
+            assertEquals("7", response.getHeader("Retry-After"));
+            assertEquals(rejected + 1, RequestExecutors.getRejectedCount());
+
+            context.release.countDown();
+            assertEquals(200, running.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(200, queued.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(200, server.get("/block/wait").getStatus());
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void boundedModeUsesFixedPoolAndQueue() {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) RequestExecutors.create(ExecutionMode.BOUNDED, 3, 5, 1);
+        try {
+            assertEquals(3, executor.getCorePoolSize());
+            assertEquals(3, executor.getMaximumPoolSize());
+            assertEquals(3, executor.getPoolSize());
+            assertEquals(5, executor.getQueue().remainingCapacity());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void everyModeRunsTasks() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ExecutorService executor = RequestExecutors.create(mode, 2, 4, 1);
+            try {
+                Future<String> result = executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "ok";
+                    }
+                });
+                assertEquals(mode.name(), "ok", result.get(5, TimeUnit.SECONDS));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Contenedor de parametros: orden de llegada, claves repetidas, crecimiento
+ * de los arreglos y reutilizacion con clear
+ *
+ * @author gaston
+ */
+public class RequestParametersTest {
+
+    @Test
+    public void keepsArrivalOrder() {
+        RequestParameters parameters = new RequestParameters();
+        parameters.add("b", "1");
+        parameters.add("a", "2");
+        assertEquals(2, parameters.size());
+        assertEquals("b", parameters.getName(0));
+        assertEquals("1", parameters.getValue(0));
+        assertEquals("a", parameters.getName(1));
+        assertEquals("2", parameters.getValue(1));
+    }
+
+    @Test
+    public void repeatedNamesKeepEveryValue() {
+        RequestParameters parameters = new RequestParameters();
+        parameters.add("id", "1");
+        parameters.add("x", "0");
+        parameters.add("id", "2");
+        assertEquals("1", parameters.get("id"));
+        assertEquals(2, parameters.count("id"));
+        assertEquals(Arrays.asList("1", "2"), parameters.getAll("id"));
+        assertEquals(Collections.singletonList("0"), parameters.getAll("x"));
+    }
+
+    @Test
+    public void missingNameHasNoValues() {
+        RequestParameters parameters = new RequestParameters();
+        parameters.add("a", "1");
+        assertNull(parameters.get("A"));
+        assertEquals(0, parameters.count("b"));
+        assertEquals(Collections.<String>emptyList(), parameters.getAll("b"));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        RequestParameters parameters = new RequestParameters();
+        for (int i = 0; i < 100; i++) {
+            parameters.add("p" + i, String.valueOf(i));
+        }
+        assertEquals(100, parameters.size());
+        assertEquals("0", parameters.get("p0"));
+        assertEquals("99", parameters.get("p99"));
+        assertEquals("p57", parameters.getName(57));
+    }
+
+    @Test
+    public void clearAllowsReuse() {
+        RequestParameters parameters = new RequestParameters();
+        for (int i = 0; i < 20; i++) {
+            parameters.add("a", String.valueOf(i));
+        }
+        parameters.clear();
+        assertEquals(0, parameters.size());
+        assertNull(parameters.get("a"));
+        parameters.add("a", "nuevo");
+        assertEquals(Collections.singletonList("nuevo"), parameters.getAll("a"));
+    }
+}
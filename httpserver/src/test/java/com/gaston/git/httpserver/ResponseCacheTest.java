@@ -0,0 +1,169 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import org.junit.Test;
+
+/**
+ * Cache de respuestas: vencimiento, descarte LRU, invalidacion por path,
+ * comparacion de ETags y claves de las rutas @Cacheable
+ *
+ * @author gaston
+ */
+public class ResponseCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * Contexto con una ruta cacheada que depende de un header
+     */
+    public static class CacheContext extends WebContext {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public CacheContext() {
+            super("/cache");
+        }
+
+        @GET
+        @Path("/greeting")
+        @Produces(MediaType.APPLICATION_JSON)
+        @Cacheable
+        public String greeting(@HeaderParam("X-Lang") String lang, @QueryParam("name") String name) {
+            calls.incrementAndGet();
+            return ("en".equals(lang) ? "hello " : "hola ") + name;
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static BatchResponse get(WebContext context, String query, String... headers) throws Exception {
+        TreeMap<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            requestHeaders.put(headers[i], headers[i + 1]);
+        }
+        BatchExchange exchange = new BatchExchange("GET", "/cache/greeting", query, requestHeaders, null);
+        context.handle(exchange);
+        return exchange.getResponse().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void returnsStoredEntryAndCountsHits() {
+        ResponseCache cache = new ResponseCache(10, HOUR);
+        assertNull(cache.get("/a?|json"));
+        ResponseCache.Entry stored = cache.put("/a?|json", bytes("{}"), "application/json");
+        assertSame(stored, cache.get("/a?|json"));
+        assertEquals("application/json", stored.getContentType());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void discardsExpiredEntries() {
+        ResponseCache cache = new ResponseCache(10, 0);
+        cache.put("/a?|json", bytes("{}"), "application/json");
+        assertEquals(1, cache.size());
+        assertNull(cache.get("/a?|json"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(2, HOUR);
+        cache.put("a", bytes("1"), "text/plain");
+        cache.put("b", bytes("2"), "text/plain");
+        // El acceso hace que b sea la entrada usada menos recientemente
+        assertNotNull(cache.get("a"));
+        cache.put("c", bytes("3"), "text/plain");
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void invalidatesAllVariantsOfPath() {
+        ResponseCache cache = new ResponseCache(10, HOUR);
+        cache.put("/orders?|application/json", bytes("[]"), "application/json");
+        cache.put("/orders?1:n=1:5&|application/xml", bytes("<a/>"), "application/xml");
+        cache.put("/orders/1?|application/json", bytes("{}"), "application/json");
+        cache.put("/ordersx?|application/json", bytes("{}"), "application/json");
+        assertEquals(2, cache.invalidate("/orders"));
+        assertNull(cache.get("/orders?|application/json"));
+        assertNotNull(cache.get("/orders/1?|application/json"));
+        assertNotNull(cache.get("/ordersx?|application/json"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void etagDependsOnlyOnContent() {
+        String etag = ResponseCache.etag(bytes("hola"));
+        assertEquals(18, etag.length());
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, ResponseCache.etag(bytes("hola")));
+        assertFalse(etag.equals(ResponseCache.etag(bytes("chau"))));
+    }
+
+    @Test
+    public void compressedRepresentationHasItsOwnEtag() {
+        ResponseCache.Entry entry = new ResponseCache(1, HOUR).put("/a?|json", bytes("hola"), "text/plain");
+        String gzip = entry.getEtag(ContentEncoding.GZIP);
+        assertFalse(entry.getEtag().equals(gzip));
+        assertTrue(gzip.endsWith("-" + ContentEncoding.GZIP.getToken() + "\""));
+    }
+
+    @Test
+    public void matchesIfNoneMatch() {
+        String etag = ResponseCache.etag(bytes("hola"));
+        assertTrue(ResponseCache.matches(etag, etag));
+        assertTrue(ResponseCache.matches("W/" + etag, etag));
+        assertTrue(ResponseCache.matches("\"other\", " + etag, etag));
+        assertTrue(ResponseCache.matches("*", etag));
+        assertFalse(ResponseCache.matches(null, etag));
+        assertFalse(ResponseCache.matches("\"other\"", etag));
+        assertFalse(ResponseCache.matches(etag.substring(1, 17), etag));
+    }
+
+    @Test
+    public void headerParametersArePartOfTheKey() throws Exception {
+        CacheContext context = new CacheContext();
+        assertEquals("\"hola ana\"", get(context, "name=ana").getBody());
+        assertEquals("\"hello ana\"", get(context, "name=ana", "X-Lang", "en").getBody());
+        assertEquals("\"hola ana\"", get(context, "name=ana", "X-Lang", "es").getBody());
+        assertEquals(3, context.calls.get());
+
+        assertEquals("\"hello ana\"", get(context, "name=ana", "x-lang", "en").getBody());
+        assertEquals("\"hola ana\"", get(context, "name=ana&other=1").getBody());
+        assertEquals(3, context.calls.get());
+    }
+
+    @Test
+    public void cachedResponsesAnswerIfNoneMatch() throws Exception {
+        CacheContext context = new CacheContext();
+        BatchResponse first = get(context, "name=ana", "X-Lang", "en");
+        String etag = first.getHeaders().get("ETag");
+        assertNotNull(etag);
+        assertEquals(304, get(context, "name=ana", "X-Lang", "en", "If-None-Match", etag).getStatus());
+        assertEquals(200, get(context, "name=ana", "If-None-Match", etag).getStatus());
+        assertEquals(2, context.calls.get());
+    }
+}
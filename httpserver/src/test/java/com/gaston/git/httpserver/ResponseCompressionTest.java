@@ -0,0 +1,242 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compresion de las respuestas: negociacion de Accept-Encoding, pool de
+ * Deflater, formatos gzip y deflate y tamaños minimos por ruta
+ *
+ * @author gaston
+ */
+public class ResponseCompressionTest {
+
+    private static TestServer server;
+
+    /**
+     * Contexto con respuestas de distintos tamaños
+     */
+    public static class CompressContext extends WebContext {
+
+        public CompressContext() {
+            super("/zip");
+        }
+
+        @GET
+        @Path("/small")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String small() {
+            return "chico";
+        }
+
+        @GET
+        @Path("/medium")
+        @Produces(MediaType.APPLICATION_JSON)
+        public List<String> medium() {
+            return items(200);
+        }
+
+        @GET
+        @Path("/large")
+        @Produces(MediaType.APPLICATION_JSON)
+        public List<String> large() {
+            return items(5000);
+        }
+
+        @GET
+        @Path("/disabled")
+        @Produces(MediaType.APPLICATION_JSON)
+        @Compress(enabled = false)
+        public List<String> disabled() {
+            return items(200);
+        }
+
+        @GET
+        @Path("/eager")
+        @Produces(MediaType.APPLICATION_JSON)
+        @Compress(minSize = 16)
+        public String eager() {
+            return "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        }
+    }
+
+    private static List<String> items(int count) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add("item-" + i);
+        }
+        return items;
+    }
+
+    private static String json(List<String> items) {
+        StringBuilder json = new StringBuilder("[");
+        for (String item : items) {
+            json.append(json.length() > 1 ? "," : "").append('"').append(item).append('"');
+        }
+        return json.append(']').toString();
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new TestServer(new CompressContext());
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        return readAll(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        return readAll(new InflaterInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void negotiatesAcceptEncoding() {
+        assertNull(ResponseCompression.negotiate(null));
+        assertNull(ResponseCompression.negotiate(""));
+        assertNull(ResponseCompression.negotiate("identity"));
+        assertNull(ResponseCompression.negotiate("br"));
+        assertEquals(ContentEncoding.GZIP, ResponseCompression.negotiate("gzip"));
+        assertEquals(ContentEncoding.GZIP, ResponseCompression.negotiate("deflate, gzip"));
+        assertEquals(ContentEncoding.DEFLATE, ResponseCompression.negotiate("deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.GZIP, ResponseCompression.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0, *"));
+        assertNull(ResponseCompression.negotiate("gzip;q=0, deflate;q=0"));
+    }
+
+    @Test
+    public void reusesResetDeflaters() {
+        Deflater used = ResponseCompression.acquire(ContentEncoding.GZIP);
+        used.setInput(new byte[100]);
+        used.finish();
+        used.deflate(new byte[100]);
+        ResponseCompression.release(ContentEncoding.GZIP, used);
+        List<Deflater> acquired = new ArrayList<>();
+        boolean reused = false;
+        for (int i = 0; i < 65 && !reused; i++) {
+            Deflater deflater = ResponseCompression.acquire(ContentEncoding.GZIP);
+            acquired.add(deflater);
+            reused = deflater == used;
+        }
+        assertTrue(reused);
+        assertEquals(0, used.getBytesRead());
+        for (Deflater deflater : acquired) {
+            ResponseCompression.release(ContentEncoding.GZIP, deflater);
+        }
+    }
+
+    @Test
+    public void compressesIntoFixedBuffer() throws IOException {
+        byte[] data = json(items(300)).getBytes(StandardCharsets.UTF_8);
+        byte[] dest = new byte[data.length];
+        int length = ResponseCompression.compress(data, data.length, dest, ContentEncoding.GZIP);
+        assertTrue(length > 0 && length < data.length);
+        assertArrayEquals(data, gunzip(Arrays.copyOf(dest, length)));
+        length = ResponseCompression.compress(data, data.length, dest, ContentEncoding.DEFLATE);
+        assertArrayEquals(data, inflate(Arrays.copyOf(dest, length)));
+    }
+
+    @Test
+    public void incompressibleDataIsNotCompressed() {
+        byte[] data = new byte[2048];
+        new Random(7).nextBytes(data);
+        assertEquals(-1, ResponseCompression.compress(data, data.length, new byte[data.length], ContentEncoding.GZIP));
+        assertNull(ResponseCompression.compress(data, 0, data.length, ContentEncoding.DEFLATE));
+    }
+
+    @Test
+    public void streamsGzipAcrossFlushes() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        byte[] first = json(items(1000)).getBytes(StandardCharsets.UTF_8);
+        byte[] second = "fin".getBytes(StandardCharsets.UTF_8);
+        try (DeflatingOutputStream out = new DeflatingOutputStream(target, ContentEncoding.GZIP,
+                BufferPool.shared())) {
+            out.write(first);
+            out.flush();
+            assertTrue(target.size() > 0);
+            out.write(second);
+        }
+        byte[] expected = new byte[first.length + second.length];
+        System.arraycopy(first, 0, expected, 0, first.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, gunzip(target.toByteArray()));
+    }
+
+    @Test
+    public void compressesResponsesOverThreshold() throws IOException {
+        TestServer.Response response = server.get("/zip/medium", "Accept-Encoding", "gzip");
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(String.valueOf(response.getBody().length), response.getHeader("Content-Length"));
+        assertEquals(json(items(200)), new String(gunzip(response.getBody()), StandardCharsets.UTF_8));
+
+        response = server.get("/zip/medium", "Accept-Encoding", "deflate");
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        assertEquals(json(items(200)), new String(inflate(response.getBody()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compressesChunkedResponsesWhileWriting() throws IOException {
+        TestServer.Response response = server.get("/zip/large", "Accept-Encoding", "gzip");
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+        assertEquals(json(items(5000)), new String(gunzip(response.getBody()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void leavesSmallOrUnacceptedResponsesUncompressed() throws IOException {
+        TestServer.Response response = server.get("/zip/small", "Accept-Encoding", "gzip");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("\"chico\"", response.getText());
+        response = server.get("/zip/medium");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(json(items(200)), response.getText());
+    }
+
+    @Test
+    public void compressAnnotationOverridesThreshold() throws IOException {
+        assertNull(server.get("/zip/disabled", "Accept-Encoding", "gzip").getHeader("Content-Encoding"));
+        TestServer.Response response = server.get("/zip/eager", "Accept-Encoding", "gzip");
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("\"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"",
+                new String(gunzip(response.getBody()), StandardCharsets.UTF_8));
+    }
+}
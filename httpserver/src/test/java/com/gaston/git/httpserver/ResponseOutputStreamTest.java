@@ -0,0 +1,114 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Envio de las respuestas: Content-Length exacto en bytes para las que entran
+ * en el buffer, transferencia chunked para las mas grandes y reutilizacion de
+ * los buffers del pool
+ *
+ * @author gaston
+ */
+public class ResponseOutputStreamTest {
+
+    private static TestServer server;
+
+    /**
+     * Contexto con una respuesta chica y otra mas grande que el buffer
+     */
+    public static class OutputContext extends WebContext {
+
+        public OutputContext() {
+            super("/out");
+        }
+
+        @GET
+        @Path("/small")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String small() {
+            return "ñandú";
+        }
+
+        @GET
+        @Path("/large")
+        @Produces(MediaType.APPLICATION_JSON)
+        public List<String> large() {
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                items.add("item-" + i);
+            }
+            return items;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new TestServer(new OutputContext());
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void smallResponseHasExactByteLength() throws Exception {
+        TestServer.Response response = server.get("/out/small");
+        assertEquals(200, response.getStatus());
+        byte[] expected = "\"ñandú\"".getBytes(StandardCharsets.UTF_8);
+        assertEquals(String.valueOf(expected.length), response.getHeader("Content-Length"));
+        assertNull(response.getHeader("Transfer-Encoding"));
+        assertEquals("\"ñandú\"", response.getText());
+    }
+
+    @Test
+    public void largeResponseIsChunked() throws Exception {
+        TestServer.Response response = server.get("/out/large");
+        assertEquals(200, response.getStatus());
+        assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+        assertNull(response.getHeader("Content-Length"));
+        assertTrue(response.getBody().length > BufferPool.DEFAULT_BUFFER_SIZE);
+        String body = response.getText();
+        assertTrue(body.startsWith("[\"item-0\",\"item-1\","));
+        assertTrue(body.endsWith(",\"item-1999\"]"));
+    }
+
+    @Test
+    public void poolReusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(64, 1);
+        byte[] first = pool.acquire();
+        assertEquals(64, first.length);
+        pool.release(first);
+        assertSame(first, pool.acquire());
+    }
+
+    @Test
+    public void poolDiscardsForeignAndExcessBuffers() {
+        BufferPool pool = new BufferPool(64, 1);
+        pool.release(new byte[32]);
+        assertEquals(64, pool.acquire().length);
+        byte[] kept = new byte[64];
+        byte[] excess = new byte[64];
+        pool.release(kept);
+        pool.release(excess);
+        assertSame(kept, pool.acquire());
+        byte[] next = pool.acquire();
+        assertFalse(next == excess);
+        assertFalse(next == kept);
+    }
+}
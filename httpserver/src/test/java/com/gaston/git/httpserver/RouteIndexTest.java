@@ -0,0 +1,194 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Indice de rutas: lectura del archivo, contenido generado por el
+ * RouteIndexProcessor al compilar contextos de ejemplo y contextos que el
+ * WebServer obtiene del indice y del directorio
+ *
+ * @author gaston
+ */
+public class RouteIndexTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("route-index").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File source(String className, String code) throws IOException {
+        File file = new File(directory, "src/" + className.replace('.', '/') + ".java");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), code.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Compila los archivos con el procesador y devuelve los mensajes de javac
+     */
+    private String compile(File... sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        File classes = new File(directory, "classes");
+        classes.mkdirs();
+        StringWriter messages = new StringWriter();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            List<String> options = Arrays.asList("-d", classes.getPath(),
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-processor", RouteIndexProcessor.class.getName());
+            compiler.getTask(messages, files, null, options, null, files.getJavaFileObjects(sources)).call();
+        }
+        return messages.toString();
+    }
+
+    private RouteIndex compiledIndex() throws IOException {
+        URL classes = new File(directory, "classes").toURI().toURL();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes}, null)) {
+            return RouteIndex.load(loader);
+        }
+    }
+
+    @Test
+    public void readsContextLinesAndIgnoresOthers() throws IOException {
+        String index = "# comentario\n"
+                + "context\tapp.Users\t/users\n"
+                + "route\tapp.Users\tGET\t/users/{id}\tuser\n"
+                + "\n"
+                + "context\tother.Admin\t/admin\n"
+                + "route\tapp.Users\tmalformada\n";
+        Map<String, String> contexts = new LinkedHashMap<>();
+        RouteIndex.read(new ByteArrayInputStream(index.getBytes(StandardCharsets.UTF_8)), contexts);
+        assertEquals(Arrays.asList("app.Users", "other.Admin"), new ArrayList<>(contexts.keySet()));
+        assertEquals("/users", contexts.get("app.Users"));
+    }
+
+    @Test
+    public void emptyWithoutIndexResources() throws IOException {
+        RouteIndex index = compiledIndex();
+        assertTrue(index.isEmpty());
+        assertTrue(index.getContexts("").isEmpty());
+    }
+
+    @Test
+    public void processorIndexesWebContexts() throws IOException {
+        File users = source("app.web.Users", "package app.web;\n"
+                + "import javax.ws.rs.*;\n"
+                + "@Path(\"/users\")\n"
+                + "public class Users extends com.gaston.git.httpserver.WebContext {\n"
+                + "    public Users(String name) { super(name); }\n"
+                + "    @GET @Path(\"/{id}\") public String user(@PathParam(\"id\") String id) { return id; }\n"
+                + "    @POST public String create() { return \"\"; }\n"
+                + "    public String helper() { return \"\"; }\n"
+                + "}\n");
+        File plain = source("app.web.Plain", "package app.web;\n"
+                + "@javax.ws.rs.Path(\"/plain\")\n"
+                + "public class Plain {\n"
+                + "}\n");
+        File other = source("lib.Other", "package lib;\n"
+                + "@javax.ws.rs.Path(\"/other\")\n"
+                + "public class Other extends com.gaston.git.httpserver.WebContext {\n"
+                + "    public Other(String name) { super(name); }\n"
+                + "}\n");
+        String messages = compile(users, plain, other);
+        assertFalse(messages, messages.contains("error"));
+
+        RouteIndex index = compiledIndex();
+        assertFalse(index.isEmpty());
+        assertEquals(Arrays.asList("app.web.Users"), index.getContexts("app"));
+        assertEquals(Arrays.asList("app.web.Users", "lib.Other"), index.getContexts(""));
+        assertEquals("/users", index.getPath("app.web.Users"));
+        assertNull(index.getPath("app.web.Plain"));
+        // Solo se indexan los contextos, las rutas se leen de sus metodos
+        String generated = new String(Files.readAllBytes(new File(directory, "classes/" + RouteIndex.RESOURCE)
+                .toPath()), StandardCharsets.UTF_8);
+        assertFalse(generated, generated.contains("route"));
+    }
+
+    @Test
+    public void processorRejectsContextsTheServerCannotCreate() throws IOException {
+        File hidden = source("app.Hidden", "package app;\n"
+                + "@javax.ws.rs.Path(\"/hidden\")\n"
+                + "class Hidden extends com.gaston.git.httpserver.WebContext {\n"
+                + "    public Hidden(String name) { super(name); }\n"
+                + "}\n");
+        File noName = source("app.NoName", "package app;\n"
+                + "@javax.ws.rs.Path(\"/none\")\n"
+                + "public class NoName extends com.gaston.git.httpserver.WebContext {\n"
+                + "    public NoName() { super(\"/none\"); }\n"
+                + "}\n");
+        String messages = compile(hidden, noName);
+        assertTrue(messages, messages.contains("El contexto web app.Hidden debe ser publico"));
+        assertTrue(messages, messages.contains("El contexto web app.NoName necesita un constructor publico"));
+    }
+
+    @Test
+    public void processorWarnsAboutDuplicateRoutes() throws IOException {
+        File twice = source("app.Twice", "package app;\n"
+                + "import javax.ws.rs.*;\n"
+                + "@Path(\"/twice\")\n"
+                + "public class Twice extends com.gaston.git.httpserver.WebContext {\n"
+                + "    public Twice(String name) { super(name); }\n"
+                + "    @GET @Path(\"/a\") public String first() { return \"\"; }\n"
+                + "    @GET @Path(\"/a\") public String second() { return \"\"; }\n"
+                + "}\n");
+        String messages = compile(twice);
+        assertTrue(messages, messages.contains("Ruta duplicada GET /twice/a"));
+    }
+
+    @Test
+    public void webServerAddsScannedContextsMissingFromTheIndex() {
+        // El indice de las pruebas solo lista IndexedContext
+        WebServer server = new WebServer(0, 2, "com.gaston.git.httpserver.scan");
+        server.setMetricsPath(null);
+        server.setBatchPath(null);
+        server.init();
+        try {
+            List<String> names = new ArrayList<>();
+            for (WebContext context : server.getContexts()) {
+                names.add(context.getName());
+            }
+            assertEquals(Arrays.asList("/indexed", "/scanned"), names);
+        } finally {
+            server.stop();
+        }
+    }
+}
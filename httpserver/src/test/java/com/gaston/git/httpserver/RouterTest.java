@@ -0,0 +1,193 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Busqueda de rutas: literales, parametros con y sin expresion regular, resto
+ * del path, prioridad y metodos aceptados
+ *
+ * @author gaston
+ */
+public class RouterTest {
+
+    private static Router router;
+
+    /**
+     * Contexto cuyas rutas se registran en el router de prueba
+     */
+    public static class RoutesContext extends WebContext {
+
+        public RoutesContext() {
+            super("/r");
+        }
+
+        @POST
+        public String create() {
+            return "create";
+        }
+
+        @GET
+        @Path("/users/me")
+        public String me() {
+            return "me";
+        }
+
+        @GET
+        @Path("/users/{id}")
+        public String user(@PathParam("id") String id) {
+            return id;
+        }
+
+        @PUT
+        @Path("/users/{id}")
+        public String update(@PathParam("id") String id) {
+            return id;
+        }
+
+        @GET
+        @Path("/users/{id}/orders/{order}")
+        public String order(@PathParam("id") String id, @PathParam("order") String order) {
+            return id + order;
+        }
+
+        @GET
+        @Path("/items/{id: [0-9]+}")
+        public String item(@PathParam("id") String id) {
+            return id;
+        }
+
+        @GET
+        @Path("/items/{slug}")
+        public String itemBySlug(@PathParam("slug") String slug) {
+            return slug;
+        }
+
+        @GET
+        @Path("/items/{code: [A-Z]{3}}/stock")
+        public String stock(@PathParam("code") String code) {
+            return code;
+        }
+
+        @GET
+        @Path("/files/{path: .*}")
+        public String file(@PathParam("path") String path) {
+            return path;
+        }
+    }
+
+    @BeforeClass
+    public static void buildRouter() throws Exception {
+        RoutesContext context = new RoutesContext();
+        Router.Builder builder = new Router.Builder();
+        for (Method method : RoutesContext.class.getDeclaredMethods()) {
+            String httpMethod = method.isAnnotationPresent(GET.class) ? "GET"
+                    : method.isAnnotationPresent(POST.class) ? "POST"
+                    : method.isAnnotationPresent(PUT.class) ? "PUT" : null;
+            if (httpMethod != null) {
+                Path path = method.getAnnotation(Path.class);
+                builder.add(new HttpRoute(context, httpMethod, path != null ? "/r" + path.value() : "/r", method,
+                        Collections.<HttpMethodParameter>emptyList()));
+            }
+        }
+        router = builder.build();
+    }
+
+    @Test
+    public void findsStaticPath() {
+        assertEquals(9, router.size());
+        assertEquals("/r", router.find("POST", "/r").getPath());
+        assertEquals("/r/users/me", router.find("GET", "/r/users/me").getPath());
+    }
+
+    @Test
+    public void literalSegmentTakesPrecedenceOverParameter() {
+        Router.RouteMatch match = router.lookup("/r/users/me");
+        assertEquals("/r/users/me", match.getRoute("GET").getPath());
+        // El literal no tiene PUT, la busqueda exacta no cae al parametro
+        assertNull(match.getRoute("PUT"));
+    }
+
+    @Test
+    public void bindsPathParameters() {
+        Router.RouteMatch match = router.lookup("/r/users/42");
+        assertEquals("/r/users/{id}", match.getRoute("GET").getPath());
+        assertEquals("42", match.getPathValues()[0]);
+
+        match = router.lookup("/r/users/7/orders/9");
+        assertEquals("/r/users/{id}/orders/{order}", match.getRoute("GET").getPath());
+        assertArrayEquals(new String[]{"7", "9"}, match.getPathValues());
+    }
+
+    @Test
+    public void backtracksFromLiteralToParameter() {
+        Router.RouteMatch match = router.lookup("/r/users/me/orders/1");
+        assertEquals("/r/users/{id}/orders/{order}", match.getRoute("GET").getPath());
+        assertArrayEquals(new String[]{"me", "1"}, match.getPathValues());
+    }
+
+    @Test
+    public void constrainedParameterIsTriedBeforePlainParameter() {
+        Router.RouteMatch match = router.lookup("/r/items/42");
+        assertEquals("/r/items/{id: [0-9]+}", match.getRoute("GET").getPath());
+        assertEquals("42", match.getPathValues()[0]);
+
+        // La expresion debe cumplirse para el segmento completo
+        match = router.lookup("/r/items/42a");
+        assertEquals("/r/items/{slug}", match.getRoute("GET").getPath());
+        assertEquals("42a", match.getPathValues()[0]);
+
+        match = router.lookup("/r/items/ABC/stock");
+        assertEquals("/r/items/{code: [A-Z]{3}}/stock", match.getRoute("GET").getPath());
+        assertEquals("ABC", match.getPathValues()[0]);
+        assertFalse(router.lookup("/r/items/ABCD/stock").isFound());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidParameterRegexIsRejected() throws Exception {
+        Method method = RoutesContext.class.getMethod("item", String.class);
+        new Router.Builder().add(new HttpRoute(new RoutesContext(), "GET", "/r/items/{id: [0-9+}", method,
+                Collections.<HttpMethodParameter>emptyList()));
+    }
+
+    @Test
+    public void tailParameterTakesRestOfPath() {
+        Router.RouteMatch match = router.lookup("/r/files/a/b/c.txt");
+        assertEquals("/r/files/{path: .*}", match.getRoute("GET").getPath());
+        assertEquals("a/b/c.txt", match.getPathValues()[0]);
+
+        match = router.lookup("/r/files");
+        assertTrue(match.isFound());
+        assertEquals("", match.getPathValues()[0]);
+    }
+
+    @Test
+    public void reportsAllowedMethodsForKnownPath() {
+        Router.RouteMatch match = router.lookup("/r/users/42");
+        assertTrue(match.isFound());
+        assertNull(match.getRoute("DELETE"));
+        assertEquals("GET, PUT", match.getAllow());
+    }
+
+    @Test
+    public void unknownPathIsNotFound() {
+        Router.RouteMatch match = router.lookup("/r/unknown");
+        assertFalse(match.isFound());
+        assertNull(match.getRoute("GET"));
+        assertEquals("", match.getAllow());
+        assertNull(router.find("GET", "/r/users/1/orders"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Interpretacion del header Range de los archivos estaticos
+ *
+ * @author gaston
+ */
+public class StaticFileTest {
+
+    private static void assertRange(long start, long end, String range, long length) {
+        assertArrayEquals(new long[]{start, end}, StaticFile.parseRange(range, length));
+    }
+
+    private static void assertUnsatisfiable(String range, long length) {
+        assertEquals(0, StaticFile.parseRange(range, length).length);
+    }
+
+    @Test
+    public void parsesClosedRange() {
+        assertRange(0, 99, "bytes=0-99", 1000);
+        assertRange(10, 10, "bytes=10-10", 1000);
+        assertRange(5, 9, " BYTES=5 - 9 ", 1000);
+    }
+
+    @Test
+    public void clampsEndToLength() {
+        assertRange(900, 999, "bytes=900-5000", 1000);
+    }
+
+    @Test
+    public void parsesOpenRange() {
+        assertRange(500, 999, "bytes=500-", 1000);
+    }
+
+    @Test
+    public void parsesSuffixRange() {
+        assertRange(900, 999, "bytes=-100", 1000);
+        assertRange(0, 999, "bytes=-5000", 1000);
+    }
+
+    @Test
+    public void rangeOutsideContentIsUnsatisfiable() {
+        assertUnsatisfiable("bytes=1000-", 1000);
+        assertUnsatisfiable("bytes=2000-3000", 1000);
+        assertUnsatisfiable("bytes=-0", 1000);
+        assertUnsatisfiable("bytes=-10", 0);
+    }
+
+    @Test
+    public void ignoresUnsupportedOrInvalidHeaders() {
+        assertNull(StaticFile.parseRange("items=0-10", 1000));
+        assertNull(StaticFile.parseRange("bytes=0-10,20-30", 1000));
+        assertNull(StaticFile.parseRange("bytes=10", 1000));
+        assertNull(StaticFile.parseRange("bytes=a-b", 1000));
+        assertNull(StaticFile.parseRange("bytes=20-10", 1000));
+        assertNull(StaticFile.parseRange("bytes=-", 1000));
+    }
+}
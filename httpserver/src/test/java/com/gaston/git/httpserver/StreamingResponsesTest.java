@@ -0,0 +1,139 @@
+package com.gaston.git.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Rutas que retornan un Stream o un Iterator: arreglo json, ndjson y
+ * text/event-stream enviados con transferencia chunked
+ *
+ * @author gaston
+ */
+public class StreamingResponsesTest {
+
+    private static StreamContext context;
+    private static TestServer server;
+
+    /**
+     * Contexto con rutas que retornan secuencias
+     */
+    public static class StreamContext extends WebContext {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        public StreamContext() {
+            super("/stream");
+        }
+
+        @GET
+        @Path("/numbers")
+        @Produces({MediaType.APPLICATION_JSON, NdjsonCodec.APPLICATION_NDJSON})
+        public Stream<Integer> numbers() {
+            closed.set(false);
+            return Stream.of(1, 2, 3).onClose(new Runnable() {
+                @Override
+                public void run() {
+                    closed.set(true);
+                }
+            });
+        }
+
+        @GET
+        @Path("/many")
+        @Produces(NdjsonCodec.APPLICATION_NDJSON)
+        @StreamBatch(7)
+        public Iterator<Integer> many() {
+            return IntStream.range(0, 5000).iterator();
+        }
+
+        @GET
+        @Path("/events")
+        @Produces(EventStreamCodec.TEXT_EVENT_STREAM)
+        public Iterator<Object> events() {
+            return Arrays.<Object>asList(
+                    new ServerSentEvent("tick", "uno").setId("1").setRetry(500),
+                    "dos\ntres",
+                    Arrays.asList(4, 5)).iterator();
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        context = new StreamContext();
+        server = new TestServer(context);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void writesStreamAsJsonArray() throws Exception {
+        TestServer.Response response = server.get("/stream/numbers");
+        assertEquals(200, response.getStatus());
+        assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+        assertEquals("[1,2,3]", response.getText());
+        assertTrue(context.closed.get());
+    }
+
+    @Test
+    public void writesStreamAsNdjson() throws Exception {
+        TestServer.Response response = server.get("/stream/numbers", "Accept", NdjsonCodec.APPLICATION_NDJSON);
+        assertEquals(200, response.getStatus());
+        assertEquals(NdjsonCodec.APPLICATION_NDJSON, response.getHeader("Content-Type"));
+        assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+        assertEquals("1\n2\n3\n", response.getText());
+        assertTrue(context.closed.get());
+    }
+
+    @Test
+    public void writesLongIteratorInBatches() throws Exception {
+        TestServer.Response response = server.get("/stream/many");
+        assertEquals(200, response.getStatus());
+        String[] lines = response.getText().split("\n");
+        assertEquals(5000, lines.length);
+        assertEquals("0", lines[0]);
+        assertEquals("4999", lines[4999]);
+    }
+
+    @Test
+    public void writesServerSentEvents() throws Exception {
+        TestServer.Response response = server.get("/stream/events");
+        assertEquals(200, response.getStatus());
+        assertEquals(EventStreamCodec.TEXT_EVENT_STREAM, response.getHeader("Content-Type"));
+        assertEquals("event: tick\nid: 1\nretry: 500\ndata: uno\n\n"
+                + "data: dos\ndata: tres\n\n"
+                + "data: [4,5]\n\n", response.getText());
+    }
+
+    @Test
+    public void eventStreamSplitsMultilineData() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new EventStreamCodec().write(new ServerSentEvent(null, "a\r\nb\rc"), out);
+        assertEquals("data: a\ndata: b\ndata: c\n\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void ndjsonWritesSingleValueAsOneLine() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NdjsonCodec().write(Arrays.asList(1, 2), out);
+        assertEquals("[1,2]\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,151 @@
+package com.gaston.git.httpserver;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servidor http del jdk en un puerto libre de la interfaz local, para probar
+ * los contextos de punta a punta con HttpURLConnection
+ *
+ * @author gaston
+ */
+final class TestServer implements Closeable {
+
+    static {
+        // Sin esto el servidor del jdk demora las respuestas en conexiones persistentes
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Publica los contextos en un pool fijo de cuatro hilos
+     *
+     * @param contexts Contextos a publicar
+     * @throws IOException Si no es posible abrir el puerto
+     */
+    TestServer(ContextHandler... contexts) throws IOException {
+        this(Executors.newFixedThreadPool(4), contexts);
+    }
+
+    /**
+     * Publica los contextos en el executor indicado, que se cierra junto con
+     * el servidor
+     *
+     * @param executor Executor de las peticiones
+     * @param contexts Contextos a publicar
+     * @throws IOException Si no es posible abrir el puerto
+     */
+    TestServer(ExecutorService executor, ContextHandler... contexts) throws IOException {
+        this.executor = executor;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        for (ContextHandler context : contexts) {
+            server.createContext(context.getName(), context);
+        }
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Envia una peticion y lee la respuesta completa
+     *
+     * @param method Metodo http
+     * @param path Path con su query string
+     * @param body Cuerpo o null
+     * @param headers Pares nombre, valor de los headers. Si no se indica
+     * Accept se envia *&#47;*
+     * @return Respuesta recibida
+     * @throws IOException Si falla la conexion
+     */
+    Response call(String method, String path, byte[] body, String... headers) throws IOException {
+        URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "*/*");
+        for (int i = 0; i < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = stream.read(buffer)) >= 0) {
+                    content.write(buffer, 0, read);
+                }
+            }
+        }
+        return new Response(status, connection, content.toByteArray());
+    }
+
+    /**
+     * Envia un GET sin cuerpo
+     */
+    Response get(String path, String... headers) throws IOException {
+        return call("GET", path, null, headers);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Respuesta recibida por el cliente
+     */
+    static final class Response {
+
+        private final int status;
+        private final HttpURLConnection connection;
+        private final byte[] body;
+
+        private Response(int status, HttpURLConnection connection, byte[] body) {
+            this.status = status;
+            this.connection = connection;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        String getText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+}
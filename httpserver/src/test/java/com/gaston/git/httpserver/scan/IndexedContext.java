@@ -0,0 +1,23 @@
+package com.gaston.git.httpserver.scan;
+
+import com.gaston.git.httpserver.WebContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+/**
+ * Contexto de prueba listado en el indice de rutas de las pruebas
+ *
+ * @author gaston
+ */
+@Path("/indexed")
+public class IndexedContext extends WebContext {
+
+    public IndexedContext(String name) {
+        super(name);
+    }
+
+    @GET
+    public String get() {
+        return "indexed";
+    }
+}
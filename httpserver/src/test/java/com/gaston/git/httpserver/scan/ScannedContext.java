@@ -0,0 +1,24 @@
+package com.gaston.git.httpserver.scan;
+
+import com.gaston.git.httpserver.WebContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+/**
+ * Contexto de prueba que no esta en el indice de rutas, el WebServer lo
+ * encuentra recorriendo el directorio
+ *
+ * @author gaston
+ */
+@Path("/scanned")
+public class ScannedContext extends WebContext {
+
+    public ScannedContext(String name) {
+        super(name);
+    }
+
+    @GET
+    public String get() {
+        return "scanned";
+    }
+}